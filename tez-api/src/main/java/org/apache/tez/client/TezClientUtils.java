@@ -181,6 +181,24 @@ public class TezClientUtils {
       }
     }
 
+    // Ship the class data sharing archive of the task JVMs with the jars
+    String classDataArchive = conf.get(
+        TezConfiguration.TEZ_TASK_CLASS_DATA_ARCHIVE);
+    if (classDataArchive != null && !classDataArchive.trim().isEmpty()) {
+      Path p = new Path(classDataArchive.trim());
+      FileSystem pathfs = p.getFileSystem(conf);
+      p = pathfs.makeQualified(p);
+      FileStatus fStatus = pathfs.getFileStatus(p);
+      tezJarPaths.add(p);
+      tezJarResources.put(p.getName(),
+          LocalResource.newInstance(
+              ConverterUtils.getYarnUrlFromPath(p),
+              LocalResourceType.FILE,
+              LocalResourceVisibility.PUBLIC,
+              fStatus.getLen(),
+              fStatus.getModificationTime()));
+    }
+
     if (tezJarResources.isEmpty()) {
       LOG.warn("No tez jars found in configured locations"
           + ". Ignoring for now. Errors may occur");
@@ -107,7 +107,14 @@ public abstract class AbstractCounterGroup<T extends TezCounter>
 
   @Override
   public T findCounter(String counterName, boolean create) {
-    return findCounterImpl(Limits.filterCounterName(counterName), create);
+    String saveName = Limits.filterCounterName(counterName);
+    // counters are never removed outside readFields, so an existing counter
+    // can be returned without taking the lock
+    T counter = counters.get(saveName);
+    if (counter != null) {
+      return counter;
+    }
+    return findCounterImpl(saveName, create);
   }
 
   // Lock the object. Cannot simply use concurrent constructs on the counters
@@ -174,7 +181,7 @@ public abstract class AbstractCounterGroup<T extends TezCounter>
   }
 
   @Override
-  public synchronized int size() {
+  public int size() {
     return counters.size();
   }
 
@@ -27,6 +27,8 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.apache.commons.logging.Log;
@@ -59,7 +61,8 @@ public abstract class AbstractCounters<C extends TezCounter,
   /**
    * A cache from enum values to the associated counter.
    */
-  private Map<Enum<?>, C> cache = Maps.newIdentityHashMap();
+  private final ConcurrentMap<Enum<?>, C> cache =
+      new ConcurrentHashMap<Enum<?>, C>();
   //framework & fs groups
   private Map<String, G> fgroups = new ConcurrentSkipListMap<String, G>();
   // other groups
@@ -155,7 +158,15 @@ public abstract class AbstractCounters<C extends TezCounter,
    * @param key the counter key
    * @return the matching counter object
    */
-  public synchronized C findCounter(Enum<?> key) {
+  public C findCounter(Enum<?> key) {
+    C counter = cache.get(key);
+    if (counter == null) {
+      counter = findCounterSlow(key);
+    }
+    return counter;
+  }
+
+  private synchronized C findCounterSlow(Enum<?> key) {
     C counter = cache.get(key);
     if (counter == null) {
       counter = findCounter(key.getDeclaringClass().getName(), key.name());
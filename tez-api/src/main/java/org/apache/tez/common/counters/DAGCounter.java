@@ -35,5 +35,6 @@ public enum DAGCounter {
   FALLOW_SLOTS_MILLIS_TASKS,
   TOTAL_LAUNCHED_UBERTASKS,
   NUM_UBER_SUBTASKS,
-  NUM_FAILED_UBERTASKS
+  NUM_FAILED_UBERTASKS,
+  NUM_SPECULATIONS
 }
@@ -25,6 +25,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.io.WritableUtils;
@@ -44,7 +45,9 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
     C extends TezCounter> implements CounterGroupBase<C> {
 
   private final Class<T> enumClass; // for Enum.valueOf
-  private final Object[] counters;  // local casts are OK and save a class ref
+  // local casts are OK and save a class ref. Counters are created lazily and
+  // never replaced, except by readFields.
+  private final AtomicReferenceArray<Object> counters;
   private String displayName = null;
 
   /**
@@ -106,7 +109,7 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   public FrameworkCounterGroup(Class<T> enumClass) {
     this.enumClass = enumClass;
     T[] enums = enumClass.getEnumConstants();
-    counters = new Object[enums.length];
+    counters = new AtomicReferenceArray<Object>(enums.length);
   }
 
   @Override
@@ -168,10 +171,13 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   @SuppressWarnings("unchecked")
   private C findCounter(T key) {
     int i = key.ordinal();
-    if (counters[i] == null) {
-      counters[i] = newCounter(key);
+    Object counter = counters.get(i);
+    if (counter == null) {
+      // only one of the racing threads gets to install its counter
+      counters.compareAndSet(i, null, newCounter(key));
+      counter = counters.get(i);
     }
-    return (C) counters[i];
+    return (C) counter;
   }
 
   /**
@@ -184,8 +190,8 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   @Override
   public int size() {
     int n = 0;
-    for (int i = 0; i < counters.length; ++i) {
-      if (counters[i] != null) ++n;
+    for (int i = 0; i < counters.length(); ++i) {
+      if (counters.get(i) != null) ++n;
     }
     return n;
   }
@@ -208,14 +214,24 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   @Override
   @SuppressWarnings("unchecked")
   public void write(DataOutput out) throws IOException {
-    WritableUtils.writeVInt(out, size());
-    for (int i = 0; i < counters.length; ++i) {
-      TezCounter counter = (C) counters[i];
+    // snapshot the counters so that the count matches the counters written
+    // even if counters are created concurrently
+    int n = 0;
+    int[] ordinals = new int[counters.length()];
+    long[] values = new long[counters.length()];
+    for (int i = 0; i < counters.length(); ++i) {
+      TezCounter counter = (C) counters.get(i);
       if (counter != null) {
-        WritableUtils.writeVInt(out, i);
-        WritableUtils.writeVLong(out, counter.getValue());
+        ordinals[n] = i;
+        values[n] = counter.getValue();
+        ++n;
       }
     }
+    WritableUtils.writeVInt(out, n);
+    for (int i = 0; i < n; ++i) {
+      WritableUtils.writeVInt(out, ordinals[i]);
+      WritableUtils.writeVLong(out, values[i]);
+    }
   }
 
   @Override
@@ -227,13 +243,13 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
       int ord = WritableUtils.readVInt(in);
       TezCounter counter = newCounter(enums[ord]);
       counter.setValue(WritableUtils.readVLong(in));
-      counters[ord] = counter;
+      counters.set(ord, counter);
     }
   }
 
   private void clear() {
-    for (int i = 0; i < counters.length; ++i) {
-      counters[i] = null;
+    for (int i = 0; i < counters.length(); ++i) {
+      counters.set(i, null);
     }
   }
 
@@ -243,9 +259,9 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
       int i = 0;
       @Override
       protected C computeNext() {
-        while (i < counters.length) {
+        while (i < counters.length()) {
           @SuppressWarnings("unchecked")
-          C counter = (C) counters[i++];
+          C counter = (C) counters.get(i++);
           if (counter != null) return counter;
         }
         return endOfData();
@@ -266,6 +282,11 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   @Override
   public synchronized int hashCode() {
     // need to be deep as counters is an array
-    return Arrays.deepHashCode(new Object[]{enumClass, counters, displayName});
+    Object[] counterArray = new Object[counters.length()];
+    for (int i = 0; i < counterArray.length; ++i) {
+      counterArray[i] = counters.get(i);
+    }
+    return Arrays.deepHashCode(
+        new Object[]{enumClass, counterArray, displayName});
   }
 }
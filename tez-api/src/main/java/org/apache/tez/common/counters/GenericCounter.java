@@ -21,20 +21,25 @@ package org.apache.tez.common.counters;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableUtils;
 
 /**
- * A generic counter implementation
+ * A generic counter implementation. Generic counters can be shared between
+ * threads, so the value is volatile and increments are atomic.
  */
 @InterfaceAudience.Private
 public class GenericCounter extends AbstractCounter {
 
+  private static final AtomicLongFieldUpdater<GenericCounter> VALUE_UPDATER =
+      AtomicLongFieldUpdater.newUpdater(GenericCounter.class, "value");
+
   private String name;
   private String displayName;
-  private long value = 0;
+  private volatile long value = 0;
 
   public GenericCounter() {
     // mostly for readFields
@@ -88,18 +93,18 @@ public class GenericCounter extends AbstractCounter {
   }
 
   @Override
-  public synchronized long getValue() {
+  public long getValue() {
     return value;
   }
 
   @Override
-  public synchronized void setValue(long value) {
+  public void setValue(long value) {
     this.value = value;
   }
 
   @Override
-  public synchronized void increment(long incr) {
-    value += incr;
+  public void increment(long incr) {
+    VALUE_UPDATER.addAndGet(this, incr);
   }
 
   @Override
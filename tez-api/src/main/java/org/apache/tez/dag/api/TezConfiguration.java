@@ -70,6 +70,16 @@ public class TezConfiguration extends Configuration {
       TEZ_AM_PREFIX + "task.listener.thread-count";
   public static final int TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT = 30;
 
+  /**
+   * The maximum time, in milliseconds, for which the AM holds a container's
+   * request for a task when no task is assigned to it yet. The request
+   * returns as soon as a task is assigned. At most half of the task listener
+   * threads wait at a time. 0 disables waiting.
+   */
+  public static final String TEZ_AM_TASK_LISTENER_GET_TASK_WAIT_MS =
+      TEZ_AM_PREFIX + "task.listener.get-task.wait-ms";
+  public static final long TEZ_AM_TASK_LISTENER_GET_TASK_WAIT_MS_DEFAULT = 0;
+
   /*
    * MR AM Service Authorization
    * These are the same as MR which allows Tez to run in secure
@@ -89,9 +99,29 @@ public class TezConfiguration extends Configuration {
   public static final String TEZ_AM_CONTAINERLAUNCHER_THREAD_COUNT_LIMIT =
     TEZ_AM_PREFIX+"containerlauncher.thread-count-limit";
 
-  public static final int TEZ_AM_CONTAINERLAUNCHER_THREAD_COUNT_LIMIT_DEFAULT = 
+  public static final int TEZ_AM_CONTAINERLAUNCHER_THREAD_COUNT_LIMIT_DEFAULT =
     500;
 
+  /**
+   * Upper limit on the number of containers sent to a single NodeManager in
+   * one startContainers or stopContainers call. Requests for the same node
+   * that are queued together are batched up to this size.
+   */
+  public static final String TEZ_AM_CONTAINERLAUNCHER_MAX_BATCH_SIZE =
+    TEZ_AM_PREFIX + "containerlauncher.max-batch-size";
+
+  public static final int TEZ_AM_CONTAINERLAUNCHER_MAX_BATCH_SIZE_DEFAULT = 100;
+
+  /**
+   * Number of NodeManager proxies the container launcher keeps open, least
+   * recently used first to be closed. 0 closes each proxy after use.
+   */
+  public static final String TEZ_AM_CONTAINERLAUNCHER_NM_PROXY_CACHE_SIZE =
+    TEZ_AM_PREFIX + "containerlauncher.nm-proxy-cache-size";
+
+  public static final int
+    TEZ_AM_CONTAINERLAUNCHER_NM_PROXY_CACHE_SIZE_DEFAULT = 500;
+
   
   // TODO Some of the DAG properties are job specific and not AM specific. Rename accordingly.
   // TODO Are any of these node blacklisting properties required. (other than for MR compat)
@@ -107,6 +137,38 @@ public class TezConfiguration extends Configuration {
       TEZ_AM_PREFIX + "max.task.attempts";
   public static final int TEZ_AM_MAX_TASK_ATTEMPTS_DEFAULT = 4;
 
+  /**
+   * Whether the AM launches a speculative attempt for tasks that run much
+   * longer than the other tasks of their vertex.
+   */
+  public static final String TEZ_AM_SPECULATION_ENABLED =
+      TEZ_AM_PREFIX + "speculation.enabled";
+  public static final boolean TEZ_AM_SPECULATION_ENABLED_DEFAULT = false;
+
+  /** Interval at which running tasks are checked for stragglers. */
+  public static final String TEZ_AM_SPECULATION_CHECK_INTERVAL_MS =
+      TEZ_AM_PREFIX + "speculation.check-interval-ms";
+  public static final long TEZ_AM_SPECULATION_CHECK_INTERVAL_MS_DEFAULT = 1000l;
+
+  /**
+   * A running attempt is a straggler once its runtime, estimated from its
+   * progress, exceeds this multiple of the median runtime of the completed
+   * tasks of its vertex.
+   */
+  public static final String TEZ_AM_SPECULATION_SLOW_TASK_THRESHOLD =
+      TEZ_AM_PREFIX + "speculation.slow-task-threshold";
+  public static final float TEZ_AM_SPECULATION_SLOW_TASK_THRESHOLD_DEFAULT =
+      1.5f;
+
+  /**
+   * Upper limit on the speculative attempts running at the same time in a
+   * vertex, as a percentage of its tasks. At least one is always allowed.
+   */
+  public static final String TEZ_AM_SPECULATION_MAX_RUNNING_PERCENT =
+      TEZ_AM_PREFIX + "speculation.max-running-percent";
+  public static final float TEZ_AM_SPECULATION_MAX_RUNNING_PERCENT_DEFAULT =
+      10.0f;
+
   public static final String TEZ_AM_NODE_BLACKLISTING_ENABLED = TEZ_AM_PREFIX
       + "node-blacklisting.enabled";
   public static final boolean TEZ_AM_NODE_BLACKLISTING_ENABLED_DEFAULT = true;
@@ -114,6 +176,39 @@ public class TezConfiguration extends Configuration {
       + "node-blacklisting.ignore-threshold-node-percent";
   public static final int TEZ_AM_NODE_BLACKLISTING_IGNORE_THRESHOLD_DEFAULT = 33;
 
+  /**
+   * Whether nodes on which successful task attempts run much longer than
+   * other attempts of the same vertex are temporarily blacklisted.
+   */
+  public static final String TEZ_AM_SLOW_NODE_DETECTION_ENABLED =
+      TEZ_AM_PREFIX + "slow-node.detection.enabled";
+  public static final boolean TEZ_AM_SLOW_NODE_DETECTION_ENABLED_DEFAULT =
+      false;
+
+  /**
+   * A node is considered slow once the smoothed ratio of its task runtimes to
+   * the median runtime of their vertices reaches this value.
+   */
+  public static final String TEZ_AM_SLOW_NODE_RUNTIME_THRESHOLD =
+      TEZ_AM_PREFIX + "slow-node.runtime-threshold";
+  public static final float TEZ_AM_SLOW_NODE_RUNTIME_THRESHOLD_DEFAULT = 2.0f;
+
+  /**
+   * Minimum number of successful attempts, both on a node and in a vertex,
+   * before runtimes are compared.
+   */
+  public static final String TEZ_AM_SLOW_NODE_MIN_TASKS =
+      TEZ_AM_PREFIX + "slow-node.min-tasks";
+  public static final int TEZ_AM_SLOW_NODE_MIN_TASKS_DEFAULT = 3;
+
+  /**
+   * Time for which a slow node is blacklisted before it is given tasks again.
+   * Doubles every time the same node is found slow again.
+   */
+  public static final String TEZ_AM_SLOW_NODE_BLACKLIST_MILLIS =
+      TEZ_AM_PREFIX + "slow-node.blacklist-millis";
+  public static final long TEZ_AM_SLOW_NODE_BLACKLIST_MILLIS_DEFAULT = 60000l;
+
   /** Number of threads to handle job client RPC requests.*/
   public static final String TEZ_AM_CLIENT_THREAD_COUNT =
       TEZ_AM_PREFIX + "client.am.thread-count";
@@ -141,6 +236,27 @@ public class TezConfiguration extends Configuration {
   public static final float
           TEZ_AM_SLOWSTART_DAG_SCHEDULER_MIN_SHUFFLE_RESOURCE_FRACTION_DEFAULT = 0.5f;
 
+  /**
+   * Whether container requests are prioritized by the estimated remaining
+   * work on the longest path from each vertex to the end of the DAG, instead
+   * of by the distance of the vertex from the root.
+   */
+  public static final String TEZ_AM_CRITICAL_PATH_DAG_SCHEDULER_ENABLED =
+      TEZ_AM_PREFIX + "critical-path-dag-scheduler.enabled";
+  public static final boolean
+      TEZ_AM_CRITICAL_PATH_DAG_SCHEDULER_ENABLED_DEFAULT = false;
+
+  /**
+   * Minimum interval between two re-rankings of the vertices by the critical
+   * path DAG scheduler. Pending container requests are moved to the new
+   * priorities of their vertices.
+   */
+  public static final String
+      TEZ_AM_CRITICAL_PATH_DAG_SCHEDULER_RERANK_INTERVAL_MS = TEZ_AM_PREFIX
+      + "critical-path-dag-scheduler.rerank-interval-ms";
+  public static final long
+      TEZ_AM_CRITICAL_PATH_DAG_SCHEDULER_RERANK_INTERVAL_MS_DEFAULT = 5000l;
+
   /**
    * The complete path to the serialized dag plan file
    * <code>TEZ_AM_PLAN_PB_BINARY</code>. Used to make the plan available to
@@ -160,13 +276,88 @@ public class TezConfiguration extends Configuration {
       + "get-task.sleep.interval-ms.max";
   public static final int TEZ_TASK_GET_TASK_SLEEP_INTERVAL_MS_MAX_DEFAULT = 200;
 
+  /**
+   * Whether a newly launched task container runs the sort, IFile and codec
+   * code paths on synthetic records while it waits for its first task, so the
+   * first task does not pay for class loading and JIT compilation.
+   */
+  public static final String TEZ_TASK_WARMUP_ENABLED = TEZ_TASK_PREFIX
+      + "warmup.enabled";
+  public static final boolean TEZ_TASK_WARMUP_ENABLED_DEFAULT = false;
+
+  /** The number of synthetic records used by each warm-up round. */
+  public static final String TEZ_TASK_WARMUP_RECORDS = TEZ_TASK_PREFIX
+      + "warmup.records";
+  public static final int TEZ_TASK_WARMUP_RECORDS_DEFAULT = 10000;
+
+  /** The number of warm-up rounds run by a newly launched container. */
+  public static final String TEZ_TASK_WARMUP_ROUNDS = TEZ_TASK_PREFIX
+      + "warmup.rounds";
+  public static final int TEZ_TASK_WARMUP_ROUNDS_DEFAULT = 5;
+
+  /**
+   * URI of a JVM class data sharing archive, produced from a training run of
+   * the tasks, that task containers map at startup. The archive is localized
+   * with the Tez jars and the task JVMs are launched with
+   * -XX:SharedArchiveFile pointing at it. JVMs that need extra flags to use an
+   * application class data archive should get them from the task java opts.
+   * -XX:SharedArchiveFile requires a JDK 10+ JVM; older JVMs reject the
+   * option and the task containers fail to start.
+   */
+  public static final String TEZ_TASK_CLASS_DATA_ARCHIVE = TEZ_TASK_PREFIX
+      + "class-data-archive";
+
   public static final String TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS = TEZ_TASK_PREFIX
       + "am.heartbeat.interval-ms.max";
   public static final int TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS_DEFAULT = 100;
 
+  /**
+   * The interval, in milliseconds, up to which an idle task backs off its
+   * heartbeats to the AM. A task is idle while it neither sends nor receives
+   * events. Events produced by the task are still sent after at most
+   * {@link #TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS}. Defaults to the regular
+   * heartbeat interval, which disables the back off.
+   */
+  public static final String TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS =
+      TEZ_TASK_PREFIX + "am.heartbeat.idle.interval-ms.max";
+  public static final int TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_DEFAULT =
+      TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS_DEFAULT;
+
   public static final String TEZ_TASK_MAX_EVENTS_PER_HEARTBEAT = TEZ_TASK_PREFIX
       + "max-events-per-heartbeat.max";
   public static final int TEZ_TASK_MAX_EVENTS_PER_HEARTBEAT_DEFAULT = 100;
+
+  /**
+   * Whether tasks send heartbeat events in the compact format, which writes
+   * repeated vertex names and attempt IDs once per heartbeat. The AM replies
+   * in the format of the request, and only replies in the compact format
+   * carry the more-events and full-counters flags. Disable this to run
+   * against an AM which only reads the original format. Tasks then send all
+   * counters with every update, as the AM can not ask for them.
+   */
+  public static final String TEZ_TASK_HEARTBEAT_COMPACT_EVENTS_ENABLED =
+      TEZ_TASK_PREFIX + "heartbeat.compact-events.enabled";
+  public static final boolean
+      TEZ_TASK_HEARTBEAT_COMPACT_EVENTS_ENABLED_DEFAULT = true;
+
+  /**
+   * Tasks send only the counters that changed since their previous status
+   * update, and all counters with every this many updates. 1 or less sends
+   * all counters with every update. Only applies with
+   * {@link #TEZ_TASK_HEARTBEAT_COMPACT_EVENTS_ENABLED}.
+   */
+  public static final String TEZ_TASK_FULL_COUNTERS_UPDATE_INTERVAL =
+      TEZ_TASK_PREFIX + "status-update.full-counters.interval";
+  public static final int TEZ_TASK_FULL_COUNTERS_UPDATE_INTERVAL_DEFAULT = 50;
+
+  /**
+   * Size in bytes above which compact heartbeat events are compressed, by
+   * both tasks and the AM. A negative value disables compression.
+   */
+  public static final String TEZ_TASK_HEARTBEAT_EVENTS_COMPRESSION_THRESHOLD =
+      TEZ_TASK_PREFIX + "heartbeat.events.compression.threshold-bytes";
+  public static final int
+      TEZ_TASK_HEARTBEAT_EVENTS_COMPRESSION_THRESHOLD_DEFAULT = -1;
   
   /**
    * Whether to scale down memory requested by each component if the total
@@ -223,6 +414,20 @@ public class TezConfiguration extends Configuration {
   public static final long
     TEZ_AM_CONTAINER_REUSE_LOCALITY_DELAY_ALLOCATION_MILLIS_DEFAULT = 1000l;
 
+  /**
+   * Whether held containers are matched to pending tasks by score instead of
+   * by locality tiers with delays. Each container goes right away to the
+   * pending task of the top priority that scores best on it, based on data
+   * locality, whether the task comes from the vertex the container was
+   * launched for and whether it comes from the vertex of the last task the
+   * container ran. The rack and non-local fallback settings still decide
+   * which localities are allowed. Only active when reuse is enabled.
+   */
+  public static final String TEZ_AM_CONTAINER_REUSE_SCORING_ENABLED =
+      TEZ_AM_PREFIX + "container.reuse.scoring.enabled";
+  public static final boolean
+    TEZ_AM_CONTAINER_REUSE_SCORING_ENABLED_DEFAULT = false;
+
   /**
    * The amount of time to hold on to a container if no task can be assigned to
    * it immediately. Only active when reuse is enabled. Set to -1 to never
@@ -233,6 +438,16 @@ public class TezConfiguration extends Configuration {
   public static final long
     TEZ_AM_CONTAINER_SESSION_DELAY_ALLOCATION_MILLIS_DEFAULT = 10000l;
 
+  /**
+   * The number of idle containers a session keeps after a DAG completes, even
+   * once their session delay expires, so that the next DAG can start on warm
+   * containers. The retained containers are spread across nodes. Only active
+   * when reuse is enabled.
+   */
+  public static final String TEZ_AM_SESSION_MIN_HELD_CONTAINERS =
+    TEZ_AM_PREFIX + "session.min.held-containers";
+  public static final int TEZ_AM_SESSION_MIN_HELD_CONTAINERS_DEFAULT = 0;
+
   public static final String TEZ_PB_BINARY_CONF_NAME = "tez-conf.pb";
   public static final String TEZ_PB_PLAN_BINARY_NAME = "tez-dag.pb";
   public static final String TEZ_PB_PLAN_TEXT_NAME = "tez-dag.pb.txt";
@@ -356,6 +571,38 @@ public class TezConfiguration extends Configuration {
       TEZ_PREFIX + "yarn.ats.enabled";
   public static final boolean YARN_ATS_ENABLED_DEFAULT = false;
 
+  /**
+   * Int value. Maximum number of history events waiting to be published.
+   */
+  public static final String YARN_ATS_EVENT_QUEUE_CAPACITY =
+      TEZ_PREFIX + "yarn.ats.event.queue.capacity";
+  public static final int YARN_ATS_EVENT_QUEUE_CAPACITY_DEFAULT = 10000;
+
+  /**
+   * Int value. Maximum number of history events published together.
+   */
+  public static final String YARN_ATS_EVENT_BATCH_SIZE =
+      TEZ_PREFIX + "yarn.ats.event.batch.size";
+  public static final int YARN_ATS_EVENT_BATCH_SIZE_DEFAULT = 100;
+
+  /**
+   * Comma separated list of the history event types that are dropped
+   * instead of published when the history event queue is full. Events of
+   * other types block until there is space in the queue.
+   */
+  public static final String YARN_ATS_DROPPABLE_EVENT_TYPES =
+      TEZ_PREFIX + "yarn.ats.droppable.event.types";
+  public static final String YARN_ATS_DROPPABLE_EVENT_TYPES_DEFAULT =
+      "TASK_ATTEMPT_STARTED";
+
+  /**
+   * Boolean value. Whether history events for the same entity that are
+   * published together are merged into one entity.
+   */
+  public static final String YARN_ATS_MERGE_ENTITIES =
+      TEZ_PREFIX + "yarn.ats.merge.entities";
+  public static final boolean YARN_ATS_MERGE_ENTITIES_DEFAULT = true;
+
   public static final String DAG_RECOVERY_ENABLED =
       TEZ_PREFIX + "dag.recovery.enabled";
   public static final boolean DAG_RECOVERY_ENABLED_DEFAULT = false;
@@ -364,6 +611,58 @@ public class TezConfiguration extends Configuration {
       TEZ_PREFIX + "dag.recovery.io.buffer.size";
   public static final int DAG_RECOVERY_FILE_IO_BUFFER_SIZE_DEFAULT = 8192;
 
+  /**
+   * Int value. Maximum number of queued recovery events written between two
+   * checks of the flush budget.
+   */
+  public static final String DAG_RECOVERY_MAX_BATCH_SIZE =
+      TEZ_PREFIX + "dag.recovery.max.batch.size";
+  public static final int DAG_RECOVERY_MAX_BATCH_SIZE_DEFAULT = 100;
+
+  /**
+   * Int value. Number of recovery events that may be written without being
+   * flushed. The streams are flushed once this many events are pending, or
+   * once {@link #DAG_RECOVERY_FLUSH_INTERVAL_MS} has elapsed.
+   */
+  public static final String DAG_RECOVERY_MAX_UNFLUSHED_EVENTS =
+      TEZ_PREFIX + "dag.recovery.max.unflushed.events";
+  public static final int DAG_RECOVERY_MAX_UNFLUSHED_EVENTS_DEFAULT = 100;
+
+  /**
+   * Long value. Maximum time in milliseconds a written recovery event may
+   * remain unflushed.
+   */
+  public static final String DAG_RECOVERY_FLUSH_INTERVAL_MS =
+      TEZ_PREFIX + "dag.recovery.flush.interval-ms";
+  public static final long DAG_RECOVERY_FLUSH_INTERVAL_MS_DEFAULT = 1000;
+
+  /**
+   * Boolean value. Whether recovery flushes sync the data to disk on the
+   * datanodes (hsync) instead of only making it visible to readers (hflush).
+   */
+  public static final String DAG_RECOVERY_FLUSH_SYNC =
+      TEZ_PREFIX + "dag.recovery.flush.sync";
+  public static final boolean DAG_RECOVERY_FLUSH_SYNC_DEFAULT = false;
+
+  /**
+   * Int value. Number of threads used to read the recovery files of
+   * different DAGs in parallel during recovery.
+   */
+  public static final String DAG_RECOVERY_PARSER_THREAD_COUNT =
+      TEZ_PREFIX + "dag.recovery.parser.thread-count";
+  public static final int DAG_RECOVERY_PARSER_THREAD_COUNT_DEFAULT = 4;
+
+  /**
+   * Int value. A running vertex writes a checkpoint of its succeeded tasks
+   * to the recovery log every this many succeeded tasks, so recovery can skip
+   * the task events written before it. A value of 0 or less disables
+   * checkpoints.
+   */
+  public static final String DAG_RECOVERY_VERTEX_CHECKPOINT_TASK_INTERVAL =
+      TEZ_PREFIX + "dag.recovery.vertex.checkpoint.task-interval";
+  public static final int DAG_RECOVERY_VERTEX_CHECKPOINT_TASK_INTERVAL_DEFAULT =
+      1000;
+
   public static final String DAG_RECOVERY_DATA_DIR_NAME = "recovery";
   public static final String DAG_RECOVERY_SUMMARY_FILE_SUFFIX = ".summary";
   public static final String DAG_RECOVERY_RECOVER_FILE_SUFFIX = ".recovery";
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.common.counters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+public class TestTezCounters {
+
+  @Test(timeout = 10000)
+  public void testConcurrentGenericCounterIncrements() throws Exception {
+    final TezCounters counters = new TezCounters();
+    final int numThreads = 4;
+    final int numIncrements = 10000;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < numIncrements; ++j) {
+            counters.findCounter("group", "counter").increment(1);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long expected = numThreads * numIncrements;
+    assertEquals(expected, counters.findCounter("group", "counter")
+        .getValue());
+  }
+
+  @Test
+  public void testSerialization() throws IOException {
+    TezCounters counters = new TezCounters();
+    counters.findCounter(TaskCounter.INPUT_RECORDS).increment(10);
+    counters.findCounter(TaskCounter.SPILLED_RECORDS).increment(5);
+    counters.findCounter("group", "counter").increment(3);
+    counters.findCounter("hdfs", FileSystemCounter.BYTES_WRITTEN)
+        .increment(100);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    counters.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TezCounters readCounters = new TezCounters();
+    readCounters.readFields(in);
+
+    assertEquals(counters, readCounters);
+    assertEquals(10, readCounters.findCounter(
+        TaskCounter.INPUT_RECORDS).getValue());
+    assertEquals(3, readCounters.findCounter("group", "counter").getValue());
+    assertEquals(100, readCounters.findCounter("hdfs",
+        FileSystemCounter.BYTES_WRITTEN).getValue());
+  }
+}
@@ -81,6 +81,7 @@ import org.apache.tez.runtime.api.events.TaskStatusUpdateEvent;
 import org.apache.tez.runtime.api.impl.EventMetaData;
 import org.apache.tez.runtime.api.impl.EventMetaData.EventProducerConsumerType;
 import org.apache.tez.runtime.api.impl.TaskSpec;
+import org.apache.tez.runtime.api.impl.TaskStatusUpdateTracker;
 import org.apache.tez.runtime.api.impl.TezEvent;
 import org.apache.tez.runtime.api.impl.TezHeartbeatRequest;
 import org.apache.tez.runtime.api.impl.TezHeartbeatResponse;
@@ -88,8 +89,10 @@ import org.apache.tez.runtime.api.impl.TezUmbilical;
 import org.apache.tez.runtime.common.objectregistry.ObjectLifeCycle;
 import org.apache.tez.runtime.common.objectregistry.ObjectRegistryImpl;
 import org.apache.tez.runtime.common.objectregistry.ObjectRegistryModule;
+import org.apache.tez.runtime.library.common.RuntimeWarmup;
 import org.apache.tez.runtime.library.shuffle.common.ShuffleUtils;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
@@ -108,10 +111,19 @@ public class YarnTezDagChild {
 
   private static String containerIdStr;
   private static int maxEventsToGet = 0;
+  private static boolean compactEvents;
+  private static int eventsCompressionThreshold;
+  private static int fullCountersUpdateInterval;
+  // guarded by taskLock, replaced for every new task
+  private static TaskStatusUpdateTracker statusUpdateTracker;
   private static LinkedBlockingQueue<TezEvent> eventsToSend =
       new LinkedBlockingQueue<TezEvent>();
   private static AtomicLong requestCounter = new AtomicLong(0);
   private static long amPollInterval;
+  private static long amIdlePollInterval;
+  // interval to wait before the next heartbeat, adapted to the event traffic
+  private static volatile long nextHeartbeatInterval;
+  private static final Object heartbeatWaitLock = new Object();
   private static TezTaskUmbilicalProtocol umbilical;
   private static ReentrantReadWriteLock taskLock = new ReentrantReadWriteLock();
   private static LogicalIOProcessorRuntimeTask currentTask = null;
@@ -157,7 +169,7 @@ public class YarnTezDagChild {
               heartbeatError.set(true);
               break;
             }
-            Thread.sleep(amPollInterval);
+            waitForNextHeartbeat(nextHeartbeatInterval);
           } catch (InterruptedException e) {
             // we were interrupted so that we will stop.
             LOG.info("Heartbeat thread interrupted. " +
@@ -189,6 +201,54 @@ public class YarnTezDagChild {
     return heartbeatThread;
   }
 
+  /**
+   * Wait for the given interval before the next heartbeat. Events produced by
+   * the task cut the wait short once the regular heartbeat interval has
+   * passed, so they are not held back while the heartbeat is backed off.
+   */
+  private static void waitForNextHeartbeat(long interval)
+      throws InterruptedException {
+    long startTime = System.currentTimeMillis();
+    synchronized (heartbeatWaitLock) {
+      while (true) {
+        long endTime = startTime + interval;
+        if (!eventsToSend.isEmpty()) {
+          endTime = Math.min(endTime, startTime + amPollInterval);
+        }
+        long waitTime = endTime - System.currentTimeMillis();
+        if (waitTime <= 0) {
+          return;
+        }
+        heartbeatWaitLock.wait(waitTime);
+      }
+    }
+  }
+
+  /**
+   * Heartbeat again right away if the AM has more events for the task, at the
+   * regular interval if events were exchanged, and back off up to the idle
+   * interval otherwise.
+   */
+  private static void updateHeartbeatInterval(boolean moreEvents,
+      boolean eventsExchanged) {
+    nextHeartbeatInterval = getNextHeartbeatInterval(nextHeartbeatInterval,
+        moreEvents, eventsExchanged, amPollInterval, amIdlePollInterval);
+  }
+
+  @VisibleForTesting
+  static long getNextHeartbeatInterval(long currentInterval,
+      boolean moreEvents, boolean eventsExchanged, long pollInterval,
+      long idlePollInterval) {
+    if (moreEvents) {
+      return 0;
+    } else if (eventsExchanged) {
+      return pollInterval;
+    } else {
+      return Math.min(idlePollInterval,
+          Math.max(pollInterval, currentInterval * 2));
+    }
+  }
+
   private static synchronized boolean heartbeat() throws TezException, IOException {
     return heartbeat(null);
   }
@@ -209,7 +269,7 @@ public class YarnTezDagChild {
         eventCounter = currentTask.getEventCounter();
         eventsRange = maxEventsToGet;
         if (!currentTask.isTaskDone() && !currentTask.hadFatalError()) {
-          updateEvent = new TezEvent(new TaskStatusUpdateEvent(
+          updateEvent = new TezEvent(statusUpdateTracker.createStatusUpdate(
               currentTask.getCounters(), currentTask.getProgress()),
                 new EventMetaData(EventProducerConsumerType.SYSTEM,
                     currentTask.getVertexName(), "", taskAttemptID));
@@ -229,9 +289,12 @@ public class YarnTezDagChild {
       taskLock.readLock().unlock();
     }
 
+    boolean eventsSent = events.size() > (updateEvent == null ? 0 : 1);
+
     long reqId = requestCounter.incrementAndGet();
     TezHeartbeatRequest request = new TezHeartbeatRequest(reqId, events,
         containerIdStr, taskAttemptID, eventCounter, eventsRange);
+    request.setCompactEvents(compactEvents, eventsCompressionThreshold);
     if (LOG.isDebugEnabled()) {
       LOG.debug("Sending heartbeat to AM"
           + ", request=" + request.toString());
@@ -250,6 +313,8 @@ public class YarnTezDagChild {
           + ", responseReqId=" + response.getLastRequestId()
           + ", expectedReqId=" + reqId);
     }
+    updateHeartbeatInterval(response.hasMoreEvents(), eventsSent
+        || (response.getEvents() != null && !response.getEvents().isEmpty()));
     try {
       taskLock.readLock().lock();
       if (taskAttemptID == null
@@ -262,6 +327,9 @@ public class YarnTezDagChild {
         }
         return true;
       }
+      if (response.isFullCountersRequested()) {
+        statusUpdateTracker.requestFullUpdate();
+      }
       if (currentTask != null && response.getEvents() != null) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Routing events from heartbeat response to task"
@@ -276,6 +344,34 @@ public class YarnTezDagChild {
     return true;
   }
 
+  /**
+   * Warm up the runtime library in the background while the container waits
+   * for its first task. The returned thread is interrupted once a task
+   * arrives, so that it does not compete with the task.
+   */
+  private static Thread startWarmupThread(final Configuration conf) {
+    Thread warmupThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          new RuntimeWarmup(conf, conf.getInt(
+              TezConfiguration.TEZ_TASK_WARMUP_RECORDS,
+              TezConfiguration.TEZ_TASK_WARMUP_RECORDS_DEFAULT)).run(
+              conf.getInt(TezConfiguration.TEZ_TASK_WARMUP_ROUNDS,
+                  TezConfiguration.TEZ_TASK_WARMUP_ROUNDS_DEFAULT));
+        } catch (Throwable t) {
+          LOG.warn("Runtime warm-up failed, ignoring", t);
+        }
+      }
+    });
+    warmupThread.setName("Tez Container Warmup Thread ["
+        + containerIdStr + "]");
+    warmupThread.setDaemon(true);
+    warmupThread.setPriority(Thread.MIN_PRIORITY);
+    warmupThread.start();
+    return warmupThread;
+  }
+
   public static void main(String[] args) throws Throwable {
     Thread.setDefaultUncaughtExceptionHandler(
         new YarnUncaughtExceptionHandler());
@@ -324,9 +420,23 @@ public class YarnTezDagChild {
     amPollInterval = defaultConf.getLong(
         TezConfiguration.TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS,
         TezConfiguration.TEZ_TASK_AM_HEARTBEAT_INTERVAL_MS_DEFAULT);
+    amIdlePollInterval = Math.max(amPollInterval, defaultConf.getLong(
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS,
+        TezConfiguration.TEZ_TASK_AM_HEARTBEAT_IDLE_INTERVAL_MS_DEFAULT));
+    nextHeartbeatInterval = amPollInterval;
     maxEventsToGet = defaultConf.getInt(
         TezConfiguration.TEZ_TASK_MAX_EVENTS_PER_HEARTBEAT,
         TezConfiguration.TEZ_TASK_MAX_EVENTS_PER_HEARTBEAT_DEFAULT);
+    compactEvents = defaultConf.getBoolean(
+        TezConfiguration.TEZ_TASK_HEARTBEAT_COMPACT_EVENTS_ENABLED,
+        TezConfiguration.TEZ_TASK_HEARTBEAT_COMPACT_EVENTS_ENABLED_DEFAULT);
+    // the AM can only ask for the full counters in a compact response
+    fullCountersUpdateInterval = !compactEvents ? 1 : defaultConf.getInt(
+        TezConfiguration.TEZ_TASK_FULL_COUNTERS_UPDATE_INTERVAL,
+        TezConfiguration.TEZ_TASK_FULL_COUNTERS_UPDATE_INTERVAL_DEFAULT);
+    eventsCompressionThreshold = defaultConf.getInt(
+        TezConfiguration.TEZ_TASK_HEARTBEAT_EVENTS_COMPRESSION_THRESHOLD,
+        TezConfiguration.TEZ_TASK_HEARTBEAT_EVENTS_COMPRESSION_THRESHOLD_DEFAULT);
 
     // Create TaskUmbilicalProtocol as actual task owner.
     UserGroupInformation taskOwner =
@@ -351,10 +461,19 @@ public class YarnTezDagChild {
 
     final Thread heartbeatThread = startHeartbeatThread();
 
+    Thread warmupThread = null;
+    if (defaultConf.getBoolean(TezConfiguration.TEZ_TASK_WARMUP_ENABLED,
+        TezConfiguration.TEZ_TASK_WARMUP_ENABLED_DEFAULT)) {
+      warmupThread = startWarmupThread(defaultConf);
+    }
+
     TezUmbilical tezUmbilical = new TezUmbilical() {
       @Override
       public void addEvents(Collection<TezEvent> events) {
         eventsToSend.addAll(events);
+        synchronized (heartbeatWaitLock) {
+          heartbeatWaitLock.notifyAll();
+        }
       }
 
       @Override
@@ -422,9 +541,13 @@ public class YarnTezDagChild {
         boolean isNewGetTask = true;
         long getTaskPollStartTime = System.currentTimeMillis();
         long nextGetTaskPrintTime = getTaskPollStartTime + 2000l;
+        long getTaskCallTime = 0;
         for (int idle = 0; null == containerTask; ++idle) {
           if (!isNewGetTask) { // Don't sleep on the first iteration.
-            long sleepTimeMilliSecs = Math.min(idle * 10, getTaskMaxSleepTime);
+            // The AM may already have held the call while waiting for a task
+            // to be assigned, only sleep for the remainder.
+            long sleepTimeMilliSecs = Math.max(0,
+                Math.min(idle * 10, getTaskMaxSleepTime) - getTaskCallTime);
             if (sleepTimeMilliSecs + System.currentTimeMillis() > nextGetTaskPrintTime) {
               LOG.info("Sleeping for "
                   + sleepTimeMilliSecs
@@ -437,7 +560,13 @@ public class YarnTezDagChild {
             LOG.info("Attempting to fetch new task");
           }
           isNewGetTask = false;
+          long getTaskCallStartTime = System.currentTimeMillis();
           containerTask = umbilical.getTask(containerContext);
+          getTaskCallTime = System.currentTimeMillis() - getTaskCallStartTime;
+        }
+        if (warmupThread != null) {
+          warmupThread.interrupt();
+          warmupThread = null;
         }
         LOG.info("Got TaskUpdate: "
             + (System.currentTimeMillis() - getTaskPollStartTime)
@@ -500,6 +629,10 @@ public class YarnTezDagChild {
 
           currentTask = createLogicalTask(attemptNumber, taskSpec,
               defaultConf, tezUmbilical, serviceConsumerMetadata);
+          statusUpdateTracker =
+              new TaskStatusUpdateTracker(fullCountersUpdateInterval);
+          // a new task is not idle, heartbeat at the regular interval
+          nextHeartbeatInterval = amPollInterval;
         } finally {
           taskLock.writeLock().unlock();
         }
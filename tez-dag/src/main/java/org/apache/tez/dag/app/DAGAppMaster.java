@@ -68,7 +68,6 @@ import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.api.records.ContainerId;
 import org.apache.hadoop.yarn.api.records.LocalResource;
 import org.apache.hadoop.yarn.conf.YarnConfiguration;
-import org.apache.hadoop.yarn.event.AsyncDispatcher;
 import org.apache.hadoop.yarn.event.Dispatcher;
 import org.apache.hadoop.yarn.event.Event;
 import org.apache.hadoop.yarn.event.EventHandler;
@@ -183,6 +182,7 @@ public class DAGAppMaster extends AbstractService {
   private ContainerLauncher containerLauncher;
   private ContainerHeartbeatHandler containerHeartbeatHandler;
   private TaskHeartbeatHandler taskHeartbeatHandler;
+  private Speculator speculator;
   private TaskAttemptListener taskAttemptListener;
   private JobTokenSecretManager jobTokenSecretManager =
       new JobTokenSecretManager();
@@ -277,6 +277,12 @@ public class DAGAppMaster extends AbstractService {
     containerHeartbeatHandler = createContainerHeartbeatHandler(context, conf);
     addIfService(containerHeartbeatHandler, true);
 
+    if (conf.getBoolean(TezConfiguration.TEZ_AM_SPECULATION_ENABLED,
+        TezConfiguration.TEZ_AM_SPECULATION_ENABLED_DEFAULT)) {
+      speculator = new Speculator(context);
+      addIfService(speculator, true);
+    }
+
     String sessionTokenUUID = UUID.randomUUID().toString();
     JobTokenIdentifier identifier = new JobTokenIdentifier(new Text(
         sessionTokenUUID));
@@ -383,7 +389,7 @@ public class DAGAppMaster extends AbstractService {
   
   @VisibleForTesting
   protected Dispatcher createDispatcher() {
-    return new AsyncDispatcher();
+    return new InstrumentedAsyncDispatcher();
   }
 
   /**
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.yarn.event.AsyncDispatcher;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An {@link AsyncDispatcher} which publishes the number of queued events and
+ * the time events spend queued as metrics while it is started. Events are
+ * handled on the single thread of the AsyncDispatcher, in the order they were
+ * sent.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class InstrumentedAsyncDispatcher extends AsyncDispatcher
+    implements MetricsSource {
+
+  static final String METRICS_SOURCE_NAME = "DAGAppMasterDispatcher";
+
+  private final BlockingQueue<Event> eventQueue;
+  private final EventHandler handlerInstance = new TimingEventHandler();
+  private final MetricsRegistry registry =
+      new MetricsRegistry(METRICS_SOURCE_NAME);
+  private final MutableRate queueTime = registry.newRate("QueueTime",
+      "Time in ms events wait in the event queue", false);
+
+  public InstrumentedAsyncDispatcher() {
+    this(new LinkedBlockingQueue<Event>());
+  }
+
+  private InstrumentedAsyncDispatcher(BlockingQueue<Event> eventQueue) {
+    super(eventQueue);
+    this.eventQueue = eventQueue;
+  }
+
+  @Override
+  protected void serviceStart() throws Exception {
+    super.serviceStart();
+    DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+        "Event dispatcher queue of the DAGAppMaster", this);
+  }
+
+  @Override
+  protected void serviceStop() throws Exception {
+    DefaultMetricsSystem.instance().unregisterSource(METRICS_SOURCE_NAME);
+    super.serviceStop();
+  }
+
+  @Override
+  public EventHandler getEventHandler() {
+    return handlerInstance;
+  }
+
+  @Override
+  protected void dispatch(Event event) {
+    if (event instanceof QueuedEvent) {
+      QueuedEvent queuedEvent = (QueuedEvent) event;
+      queueTime.add(System.currentTimeMillis() - queuedEvent.enqueueTime);
+      event = queuedEvent.event;
+    }
+    super.dispatch(event);
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(registry.info())
+        .setContext("tez");
+    rb.addGauge(Interns.info("QueueSize", "Events waiting in the event queue"),
+        eventQueue.size());
+    registry.snapshot(rb, all);
+  }
+
+  @VisibleForTesting
+  int getQueueSize() {
+    return eventQueue.size();
+  }
+
+  /**
+   * An event with the time it was queued. Unwrapped before it is dispatched,
+   * so handlers only see the original event.
+   */
+  private static class QueuedEvent implements Event {
+    final Event event;
+    final long enqueueTime;
+
+    QueuedEvent(Event event, long enqueueTime) {
+      this.event = event;
+      this.enqueueTime = enqueueTime;
+    }
+
+    @Override
+    public Enum getType() {
+      return event.getType();
+    }
+
+    @Override
+    public long getTimestamp() {
+      return event.getTimestamp();
+    }
+
+    @Override
+    public String toString() {
+      return event.toString();
+    }
+  }
+
+  private class TimingEventHandler implements EventHandler<Event> {
+    @Override
+    public void handle(Event event) {
+      InstrumentedAsyncDispatcher.super.getEventHandler().handle(
+          new QueuedEvent(event, System.currentTimeMillis()));
+    }
+  }
+}
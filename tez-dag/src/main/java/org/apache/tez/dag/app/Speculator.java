@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.service.AbstractService;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.util.Clock;
+import org.apache.tez.common.counters.DAGCounter;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.apache.tez.dag.api.TezUncheckedException;
+import org.apache.tez.dag.api.oldrecords.TaskAttemptState;
+import org.apache.tez.dag.api.oldrecords.TaskState;
+import org.apache.tez.dag.app.dag.DAG;
+import org.apache.tez.dag.app.dag.DAGState;
+import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.TaskAttempt;
+import org.apache.tez.dag.app.dag.Vertex;
+import org.apache.tez.dag.app.dag.VertexState;
+import org.apache.tez.dag.app.dag.event.DAGEventCounterUpdate;
+import org.apache.tez.dag.app.dag.event.TaskEvent;
+import org.apache.tez.dag.app.dag.event.TaskEventType;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskID;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Periodically compares the running tasks of each running vertex against the
+ * tasks of the vertex that already completed, and adds a speculative attempt
+ * to the tasks that are expected to finish much later than the others. The
+ * progress of the attempts comes from their status updates. Whichever attempt
+ * of a task succeeds first is committed and the others are killed by the task.
+ */
+public class Speculator extends AbstractService {
+
+  private static final Log LOG = LogFactory.getLog(Speculator.class);
+
+  @SuppressWarnings("rawtypes")
+  private final EventHandler eventHandler;
+  private final Clock clock;
+  private final AppContext appContext;
+
+  private long checkInterval;
+  private float slowTaskThreshold;
+  private float maxRunningPercent;
+
+  private Thread checkerThread;
+  private volatile boolean stopped;
+
+  private TezDAGID currentDagId;
+  // Tasks of the current DAG which were given a speculative attempt
+  private final Set<TezTaskID> speculatedTasks = new HashSet<TezTaskID>();
+
+  public Speculator(AppContext appContext) {
+    super(Speculator.class.getName());
+    this.appContext = appContext;
+    this.eventHandler = appContext.getEventHandler();
+    this.clock = appContext.getClock();
+  }
+
+  @Override
+  public void serviceInit(Configuration conf) {
+    checkInterval = conf.getLong(
+        TezConfiguration.TEZ_AM_SPECULATION_CHECK_INTERVAL_MS,
+        TezConfiguration.TEZ_AM_SPECULATION_CHECK_INTERVAL_MS_DEFAULT);
+    slowTaskThreshold = conf.getFloat(
+        TezConfiguration.TEZ_AM_SPECULATION_SLOW_TASK_THRESHOLD,
+        TezConfiguration.TEZ_AM_SPECULATION_SLOW_TASK_THRESHOLD_DEFAULT);
+    maxRunningPercent = conf.getFloat(
+        TezConfiguration.TEZ_AM_SPECULATION_MAX_RUNNING_PERCENT,
+        TezConfiguration.TEZ_AM_SPECULATION_MAX_RUNNING_PERCENT_DEFAULT);
+    if (checkInterval <= 0) {
+      throw new TezUncheckedException("Invalid configuration: "
+          + TezConfiguration.TEZ_AM_SPECULATION_CHECK_INTERVAL_MS
+          + " should be positive, configured value: " + checkInterval);
+    }
+    if (slowTaskThreshold <= 1.0f) {
+      throw new TezUncheckedException("Invalid configuration: "
+          + TezConfiguration.TEZ_AM_SPECULATION_SLOW_TASK_THRESHOLD
+          + " should be greater than 1, configured value: "
+          + slowTaskThreshold);
+    }
+    LOG.info("Speculation enabled"
+        + ", checkInterval=" + checkInterval
+        + ", slowTaskThreshold=" + slowTaskThreshold
+        + ", maxRunningPercent=" + maxRunningPercent);
+  }
+
+  @Override
+  public void serviceStart() {
+    checkerThread = new Thread(new StragglerChecker());
+    checkerThread.setName("Speculator StragglerChecker");
+    checkerThread.setDaemon(true);
+    checkerThread.start();
+  }
+
+  @Override
+  public void serviceStop() {
+    stopped = true;
+    if (checkerThread != null) {
+      checkerThread.interrupt();
+    }
+  }
+
+  /**
+   * Add a speculative attempt to the slowest straggler of each running vertex
+   * of the current DAG.
+   *
+   * @return the number of speculative attempts requested.
+   */
+  @SuppressWarnings("unchecked")
+  @VisibleForTesting
+  synchronized int checkForStragglers() {
+    DAG dag = appContext.getCurrentDAG();
+    if (dag == null) {
+      return 0;
+    }
+    if (!dag.getID().equals(currentDagId)) {
+      currentDagId = dag.getID();
+      speculatedTasks.clear();
+    }
+    if (dag.getState() != DAGState.RUNNING) {
+      return 0;
+    }
+    long now = clock.getTime();
+    int numSpeculated = 0;
+    for (Vertex vertex : dag.getVertices().values()) {
+      if (vertex.getState() == VertexState.RUNNING && speculate(vertex, now)) {
+        ++numSpeculated;
+      }
+    }
+    if (numSpeculated > 0) {
+      DAGEventCounterUpdate counterUpdate =
+          new DAGEventCounterUpdate(currentDagId);
+      counterUpdate.addCounterUpdate(DAGCounter.NUM_SPECULATIONS,
+          numSpeculated);
+      eventHandler.handle(counterUpdate);
+    }
+    return numSpeculated;
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean speculate(Vertex vertex, long now) {
+    List<Long> runtimes = new ArrayList<Long>();
+    List<Task> runningTasks = new ArrayList<Task>();
+    int numTasks = 0;
+    for (Task task : vertex.getTasks().values()) {
+      ++numTasks;
+      TaskState state = task.getState();
+      if (state == TaskState.SUCCEEDED) {
+        for (TaskAttempt attempt : task.getAttempts().values()) {
+          if (attempt.getState() == TaskAttemptState.SUCCEEDED
+              && attempt.getLaunchTime() > 0) {
+            runtimes.add(attempt.getFinishTime() - attempt.getLaunchTime());
+          }
+        }
+      } else if (state == TaskState.RUNNING) {
+        runningTasks.add(task);
+      }
+    }
+    if (runtimes.isEmpty() || runningTasks.isEmpty()) {
+      return false;
+    }
+    long medianRuntime = getMedian(runtimes);
+
+    int numRunningSpeculations = 0;
+    Task straggler = null;
+    long stragglerRemainingTime = 0;
+    for (Task task : runningTasks) {
+      if (speculatedTasks.contains(task.getTaskId())) {
+        ++numRunningSpeculations;
+        continue;
+      }
+      TaskAttempt runningAttempt = null;
+      int numUnfinishedAttempts = 0;
+      for (TaskAttempt attempt : task.getAttempts().values()) {
+        if (!attempt.isFinished()) {
+          ++numUnfinishedAttempts;
+          runningAttempt = attempt;
+        }
+      }
+      if (numUnfinishedAttempts != 1
+          || runningAttempt.getState() != TaskAttemptState.RUNNING
+          || runningAttempt.getLaunchTime() <= 0) {
+        continue;
+      }
+      long elapsed = now - runningAttempt.getLaunchTime();
+      if (elapsed < medianRuntime) {
+        continue;
+      }
+      float progress = runningAttempt.getProgress();
+      long remainingTime;
+      if (progress > 0) {
+        long estimatedRuntime = (long) (elapsed / progress);
+        remainingTime = estimatedRuntime - elapsed;
+        if (estimatedRuntime <= slowTaskThreshold * medianRuntime
+            || remainingTime <= medianRuntime) {
+          // A new attempt would not finish before this one
+          continue;
+        }
+      } else {
+        // No progress reported yet, go by the elapsed time alone
+        if (elapsed <= slowTaskThreshold * medianRuntime) {
+          continue;
+        }
+        remainingTime = elapsed;
+      }
+      if (straggler == null || remainingTime > stragglerRemainingTime) {
+        straggler = task;
+        stragglerRemainingTime = remainingTime;
+      }
+    }
+
+    int maxRunningSpeculations =
+        Math.max(1, (int) (numTasks * maxRunningPercent / 100));
+    if (straggler == null || numRunningSpeculations >= maxRunningSpeculations) {
+      return false;
+    }
+    LOG.info("Adding speculative attempt for task " + straggler.getTaskId()
+        + ", estimated remaining time " + stragglerRemainingTime
+        + ", median runtime of vertex " + vertex.getName()
+        + " is " + medianRuntime);
+    speculatedTasks.add(straggler.getTaskId());
+    eventHandler.handle(new TaskEvent(straggler.getTaskId(),
+        TaskEventType.T_ADD_SPEC_ATTEMPT));
+    return true;
+  }
+
+  private static long getMedian(List<Long> values) {
+    long[] sorted = new long[values.size()];
+    int i = 0;
+    for (Long value : values) {
+      sorted[i++] = value;
+    }
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  private class StragglerChecker implements Runnable {
+
+    @Override
+    public void run() {
+      while (!stopped && !Thread.currentThread().isInterrupted()) {
+        try {
+          checkForStragglers();
+        } catch (Exception e) {
+          LOG.warn("Error while checking for stragglers", e);
+        }
+        try {
+          Thread.sleep(checkInterval);
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+    }
+  }
+}
@@ -41,6 +41,12 @@ public interface TaskAttemptListener {
 //  void unregisterRunningJvm(WrappedJvmID jvmID);
   
   void unregisterTaskAttempt(TezTaskAttemptID attemptID);
+
+  /**
+   * Notify the listener that a task attempt has been assigned to a container,
+   * so that a container waiting for work can be handed the task right away.
+   */
+  void taskAttemptAssigned(ContainerId containerId);
   /**
    * Register a JVM with the listener.  This should be called as soon as a 
    * JVM ID is assigned to a task attempt, before it has been launched.
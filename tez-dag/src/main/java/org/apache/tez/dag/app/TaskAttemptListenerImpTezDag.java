@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +34,14 @@ import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.apache.hadoop.ipc.ProtocolSignature;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.authorize.PolicyProvider;
 import org.apache.hadoop.service.AbstractService;
@@ -49,6 +58,7 @@ import org.apache.tez.common.TezTaskUmbilicalProtocol;
 import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.app.dag.DAG;
 import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.TaskAttempt;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventStartedRemotely;
 import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
 import org.apache.tez.dag.app.rm.container.AMContainerImpl;
@@ -65,7 +75,7 @@ import com.google.common.collect.Maps;
 
 @SuppressWarnings("unchecked")
 public class TaskAttemptListenerImpTezDag extends AbstractService implements
-    TezTaskUmbilicalProtocol, TaskAttemptListener {
+    TezTaskUmbilicalProtocol, TaskAttemptListener, MetricsSource {
 
   private static final ContainerTask TASK_FOR_INVALID_JVM = new ContainerTask(
       null, true, null, null, false);
@@ -81,6 +91,31 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
   private InetSocketAddress address;
   private Server server;
 
+  static final String METRICS_SOURCE_NAME = "TaskAttemptListener";
+
+  private final MetricsRegistry registry =
+      new MetricsRegistry(METRICS_SOURCE_NAME);
+  private final MutableRate heartbeatLatency = registry.newRate(
+      "HeartbeatTime", "Time in ms to process a task heartbeat", false);
+  private final MutableQuantiles heartbeatLatencyQuantiles =
+      registry.newQuantiles("HeartbeatTime60s",
+          "Heartbeat processing time percentiles over 60s", "ops",
+          "latencyMs", 60);
+  private final MutableRate taskHandoffLatency = registry.newRate(
+      "TaskHandoffTime", "Time in ms from a container asking for a task"
+          + " until it is handed one", false);
+  private final MutableQuantiles taskHandoffLatencyQuantiles =
+      registry.newQuantiles("TaskHandoffTime60s",
+          "Task hand-off time percentiles over 60s", "ops", "latencyMs", 60);
+  private final MutableRate assignToHandoffLatency = registry.newRate(
+      "AssignToHandoffTime", "Time in ms from a task being assigned to a"
+          + " container until it is handed to the container", false);
+
+  private long getTaskWaitTime;
+  private int eventsCompressionThreshold;
+  // bounds the IPC handlers held by waiting getTask calls
+  private Semaphore getTaskWaiters;
+
   class ContainerInfo {
     ContainerInfo(ContainerId containerId) {
       this.containerId = containerId;
@@ -92,6 +127,14 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
     long lastRequestId;
     TezHeartbeatResponse lastReponse;
     TezTaskAttemptID currentAttemptId;
+    // task lookup cache for heartbeats, valid for currentTaskAttemptId
+    TezTaskAttemptID currentTaskAttemptId;
+    Task currentTask;
+    // set when a task is assigned to the container, wakes waiting getTask calls
+    boolean taskAssigned;
+    long taskAssignTime;
+    // time of the first getTask call since the container last got a task
+    long idleStartTime;
   }
 
   private ConcurrentMap<TezTaskAttemptID, ContainerId> attemptToInfoMap =
@@ -110,9 +153,36 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
     this.containerHeartbeatHandler = chh;
   }
 
+  @Override
+  public void serviceInit(Configuration conf) throws Exception {
+    getTaskWaitTime = conf.getLong(
+        TezConfiguration.TEZ_AM_TASK_LISTENER_GET_TASK_WAIT_MS,
+        TezConfiguration.TEZ_AM_TASK_LISTENER_GET_TASK_WAIT_MS_DEFAULT);
+    int numHandlers = conf.getInt(
+        TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT,
+        TezConfiguration.TEZ_AM_TASK_LISTENER_THREAD_COUNT_DEFAULT);
+    getTaskWaiters = new Semaphore(Math.max(1, numHandlers / 2));
+    eventsCompressionThreshold = conf.getInt(
+        TezConfiguration.TEZ_TASK_HEARTBEAT_EVENTS_COMPRESSION_THRESHOLD,
+        TezConfiguration.TEZ_TASK_HEARTBEAT_EVENTS_COMPRESSION_THRESHOLD_DEFAULT);
+    super.serviceInit(conf);
+  }
+
   @Override
   public void serviceStart() {
     startRpcServer();
+    DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+        "Task heartbeat processing", this);
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(registry.info())
+        .setContext("tez");
+    rb.addGauge(Interns.info("RegisteredContainers",
+        "Containers registered with the listener"),
+        registeredContainers.size());
+    registry.snapshot(rb, all);
   }
 
   protected void startRpcServer() {
@@ -149,6 +219,7 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
 
   @Override
   public void serviceStop() {
+    DefaultMetricsSystem.instance().unregisterSource(METRICS_SOURCE_NAME);
     stopRpcServer();
   }
 
@@ -201,7 +272,19 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
         task = TASK_FOR_INVALID_JVM;
       } else {
         pingContainerHeartbeatHandler(containerId);
+        ContainerInfo containerInfo = registeredContainers.get(containerId);
+        if (containerInfo != null) {
+          synchronized (containerInfo) {
+            if (containerInfo.idleStartTime == 0) {
+              containerInfo.idleStartTime = System.currentTimeMillis();
+            }
+          }
+        }
         AMContainerTask taskContext = pullTaskAttemptContext(containerId);
+        if (!taskContext.shouldDie() && taskContext.getTask() == null
+            && containerInfo != null) {
+          taskContext = waitForTaskAttemptContext(containerInfo, taskContext);
+        }
         if (taskContext.shouldDie()) {
           LOG.info("No more tasks for container with id : " + containerId
               + ". Asking it to die");
@@ -218,6 +301,9 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
             task = new ContainerTask(taskContext.getTask(), false,
                 convertLocalResourceMap(taskContext.getAdditionalResources()),
                 taskContext.getCredentials(), taskContext.haveCredentialsChanged());
+            if (containerInfo != null) {
+              recordTaskHandoff(containerInfo);
+            }
             context.getEventHandler().handle(
                 new TaskAttemptEventStartedRemotely(taskContext.getTask()
                     .getTaskAttemptID(), containerId, context
@@ -364,11 +450,81 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
     }
     synchronized (containerInfo) {
       containerInfo.currentAttemptId = null;
+      containerInfo.currentTaskAttemptId = null;
+      containerInfo.currentTask = null;
       attemptToInfoMap.remove(attemptId);
     }
 
   }
 
+  /**
+   * Hold a getTask call which found no task, until a task is assigned to the
+   * container or the configured wait time passes. Only up to half of the IPC
+   * handlers wait at a time, the other calls return right away.
+   */
+  private AMContainerTask waitForTaskAttemptContext(
+      ContainerInfo containerInfo, AMContainerTask taskContext) {
+    if (getTaskWaitTime <= 0 || !getTaskWaiters.tryAcquire()) {
+      return taskContext;
+    }
+    try {
+      long endTime = System.currentTimeMillis() + getTaskWaitTime;
+      while (!taskContext.shouldDie() && taskContext.getTask() == null
+          && registeredContainers.get(containerInfo.containerId)
+              == containerInfo) {
+        // the container must not be pulled from while holding the monitor,
+        // assignments notify it with the container lock held
+        synchronized (containerInfo) {
+          long waitTime = endTime - System.currentTimeMillis();
+          if (!containerInfo.taskAssigned && waitTime > 0) {
+            containerInfo.wait(waitTime);
+          }
+          if (!containerInfo.taskAssigned) {
+            break;
+          }
+          containerInfo.taskAssigned = false;
+        }
+        taskContext = pullTaskAttemptContext(containerInfo.containerId);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      getTaskWaiters.release();
+    }
+    return taskContext;
+  }
+
+  private void recordTaskHandoff(ContainerInfo containerInfo) {
+    long now = System.currentTimeMillis();
+    synchronized (containerInfo) {
+      if (containerInfo.idleStartTime != 0) {
+        long handoffTime = now - containerInfo.idleStartTime;
+        taskHandoffLatency.add(handoffTime);
+        taskHandoffLatencyQuantiles.add(handoffTime);
+        containerInfo.idleStartTime = 0;
+      }
+      if (containerInfo.taskAssignTime != 0) {
+        assignToHandoffLatency.add(now - containerInfo.taskAssignTime);
+        containerInfo.taskAssignTime = 0;
+      }
+      containerInfo.taskAssigned = false;
+    }
+  }
+
+  @Override
+  public void taskAttemptAssigned(ContainerId containerId) {
+    ContainerInfo containerInfo = registeredContainers.get(containerId);
+    if (containerInfo == null) {
+      // not launched yet, the container will ask for the task once it is
+      return;
+    }
+    synchronized (containerInfo) {
+      containerInfo.taskAssigned = true;
+      containerInfo.taskAssignTime = System.currentTimeMillis();
+      containerInfo.notifyAll();
+    }
+  }
+
   public AMContainerTask pullTaskAttemptContext(ContainerId containerId) {
     AMContainerImpl container = (AMContainerImpl) context.getAllContainers()
         .get(containerId);
@@ -419,7 +575,13 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
       LOG.debug("Unregistering Container from TaskAttemptListener: "
           + containerId);
     }
-    registeredContainers.remove(containerId);
+    ContainerInfo containerInfo = registeredContainers.remove(containerId);
+    if (containerInfo != null) {
+      // release any getTask call waiting for this container
+      synchronized (containerInfo) {
+        containerInfo.notifyAll();
+      }
+    }
   }
 
   private void pingContainerHeartbeatHandler(ContainerId containerId) {
@@ -439,6 +601,18 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
   @Override
   public TezHeartbeatResponse heartbeat(TezHeartbeatRequest request)
       throws IOException, TezException {
+    long startTime = System.currentTimeMillis();
+    try {
+      return processHeartbeat(request);
+    } finally {
+      long heartbeatTime = System.currentTimeMillis() - startTime;
+      heartbeatLatency.add(heartbeatTime);
+      heartbeatLatencyQuantiles.add(heartbeatTime);
+    }
+  }
+
+  private TezHeartbeatResponse processHeartbeat(TezHeartbeatRequest request)
+      throws IOException, TezException {
     ContainerId containerId = ConverterUtils.toContainerId(request
         .getContainerIdentifier());
     long requestId = request.getRequestId();
@@ -455,6 +629,8 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
       return response;
     }
 
+    TezTaskAttemptID taskAttemptID = request.getCurrentTaskAttemptID();
+    Task task = null;
     synchronized (containerInfo) {
       pingContainerHeartbeatHandler(containerId);
 
@@ -464,10 +640,6 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
         return containerInfo.lastReponse;
       }
 
-      TezHeartbeatResponse response = new TezHeartbeatResponse();
-      response.setLastRequestId(requestId);
-
-      TezTaskAttemptID taskAttemptID = request.getCurrentTaskAttemptID();
       if (taskAttemptID != null) {
         ContainerId containerIdFromMap = attemptToInfoMap.get(taskAttemptID);
         if(containerIdFromMap == null || !containerIdFromMap.equals(containerId)) {
@@ -481,7 +653,44 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
               + containerInfo.lastRequestId+1
               + " and actual: " + requestId);
         }
+        task = getTaskForAttempt(containerInfo, taskAttemptID);
+      }
+    }
+
+    // Outgoing events are read without holding the container monitor. The
+    // lookup has no side effects, so a duplicate request racing with this one
+    // is resolved when the response is recorded below.
+    List<TezEvent> outEvents = null;
+    boolean fullCountersRequested = false;
+    if (task != null) {
+      outEvents = task.getTaskAttemptTezEvents(taskAttemptID,
+          request.getStartIndex(), request.getMaxEvents());
+      // a lost request is repeated with the next changed-counters update
+      TaskAttempt attempt = task.getAttempt(taskAttemptID);
+      fullCountersRequested = attempt != null
+          && attempt.pollFullCountersRequest();
+    }
+
+    synchronized (containerInfo) {
+      if(containerInfo.lastRequestId == requestId) {
+        LOG.warn("Duplicate sequenceId processed concurrently: " + requestId
+            + ", Re-sending last response to client");
+        return containerInfo.lastReponse;
+      }
 
+      TezHeartbeatResponse response = new TezHeartbeatResponse();
+      response.setLastRequestId(requestId);
+      // reply in the event format the task used
+      response.setCompactEvents(request.hasCompactEvents(),
+          eventsCompressionThreshold);
+
+      if (taskAttemptID != null
+          && !containerId.equals(attemptToInfoMap.get(taskAttemptID))) {
+        // the attempt was unregistered while its events were read. Drop its
+        // events both ways, the container may already be running the next one
+        LOG.info("Attempt " + taskAttemptID + " was unregistered from "
+            + containerId + " during heartbeat, sending no events");
+      } else if (taskAttemptID != null) {
         List<TezEvent> inEvents = request.getEvents();
         if (LOG.isDebugEnabled()) {
           LOG.debug("Ping from " + taskAttemptID.toString() +
@@ -493,13 +702,12 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
               new VertexEventRouteEvent(vertexId, inEvents));
         }
         taskHeartbeatHandler.pinged(taskAttemptID);
-        List<TezEvent> outEvents = context
-            .getCurrentDAG()
-            .getVertex(taskAttemptID.getTaskID().getVertexID())
-            .getTask(taskAttemptID.getTaskID())
-            .getTaskAttemptTezEvents(taskAttemptID, request.getStartIndex(),
-                request.getMaxEvents());
         response.setEvents(outEvents);
+        // a full batch means the task may have more events waiting, so let
+        // it ask again without waiting for the next heartbeat interval
+        response.setMoreEvents(request.getMaxEvents() > 0
+            && outEvents.size() >= request.getMaxEvents());
+        response.setFullCountersRequested(fullCountersRequested);
       }
       containerInfo.lastRequestId = requestId;
       containerInfo.lastReponse = response;
@@ -507,6 +715,24 @@ public class TaskAttemptListenerImpTezDag extends AbstractService implements
     }
   }
 
+  /**
+   * Get the task of the attempt running in the container. The task is looked
+   * up once per attempt and cached, so that heartbeats do not need to walk the
+   * DAG and vertex under their locks.
+   */
+  private Task getTaskForAttempt(ContainerInfo containerInfo,
+      TezTaskAttemptID taskAttemptID) {
+    if (!taskAttemptID.equals(containerInfo.currentTaskAttemptId)
+        || containerInfo.currentTask == null) {
+      containerInfo.currentTask = context
+          .getCurrentDAG()
+          .getVertex(taskAttemptID.getTaskID().getVertexID())
+          .getTask(taskAttemptID.getTaskID());
+      containerInfo.currentTaskAttemptId = taskAttemptID;
+    }
+    return containerInfo.currentTask;
+  }
+
   private Map<String, TezLocalResource> convertLocalResourceMap(Map<String, LocalResource> ylrs)
       throws IOException {
     Map<String, TezLocalResource> tlrs = Maps.newHashMap();
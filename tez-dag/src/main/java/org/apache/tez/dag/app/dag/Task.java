@@ -72,13 +72,27 @@ public interface Task {
    * applicable.
    */
   TezTaskAttemptID getOutputConsumableAttempt();
+
+  /**
+   * Have the outputs of the attempt been declared obsolete, e.g. because a
+   * concurrent attempt of the task succeeded.
+   *
+   * @param attemptID
+   * @return whether data movement events from the attempt must be dropped.
+   */
+  boolean isAttemptOutputObsolete(TezTaskAttemptID attemptID);
   
   public Vertex getVertex();
   
   public List<TezEvent> getTaskAttemptTezEvents(TezTaskAttemptID attemptID,
       int fromEventId, int maxEvents);
   
-  public List<TezEvent> getAndClearTaskTezEvents();
+  /**
+   * Remove all events of the task. Events added afterwards are stored in the
+   * given log.
+   * @return the removed events
+   */
+  public List<TezEvent> getAndClearTaskTezEvents(TezEventLog newEventLog);
 
   public List<String> getDiagnostics();
 
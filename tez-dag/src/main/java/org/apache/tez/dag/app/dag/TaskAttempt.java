@@ -47,15 +47,16 @@ public interface TaskAttempt {
     // HDFS-5098
     private AtomicBoolean localitySet = new AtomicBoolean(false);
     public void setLocalityCounter(DAGCounter localityCounter) {
-      if (!localitySet.get()) {
-        localitySet.set(true);
-        if (counters == null) {
-          counters = new TezCounters();
-        }
-        if (localityCounter != null) {
-          counters.findCounter(localityCounter).increment(1);
-          // TODO Maybe validate that the correct value is being set.
+      // only once the locality is known. The counters are replaced instead of
+      // modified, since readers may still hold the earlier ones
+      if (localityCounter != null && localitySet.compareAndSet(false, true)) {
+        TezCounters newCounters = new TezCounters();
+        if (counters != null) {
+          newCounters.incrAllCounters(counters);
         }
+        newCounters.findCounter(localityCounter).increment(1);
+        // TODO Maybe validate that the correct value is being set.
+        counters = newCounters;
       }
     }
   }
@@ -118,4 +119,10 @@ public interface TaskAttempt {
   public Task getTask();
   
   public boolean getIsRescheduled();
+
+  /**
+   * @return true if the task has to send all its counters with its next
+   *         status update. The request is cleared by this call.
+   */
+  public boolean pollFullCountersRequest();
 }
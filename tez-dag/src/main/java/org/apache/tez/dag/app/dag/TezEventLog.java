@@ -0,0 +1,212 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.tez.dag.app.dag;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.tez.runtime.api.events.CompositeDataMovementEvent;
+import org.apache.tez.runtime.api.events.DataMovementEvent;
+import org.apache.tez.runtime.api.impl.EventType;
+import org.apache.tez.runtime.api.impl.TezEvent;
+
+/**
+ * Append-only store for the events routed to the tasks of a vertex. An event
+ * that is routed to many tasks (e.g. on a broadcast edge) is stored once and
+ * each task only keeps the int offsets of its events in an {@link IndexList}.
+ *
+ * Events are never removed or replaced, so a range of a task's offsets can be
+ * handed out as a {@link List} view without copying. Appends are expected
+ * from the dispatcher thread while heartbeat handlers read concurrently.
+ *
+ * Every attempt of a task reads the events of the task from the first one, so
+ * an event is needed for as long as a task referencing it may run another
+ * attempt. The log is released with its vertex. When a vertex re-routes the
+ * events of its tasks, e.g. on a parallelism change, it moves them to a new
+ * log and the old one is freed once the last in-flight reference to it is
+ * gone. This bounds the log by the events the tasks currently reference.
+ *
+ * A {@link CompositeDataMovementEvent} routed by the built-in
+ * {@link org.apache.tez.dag.app.dag.impl.ScatterGatherEdgeManager} is stored
+ * unexpanded. Destination task <code>i</code> consumes physical output
+ * <code>i</code> of the producing task, so the {@link DataMovementEvent} for
+ * a task is only created when the task reads it.
+ */
+public class TezEventLog {
+
+  private static final int CHUNK_SHIFT = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private volatile TezEvent[][] chunks = new TezEvent[4][];
+  // written after the event is stored, read before the event is looked up
+  private volatile int size = 0;
+
+  /**
+   * Append an event to the log.
+   * @return the offset of the event in the log
+   */
+  public synchronized int append(TezEvent event) {
+    int index = size;
+    int chunkIndex = index >> CHUNK_SHIFT;
+    TezEvent[][] currentChunks = chunks;
+    if (chunkIndex == currentChunks.length) {
+      currentChunks = Arrays.copyOf(currentChunks, currentChunks.length * 2);
+    }
+    if (currentChunks[chunkIndex] == null) {
+      currentChunks[chunkIndex] = new TezEvent[CHUNK_SIZE];
+    }
+    currentChunks[chunkIndex][index & CHUNK_MASK] = event;
+    chunks = currentChunks;
+    size = index + 1;
+    return index;
+  }
+
+  public TezEvent get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
+    return chunks[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+  }
+
+  /**
+   * Get the event at the given offset as seen by a destination task,
+   * expanding composite events for that task.
+   */
+  public TezEvent get(int index, int destTaskIndex) {
+    TezEvent tezEvent = get(index);
+    if (tezEvent.getEventType() != EventType.COMPOSITE_DATA_MOVEMENT_EVENT) {
+      return tezEvent;
+    }
+    CompositeDataMovementEvent compEvent =
+        (CompositeDataMovementEvent) tezEvent.getEvent();
+    int srcTaskIndex =
+        tezEvent.getSourceInfo().getTaskAttemptID().getTaskID().getId();
+    DataMovementEvent dmEvent = new DataMovementEvent(destTaskIndex,
+        srcTaskIndex, compEvent.getVersion(), compEvent.getUserPayload());
+    TezEvent expandedEvent = new TezEvent(dmEvent, tezEvent.getSourceInfo());
+    expandedEvent.setDestinationInfo(tezEvent.getDestinationInfo());
+    return expandedEvent;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get a read-only view of the events at the given offsets as seen by the
+   * given destination task. The range of the offset array must not be
+   * modified while the view is in use.
+   */
+  public List<TezEvent> view(int[] indices, int fromIndex, int toIndex,
+      int destTaskIndex) {
+    return new EventView(this, indices, fromIndex, toIndex, destTaskIndex);
+  }
+
+  /**
+   * Get a read-only view of a range of the offsets of an {@link IndexList}.
+   * The view stays valid when the list grows or is cleared.
+   */
+  public List<TezEvent> view(IndexList indices, int fromIndex, int toIndex,
+      int destTaskIndex) {
+    return view(indices.indices, fromIndex, toIndex, destTaskIndex);
+  }
+
+  private static class EventView extends AbstractList<TezEvent>
+      implements RandomAccess {
+
+    private final TezEventLog log;
+    private final int[] indices;
+    private final int fromIndex;
+    private final int size;
+    private final int destTaskIndex;
+
+    EventView(TezEventLog log, int[] indices, int fromIndex, int toIndex,
+        int destTaskIndex) {
+      this.log = log;
+      this.indices = indices;
+      this.fromIndex = fromIndex;
+      this.size = toIndex - fromIndex;
+      this.destTaskIndex = destTaskIndex;
+    }
+
+    @Override
+    public TezEvent get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+            + size);
+      }
+      return log.get(indices[fromIndex + index], destTaskIndex);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Growable list of primitive offsets into a {@link TezEventLog}. Entries
+   * below the current size are never overwritten: growing or clearing the
+   * list switches to a new backing array so that existing views stay valid.
+   */
+  public static class IndexList {
+
+    private static final int[] EMPTY = new int[0];
+
+    private int[] indices = EMPTY;
+    private int size = 0;
+
+    public void add(int index) {
+      if (size == indices.length) {
+        indices = Arrays.copyOf(indices, Math.max(4, size * 2));
+      }
+      indices[size++] = index;
+    }
+
+    public void addAll(int[] toAdd) {
+      if (size + toAdd.length > indices.length) {
+        indices = Arrays.copyOf(indices,
+            Math.max(size + toAdd.length, size * 2));
+      }
+      System.arraycopy(toAdd, 0, indices, size, toAdd.length);
+      size += toAdd.length;
+    }
+
+    public int get(int i) {
+      return indices[i];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int[] toArray() {
+      return Arrays.copyOf(indices, size);
+    }
+
+    public void clear() {
+      indices = EMPTY;
+      size = 0;
+    }
+  }
+}
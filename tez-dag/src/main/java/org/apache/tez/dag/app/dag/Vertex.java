@@ -63,9 +63,20 @@ public interface Vertex extends Comparable<Vertex> {
    */
   TezCounters getAllCounters();
 
+  /**
+   * Update the counters of this vertex with the current counters of one of
+   * its tasks, e.g. after an attempt of the task reported new counters.
+   * @param taskID the task whose counters may have changed
+   */
+  void updateTaskCounters(TezTaskID taskID);
+
   Map<TezTaskID, Task> getTasks();
   Task getTask(TezTaskID taskID);
   Task getTask(int taskIndex);
+  /**
+   * Get the log holding the events routed to the tasks of this vertex.
+   */
+  TezEventLog getTezEventLog();
   List<String> getDiagnostics();
   int getTotalTasks();
   int getCompletedTasks();
@@ -18,19 +18,61 @@
 
 package org.apache.tez.dag.app.dag.event;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tez.dag.app.dag.TezEventLog;
 import org.apache.tez.dag.records.TezTaskID;
 import org.apache.tez.runtime.api.impl.TezEvent;
 
 public class TaskEventAddTezEvent extends TaskEvent {
 
-  private TezEvent tezEvent;
+  private final List<TezEvent> tezEvents;
+  private final TezEventLog eventLog;
+  private final int[] eventLogIndices;
   
   public TaskEventAddTezEvent(TezTaskID taskId, TezEvent tezEvent) {
+    this(taskId, Collections.singletonList(tezEvent));
+  }
+
+  /**
+   * Deliver a batch of events to a single task with one dispatcher event.
+   * The order of the list is the order in which the events are added to the
+   * task.
+   */
+  public TaskEventAddTezEvent(TezTaskID taskId, List<TezEvent> tezEvents) {
+    super(taskId, TaskEventType.T_ADD_TEZ_EVENT);
+    this.tezEvents = tezEvents;
+    this.eventLog = null;
+    this.eventLogIndices = null;
+  }
+
+  /**
+   * Deliver events which have already been appended to the event log of the
+   * task's vertex, referenced by their offsets in the log.
+   */
+  public TaskEventAddTezEvent(TezTaskID taskId, TezEventLog eventLog,
+      int[] eventLogIndices) {
     super(taskId, TaskEventType.T_ADD_TEZ_EVENT);
-    this.tezEvent = tezEvent;
+    this.tezEvents = eventLog.view(eventLogIndices, 0, eventLogIndices.length,
+        taskId.getId());
+    this.eventLog = eventLog;
+    this.eventLogIndices = eventLogIndices;
+  }
+
+  public List<TezEvent> getTezEvents() {
+    return tezEvents;
+  }
+
+  /**
+   * @return the log the events were appended to, or null if the events have
+   * not been appended to any log
+   */
+  public TezEventLog getEventLog() {
+    return eventLog;
   }
 
-  public TezEvent getTezEvent() {
-    return tezEvent;
+  public int[] getEventLogIndices() {
+    return eventLogIndices;
   }
 }
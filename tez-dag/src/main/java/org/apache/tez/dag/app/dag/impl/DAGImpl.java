@@ -1170,8 +1170,18 @@ public class DAGImpl implements org.apache.tez.dag.app.dag.DAG,
     }
 
     private void assignDAGScheduler(DAGImpl dag) {
-      LOG.info("Using Natural order dag scheduler");
-      dag.dagScheduler = new DAGSchedulerNaturalOrder(dag, dag.eventHandler);
+      if (dag.conf.getBoolean(
+          TezConfiguration.TEZ_AM_CRITICAL_PATH_DAG_SCHEDULER_ENABLED,
+          TezConfiguration.TEZ_AM_CRITICAL_PATH_DAG_SCHEDULER_ENABLED_DEFAULT)) {
+        LOG.info("Using critical path dag scheduler");
+        dag.dagScheduler = new DAGSchedulerCriticalPath(dag, dag.eventHandler,
+            dag.clock, dag.conf.getLong(
+                TezConfiguration.TEZ_AM_CRITICAL_PATH_DAG_SCHEDULER_RERANK_INTERVAL_MS,
+                TezConfiguration.TEZ_AM_CRITICAL_PATH_DAG_SCHEDULER_RERANK_INTERVAL_MS_DEFAULT));
+      } else {
+        LOG.info("Using Natural order dag scheduler");
+        dag.dagScheduler = new DAGSchedulerNaturalOrder(dag, dag.eventHandler);
+      }
     }
 
     private VertexImpl createVertex(DAGImpl dag, String vertexName, int vId) {
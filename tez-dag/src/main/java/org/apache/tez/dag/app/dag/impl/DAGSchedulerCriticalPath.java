@@ -0,0 +1,317 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app.dag.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.yarn.api.records.Priority;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.util.Clock;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.dag.app.dag.DAG;
+import org.apache.tez.dag.app.dag.DAGScheduler;
+import org.apache.tez.dag.app.dag.TaskAttempt;
+import org.apache.tez.dag.app.dag.Vertex;
+import org.apache.tez.dag.app.dag.event.DAGEventSchedulerUpdate;
+import org.apache.tez.dag.app.dag.event.DAGEventSchedulerUpdateTAAssigned;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEventSchedule;
+import org.apache.tez.dag.app.rm.AMSchedulerEventTAPriorityUpdate;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezVertexID;
+
+/**
+ * Prioritizes the vertices with the most remaining work on their longest path
+ * to the end of the DAG, so that long chains of a bushy DAG are not starved
+ * by short branches closer to the root. The remaining work of a vertex is its
+ * number of unfinished tasks times the expected runtime of its tasks. The
+ * expected runtime is the mean of the observed runtimes of the vertex, or is
+ * derived from the input size per task while none of its tasks completed.
+ * The vertices are re-ranked as runtimes are observed and the requests of
+ * attempts still waiting for a container are moved to the new priorities by
+ * events to the task scheduler.
+ */
+@SuppressWarnings("rawtypes")
+public class DAGSchedulerCriticalPath implements DAGScheduler {
+
+  private static final Log LOG =
+      LogFactory.getLog(DAGSchedulerCriticalPath.class);
+
+  private final DAG dag;
+  private final EventHandler handler;
+  private final Clock clock;
+  private final long rerankInterval;
+
+  private long lastRerankTime;
+  // rank of each vertex, 0 being the start of the critical path
+  Map<TezVertexID, Integer> vertexRanks = null;
+  // attempts scheduled but not yet assigned a container
+  Map<TezTaskAttemptID, TaskAttempt> pendingAttempts =
+      new LinkedHashMap<TezTaskAttemptID, TaskAttempt>();
+  // total and number of observed task runtimes of each vertex
+  private final Map<TezVertexID, long[]> vertexRuntimes =
+      new HashMap<TezVertexID, long[]>();
+
+  public DAGSchedulerCriticalPath(DAG dag, EventHandler dispatcher,
+      Clock clock, long rerankInterval) {
+    this.dag = dag;
+    this.handler = dispatcher;
+    this.clock = clock;
+    this.rerankInterval = rerankInterval;
+  }
+
+  @Override
+  public void vertexCompleted(Vertex vertex) {
+    maybeRerank();
+  }
+
+  @Override
+  public void scheduleTask(DAGEventSchedulerUpdate event) {
+    maybeRerank();
+    TaskAttempt attempt = event.getAttempt();
+    Priority priority = getPriority(attempt);
+    pendingAttempts.put(attempt.getID(), attempt);
+
+    LOG.info("Scheduling " + attempt.getID() + " at priority " + priority);
+
+    TaskAttemptEventSchedule attemptEvent = new TaskAttemptEventSchedule(
+        attempt.getID(), priority);
+
+    sendEvent(attemptEvent);
+  }
+
+  @Override
+  public void taskScheduled(DAGEventSchedulerUpdateTAAssigned event) {
+    pendingAttempts.remove(event.getAttempt().getID());
+  }
+
+  @Override
+  public void taskSucceeded(DAGEventSchedulerUpdate event) {
+    TaskAttempt attempt = event.getAttempt();
+    pendingAttempts.remove(attempt.getID());
+    if (attempt.getLaunchTime() > 0
+        && attempt.getFinishTime() >= attempt.getLaunchTime()) {
+      long[] runtimes = vertexRuntimes.get(attempt.getVertexID());
+      if (runtimes == null) {
+        runtimes = new long[2];
+        vertexRuntimes.put(attempt.getVertexID(), runtimes);
+      }
+      runtimes[0] += attempt.getFinishTime() - attempt.getLaunchTime();
+      runtimes[1]++;
+    }
+    maybeRerank();
+  }
+
+  private Priority getPriority(TaskAttempt attempt) {
+    Integer rank = vertexRanks.get(attempt.getVertexID());
+    if (rank == null) {
+      // not ranked. fall back to natural order
+      rank = dag.getVertex(attempt.getVertexID()).getDistanceFromRoot();
+    }
+    int priority = (rank + 1) * 2;
+    if (attempt.getIsRescheduled()) {
+      // higher priority for retries of failed attempts, like the natural
+      // order scheduler
+      priority--;
+    }
+    return Priority.newInstance(priority);
+  }
+
+  void maybeRerank() {
+    long now = clock.getTime();
+    if (vertexRanks != null && now - lastRerankTime < rerankInterval) {
+      return;
+    }
+    lastRerankTime = now;
+    Map<TezVertexID, Integer> oldRanks = vertexRanks;
+    vertexRanks = rankVertices();
+    if (oldRanks == null || oldRanks.equals(vertexRanks)) {
+      return;
+    }
+
+    int numUpdated = 0;
+    Iterator<TaskAttempt> iter = pendingAttempts.values().iterator();
+    while (iter.hasNext()) {
+      TaskAttempt attempt = iter.next();
+      if (attempt.isFinished() || attempt.getAssignedContainerID() != null) {
+        // no longer waiting for a container
+        iter.remove();
+        continue;
+      }
+      Integer oldRank = oldRanks.get(attempt.getVertexID());
+      if (oldRank != null
+          && oldRank.equals(vertexRanks.get(attempt.getVertexID()))) {
+        continue;
+      }
+      // the scheduler ignores the update if a container got assigned
+      // meanwhile
+      sendEvent(new AMSchedulerEventTAPriorityUpdate(attempt,
+          getPriority(attempt)));
+      ++numUpdated;
+    }
+    LOG.info("Re-ranked vertices by critical path: " + vertexRanks
+        + ". Sent priority updates for " + numUpdated + " pending requests");
+  }
+
+  /**
+   * @return the rank of each vertex, ordered by decreasing remaining work on
+   *         the longest path starting at the vertex.
+   */
+  Map<TezVertexID, Integer> rankVertices() {
+    final Map<Vertex, Double> pathWork = new HashMap<Vertex, Double>();
+    Map<Vertex, Double> vertexWork = estimateRemainingWork();
+    for (Vertex vertex : dag.getVertices().values()) {
+      computePathWork(vertex, vertexWork, pathWork);
+    }
+    List<Vertex> vertices = new ArrayList<Vertex>(dag.getVertices().values());
+    Collections.sort(vertices, new Comparator<Vertex>() {
+      @Override
+      public int compare(Vertex v1, Vertex v2) {
+        int cmp = Double.compare(pathWork.get(v2), pathWork.get(v1));
+        if (cmp == 0) {
+          // ancestors before descendants on ties, e.g. finished vertices
+          // which need to re-run tasks
+          cmp = v1.getDistanceFromRoot() - v2.getDistanceFromRoot();
+        }
+        return cmp;
+      }
+    });
+    Map<TezVertexID, Integer> ranks = new HashMap<TezVertexID, Integer>();
+    for (int i = 0; i < vertices.size(); ++i) {
+      ranks.put(vertices.get(i).getVertexId(), i);
+    }
+    return ranks;
+  }
+
+  private double computePathWork(Vertex vertex, Map<Vertex, Double> vertexWork,
+      Map<Vertex, Double> pathWork) {
+    Double work = pathWork.get(vertex);
+    if (work != null) {
+      return work;
+    }
+    double maxOutputPathWork = 0;
+    Map<Vertex, Edge> outputs = vertex.getOutputVertices();
+    if (outputs != null) {
+      for (Vertex output : outputs.keySet()) {
+        maxOutputPathWork = Math.max(maxOutputPathWork,
+            computePathWork(output, vertexWork, pathWork));
+      }
+    }
+    work = vertexWork.get(vertex) + maxOutputPathWork;
+    pathWork.put(vertex, work);
+    return work;
+  }
+
+  /**
+   * @return the number of unfinished tasks of each vertex times the expected
+   *         runtime of a task of the vertex.
+   */
+  private Map<Vertex, Double> estimateRemainingWork() {
+    Map<Vertex, Double> inputBytesPerTask = new HashMap<Vertex, Double>();
+    for (Vertex vertex : dag.getVertices().values()) {
+      inputBytesPerTask.put(vertex, estimateInputBytesPerTask(vertex));
+    }
+
+    // processing rate of the vertices with observed runtimes and input sizes
+    double observedMillis = 0;
+    double observedBytes = 0;
+    long totalRuntime = 0;
+    long numRuntimes = 0;
+    for (Vertex vertex : dag.getVertices().values()) {
+      long[] runtimes = vertexRuntimes.get(vertex.getVertexId());
+      if (runtimes == null) {
+        continue;
+      }
+      totalRuntime += runtimes[0];
+      numRuntimes += runtimes[1];
+      double bytes = inputBytesPerTask.get(vertex);
+      if (bytes > 0) {
+        observedMillis += runtimes[0];
+        observedBytes += bytes * runtimes[1];
+      }
+    }
+    double millisPerByte = observedBytes > 0 ? observedMillis / observedBytes : 0;
+    // without observations all tasks count the same
+    double defaultRuntime =
+        numRuntimes > 0 ? (double) totalRuntime / numRuntimes : 1;
+
+    Map<Vertex, Double> work = new HashMap<Vertex, Double>();
+    for (Vertex vertex : dag.getVertices().values()) {
+      double taskRuntime;
+      long[] runtimes = vertexRuntimes.get(vertex.getVertexId());
+      double bytes = inputBytesPerTask.get(vertex);
+      if (runtimes != null) {
+        taskRuntime = (double) runtimes[0] / runtimes[1];
+      } else if (bytes > 0 && millisPerByte > 0) {
+        taskRuntime = bytes * millisPerByte;
+      } else {
+        taskRuntime = defaultRuntime;
+      }
+      int remainingTasks = Math.max(0,
+          vertex.getTotalTasks() - vertex.getSucceededTasks());
+      work.put(vertex, remainingTasks * taskRuntime);
+    }
+    return work;
+  }
+
+  /**
+   * @return the expected input size of a task of the vertex, projected from
+   *         the output of the completed tasks of its source vertices, or 0 if
+   *         unknown.
+   */
+  private double estimateInputBytesPerTask(Vertex vertex) {
+    Map<Vertex, Edge> inputs = vertex.getInputVertices();
+    if (inputs == null || inputs.isEmpty() || vertex.getTotalTasks() <= 0) {
+      return 0;
+    }
+    double inputBytes = 0;
+    for (Vertex input : inputs.keySet()) {
+      int succeededTasks = input.getSucceededTasks();
+      if (succeededTasks <= 0) {
+        return 0;
+      }
+      TezCounters counters = input.getAllCounters();
+      TezCounter outputBytes = counters == null ? null :
+          counters.findCounter(TaskCounter.OUTPUT_BYTES);
+      if (outputBytes == null || outputBytes.getValue() <= 0) {
+        return 0;
+      }
+      inputBytes += (double) outputBytes.getValue() * input.getTotalTasks()
+          / succeededTasks;
+    }
+    return inputBytes / vertex.getTotalTasks();
+  }
+
+  @SuppressWarnings("unchecked")
+  void sendEvent(Event event) {
+    handler.handle(event);
+  }
+
+}
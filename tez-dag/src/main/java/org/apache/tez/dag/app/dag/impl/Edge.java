@@ -19,6 +19,9 @@
 package org.apache.tez.dag.app.dag.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -31,6 +34,7 @@ import org.apache.tez.dag.api.EdgeProperty;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.dag.api.EdgeProperty.DataMovementType;
 import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.TezEventLog;
 import org.apache.tez.dag.app.dag.Vertex;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventOutputFailed;
 import org.apache.tez.dag.app.dag.event.TaskEventAddTezEvent;
@@ -48,8 +52,6 @@ import org.apache.tez.runtime.api.impl.OutputSpec;
 import org.apache.tez.runtime.api.impl.TezEvent;
 import org.apache.tez.runtime.api.impl.EventMetaData.EventProducerConsumerType;
 
-import com.google.common.collect.Maps;
-
 public class Edge {
 
   static class EdgeManagerContextImpl implements EdgeManagerContext {
@@ -192,10 +194,9 @@ public class Edge {
   public void stopEventBuffering() {
     // assume only 1 entity will start and stop event buffering
     bufferEvents.set(false);
-    for(TezEvent event : destinationEventBuffer) {
-      sendTezEventToDestinationTasks(event);
-    }
-    destinationEventBuffer.clear();
+    List<TezEvent> bufferedEvents = destinationEventBuffer;
+    destinationEventBuffer = new ArrayList<TezEvent>();
+    sendTezEventsToDestinationTasks(bufferedEvents);
     for(TezEvent event : sourceEventBuffer) {
       sendTezEventToSourceTasks(event);
     }
@@ -241,19 +242,43 @@ public class Edge {
   }
   
 
-  private void handleCompositeDataMovementEvent(TezEvent tezEvent) {
+  private void handleCompositeDataMovementEvent(TezEvent tezEvent,
+      Map<Integer, List<Integer>> inputIndicesToTaskIndices,
+      TezEventLog eventLog,
+      Map<Integer, TezEventLog.IndexList> destTaskIndicesToEvents) {
     CompositeDataMovementEvent compEvent = (CompositeDataMovementEvent) tezEvent.getEvent();
     EventMetaData srcInfo = tezEvent.getSourceInfo();
+
+    // Only the built-in manager is known to route source index i to task i,
+    // a subclass may override the routing.
+    if (edgeManager.getClass() == ScatterGatherEdgeManager.class) {
+      // Destination task i consumes source index i. Store the composite event
+      // once and let the event log expand it when the task reads its events.
+      // The routed copy carries the destination so that the event handed in
+      // is not modified.
+      TezEvent routedEvent = new TezEvent(compEvent, srcInfo);
+      routedEvent.setDestinationInfo(destinationMetaInfo);
+      int eventLogIndex = eventLog.append(routedEvent);
+      for (int destTaskIndex = compEvent.getSourceIndexStart();
+          destTaskIndex < compEvent.getSourceIndexEnd(); ++destTaskIndex) {
+        addEventLogIndex(destTaskIndicesToEvents,
+            Integer.valueOf(destTaskIndex), eventLogIndex);
+      }
+      return;
+    }
     
     for (DataMovementEvent dmEvent : compEvent.getEvents()) {
       TezEvent newEvent = new TezEvent(dmEvent, srcInfo);
-      sendTezEventToDestinationTasks(newEvent);
+      routeTezEventToDestinationTasks(newEvent, inputIndicesToTaskIndices,
+          eventLog, destTaskIndicesToEvents);
     }
   }
   
   void sendDmEventOrIfEventToTasks(TezEvent tezEvent, int srcTaskIndex,
       boolean isDataMovementEvent,
-      Map<Integer, List<Integer>> ifInputIndicesToTaskIndices) {
+      Map<Integer, List<Integer>> ifInputIndicesToTaskIndices,
+      TezEventLog eventLog,
+      Map<Integer, TezEventLog.IndexList> destTaskIndicesToEvents) {
     int num = 0;
     Event event = tezEvent.getEvent();
     for (Map.Entry<Integer, List<Integer>> entry : ifInputIndicesToTaskIndices.entrySet()) {
@@ -279,70 +304,118 @@ public class Edge {
         tezEventToSend = new TezEvent(e, tezEvent.getSourceInfo());
       }
       tezEventToSend.setDestinationInfo(destinationMetaInfo);
+      // stored once, the destination tasks only reference its offset
+      int eventLogIndex = eventLog.append(tezEventToSend);
       for(Integer destTaskIndex : entry.getValue()) {
-        Task destTask = destinationVertex.getTask(destTaskIndex);
-        if (destTask == null) {
-          throw new TezUncheckedException("Unexpected null task." +
-              " sourceVertex=" + sourceVertex.getVertexId() +
-              " srcIndex = " + srcTaskIndex +
-              " destAttemptId=" + destinationVertex.getVertexId() +
-              " destIndex=" + destTaskIndex + 
-              " edgeManager=" + edgeManager.getClass().getName());
-        }
-        TezTaskID destTaskId = destTask.getTaskId();
-        sendEventToTask(destTaskId, tezEventToSend);
+        addEventLogIndex(destTaskIndicesToEvents, destTaskIndex, eventLogIndex);
       }
     }
   }
+
+  private static void addEventLogIndex(
+      Map<Integer, TezEventLog.IndexList> destTaskIndicesToEvents,
+      Integer destTaskIndex, int eventLogIndex) {
+    TezEventLog.IndexList destTaskEvents =
+        destTaskIndicesToEvents.get(destTaskIndex);
+    if (destTaskEvents == null) {
+      destTaskEvents = new TezEventLog.IndexList();
+      destTaskIndicesToEvents.put(destTaskIndex, destTaskEvents);
+    }
+    destTaskEvents.add(eventLogIndex);
+  }
   
   public void sendTezEventToDestinationTasks(TezEvent tezEvent) {
-    if (!bufferEvents.get()) {
-      boolean isDataMovementEvent = true;
-      switch (tezEvent.getEventType()) {
-      case COMPOSITE_DATA_MOVEMENT_EVENT:
-        handleCompositeDataMovementEvent(tezEvent);
-        break;
-      case INPUT_FAILED_EVENT:
-        isDataMovementEvent = false;
-        // fall through
-      case DATA_MOVEMENT_EVENT:
-        Map<Integer, List<Integer>> inputIndicesToTaskIndices = Maps
-        .newHashMap();
-        TezTaskAttemptID srcAttemptId = tezEvent.getSourceInfo()
-            .getTaskAttemptID();
-        int srcTaskIndex = srcAttemptId.getTaskID().getId();
-        if (isDataMovementEvent) {
-          DataMovementEvent dmEvent = (DataMovementEvent)tezEvent.getEvent();
-          edgeManager.routeDataMovementEventToDestination(dmEvent,
-                srcTaskIndex, destinationVertex.getTotalTasks(),
-                inputIndicesToTaskIndices);
-        } else {
-          edgeManager.routeInputSourceTaskFailedEventToDestination(srcTaskIndex,
-              destinationVertex.getTotalTasks(), inputIndicesToTaskIndices);
-        }
-        if (!inputIndicesToTaskIndices.isEmpty()) {
-          sendDmEventOrIfEventToTasks(tezEvent, srcTaskIndex, isDataMovementEvent, inputIndicesToTaskIndices);
-        } else {
-          throw new TezUncheckedException("Event must be routed." +
-              " sourceVertex=" + sourceVertex.getVertexId() +
-              " srcIndex = " + srcTaskIndex +
-              " destAttemptId=" + destinationVertex.getVertexId() +
-              " edgeManager=" + edgeManager.getClass().getName() + 
-              " Event type=" + tezEvent.getEventType());
-        }
-        break;
-      default:
-        throw new TezUncheckedException("Unhandled tez event type: "
-            + tezEvent.getEventType());
+    sendTezEventsToDestinationTasks(Collections.singletonList(tezEvent));
+  }
+
+  /**
+   * Route a batch of events to the destination tasks of this edge. Events
+   * are grouped by destination task so that each task receives a single
+   * {@link TaskEventAddTezEvent} for the whole batch, in routing order.
+   * Each routed event is appended once to the destination vertex's
+   * {@link TezEventLog} and tasks reference it by offset.
+   */
+  public void sendTezEventsToDestinationTasks(List<TezEvent> tezEvents) {
+    if (bufferEvents.get()) {
+      destinationEventBuffer.addAll(tezEvents);
+      return;
+    }
+    TezEventLog eventLog = destinationVertex.getTezEventLog();
+    Map<Integer, TezEventLog.IndexList> destTaskIndicesToEvents =
+        new LinkedHashMap<Integer, TezEventLog.IndexList>();
+    // reused across the batch, the edge manager only adds to the map
+    Map<Integer, List<Integer>> inputIndicesToTaskIndices =
+        new HashMap<Integer, List<Integer>>();
+    for (TezEvent tezEvent : tezEvents) {
+      routeTezEventToDestinationTasks(tezEvent, inputIndicesToTaskIndices,
+          eventLog, destTaskIndicesToEvents);
+    }
+    for (Map.Entry<Integer, TezEventLog.IndexList> entry :
+        destTaskIndicesToEvents.entrySet()) {
+      int destTaskIndex = entry.getKey().intValue();
+      Task destTask = destinationVertex.getTask(destTaskIndex);
+      if (destTask == null) {
+        throw new TezUncheckedException("Unexpected null task." +
+            " sourceVertex=" + sourceVertex.getVertexId() +
+            " destAttemptId=" + destinationVertex.getVertexId() +
+            " destIndex=" + destTaskIndex + 
+            " edgeManager=" + edgeManager.getClass().getName());
       }
-    } else {
-      destinationEventBuffer.add(tezEvent);
+      sendEventsToTask(destTask.getTaskId(), eventLog,
+          entry.getValue().toArray());
+    }
+  }
+
+  private void routeTezEventToDestinationTasks(TezEvent tezEvent,
+      Map<Integer, List<Integer>> inputIndicesToTaskIndices,
+      TezEventLog eventLog,
+      Map<Integer, TezEventLog.IndexList> destTaskIndicesToEvents) {
+    boolean isDataMovementEvent = true;
+    switch (tezEvent.getEventType()) {
+    case COMPOSITE_DATA_MOVEMENT_EVENT:
+      handleCompositeDataMovementEvent(tezEvent, inputIndicesToTaskIndices,
+          eventLog, destTaskIndicesToEvents);
+      break;
+    case INPUT_FAILED_EVENT:
+      isDataMovementEvent = false;
+      // fall through
+    case DATA_MOVEMENT_EVENT:
+      inputIndicesToTaskIndices.clear();
+      TezTaskAttemptID srcAttemptId = tezEvent.getSourceInfo()
+          .getTaskAttemptID();
+      int srcTaskIndex = srcAttemptId.getTaskID().getId();
+      if (isDataMovementEvent) {
+        DataMovementEvent dmEvent = (DataMovementEvent)tezEvent.getEvent();
+        edgeManager.routeDataMovementEventToDestination(dmEvent,
+              srcTaskIndex, destinationVertex.getTotalTasks(),
+              inputIndicesToTaskIndices);
+      } else {
+        edgeManager.routeInputSourceTaskFailedEventToDestination(srcTaskIndex,
+            destinationVertex.getTotalTasks(), inputIndicesToTaskIndices);
+      }
+      if (!inputIndicesToTaskIndices.isEmpty()) {
+        sendDmEventOrIfEventToTasks(tezEvent, srcTaskIndex, isDataMovementEvent,
+            inputIndicesToTaskIndices, eventLog, destTaskIndicesToEvents);
+      } else {
+        throw new TezUncheckedException("Event must be routed." +
+            " sourceVertex=" + sourceVertex.getVertexId() +
+            " srcIndex = " + srcTaskIndex +
+            " destAttemptId=" + destinationVertex.getVertexId() +
+            " edgeManager=" + edgeManager.getClass().getName() + 
+            " Event type=" + tezEvent.getEventType());
+      }
+      break;
+    default:
+      throw new TezUncheckedException("Unhandled tez event type: "
+          + tezEvent.getEventType());
     }
   }
   
   @SuppressWarnings("unchecked")
-  private void sendEventToTask(TezTaskID taskId, TezEvent tezEvent) {
-    eventHandler.handle(new TaskEventAddTezEvent(taskId, tezEvent));
+  private void sendEventsToTask(TezTaskID taskId, TezEventLog eventLog,
+      int[] eventLogIndices) {
+    eventHandler.handle(new TaskEventAddTezEvent(taskId, eventLog,
+        eventLogIndices));
   }
 
   public String getSourceVertexName() {
@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -137,6 +138,10 @@ public class TaskAttemptImpl implements TaskAttempt,
 
   private TaskAttemptStatus reportedStatus;
   private DAGCounter localityCounter;
+  // an update with all counters of the attempt was received
+  private boolean fullCountersReceived = false;
+  // changed counters arrived before any full update, ask the task for all
+  private final AtomicBoolean fullCountersRequested = new AtomicBoolean(false);
 
   // Used to store locality information when
   Set<String> taskHosts = new HashSet<String>();
@@ -712,6 +717,7 @@ public class TaskAttemptImpl implements TaskAttempt,
           + " of type " + event.getType() + " while in state "
           + getInternalState() + ". Event: " + event);
     }
+    boolean countersChanged;
     writeLock.lock();
     try {
       final TaskAttemptStateInternal oldState = getInternalState();
@@ -736,9 +742,15 @@ public class TaskAttemptImpl implements TaskAttempt,
            + getInternalState() + " due to event "
            + event.getType());
       }
+      // new counters, or a finished attempt no longer counting for the task
+      countersChanged = event.getType() == TaskAttemptEventType.TA_STATUS_UPDATE
+          || oldState != getInternalState();
     } finally {
       writeLock.unlock();
     }
+    if (countersChanged) {
+      getVertex().updateTaskCounters(attemptId.getTaskID());
+    }
   }
 
   @VisibleForTesting
@@ -780,6 +792,11 @@ public class TaskAttemptImpl implements TaskAttempt,
     return isRescheduled;
   }
 
+  @Override
+  public boolean pollFullCountersRequest() {
+    return fullCountersRequested.getAndSet(false);
+  }
+
   @SuppressWarnings("unchecked")
   private void sendEvent(Event<?> event) {
     this.eventHandler.handle(event);
@@ -1253,7 +1270,16 @@ public class TaskAttemptImpl implements TaskAttempt,
           .getStatusEvent();
       ta.reportedStatus.state = ta.getState();
       ta.reportedStatus.progress = statusEvent.getProgress();
-      ta.reportedStatus.counters = statusEvent.getCounters();
+      TezCounters counters = statusEvent.applyCounters(
+          ta.fullCountersReceived ? ta.reportedStatus.counters : null);
+      if (counters == null && statusEvent.hasChangedCountersOnly()) {
+        // nothing to apply the changes to, e.g. the full update was lost.
+        // Keep the counters and have the task send all of them again
+        ta.fullCountersRequested.set(true);
+      } else {
+        ta.reportedStatus.counters = counters;
+        ta.fullCountersReceived = true;
+      }
 
       ta.updateProgressSplits();
 
@@ -21,9 +21,11 @@ package org.apache.tez.dag.app.dag.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -58,6 +60,7 @@ import org.apache.tez.dag.app.dag.Task;
 import org.apache.tez.dag.app.dag.TaskAttempt;
 import org.apache.tez.dag.app.dag.TaskAttemptStateInternal;
 import org.apache.tez.dag.app.dag.TaskStateInternal;
+import org.apache.tez.dag.app.dag.TezEventLog;
 import org.apache.tez.dag.app.dag.Vertex;
 import org.apache.tez.dag.app.dag.event.DAGEvent;
 import org.apache.tez.dag.app.dag.event.DAGEventDiagnosticsUpdate;
@@ -68,6 +71,7 @@ import org.apache.tez.dag.app.dag.event.TaskEvent;
 import org.apache.tez.dag.app.dag.event.TaskEventAddTezEvent;
 import org.apache.tez.dag.app.dag.event.TaskEventTAUpdate;
 import org.apache.tez.dag.app.dag.event.TaskEventType;
+import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
 import org.apache.tez.dag.app.dag.event.VertexEventTaskAttemptCompleted;
 import org.apache.tez.dag.app.dag.event.VertexEventTaskCompleted;
 import org.apache.tez.dag.app.dag.event.VertexEventTaskReschedule;
@@ -79,6 +83,9 @@ import org.apache.tez.dag.history.events.TaskStartedEvent;
 import org.apache.tez.dag.records.TezTaskAttemptID;
 import org.apache.tez.dag.records.TezTaskID;
 import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.runtime.api.events.InputFailedEvent;
+import org.apache.tez.runtime.api.impl.EventMetaData;
+import org.apache.tez.runtime.api.impl.EventMetaData.EventProducerConsumerType;
 import org.apache.tez.runtime.api.impl.TezEvent;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -113,7 +120,11 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
 
   protected TaskLocationHint locationHint;
 
-  private List<TezEvent> tezEventsForTaskAttempts = new ArrayList<TezEvent>();
+  // events for this task are kept in the vertex level log, the task only
+  // tracks their offsets
+  private TezEventLog tezEventLog;
+  private final TezEventLog.IndexList tezEventIndicesForTaskAttempts =
+      new TezEventLog.IndexList();
   private static final List<TezEvent> EMPTY_TASK_ATTEMPT_TEZ_EVENTS =
       new ArrayList(0);
 
@@ -288,6 +299,10 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
 
   private TezTaskAttemptID successfulAttempt;
 
+  // attempts whose outputs have been declared obsolete to the consumers
+  private final Set<TezTaskAttemptID> obsoleteAttempts =
+      new HashSet<TezTaskAttemptID>();
+
   private int failedAttempts;
   private int finishedAttempts;//finish are total of success, failed and killed
 
@@ -308,7 +323,7 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
       TaskAttemptListener taskAttemptListener,
       Clock clock, TaskHeartbeatHandler thh, AppContext appContext,
       boolean leafVertex, TaskLocationHint locationHint, Resource resource,
-      ContainerContext containerContext) {
+      ContainerContext containerContext, TezEventLog tezEventLog) {
     this.conf = conf;
     this.clock = clock;
     ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
@@ -328,6 +343,7 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
     this.locationHint = locationHint;
     this.taskResource = resource;
     this.containerContext = containerContext;
+    this.tezEventLog = tezEventLog;
     stateMachine = stateMachineFactory.make(this);
   }
 
@@ -466,12 +482,14 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
     }
 
     try {
-      if (tezEventsForTaskAttempts.size() > fromEventId) {
-        int actualMax = Math.min(maxEvents,
-            (tezEventsForTaskAttempts.size() - fromEventId));
+      int numEvents = tezEventIndicesForTaskAttempts.size();
+      if (numEvents > fromEventId) {
+        int actualMax = Math.min(maxEvents, (numEvents - fromEventId));
         int toEventId = actualMax + fromEventId;
-        events = Collections.unmodifiableList(new ArrayList<TezEvent>(
-            tezEventsForTaskAttempts.subList(fromEventId, toEventId)));
+        // offsets below the current size are never modified, so the view
+        // stays stable after the lock is released
+        events = tezEventLog.view(tezEventIndicesForTaskAttempts, fromEventId,
+            toEventId, taskId.getId());
         LOG.info("TaskAttempt:" + attemptID + " sent events: (" + fromEventId
             + "-" + toEventId + ")");
         // currently not modifying the events so that we dont have to create
@@ -492,14 +510,22 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
   }
 
   @Override
-  public List<TezEvent> getAndClearTaskTezEvents() {
-    readLock.lock();
+  public List<TezEvent> getAndClearTaskTezEvents(TezEventLog newEventLog) {
+    writeLock.lock();
     try {
-      List<TezEvent> events = tezEventsForTaskAttempts;
-      tezEventsForTaskAttempts = new ArrayList<TezEvent>();
+      int numEvents = tezEventIndicesForTaskAttempts.size();
+      List<TezEvent> events = new ArrayList<TezEvent>(numEvents);
+      for (int i = 0; i < numEvents; ++i) {
+        events.add(tezEventLog.get(tezEventIndicesForTaskAttempts.get(i),
+            taskId.getId()));
+      }
+      tezEventIndicesForTaskAttempts.clear();
+      // events still in flight to the task from the old log are copied when
+      // they arrive
+      tezEventLog = newEventLog;
       return events;
     } finally {
-      readLock.unlock();
+      writeLock.unlock();
     }
   }
 
@@ -682,6 +708,16 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
     }
   }
 
+  @Override
+  public boolean isAttemptOutputObsolete(TezTaskAttemptID attemptID) {
+    readLock.lock();
+    try {
+      return obsoleteAttempts.contains(attemptID);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
   TaskAttemptImpl createAttempt(int attemptNumber) {
     return new TaskAttemptImpl(getTaskId(), attemptNumber, eventHandler,
         taskAttemptListener, conf, clock, taskHeartbeatHandler, appContext,
@@ -936,6 +972,30 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
     }
   }
 
+  /**
+   * Tell the consumers of this task that the outputs of the given attempt are
+   * obsolete. Used for attempts that lost to a concurrent attempt, e.g. a
+   * speculative one, and may already have published outputs. Data movement
+   * events the attempt sends afterwards are dropped by the vertex.
+   */
+  private void obsoleteAttemptOutputs(TezTaskAttemptID attemptId) {
+    obsoleteAttempts.add(attemptId);
+    Vertex vertex = getVertex();
+    Map<Vertex, Edge> edges = vertex.getOutputVertices();
+    if (edges != null && !edges.isEmpty()) {
+      List<TezEvent> tezIfEvents = new ArrayList<TezEvent>(edges.size());
+      for (Vertex edgeVertex : edges.keySet()) {
+        tezIfEvents.add(new TezEvent(new InputFailedEvent(),
+            new EventMetaData(EventProducerConsumerType.SYSTEM,
+                vertex.getName(),
+                edgeVertex.getName(),
+                attemptId)));
+      }
+      eventHandler.handle(new VertexEventRouteEvent(vertex.getVertexId(),
+          tezIfEvents));
+    }
+  }
+
   private static class AttemptSucceededTransition
       implements SingleArcTransition<TaskImpl, TaskEvent> {
     @Override
@@ -973,6 +1033,9 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
           LOG.info("Issuing kill to other attempt " + attempt.getID());
           task.eventHandler.handle(new TaskAttemptEventKillRequest(attempt
               .getID(), "Alternate attempt succeeded"));
+          if (!task.leafVertex && attempt.getLaunchTime() > 0) {
+            task.obsoleteAttemptOutputs(attempt.getID());
+          }
         }
       }
       // send notification to DAG scheduler
@@ -1222,7 +1285,15 @@ public class TaskImpl implements Task, EventHandler<TaskEvent> {
     @Override
     public void transition(TaskImpl task, TaskEvent event) {
       TaskEventAddTezEvent addEvent = (TaskEventAddTezEvent) event;
-      task.tezEventsForTaskAttempts.add(addEvent.getTezEvent());
+      if (addEvent.getEventLog() == task.tezEventLog) {
+        task.tezEventIndicesForTaskAttempts.addAll(
+            addEvent.getEventLogIndices());
+      } else {
+        for (TezEvent tezEvent : addEvent.getTezEvents()) {
+          task.tezEventIndicesForTaskAttempts.add(
+              task.tezEventLog.append(tezEvent));
+        }
+      }
     }
   }
 
@@ -19,6 +19,7 @@ package org.apache.tez.dag.app.dag.impl;
 
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -50,6 +51,8 @@ import org.apache.hadoop.yarn.state.SingleArcTransition;
 import org.apache.hadoop.yarn.state.StateMachine;
 import org.apache.hadoop.yarn.state.StateMachineFactory;
 import org.apache.hadoop.yarn.util.Clock;
+import org.apache.tez.common.counters.CounterGroup;
+import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.dag.api.DagTypeConverters;
 import org.apache.tez.dag.api.EdgeManagerContext;
@@ -60,6 +63,7 @@ import org.apache.tez.dag.api.EdgeManager;
 import org.apache.tez.dag.api.InputDescriptor;
 import org.apache.tez.dag.api.OutputDescriptor;
 import org.apache.tez.dag.api.ProcessorDescriptor;
+import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.dag.api.VertexLocationHint;
 import org.apache.tez.dag.api.VertexLocationHint.TaskLocationHint;
@@ -80,6 +84,7 @@ import org.apache.tez.dag.app.dag.RootInputInitializerRunner;
 import org.apache.tez.dag.app.dag.Task;
 import org.apache.tez.dag.app.dag.TaskAttemptStateInternal;
 import org.apache.tez.dag.app.dag.TaskTerminationCause;
+import org.apache.tez.dag.app.dag.TezEventLog;
 import org.apache.tez.dag.app.dag.Vertex;
 import org.apache.tez.dag.app.dag.VertexState;
 import org.apache.tez.dag.app.dag.VertexTerminationCause;
@@ -110,10 +115,12 @@ import org.apache.tez.dag.app.dag.event.VertexEventType;
 import org.apache.tez.dag.app.dag.event.VertexEventOneToOneSourceSplit;
 import org.apache.tez.dag.app.dag.impl.DAGImpl.VertexGroupInfo;
 import org.apache.tez.dag.history.DAGHistoryEvent;
+import org.apache.tez.dag.history.events.VertexCheckpointEvent;
 import org.apache.tez.dag.history.events.VertexDataMovementEventsGeneratedEvent;
 import org.apache.tez.dag.history.events.VertexFinishedEvent;
 import org.apache.tez.dag.history.events.VertexInitializedEvent;
 import org.apache.tez.dag.history.events.VertexStartedEvent;
+import org.apache.tez.dag.library.vertexmanager.PipelinedVertexManager;
 import org.apache.tez.dag.library.vertexmanager.ShuffleVertexManager;
 import org.apache.tez.dag.records.TezDAGID;
 import org.apache.tez.dag.records.TezTaskAttemptID;
@@ -177,6 +184,16 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
   volatile LinkedHashMap<TezTaskID, Task> tasks = new LinkedHashMap<TezTaskID, Task>();
   private Object fullCountersLock = new Object();
   private TezCounters fullCounters = null;
+  // running total of the task counters, updated on the dispatcher thread
+  // with the difference to the counters each task contributed last
+  private final TezCounters runningCounters = new TezCounters();
+  private final Map<TezTaskID, TezCounters> runningTaskCounters =
+      Maps.newHashMap();
+  // copy of the running total handed out until the total changes
+  private volatile TezCounters runningCountersSnapshot = null;
+  // a recovery checkpoint is written every this many succeeded tasks
+  private final int checkpointTaskInterval;
+  private int succeededTaskCountAtCheckpoint = 0;
   private Resource taskResource;
 
   private Configuration conf;
@@ -463,6 +480,8 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
   private int numInitializedInputs;
   private boolean startSignalPending = false;
   List<TezEvent> pendingRouteEvents = null;
+  // shared storage for the events routed to the tasks of this vertex
+  private volatile TezEventLog tezEventLog = new TezEventLog();
   List<TezTaskAttemptID> pendingReportedSrcCompletions = Lists.newLinkedList();
 
   private RootInputInitializerRunner rootInputInitializer;
@@ -502,6 +521,9 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
     this.clock = clock;
     this.appContext = appContext;
     this.commitVertexOutputs = commitVertexOutputs;
+    this.checkpointTaskInterval = conf.getInt(
+        TezConfiguration.DAG_RECOVERY_VERTEX_CHECKPOINT_TASK_INTERVAL,
+        TezConfiguration.DAG_RECOVERY_VERTEX_CHECKPOINT_TASK_INTERVAL_DEFAULT);
 
     this.taskAttemptListener = taskAttemptListener;
     this.taskHeartbeatHandler = thh;
@@ -588,6 +610,11 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
     }
   }
 
+  @Override
+  public TezEventLog getTezEventLog() {
+    return tezEventLog;
+  }
+
   @Override
   public Task getTask(int taskIndex) {
     readLock.lock();
@@ -663,14 +690,53 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
         return fullCounters;
       }
 
-      TezCounters counters = new TezCounters();
-      return incrTaskCounters(counters, tasks.values());
+      TezCounters counters = runningCountersSnapshot;
+      if (counters == null) {
+        synchronized (runningCounters) {
+          counters = new TezCounters();
+          counters.incrAllCounters(runningCounters);
+          runningCountersSnapshot = counters;
+        }
+      }
+      return counters;
 
     } finally {
       readLock.unlock();
     }
   }
 
+  @Override
+  public void updateTaskCounters(TezTaskID taskID) {
+    Task task = tasks.get(taskID);
+    if (task == null) {
+      return;
+    }
+    // read outside of the lock, the task locks its attempts
+    TezCounters counters = task.getCounters();
+    synchronized (runningCounters) {
+      TezCounters previous = runningTaskCounters.put(taskID, counters);
+      if (previous == counters) {
+        // attempts replace their counters instead of modifying them
+        return;
+      }
+      if (previous != null) {
+        decrAllCounters(runningCounters, previous);
+      }
+      runningCounters.incrAllCounters(counters);
+      runningCountersSnapshot = null;
+    }
+  }
+
+  private static void decrAllCounters(TezCounters counters,
+      TezCounters other) {
+    for (CounterGroup group : other) {
+      for (TezCounter counter : group) {
+        counters.findCounter(group.getName(), counter.getName())
+            .increment(-counter.getValue());
+      }
+    }
+  }
+
   public static TezCounters incrTaskCounters(
       TezCounters counters, Collection<Task> tasks) {
     for (Task task : tasks) {
@@ -883,6 +949,9 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
         // assign to local variable of LinkedHashMap to make sure that changing
         // type of task causes compile error. We depend on LinkedHashMap for order
         LinkedHashMap<TezTaskID, Task> currentTasks = this.tasks;
+        // the events are re-routed to a new log so that the old one can be
+        // released
+        tezEventLog = new TezEventLog();
         Iterator<Map.Entry<TezTaskID, Task>> iter = currentTasks.entrySet()
             .iterator();
         int i = 0;
@@ -896,7 +965,7 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
                     + " for vertex: " + getVertexId() + " name: " + getName());
             return false;
           }
-          pendingEvents.addAll(task.getAndClearTaskTezEvents());
+          pendingEvents.addAll(task.getAndClearTaskTezEvents(tezEventLog));
           if (i <= parallelism) {
             continue;
           }
@@ -933,12 +1002,23 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
         // So they can only get events generated from source task attempts that
         // have already been started.
         DAG dag = getDAG();
+        Map<Edge, List<TezEvent>> pendingEventsPerEdge =
+            new LinkedHashMap<Edge, List<TezEvent>>();
         for(TezEvent event : pendingEvents) {
           TezVertexID sourceVertexId = event.getSourceInfo().getTaskAttemptID()
               .getTaskID().getVertexID();
           Vertex sourceVertex = dag.getVertex(sourceVertexId);
           Edge sourceEdge = sourceVertices.get(sourceVertex);
-          sourceEdge.sendTezEventToDestinationTasks(event);
+          List<TezEvent> edgeEvents = pendingEventsPerEdge.get(sourceEdge);
+          if (edgeEvents == null) {
+            edgeEvents = new ArrayList<TezEvent>();
+            pendingEventsPerEdge.put(sourceEdge, edgeEvents);
+          }
+          edgeEvents.add(event);
+        }
+        for (Map.Entry<Edge, List<TezEvent>> entry :
+            pendingEventsPerEdge.entrySet()) {
+          entry.getKey().sendTezEventsToDestinationTasks(entry.getValue());
         }
   
         // stop buffering events
@@ -1331,7 +1411,7 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
               (this.targetVertices != null ?
                 this.targetVertices.isEmpty() : true),
               locHint, this.taskResource,
-              this.containerContext);
+              this.containerContext, this.tezEventLog);
       this.addTask(task);
       if(LOG.isDebugEnabled()) {
         LOG.debug("Created task for vertex " + this.getVertexId() + ": " +
@@ -1426,7 +1506,27 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
             + pluginDesc.getClassName() + " on vertex: " + vertex.getName());
         vertex.vertexManager = new VertexManager(pluginDesc, vertex, vertex.appContext);
       } else {
-        if (hasBipartite) {
+        boolean usePipelined = vertex.conf.getBoolean(
+            PipelinedVertexManager.TEZ_AM_PIPELINED_VERTEX_MANAGER_ENABLED,
+            PipelinedVertexManager.TEZ_AM_PIPELINED_VERTEX_MANAGER_ENABLED_DEFAULT);
+        // the PipelinedVertexManager cannot change the parallelism of the
+        // vertex, so auto parallelism keeps the ShuffleVertexManager
+        if (usePipelined && hasBipartite
+            && vertex.appContext.getAMConf().getBoolean(
+                ShuffleVertexManager.TEZ_AM_SHUFFLE_VERTEX_MANAGER_ENABLE_AUTO_PARALLEL,
+                ShuffleVertexManager.TEZ_AM_SHUFFLE_VERTEX_MANAGER_ENABLE_AUTO_PARALLEL_DEFAULT)) {
+          LOG.info("Not using PipelinedVertexManager for "
+              + vertex.logIdentifier + " since auto parallelism is enabled");
+          usePipelined = false;
+        }
+        if (usePipelined && vertex.sourceVertices != null
+            && !vertex.sourceVertices.isEmpty()
+            && vertex.inputsWithInitializers == null) {
+          LOG.info("Setting vertexManager to PipelinedVertexManager for "
+              + vertex.logIdentifier);
+          vertex.vertexManager = new VertexManager(
+              new PipelinedVertexManager(), vertex, vertex.appContext);
+        } else if (hasBipartite) {
           // setup vertex manager
           // TODO this needs to consider data size and perhaps API.
           // Currently implicitly BIPARTITE is the only edge type
@@ -1937,6 +2037,7 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
 
     private void taskSucceeded(VertexImpl vertex, Task task) {
       vertex.succeededTaskCount++;
+      vertex.maybeWriteCheckpoint();
       // TODO Metrics
       // job.metrics.completedTask(task);
     }
@@ -1957,6 +2058,28 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
     }
   }
 
+  private void maybeWriteCheckpoint() {
+    if (!appContext.isRecoveryEnabled() || checkpointTaskInterval <= 0
+        || succeededTaskCount - succeededTaskCountAtCheckpoint
+            < checkpointTaskInterval) {
+      return;
+    }
+    succeededTaskCountAtCheckpoint = succeededTaskCount;
+    BitSet succeededTasks = new BitSet(numTasks);
+    List<Task> succeeded = new ArrayList<Task>(succeededTaskCount);
+    for (Task task : tasks.values()) {
+      if (task.getState() == TaskState.SUCCEEDED) {
+        succeededTasks.set(task.getTaskId().getId());
+        succeeded.add(task);
+      }
+    }
+    VertexCheckpointEvent checkpointEvent = new VertexCheckpointEvent(
+        vertexId, clock.getTime(), numTasks, succeededTasks,
+        incrTaskCounters(new TezCounters(), succeeded));
+    appContext.getHistoryHandler().handle(
+        new DAGHistoryEvent(getDAGId(), checkpointEvent));
+  }
+
   private static class TaskRescheduledTransition implements
       SingleArcTransition<VertexImpl, VertexEvent> {
     @Override
@@ -2026,6 +2149,21 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
     }
   }
 
+  /**
+   * Is the event a data movement event of an attempt of this vertex whose
+   * outputs were already declared obsolete.
+   */
+  private static boolean isFromObsoleteAttempt(Vertex vertex,
+      TezEvent tezEvent) {
+    if (tezEvent.getEventType() != EventType.DATA_MOVEMENT_EVENT
+        && tezEvent.getEventType() != EventType.COMPOSITE_DATA_MOVEMENT_EVENT) {
+      return false;
+    }
+    TezTaskAttemptID srcTaId = tezEvent.getSourceInfo().getTaskAttemptID();
+    Task task = vertex.getTask(srcTaId.getTaskID());
+    return task != null && task.isAttemptOutputObsolete(srcTaId);
+  }
+
   private static class RouteEventsWhileInitializingTransition implements
       SingleArcTransition<VertexImpl, VertexEvent> {
 
@@ -2053,7 +2191,8 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
         List<TezEvent> dataMovementEvents =
             Lists.newArrayList();
         for (TezEvent tezEvent : tezEvents) {
-          if (!isEventFromVertex(vertex, tezEvent.getSourceInfo())) {
+          if (!isEventFromVertex(vertex, tezEvent.getSourceInfo())
+              || isFromObsoleteAttempt(vertex, tezEvent)) {
             continue;
           }
           if  (tezEvent.getEventType().equals(EventType.COMPOSITE_DATA_MOVEMENT_EVENT)
@@ -2070,6 +2209,13 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
               new DAGHistoryEvent(vertex.getDAGId(), historyEvent));
         }
       }
+      // Events are grouped per destination vertex and per source edge so that
+      // a batch results in one dispatcher event per destination instead of
+      // one per event. Insertion order keeps per-destination ordering intact.
+      Map<TezVertexID, List<TezEvent>> eventsForOtherVertices =
+          new LinkedHashMap<TezVertexID, List<TezEvent>>();
+      Map<Edge, List<TezEvent>> eventsForSourceEdges =
+          new LinkedHashMap<Edge, List<TezEvent>>();
       for(TezEvent tezEvent : tezEvents) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Vertex: " + vertex.getName() + " routing event: "
@@ -2084,6 +2230,13 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
             if (isEventFromVertex(vertex, sourceMeta)) {
               // event from this vertex. send to destination vertex
               TezTaskAttemptID srcTaId = sourceMeta.getTaskAttemptID();
+              if (isFromObsoleteAttempt(vertex, tezEvent)) {
+                // the consumers have been told to discard the outputs of
+                // this attempt
+                LOG.info("Dropping " + tezEvent.getEventType()
+                    + " from obsolete attempt " + srcTaId);
+                continue;
+              }
               if (tezEvent.getEventType() == EventType.DATA_MOVEMENT_EVENT) {
                 ((DataMovementEvent) tezEvent.getEvent()).setVersion(srcTaId.getId());
               } else if (tezEvent.getEventType() == EventType.COMPOSITE_DATA_MOVEMENT_EVENT) { 
@@ -2098,8 +2251,8 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
                     sourceMeta.getEdgeVertexName() + " for event vertex: " +
                     vertex.getVertexId());
               }
-              vertex.eventHandler.handle(new VertexEventRouteEvent(destVertex
-                  .getVertexId(), Collections.singletonList(tezEvent)));
+              addToBatch(eventsForOtherVertices, destVertex.getVertexId(),
+                  tezEvent);
             } else {
               // event not from this vertex. must have come from source vertex.
               // send to tasks
@@ -2110,7 +2263,7 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
                     sourceMeta.getTaskVertexName() + " for destination vertex: " +
                     vertex.getVertexId());
               }
-              srcEdge.sendTezEventToDestinationTasks(tezEvent);
+              addToBatch(eventsForSourceEdges, srcEdge, tezEvent);
             }
           }
           break;
@@ -2129,8 +2282,7 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
           if (target == vertex) {
             vertex.vertexManager.onVertexManagerEventReceived(vmEvent);
           } else {
-            vertex.eventHandler.handle(new VertexEventRouteEvent(target
-                .getVertexId(), Collections.singletonList(tezEvent)));
+            addToBatch(eventsForOtherVertices, target.getVertexId(), tezEvent);
           }
         }
           break;
@@ -2176,6 +2328,25 @@ public class VertexImpl implements org.apache.tez.dag.app.dag.Vertex,
               + tezEvent.getEventType());
         }
       }
+      for (Map.Entry<Edge, List<TezEvent>> entry :
+          eventsForSourceEdges.entrySet()) {
+        entry.getKey().sendTezEventsToDestinationTasks(entry.getValue());
+      }
+      for (Map.Entry<TezVertexID, List<TezEvent>> entry :
+          eventsForOtherVertices.entrySet()) {
+        vertex.eventHandler.handle(new VertexEventRouteEvent(entry.getKey(),
+            entry.getValue()));
+      }
+    }
+
+    private static <K> void addToBatch(Map<K, List<TezEvent>> batches, K key,
+        TezEvent tezEvent) {
+      List<TezEvent> batch = batches.get(key);
+      if (batch == null) {
+        batch = new ArrayList<TezEvent>();
+        batches.put(key, batch);
+      }
+      batch.add(tezEvent);
     }
   }
 
@@ -19,7 +19,10 @@
 package org.apache.tez.dag.app.launcher;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -31,18 +34,25 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.service.AbstractService;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.yarn.api.protocolrecords.StartContainerRequest;
 import org.apache.hadoop.yarn.api.protocolrecords.StartContainersRequest;
 import org.apache.hadoop.yarn.api.protocolrecords.StartContainersResponse;
 import org.apache.hadoop.yarn.api.protocolrecords.StopContainersRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.StopContainersResponse;
 import org.apache.hadoop.yarn.api.records.ContainerId;
-import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.SerializedException;
 import org.apache.hadoop.yarn.api.records.Token;
 import org.apache.hadoop.yarn.client.api.impl.ContainerManagementProtocolProxy;
 import org.apache.hadoop.yarn.client.api.impl.ContainerManagementProtocolProxy.ContainerManagementProtocolProxyData;
+import org.apache.hadoop.yarn.conf.YarnConfiguration;
 import org.apache.hadoop.yarn.util.Clock;
 import org.apache.hadoop.yarn.util.Records;
 import org.apache.tez.dag.api.TezConfiguration;
@@ -67,10 +77,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 // TODO XXX: Review this entire code and clean it up.
 
 /**
- * This class is responsible for launching of containers.
+ * This class is responsible for launching of containers. Requests that are
+ * queued up together are grouped by NodeManager, so that each node gets a
+ * single startContainers / stopContainers call over a cached proxy.
  */
 public class ContainerLauncherImpl extends AbstractService implements
-    ContainerLauncher {
+    ContainerLauncher, MetricsSource {
 
   // TODO XXX Ensure the same thread is used to launch / stop the same container. Or - ensure event ordering.
   static final Log LOG = LogFactory.getLog(ContainerLauncherImpl.class);
@@ -81,6 +93,8 @@ public class ContainerLauncherImpl extends AbstractService implements
   protected ThreadPoolExecutor launcherPool;
   protected static final int INITIAL_POOL_SIZE = 10;
   private int limitOnPoolSize;
+  private int maxBatchSize;
+  private int nmProxyCacheSize;
   private Thread eventHandlingThread;
   protected BlockingQueue<NMCommunicatorEvent> eventQueue =
       new LinkedBlockingQueue<NMCommunicatorEvent>();
@@ -88,6 +102,23 @@ public class ContainerLauncherImpl extends AbstractService implements
   private ContainerManagementProtocolProxy cmProxy;
   private AtomicBoolean serviceStopped = new AtomicBoolean(false);
 
+  static final String METRICS_SOURCE_NAME = "ContainerLauncher";
+  private final MetricsRegistry registry =
+      new MetricsRegistry(METRICS_SOURCE_NAME);
+  private final MutableRate launchLatency = registry.newRate("LaunchLatency",
+      "Time in ms from dequeuing a launch request to the NM accepting it",
+      false);
+  private final MutableQuantiles launchLatencyQuantiles =
+      registry.newQuantiles("LaunchLatency60s",
+          "Container launch latency percentiles over 60s", "ops", "latencyMs",
+          60);
+  private final MutableRate startContainersBatchSize = registry.newRate(
+      "StartContainersBatchSize",
+      "Number of containers sent in one startContainers call", false);
+  private final MutableRate stopLatency = registry.newRate("StopLatency",
+      "Time in ms from dequeuing a stop request to the NM accepting it",
+      false);
+
   private Container getContainer(NMCommunicatorEvent event) {
     ContainerId id = event.getContainerId();
     Container c = containers.get(id);
@@ -110,7 +141,7 @@ public class ContainerLauncherImpl extends AbstractService implements
   }
 
   private static enum ContainerState {
-    PREP, FAILED, RUNNING, DONE, KILLED_BEFORE_LAUNCH
+    PREP, LAUNCHING, FAILED, RUNNING, STOPPING, DONE, KILLED_BEFORE_LAUNCH
   }
 
   private class Container {
@@ -132,109 +163,92 @@ public class ContainerLauncherImpl extends AbstractService implements
       return state == ContainerState.DONE || state == ContainerState.FAILED;
     }
 
-    @SuppressWarnings("unchecked")
-    public synchronized void launch(NMCommunicatorLaunchRequestEvent event) {
-      LOG.info("Launching Container with Id: " + event.getContainerId());
+    /**
+     * @return true if the container should be part of the next
+     *         startContainers call to its node.
+     */
+    public synchronized boolean prepareLaunch() {
+      LOG.info("Launching Container with Id: " + containerID);
       if(this.state == ContainerState.KILLED_BEFORE_LAUNCH) {
         state = ContainerState.DONE;
-        sendContainerLaunchFailedMsg(event.getContainerId(),
+        sendContainerLaunchFailedMsg(containerID,
             "Container was killed before it was launched");
-        return;
-      }
-
-      ContainerManagementProtocolProxyData proxy = null;
-      try {
-
-        proxy = getCMProxy(containerID, containerMgrAddress,
-            containerToken);
-
-        // Construct the actual Container
-        ContainerLaunchContext containerLaunchContext =
-          event.getContainerLaunchContext();
-
-        // Now launch the actual container
-        StartContainerRequest startRequest = Records
-          .newRecord(StartContainerRequest.class);
-        startRequest.setContainerToken(event.getContainerToken());
-        startRequest.setContainerLaunchContext(containerLaunchContext);
-
-        StartContainersResponse response =
-            proxy.getContainerManagementProtocol().startContainers(
-                StartContainersRequest.newInstance(
-                    Collections.singletonList(startRequest)));
-        if (response.getFailedRequests() != null
-            && !response.getFailedRequests().isEmpty()) {
-          throw response.getFailedRequests().get(containerID).deSerialize();
-        }
-
-        // after launching, send launched event to task attempt to move
-        // it from ASSIGNED to RUNNING state
-        context.getEventHandler().handle(
-            new AMContainerEventLaunched(containerID));
-        ContainerLaunchedEvent lEvt = new ContainerLaunchedEvent(
-            containerID, clock.getTime(), context.getApplicationAttemptId());
-        context.getHistoryHandler().handle(new DAGHistoryEvent(
-            context.getCurrentDAGID(), lEvt));
-
-        this.state = ContainerState.RUNNING;
-      } catch (Throwable t) {
-        String message = "Container launch failed for " + containerID + " : "
-            + StringUtils.stringifyException(t);
-        this.state = ContainerState.FAILED;
-        sendContainerLaunchFailedMsg(containerID, message);
-      } finally {
-        if (proxy != null) {
-          cmProxy.mayBeCloseProxy(proxy);
-        }
+        return false;
       }
+      this.state = ContainerState.LAUNCHING;
+      return true;
     }
 
     @SuppressWarnings("unchecked")
-    public synchronized void kill() {
+    public synchronized void launched() {
+      // after launching, send launched event to task attempt to move
+      // it from ASSIGNED to RUNNING state
+      context.getEventHandler().handle(
+          new AMContainerEventLaunched(containerID));
+      ContainerLaunchedEvent lEvt = new ContainerLaunchedEvent(
+          containerID, clock.getTime(), context.getApplicationAttemptId());
+      context.getHistoryHandler().handle(new DAGHistoryEvent(
+          context.getCurrentDAGID(), lEvt));
+
+      this.state = ContainerState.RUNNING;
+      notifyAll();
+    }
 
-      if(isCompletelyDone()) {
-        return;
-      }
-      if(this.state == ContainerState.PREP) {
-        this.state = ContainerState.KILLED_BEFORE_LAUNCH;
-      } else {
-        LOG.info("Sending a stop request to the NM for ContainerId: "
-            + containerID);
+    public synchronized void launchFailed(Throwable t) {
+      String message = "Container launch failed for " + containerID + " : "
+          + StringUtils.stringifyException(t);
+      this.state = ContainerState.FAILED;
+      sendContainerLaunchFailedMsg(containerID, message);
+      notifyAll();
+    }
 
-        ContainerManagementProtocolProxyData proxy = null;
+    /**
+     * Waits for an in-flight launch of this container to complete.
+     * @return true if the container should be part of the next
+     *         stopContainers call to its node.
+     */
+    public synchronized boolean prepareStop() {
+      while (this.state == ContainerState.LAUNCHING) {
         try {
-          proxy = getCMProxy(this.containerID, this.containerMgrAddress,
-              this.containerToken);
-
-            // kill the remote container if already launched
-            StopContainersRequest stopRequest = Records
-              .newRecord(StopContainersRequest.class);
-            stopRequest.setContainerIds(Collections.singletonList(containerID));
-
-            proxy.getContainerManagementProtocol().stopContainers(stopRequest);
-
-            // If stopContainer returns without an error, assuming the stop made
-            // it over to the NodeManager.
-          context.getEventHandler().handle(
-              new AMContainerEvent(containerID, AMContainerEventType.C_NM_STOP_SENT));
-        } catch (Throwable t) {
-
-          // ignore the cleanup failure
-          String message = "cleanup failed for container "
-            + this.containerID + " : "
-            + StringUtils.stringifyException(t);
-          context.getEventHandler().handle(
-              new AMContainerEventStopFailed(containerID, message));
-          LOG.warn(message);
-          this.state = ContainerState.DONE;
-          return;
-        } finally {
-          if (proxy != null) {
-            cmProxy.mayBeCloseProxy(proxy);
-          }
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
         }
-        this.state = ContainerState.DONE;
       }
+      if(isCompletelyDone() || this.state == ContainerState.STOPPING
+          || this.state == ContainerState.KILLED_BEFORE_LAUNCH) {
+        return false;
+      }
+      if(this.state == ContainerState.PREP) {
+        this.state = ContainerState.KILLED_BEFORE_LAUNCH;
+        return false;
+      }
+      LOG.info("Sending a stop request to the NM for ContainerId: "
+          + containerID);
+      this.state = ContainerState.STOPPING;
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void stopSent() {
+      // If stopContainers returns without an error, assuming the stop made
+      // it over to the NodeManager.
+      context.getEventHandler().handle(
+          new AMContainerEvent(containerID, AMContainerEventType.C_NM_STOP_SENT));
+      this.state = ContainerState.DONE;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void stopFailed(Throwable t) {
+      // ignore the cleanup failure
+      String message = "cleanup failed for container "
+        + this.containerID + " : "
+        + StringUtils.stringifyException(t);
+      context.getEventHandler().handle(
+          new AMContainerEventStopFailed(containerID, message));
+      LOG.warn(message);
+      this.state = ContainerState.DONE;
     }
   }
 
@@ -245,21 +259,30 @@ public class ContainerLauncherImpl extends AbstractService implements
   }
 
   @Override
-  public synchronized void serviceInit(Configuration config) {
-    Configuration conf = new Configuration(config);
-    conf.setInt(
-        CommonConfigurationKeysPublic.IPC_CLIENT_CONNECTION_MAXIDLETIME_KEY,
-        0);
+  public synchronized void serviceInit(Configuration conf) {
     this.limitOnPoolSize = conf.getInt(
         TezConfiguration.TEZ_AM_CONTAINERLAUNCHER_THREAD_COUNT_LIMIT,
         TezConfiguration.TEZ_AM_CONTAINERLAUNCHER_THREAD_COUNT_LIMIT_DEFAULT);
-    LOG.info("Upper limit on the thread pool size is " + this.limitOnPoolSize);
+    this.maxBatchSize = Math.max(1, conf.getInt(
+        TezConfiguration.TEZ_AM_CONTAINERLAUNCHER_MAX_BATCH_SIZE,
+        TezConfiguration.TEZ_AM_CONTAINERLAUNCHER_MAX_BATCH_SIZE_DEFAULT));
+    this.nmProxyCacheSize = conf.getInt(
+        TezConfiguration.TEZ_AM_CONTAINERLAUNCHER_NM_PROXY_CACHE_SIZE,
+        TezConfiguration.TEZ_AM_CONTAINERLAUNCHER_NM_PROXY_CACHE_SIZE_DEFAULT);
+    LOG.info("Upper limit on the thread pool size is " + this.limitOnPoolSize
+        + ", maxBatchSize=" + this.maxBatchSize
+        + ", nmProxyCacheSize=" + this.nmProxyCacheSize);
   }
 
   @Override
   public void serviceStart() {
+    // The proxy keeps the most recently used NM connections open, so
+    // repeated launches on a node skip connection setup. A size of 0 makes it
+    // close each connection after use.
+    Configuration conf = new Configuration(getConfig());
+    conf.setInt(YarnConfiguration.NM_CLIENT_MAX_NM_PROXIES, nmProxyCacheSize);
     cmProxy =
-        new ContainerManagementProtocolProxy(getConfig());
+        new ContainerManagementProtocolProxy(conf);
 
     ThreadFactory tf = new ThreadFactoryBuilder().setNameFormat(
         "ContainerLauncher #%d").setDaemon(true).build();
@@ -272,16 +295,22 @@ public class ContainerLauncherImpl extends AbstractService implements
     eventHandlingThread = new Thread() {
       @Override
       public void run() {
-        NMCommunicatorEvent event = null;
+        List<NMCommunicatorEvent> events = new ArrayList<NMCommunicatorEvent>();
         while (!Thread.currentThread().isInterrupted()) {
+          events.clear();
           try {
-            event = eventQueue.take();
+            events.add(eventQueue.take());
           } catch (InterruptedException e) {
             if(!serviceStopped.get()) {
               LOG.error("Returning, interrupted : " + e);
             }
             return;
           }
+          // Pick up everything else that is already queued so that requests
+          // for the same node go out together.
+          eventQueue.drainTo(events);
+          long dequeueTime = clock.getTime();
+
           int poolSize = launcherPool.getCorePoolSize();
 
           // See if we need up the pool size only if haven't reached the
@@ -305,25 +334,57 @@ public class ContainerLauncherImpl extends AbstractService implements
             }
           }
 
-          // the events from the queue are handled in parallel
+          // the events for each node are handled in parallel
           // using a thread pool
-          launcherPool.execute(createEventProcessor(event));
-
-          // TODO: Group launching of multiple containers to a single
-          // NodeManager into a single connection
+          for (Map.Entry<String, List<NMCommunicatorEvent>> entry :
+              groupByNode(events).entrySet()) {
+            launcherPool.execute(createEventProcessor(entry.getKey(),
+                entry.getValue(), dequeueTime));
+          }
         }
       }
     };
     eventHandlingThread.setName("ContainerLauncher Event Handler");
     eventHandlingThread.start();
+    DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+        "Container launches and stops in the ContainerLauncher", this);
+  }
+
+  private static Map<String, List<NMCommunicatorEvent>> groupByNode(
+      List<NMCommunicatorEvent> events) {
+    Map<String, List<NMCommunicatorEvent>> eventsByNode =
+        new LinkedHashMap<String, List<NMCommunicatorEvent>>();
+    for (NMCommunicatorEvent event : events) {
+      String nodeAddress = event.getNodeId().toString();
+      List<NMCommunicatorEvent> nodeEvents = eventsByNode.get(nodeAddress);
+      if (nodeEvents == null) {
+        nodeEvents = new ArrayList<NMCommunicatorEvent>();
+        eventsByNode.put(nodeAddress, nodeEvents);
+      }
+      nodeEvents.add(event);
+    }
+    return eventsByNode;
   }
 
   private void shutdownAllContainers() {
+    Map<String, List<Container>> containersByNode =
+        new LinkedHashMap<String, List<Container>>();
     for (Container ct : this.containers.values()) {
-      if (ct != null) {
-        ct.kill();
+      if (ct != null && ct.prepareStop()) {
+        List<Container> nodeContainers =
+            containersByNode.get(ct.containerMgrAddress);
+        if (nodeContainers == null) {
+          nodeContainers = new ArrayList<Container>();
+          containersByNode.put(ct.containerMgrAddress, nodeContainers);
+        }
+        nodeContainers.add(ct);
       }
     }
+    long stopTime = clock.getTime();
+    for (Map.Entry<String, List<Container>> entry :
+        containersByNode.entrySet()) {
+      stopContainers(entry.getKey(), entry.getValue(), stopTime);
+    }
   }
 
   @Override
@@ -332,6 +393,7 @@ public class ContainerLauncherImpl extends AbstractService implements
       LOG.info("Ignoring multiple stops");
       return;
     }
+    DefaultMetricsSystem.instance().unregisterSource(METRICS_SOURCE_NAME);
     // shutdown any containers that might be left running
     shutdownAllContainers();
     if (eventHandlingThread != null) {
@@ -342,8 +404,15 @@ public class ContainerLauncherImpl extends AbstractService implements
     }
   }
 
-  protected EventProcessor createEventProcessor(NMCommunicatorEvent event) {
-    return new EventProcessor(event);
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    registry.snapshot(collector.addRecord(registry.info()).setContext("tez"),
+        all);
+  }
+
+  protected EventProcessor createEventProcessor(String nodeAddress,
+      List<NMCommunicatorEvent> events, long dequeueTime) {
+    return new EventProcessor(nodeAddress, events, dequeueTime);
   }
 
   protected ContainerManagementProtocolProxy.ContainerManagementProtocolProxyData getCMProxy(
@@ -352,38 +421,181 @@ public class ContainerLauncherImpl extends AbstractService implements
     return cmProxy.getProxy(containerManagerBindAddr, containerID);
   }
 
+  protected void releaseCMProxy(ContainerManagementProtocolProxyData proxy) {
+    cmProxy.mayBeCloseProxy(proxy);
+  }
+
   /**
-   * Setup and start the container on remote nodemanager.
+   * Start the given containers on one NodeManager with a single
+   * startContainers call.
    */
-  class EventProcessor implements Runnable {
-    private NMCommunicatorEvent event;
+  private void launchContainers(String nodeAddress,
+      List<NMCommunicatorLaunchRequestEvent> events, long dequeueTime) {
+    List<Container> toLaunch = new ArrayList<Container>(events.size());
+    List<StartContainerRequest> startRequests =
+        new ArrayList<StartContainerRequest>(events.size());
+    for (NMCommunicatorLaunchRequestEvent event : events) {
+      Container c = getContainer(event);
+      if (!c.prepareLaunch()) {
+        removeContainerIfDone(event.getContainerId());
+        continue;
+      }
+      StartContainerRequest startRequest = Records
+        .newRecord(StartContainerRequest.class);
+      startRequest.setContainerToken(event.getContainerToken());
+      startRequest.setContainerLaunchContext(
+          event.getContainerLaunchContext());
+      toLaunch.add(c);
+      startRequests.add(startRequest);
+    }
+    if (toLaunch.isEmpty()) {
+      return;
+    }
 
-    EventProcessor(NMCommunicatorEvent event) {
-      this.event = event;
+    Map<ContainerId, SerializedException> failedRequests = null;
+    Throwable launchFailure = null;
+    ContainerManagementProtocolProxyData proxy = null;
+    try {
+      Container first = toLaunch.get(0);
+      proxy = getCMProxy(first.containerID, nodeAddress,
+          first.containerToken);
+      StartContainersResponse response =
+          proxy.getContainerManagementProtocol().startContainers(
+              StartContainersRequest.newInstance(startRequests));
+      failedRequests = response.getFailedRequests();
+    } catch (Throwable t) {
+      launchFailure = t;
+    } finally {
+      if (proxy != null) {
+        releaseCMProxy(proxy);
+      }
     }
+    startContainersBatchSize.add(toLaunch.size());
+
+    long latency = clock.getTime() - dequeueTime;
+    for (Container c : toLaunch) {
+      SerializedException failure = failedRequests == null ? null
+          : failedRequests.get(c.containerID);
+      if (launchFailure != null) {
+        c.launchFailed(launchFailure);
+      } else if (failure != null) {
+        c.launchFailed(failure.deSerialize());
+      } else {
+        launchLatency.add(latency);
+        launchLatencyQuantiles.add(latency);
+        c.launched();
+      }
+      removeContainerIfDone(c.containerID);
+    }
+  }
 
-    @Override
-    public void run() {
-      LOG.info("Processing the event " + event.toString());
+  /**
+   * Stop the given containers, which have been through
+   * {@link Container#prepareStop()}, on one NodeManager with a single
+   * stopContainers call.
+   */
+  private void stopContainers(String nodeAddress, List<Container> toStop,
+      long dequeueTime) {
+    List<ContainerId> containerIds = new ArrayList<ContainerId>(toStop.size());
+    for (Container c : toStop) {
+      containerIds.add(c.containerID);
+    }
+
+    Map<ContainerId, SerializedException> failedRequests = null;
+    Throwable stopFailure = null;
+    ContainerManagementProtocolProxyData proxy = null;
+    try {
+      Container first = toStop.get(0);
+      proxy = getCMProxy(first.containerID, nodeAddress,
+          first.containerToken);
+
+      // kill the remote containers if already launched
+      StopContainersRequest stopRequest = Records
+        .newRecord(StopContainersRequest.class);
+      stopRequest.setContainerIds(containerIds);
+
+      StopContainersResponse response =
+          proxy.getContainerManagementProtocol().stopContainers(stopRequest);
+      failedRequests = response.getFailedRequests();
+    } catch (Throwable t) {
+      stopFailure = t;
+    } finally {
+      if (proxy != null) {
+        releaseCMProxy(proxy);
+      }
+    }
 
-      // Load ContainerManager tokens before creating a connection.
-      // TODO: Do it only once per NodeManager.
-      ContainerId containerID = event.getContainerId();
+    stopLatency.add(clock.getTime() - dequeueTime);
+    for (Container c : toStop) {
+      SerializedException failure = failedRequests == null ? null
+          : failedRequests.get(c.containerID);
+      if (stopFailure != null) {
+        c.stopFailed(stopFailure);
+      } else if (failure != null) {
+        c.stopFailed(failure.deSerialize());
+      } else {
+        c.stopSent();
+      }
+      removeContainerIfDone(c.containerID);
+    }
+  }
 
-      Container c = getContainer(event);
-      switch(event.getType()) {
+  /**
+   * Setup and start, or stop, the containers of one NodeManager. Launches are
+   * sent in batches of at most maxBatchSize, before the stops.
+   */
+  class EventProcessor implements Runnable {
+    private final String nodeAddress;
+    private final List<NMCommunicatorEvent> events;
+    private final long dequeueTime;
+
+    EventProcessor(String nodeAddress, List<NMCommunicatorEvent> events,
+        long dequeueTime) {
+      this.nodeAddress = nodeAddress;
+      this.events = events;
+      this.dequeueTime = dequeueTime;
+    }
 
-      case CONTAINER_LAUNCH_REQUEST:
-        NMCommunicatorLaunchRequestEvent launchEvent
-            = (NMCommunicatorLaunchRequestEvent) event;
-        c.launch(launchEvent);
-        break;
+    @Override
+    public void run() {
+      LOG.info("Processing " + events.size() + " events for node "
+          + nodeAddress);
+
+      List<NMCommunicatorLaunchRequestEvent> launchEvents =
+          new ArrayList<NMCommunicatorLaunchRequestEvent>();
+      List<NMCommunicatorEvent> stopEvents =
+          new ArrayList<NMCommunicatorEvent>();
+      for (NMCommunicatorEvent event : events) {
+        switch(event.getType()) {
+
+        case CONTAINER_LAUNCH_REQUEST:
+          launchEvents.add((NMCommunicatorLaunchRequestEvent) event);
+          break;
+
+        case CONTAINER_STOP_REQUEST:
+          stopEvents.add(event);
+          break;
+        }
+      }
 
-      case CONTAINER_STOP_REQUEST:
-        c.kill();
-        break;
+      for (int i = 0; i < launchEvents.size(); i += maxBatchSize) {
+        launchContainers(nodeAddress, launchEvents.subList(i,
+            Math.min(i + maxBatchSize, launchEvents.size())), dequeueTime);
+      }
+
+      List<Container> toStop = new ArrayList<Container>();
+      for (NMCommunicatorEvent event : stopEvents) {
+        Container c = getContainer(event);
+        if (c.prepareStop()) {
+          toStop.add(c);
+        } else {
+          removeContainerIfDone(event.getContainerId());
+        }
+      }
+      for (int i = 0; i < toStop.size(); i += maxBatchSize) {
+        stopContainers(nodeAddress, toStop.subList(i,
+            Math.min(i + maxBatchSize, toStop.size())), dequeueTime);
       }
-      removeContainerIfDone(containerID);
     }
   }
 
@@ -23,6 +23,9 @@ public enum AMSchedulerEventType {
   S_TA_LAUNCH_REQUEST,
   S_TA_ENDED, // Annotated with FAILED/KILLED/SUCCEEDED.
 
+  //Producer: DAGScheduler
+  S_TA_PRIORITY_UPDATE,
+
   //Producer: RMCommunicator
   S_CONTAINERS_ALLOCATED,
 
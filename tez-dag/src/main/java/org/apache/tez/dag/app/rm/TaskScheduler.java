@@ -24,8 +24,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -41,6 +45,14 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience.Private;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.service.AbstractService;
 import org.apache.hadoop.yarn.api.protocolrecords.RegisterApplicationMasterResponse;
 import org.apache.hadoop.yarn.api.records.ApplicationAccessType;
@@ -81,7 +93,8 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
     }
  */
 public class TaskScheduler extends AbstractService
-                             implements AMRMClientAsync.CallbackHandler {
+                             implements AMRMClientAsync.CallbackHandler,
+                                        MetricsSource {
   private static final Log LOG = LogFactory.getLog(TaskScheduler.class);
 
   public interface TaskSchedulerAppCallback {
@@ -130,9 +143,26 @@ public class TaskScheduler extends AbstractService
   private boolean shouldReuseContainers;
   private boolean reuseRackLocal;
   private boolean reuseNonLocal;
-
+  private boolean reuseScoring;
+
+  // Scores of a reused container for a pending request. Locality dominates,
+  // the signature and warm cache terms break ties within a locality level.
+  private static final int REUSE_SCORE_NODE_LOCAL = 40;
+  private static final int REUSE_SCORE_RACK_LOCAL = 20;
+  private static final int REUSE_SCORE_NON_LOCAL = 0;
+  private static final int REUSE_SCORE_EXACT_SIGNATURE = 2;
+  private static final int REUSE_SCORE_WARM_CACHE = 1;
+  // Idle session min held containers without a session delay are looked at
+  // again after this long. New task requests assign them right away.
+  static final long SESSION_MIN_HELD_CONTAINER_RECHECK_MILLIS = 1000;
+
+  // LinkedHashMap keeps requests of equal score in arrival order
   Map<Object, CookieContainerRequest> taskRequests =
-                  new HashMap<Object, CookieContainerRequest>();
+                  new LinkedHashMap<Object, CookieContainerRequest>();
+  /**
+   * The requests of taskRequests by priority and location.
+   */
+  PendingRequestIndex pendingRequests = new PendingRequestIndex();
   // LinkedHashMap is need in getProgress()
   LinkedHashMap<Object, Container> taskAllocations =
                   new LinkedHashMap<Object, Container>();
@@ -149,6 +179,12 @@ public class TaskScheduler extends AbstractService
   Map<ContainerId, HeldContainer> heldContainers =
       new HashMap<ContainerId, HeldContainer>();
   
+  /**
+   * Idle containers retained across DAGs of a session, chosen when a DAG
+   * completes.
+   */
+  Set<ContainerId> sessionMinHeldContainers = new HashSet<ContainerId>();
+
   Set<NodeId> blacklistedNodes = Collections
       .newSetFromMap(new ConcurrentHashMap<NodeId, Boolean>());
   
@@ -162,6 +198,14 @@ public class TaskScheduler extends AbstractService
 
   boolean isStopped = false;
 
+  static final String METRICS_SOURCE_NAME = "TaskScheduler";
+  private final MetricsRegistry registry =
+      new MetricsRegistry(METRICS_SOURCE_NAME);
+  // time the scheduler lock is held to add a request or release a container
+  private final MutableRate lockHoldTime = registry.newRate("LockHoldTime",
+      "Time in us the scheduler lock is held by task requests and container"
+      + " releases", false);
+
   private ContainerAssigner NODE_LOCAL_ASSIGNER = new NodeLocalContainerAssigner();
   private ContainerAssigner RACK_LOCAL_ASSIGNER = new RackLocalContainerAssigner();
   private ContainerAssigner NON_LOCAL_ASSIGNER = new NonLocalContainerAssigner();
@@ -169,6 +213,7 @@ public class TaskScheduler extends AbstractService
   DelayedContainerManager delayedContainerManager;
   long localitySchedulingDelay;
   long sessionDelay;
+  int sessionNumMinHeldContainers;
   
   class CRCookie {
     // Do not use these variables directly. Can caused mocked unit tests to fail.
@@ -197,6 +242,7 @@ public class TaskScheduler extends AbstractService
 
   class CookieContainerRequest extends ContainerRequest {
     CRCookie cookie;
+    private final long requestTime;
 
     public CookieContainerRequest(
         Resource capability,
@@ -206,11 +252,31 @@ public class TaskScheduler extends AbstractService
         CRCookie cookie) {
       super(capability, hosts, racks, priority);
       this.cookie = cookie;
+      this.requestTime = System.currentTimeMillis();
+    }
+
+    /**
+     * A copy of the given request at a different priority. Keeps the time of
+     * the original request.
+     */
+    CookieContainerRequest(CookieContainerRequest request, Priority priority) {
+      super(request.getCapability(),
+          (request.getNodes() == null ? null :
+            request.getNodes().toArray(new String[request.getNodes().size()])),
+          (request.getRacks() == null ? null :
+            request.getRacks().toArray(new String[request.getRacks().size()])),
+          priority);
+      this.cookie = request.cookie;
+      this.requestTime = request.requestTime;
     }
 
     CRCookie getCookie() {
       return cookie;
     }
+
+    long getRequestTime() {
+      return requestTime;
+    }
   }
 
   public TaskScheduler(TaskSchedulerAppCallback appClient,
@@ -292,6 +358,9 @@ public class TaskScheduler extends AbstractService
       .getBoolean(
         TezConfiguration.TEZ_AM_CONTAINER_REUSE_NON_LOCAL_FALLBACK_ENABLED,
         TezConfiguration.TEZ_AM_CONTAINER_REUSE_NON_LOCAL_FALLBACK_ENABLED_DEFAULT);
+    reuseScoring = conf.getBoolean(
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_SCORING_ENABLED,
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_SCORING_ENABLED_DEFAULT);
     Preconditions.checkArgument(
       ((!reuseRackLocal && !reuseNonLocal) || (reuseRackLocal)),
       "Re-use Rack-Local cannot be disabled if Re-use Non-Local has been"
@@ -309,14 +378,22 @@ public class TaskScheduler extends AbstractService
     Preconditions.checkArgument(sessionDelay >= 0 || sessionDelay == -1,
       "Session delay should be either -1 or >=0");
 
+    sessionNumMinHeldContainers = conf.getInt(
+        TezConfiguration.TEZ_AM_SESSION_MIN_HELD_CONTAINERS,
+        TezConfiguration.TEZ_AM_SESSION_MIN_HELD_CONTAINERS_DEFAULT);
+    Preconditions.checkArgument(sessionNumMinHeldContainers >= 0,
+        "Session minimum held containers should be >=0");
+
     delayedContainerManager = new DelayedContainerManager();
     LOG.info("TaskScheduler initialized with configuration: " +
             "maxRMHeartbeatInterval: " + heartbeatIntervalMax +
             ", containerReuseEnabled: " + shouldReuseContainers +
             ", reuseRackLocal: " + reuseRackLocal +
             ", reuseNonLocal: " + reuseNonLocal + 
+            ", reuseScoring: " + reuseScoring +
             ", localitySchedulingDelay: " + localitySchedulingDelay +
-            ", sessionDelay=" + sessionDelay);
+            ", sessionDelay=" + sessionDelay +
+            ", sessionNumMinHeldContainers=" + sessionNumMinHeldContainers);
   }
 
   @Override
@@ -336,6 +413,8 @@ public class TaskScheduler extends AbstractService
           response.getClientToAMTokenMasterKey());
 
       delayedContainerManager.start();
+      DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+          "Container assignment in the TaskScheduler", this);
     } catch (YarnException e) {
       LOG.error("Yarn Exception while registering", e);
       throw new TezUncheckedException(e);
@@ -347,6 +426,7 @@ public class TaskScheduler extends AbstractService
 
   @Override
   public void serviceStop() throws InterruptedException {
+    DefaultMetricsSystem.instance().unregisterSource(METRICS_SOURCE_NAME);
     // upcall to app outside of locks
     AppFinalStatus status = appClientDelegate.getFinalAppStatus();
     try {
@@ -376,6 +456,17 @@ public class TaskScheduler extends AbstractService
     }
   }
 
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(registry.info())
+        .setContext("tez");
+    rb.addGauge(Interns.info("DelayedContainers",
+        "Held containers waiting to be assigned"),
+        delayedContainerManager == null ? 0
+            : delayedContainerManager.delayedContainers.size());
+    registry.snapshot(rb, all);
+  }
+
   // AMRMClientAsync interface methods
   @Override
   public void onContainersCompleted(List<ContainerStatus> statuses) {
@@ -410,6 +501,7 @@ public class TaskScheduler extends AbstractService
         task = unAssignContainer(completedId, false);
         if (delayedContainer != null) {
           heldContainers.remove(completedId);
+          sessionMinHeldContainers.remove(completedId);
           Resources.subtract(allocatedResources, delayedContainer.getContainer().getResource());
         } else {
           LOG.warn("Held container expected to be not null for a non-AM-released container");
@@ -512,13 +604,182 @@ public class TaskScheduler extends AbstractService
     return assignedContainers;
   }
 
+  /**
+   * Assign each held container, longest idle first, to its best scoring
+   * pending request. Assigned containers are removed from the collection.
+   */
+  @VisibleForTesting
+  synchronized Map<CookieContainerRequest, Container>
+      tryAssignReUsedContainersByScore(Collection<HeldContainer> containers) {
+    Map<CookieContainerRequest, Container> assignedContainers =
+        new HashMap<CookieContainerRequest, Container>();
+    List<HeldContainer> byIdleTime = Lists.newArrayList(containers);
+    Collections.sort(byIdleTime, new Comparator<HeldContainer>() {
+      @Override
+      public int compare(HeldContainer c1, HeldContainer c2) {
+        long diff = c1.getIdleStartTime() - c2.getIdleStartTime();
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+      }
+    });
+    for (HeldContainer heldContainer : byIdleTime) {
+      if (taskRequests.isEmpty()) {
+        break;
+      }
+      if (assignReUsedContainerByScore(heldContainer, assignedContainers)) {
+        containers.remove(heldContainer);
+      }
+    }
+    return assignedContainers;
+  }
+
+  /**
+   * Assign the held container to the pending request of the top priority
+   * that scores best on it, see {@link #getReuseScore}.
+   * @return true if the container was assigned
+   */
+  private synchronized boolean assignReUsedContainerByScore(
+      HeldContainer heldContainer,
+      Map<CookieContainerRequest, Container> assignedContainers) {
+    Container container = heldContainer.getContainer();
+    Priority topPendingTaskPriority = amRmClient.getTopPriority();
+    if (topPendingTaskPriority == null
+        || topPendingTaskPriority.compareTo(container.getPriority()) > 0) {
+      // same rule as assignReUsedContainerWithLocation
+      return false;
+    }
+    String host = container.getNodeId().getHost();
+    String rack = RackResolver.resolve(host).getNetworkLocation();
+    // locality dominates the score, so a lower locality level is only looked
+    // at when no request of the level above can run in the container
+    CookieContainerRequest bestRequest = getBestScoringRequest(heldContainer,
+        pendingRequests.get(topPendingTaskPriority, host), host, rack,
+        REUSE_SCORE_NODE_LOCAL);
+    if (bestRequest == null) {
+      bestRequest = getBestScoringRequest(heldContainer,
+          pendingRequests.get(topPendingTaskPriority, rack), host, rack,
+          REUSE_SCORE_RACK_LOCAL);
+    }
+    if (bestRequest == null) {
+      bestRequest = getBestScoringRequest(heldContainer,
+          pendingRequests.get(topPendingTaskPriority, ResourceRequest.ANY),
+          host, rack, REUSE_SCORE_NON_LOCAL);
+    }
+    if (bestRequest == null) {
+      return false;
+    }
+    if (bestRequest.getNodes() != null
+        && bestRequest.getNodes().contains(host)) {
+      NODE_LOCAL_ASSIGNER.doBookKeepingForAssignedContainer(bestRequest,
+          container, host, false);
+    } else if (isOnRack(bestRequest, rack)) {
+      RACK_LOCAL_ASSIGNER.doBookKeepingForAssignedContainer(bestRequest,
+          container, rack, false);
+    } else {
+      NON_LOCAL_ASSIGNER.doBookKeepingForAssignedContainer(bestRequest,
+          container, ResourceRequest.ANY, false);
+    }
+    assignedContainers.put(bestRequest, container);
+    return true;
+  }
+
+  /**
+   * @return the first of the requests with the highest score on the held
+   *         container, or null if none of them can run in it. Stops at the
+   *         first request reaching the highest score possible at the given
+   *         locality score.
+   */
+  private CookieContainerRequest getBestScoringRequest(
+      HeldContainer heldContainer, Collection<CookieContainerRequest> requests,
+      String host, String rack, int localityScore) {
+    int maxScore = heldContainer.isNew() ? localityScore : localityScore
+        + REUSE_SCORE_EXACT_SIGNATURE + REUSE_SCORE_WARM_CACHE;
+    Resource resource = heldContainer.getContainer().getResource();
+    CookieContainerRequest bestRequest = null;
+    int bestScore = -1;
+    for (CookieContainerRequest request : requests) {
+      if (!fitsIn(request.getCapability(), resource)) {
+        continue;
+      }
+      int score = getReuseScore(heldContainer, request, host, rack);
+      if (score > bestScore) {
+        bestScore = score;
+        bestRequest = request;
+        if (bestScore >= maxScore) {
+          break;
+        }
+      }
+    }
+    return bestRequest;
+  }
+
+  /**
+   * Score a pending request on a held container. The score adds the data
+   * locality of the container for the request, whether the request comes
+   * from the vertex the container was launched for, so nothing beyond the
+   * container's signature needs to be localized, and whether it comes from
+   * the vertex of the last task the container ran, whose objects may still
+   * be cached in the container.
+   * @return the score, or -1 if the request cannot run in the container
+   */
+  @VisibleForTesting
+  int getReuseScore(HeldContainer heldContainer,
+      CookieContainerRequest request, String host, String rack) {
+    boolean isNew = heldContainer.isNew();
+    int score;
+    if (request.getNodes() != null && request.getNodes().contains(host)) {
+      score = REUSE_SCORE_NODE_LOCAL;
+    } else if (isOnRack(request, rack)) {
+      if (!isNew && !reuseRackLocal) {
+        return -1;
+      }
+      score = REUSE_SCORE_RACK_LOCAL;
+    } else {
+      if (!isNew && !reuseNonLocal) {
+        return -1;
+      }
+      score = REUSE_SCORE_NON_LOCAL;
+    }
+    if (isNew) {
+      return score;
+    }
+    Object signature = request.getCookie().getContainerSignature();
+    if (!heldContainer.isSuperSetOf(signature, containerSignatureMatcher)) {
+      return -1;
+    }
+    if (containerSignatureMatcher.isExactMatch(
+        heldContainer.getFirstContainerSignature(), signature)) {
+      score += REUSE_SCORE_EXACT_SIGNATURE;
+    }
+    CookieContainerRequest lastTaskInfo = heldContainer.getLastTaskInfo();
+    if (lastTaskInfo != null && containerSignatureMatcher.isExactMatch(
+        lastTaskInfo.getCookie().getContainerSignature(), signature)) {
+      score += REUSE_SCORE_WARM_CACHE;
+    }
+    return score;
+  }
+
+  private boolean isOnRack(CookieContainerRequest request, String rack) {
+    if (request.getRacks() != null && request.getRacks().contains(rack)) {
+      return true;
+    }
+    if (request.getNodes() != null) {
+      for (String node : request.getNodes()) {
+        if (RackResolver.resolve(node).getNetworkLocation().equals(rack)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   /**
    * Try to assign a re-used container
    * @param heldContainer Container to be used to assign to tasks
    * @return Assigned container map
    */
 
-  private synchronized Map<CookieContainerRequest, Container>
+  @VisibleForTesting
+  synchronized Map<CookieContainerRequest, Container>
       assignDelayedContainer(HeldContainer heldContainer) {
 
     DAGAppMasterState state = appContext.getAMState();
@@ -545,6 +806,25 @@ public class TaskScheduler extends AbstractService
       long currentTime = System.currentTimeMillis();
       if (isNew || (heldContainer.getContainerExpiryTime() <= currentTime
           && sessionDelay != -1)) {
+        if (!isNew && appContext.isSession() && sessionMinHeldContainers
+            .contains(heldContainer.getContainer().getId())) {
+          // keep the container warm for the next DAG of the session
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Retaining idle container as a session min held"
+                + " container, containerId=" + heldContainer.container.getId());
+          }
+          if (sessionDelay > 0) {
+            heldContainer.setContainerExpiryTime(currentTime + sessionDelay);
+          }
+          // nothing changes for the container until it expires or a task
+          // request triggers scheduling, don't keep re-checking it
+          delayedContainerManager.addDelayedContainer(
+              heldContainer.getContainer(),
+              currentTime + Math.max(localitySchedulingDelay,
+                  sessionDelay > 0 ? sessionDelay
+                      : SESSION_MIN_HELD_CONTAINER_RECHECK_MILLIS));
+          return null;
+        }
         LOG.info("No taskRequests. Container's session delay expired or is new. " +
         	"Releasing container"
           + ", containerId=" + heldContainer.container.getId()
@@ -580,13 +860,19 @@ public class TaskScheduler extends AbstractService
       // Each time a container is seen, we try node, rack and non-local in that
       // order depending on matching level allowed
 
+      // with scoring, the best request at any allowed locality is assigned
+      // right away and the locality tiers below are skipped
+      if (reuseScoring) {
+        assignReUsedContainerByScore(heldContainer, assignedContainers);
+      }
+
       // if match level is NEW or NODE, match only at node-local
       // always try node local matches for other levels
-      if (isNew
+      if (!reuseScoring && (isNew
           || localityMatchLevel.equals(HeldContainer.LocalityMatchLevel.NEW)
           || localityMatchLevel.equals(HeldContainer.LocalityMatchLevel.NODE)
           || localityMatchLevel.equals(HeldContainer.LocalityMatchLevel.RACK)
-          || localityMatchLevel.equals(HeldContainer.LocalityMatchLevel.NON_LOCAL)) {
+          || localityMatchLevel.equals(HeldContainer.LocalityMatchLevel.NON_LOCAL))) {
         assignReUsedContainerWithLocation(containerToAssign,
             NODE_LOCAL_ASSIGNER, assignedContainers, true);
         if (LOG.isDebugEnabled() && assignedContainers.isEmpty()) {
@@ -598,7 +884,7 @@ public class TaskScheduler extends AbstractService
       // if re-use allowed at rack
       // match against rack if match level is RACK or NON-LOCAL
       // if scheduling delay is 0, match at RACK allowed without a sleep
-      if (assignedContainers.isEmpty()) {
+      if (!reuseScoring && assignedContainers.isEmpty()) {
         if ((reuseRackLocal || isNew) && (localitySchedulingDelay == 0 ||
           (localityMatchLevel.equals(HeldContainer.LocalityMatchLevel.RACK)
             || localityMatchLevel.equals(
@@ -615,7 +901,7 @@ public class TaskScheduler extends AbstractService
       // if re-use allowed at non-local
       // match against rack if match level is NON-LOCAL
       // if scheduling delay is 0, match at NON-LOCAL allowed without a sleep
-      if (assignedContainers.isEmpty()) {
+      if (!reuseScoring && assignedContainers.isEmpty()) {
         if ((reuseNonLocal || isNew) && (localitySchedulingDelay == 0
             || localityMatchLevel.equals(
                 HeldContainer.LocalityMatchLevel.NON_LOCAL))) {
@@ -647,8 +933,9 @@ public class TaskScheduler extends AbstractService
 
           // Let's decide if this container has hit the end of the road
 
-          // EOL true if container's match level is NON-LOCAL
-          boolean hitFinalMatchLevel = localityMatchLevel.equals(
+          // EOL true if container's match level is NON-LOCAL, or if scoring
+          // already considered all allowed locality levels
+          boolean hitFinalMatchLevel = reuseScoring || localityMatchLevel.equals(
             HeldContainer.LocalityMatchLevel.NON_LOCAL);
           if (!hitFinalMatchLevel) {
             // EOL also true if locality delay is 0
@@ -728,7 +1015,10 @@ public class TaskScheduler extends AbstractService
   public synchronized void resetMatchLocalityForAllHeldContainers() {
     for (HeldContainer heldContainer : heldContainers.values()) {
       heldContainer.resetLocalityMatchLevel();
+      // the signatures of the completed DAG are not requested again
+      heldContainer.clearSignatureMatches();
     }
+    determineMinHeldContainers();
     synchronized(delayedContainerManager) {
       delayedContainerManager.notify();
     }
@@ -786,18 +1076,24 @@ public class TaskScheduler extends AbstractService
     return totalResources;
   }
 
-  public synchronized void blacklistNode(NodeId nodeId) {
-    amRmClient.addNodeToBlacklist(nodeId);
-    blacklistedNodes.add(nodeId);
+  // blacklist updates only touch the concurrent set and the RM client, so they
+  // are ordered by the set itself instead of the scheduler lock
+  public void blacklistNode(NodeId nodeId) {
+    synchronized (blacklistedNodes) {
+      amRmClient.addNodeToBlacklist(nodeId);
+      blacklistedNodes.add(nodeId);
+    }
   }
   
-  public synchronized void unblacklistNode(NodeId nodeId) {
-    if (blacklistedNodes.remove(nodeId)) {
-      amRmClient.removeNodeFromBlacklist(nodeId);
+  public void unblacklistNode(NodeId nodeId) {
+    synchronized (blacklistedNodes) {
+      if (blacklistedNodes.remove(nodeId)) {
+        amRmClient.removeNodeFromBlacklist(nodeId);
+      }
     }
   }
   
-  public synchronized void allocateTask(
+  public void allocateTask(
       Object task,
       Resource capability,
       String[] hosts,
@@ -813,7 +1109,11 @@ public class TaskScheduler extends AbstractService
     CookieContainerRequest request = new CookieContainerRequest(
       capability, hosts, racks, priority, cookie);
 
-    addTaskRequest(task, request);
+    synchronized (this) {
+      long lockStart = System.nanoTime();
+      addTaskRequest(task, request);
+      lockHoldTime.add((System.nanoTime() - lockStart) / 1000);
+    }
     // See if any of the delayedContainers can be used for this task.
     delayedContainerManager.triggerScheduling(true);
     LOG.info("Allocation request for task: " + task +
@@ -822,6 +1122,25 @@ public class TaskScheduler extends AbstractService
       " rack: " + ((racks!=null&&racks.length>0)?racks[0]:"null"));
   }
 
+  /**
+   * Move the pending request of the task to the given priority.
+   * @return true if the task had a pending request at a different priority.
+   */
+  public synchronized boolean updateTaskPriority(Object task,
+      Priority priority) {
+    CookieContainerRequest request = taskRequests.get(task);
+    if (request == null || request.getPriority().equals(priority)) {
+      return false;
+    }
+    removeTaskRequest(task);
+    addTaskRequest(task, new CookieContainerRequest(request, priority));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Changed priority of request for task: " + task + " from "
+          + request.getPriority() + " to " + priority);
+    }
+    return true;
+  }
+
   /**
    * @param task
    *          the task to de-allocate.
@@ -863,6 +1182,7 @@ public class TaskScheduler extends AbstractService
           if (heldContainer != null) {
             heldContainer.resetLocalityMatchLevel();
             long currentTime = System.currentTimeMillis();
+            heldContainer.setIdleStartTime(currentTime);
             if (sessionDelay > 0) {
               heldContainer.setContainerExpiryTime(currentTime + sessionDelay);
             }
@@ -882,8 +1202,13 @@ public class TaskScheduler extends AbstractService
     return true;
   }
   
-  public synchronized Object deallocateContainer(ContainerId containerId) {
-    Object task = unAssignContainer(containerId, true);
+  public Object deallocateContainer(ContainerId containerId) {
+    Object task;
+    synchronized (this) {
+      long lockStart = System.nanoTime();
+      task = unAssignContainer(containerId, true);
+      lockHoldTime.add((System.nanoTime() - lockStart) / 1000);
+    }
     if(task != null) {
       LOG.info("Deallocated container: " + containerId +
         " from task: " + task);
@@ -966,6 +1291,47 @@ public class TaskScheduler extends AbstractService
     }
   }
 
+  /**
+   * Choose the held containers to retain while the session is idle. They are
+   * picked one node at a time so that the next DAG finds warm containers close
+   * to as much of its data as possible.
+   */
+  private void determineMinHeldContainers() {
+    sessionMinHeldContainers.clear();
+    if (sessionNumMinHeldContainers <= 0 || heldContainers.isEmpty()) {
+      return;
+    }
+    if (heldContainers.size() <= sessionNumMinHeldContainers) {
+      sessionMinHeldContainers.addAll(heldContainers.keySet());
+    } else {
+      Map<NodeId, List<ContainerId>> containersByNode =
+          new LinkedHashMap<NodeId, List<ContainerId>>();
+      for (HeldContainer heldContainer : heldContainers.values()) {
+        Container container = heldContainer.getContainer();
+        List<ContainerId> nodeContainers =
+            containersByNode.get(container.getNodeId());
+        if (nodeContainers == null) {
+          nodeContainers = new LinkedList<ContainerId>();
+          containersByNode.put(container.getNodeId(), nodeContainers);
+        }
+        nodeContainers.add(container.getId());
+      }
+      while (sessionMinHeldContainers.size() < sessionNumMinHeldContainers) {
+        for (List<ContainerId> nodeContainers : containersByNode.values()) {
+          if (!nodeContainers.isEmpty()) {
+            sessionMinHeldContainers.add(nodeContainers.remove(0));
+            if (sessionMinHeldContainers.size() == sessionNumMinHeldContainers) {
+              break;
+            }
+          }
+        }
+      }
+    }
+    LOG.info("Retaining " + sessionMinHeldContainers.size()
+        + " idle containers across DAGs of the session"
+        + ", heldContainers=" + heldContainers.size());
+  }
+
   private boolean fitsIn(Resource toFit, Resource resource) {
     // YARN-893 prevents using correct library code
     //return Resources.fitsIn(toFit, resource);
@@ -975,69 +1341,66 @@ public class TaskScheduler extends AbstractService
   private CookieContainerRequest getMatchingRequestWithPriority(
       Container container,
       String location) {
-    Priority priority = container.getPriority();
-    Resource capability = container.getResource();
-    List<? extends Collection<CookieContainerRequest>> requestsList =
-        amRmClient.getMatchingRequests(priority, location, capability);
-
-    if (!requestsList.isEmpty()) {
-      // pick first one
-      for (Collection<CookieContainerRequest> requests : requestsList) {
-        for (CookieContainerRequest cookieContainerRequest : requests) {
-          if (canAssignTaskToContainer(cookieContainerRequest, container)) {
-            return cookieContainerRequest;
-          }
-        }
-      }
-    }
-
-    return null;
+    return getFirstAssignableRequest(
+        pendingRequests.get(container.getPriority(), location), container);
   }
 
   private CookieContainerRequest getMatchingRequestWithoutPriority(
       Container container,
       String location) {
-    Resource capability = container.getResource();
-    List<? extends Collection<CookieContainerRequest>> pRequestsList =
-      amRmClient.getMatchingRequestsForTopPriority(location, capability);
-    if (pRequestsList == null || pRequestsList.isEmpty()) {
+    Priority priority = amRmClient.getTopPriority();
+    if (priority == null) {
       return null;
     }
-    for (Collection<CookieContainerRequest> requests : pRequestsList) {
-      for (CookieContainerRequest cookieContainerRequest : requests) {
-        if (canAssignTaskToContainer(cookieContainerRequest, container)) {
-          return cookieContainerRequest;
-        }
-      }
+    if (!pendingRequests.hasLocalityRequests(priority)) {
+      // Fallback to ANY if there are no pending requests that require
+      // locality matching
+      location = ResourceRequest.ANY;
     }
-    return null;
+    return getFirstAssignableRequest(
+        pendingRequests.get(priority, location), container);
   }
 
-  private boolean canAssignTaskToContainer(
-      CookieContainerRequest cookieContainerRequest, Container container) {
+  private CookieContainerRequest getFirstAssignableRequest(
+      Collection<CookieContainerRequest> requests,
+      Container container) {
+    if (requests.isEmpty()) {
+      return null;
+    }
     HeldContainer heldContainer = heldContainers.get(container.getId());
     if (heldContainer == null || heldContainer.isNew()) { // New container.
-      return true;
-    } else {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("Trying to match task to a held container, "
-            + " containerId=" + heldContainer.container.getId());
+      // pick first one
+      for (CookieContainerRequest cookieContainerRequest : requests) {
+        if (fitsIn(cookieContainerRequest.getCapability(),
+            container.getResource())) {
+          return cookieContainerRequest;
+        }
       }
-      if (containerSignatureMatcher.isSuperSet(heldContainer
-          .getFirstContainerSignature(), cookieContainerRequest.getCookie()
-          .getContainerSignature())) {
+      return null;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Trying to match task to a held container, "
+          + " containerId=" + heldContainer.container.getId());
+    }
+    // The requests of a vertex share one signature instance, so the matcher
+    // runs once per vertex and the other requests hit the cached result
+    for (CookieContainerRequest cookieContainerRequest : requests) {
+      if (fitsIn(cookieContainerRequest.getCapability(),
+          container.getResource())
+          && heldContainer.isSuperSetOf(cookieContainerRequest.getCookie()
+              .getContainerSignature(), containerSignatureMatcher)) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Matched delayed container to task"
             + " containerId=" + heldContainer.container.getId());
         }
-        return true;
+        return cookieContainerRequest;
       }
     }
     if (LOG.isDebugEnabled()) {
       LOG.debug("Failed to match delayed container to task"
         + " containerId=" + heldContainer.container.getId());
     }
-    return false;
+    return null;
   }
 
   private Object getTask(CookieContainerRequest request) {
@@ -1051,6 +1414,7 @@ public class TaskScheduler extends AbstractService
       appClientDelegate.containerBeingReleased(containerId);
     }
     HeldContainer delayedContainer = heldContainers.remove(containerId);
+    sessionMinHeldContainers.remove(containerId);
     if (delayedContainer != null) {
       Resources.subtractFrom(allocatedResources,
           delayedContainer.getContainer().getResource());
@@ -1123,6 +1487,7 @@ public class TaskScheduler extends AbstractService
   private CookieContainerRequest removeTaskRequest(Object task) {
     CookieContainerRequest request = taskRequests.remove(task);
     if(request != null) {
+      pendingRequests.remove(request);
       // remove all references of the request from AMRMClient
       amRmClient.removeContainerRequest(request);
     }
@@ -1132,7 +1497,11 @@ public class TaskScheduler extends AbstractService
   private void addTaskRequest(Object task,
                                 CookieContainerRequest request) {
     // TODO TEZ-37 fix duplicate handling
-    taskRequests.put(task, request);
+    CookieContainerRequest oldRequest = taskRequests.put(task, request);
+    if (oldRequest != null) {
+      pendingRequests.remove(oldRequest);
+    }
+    pendingRequests.add(request);
     amRmClient.addContainerRequest(request);
   }
 
@@ -1289,9 +1658,17 @@ public class TaskScheduler extends AbstractService
   private abstract class ContainerAssigner {
 
     protected final String locality;
+    private final MutableRate schedulingLatency;
+    private final MutableQuantiles schedulingLatencyQuantiles;
 
     protected ContainerAssigner(String locality) {
       this.locality = locality;
+      this.schedulingLatency = registry.newRate(
+          locality + "SchedulingLatency", "Time in ms from a task request to"
+          + " its " + locality + " container assignment", false);
+      this.schedulingLatencyQuantiles = registry.newQuantiles(
+          locality + "SchedulingLatency60s", locality
+          + " scheduling latency percentiles over 60s", "ops", "latencyMs", 60);
     }
 
     public abstract CookieContainerRequest assignNewContainer(
@@ -1309,6 +1686,10 @@ public class TaskScheduler extends AbstractService
       Object task = getTask(assigned);
       assert task != null;
 
+      long latency = System.currentTimeMillis() - assigned.getRequestTime();
+      schedulingLatency.add(latency);
+      schedulingLatencyQuantiles.add(latency);
+
       LOG.info("Assigning container to task"
         + ", container=" + container
         + ", task=" + task
@@ -1544,6 +1925,10 @@ public class TaskScheduler extends AbstractService
 
       Map<CookieContainerRequest, Container> assignedContainers;
       synchronized(TaskScheduler.this) {
+        if (taskRequests.isEmpty()) {
+          // the requests were assigned since scheduling was triggered
+          return;
+        }
         // honor reuse-locality flags (container not timed out yet), Don't queue
         // (already in queue), don't release (release happens when containers
         // time-out)
@@ -1562,8 +1947,13 @@ public class TaskScheduler extends AbstractService
             iter.remove();
           }
         }
-        assignedContainers = tryAssignReUsedContainers(
-          new ContainerIterable(delayedContainers));
+        if (reuseScoring) {
+          assignedContainers = tryAssignReUsedContainersByScore(
+              delayedContainers);
+        } else {
+          assignedContainers = tryAssignReUsedContainers(
+            new ContainerIterable(delayedContainers));
+        }
       }
       // Inform app
       informAppAboutAssignments(assignedContainers);
@@ -1656,6 +2046,96 @@ public class TaskScheduler extends AbstractService
     }
   }
 
+  /**
+   * Pending requests by priority and location, in the order they were added.
+   * Like the AMRMClient, a request is listed under its hosts, its racks, the
+   * racks of its hosts and ANY. The container assigners look up the requests
+   * local to a container here instead of asking the AMRMClient, which copies
+   * out its matches for every container, locality level and priority.
+   */
+  static class PendingRequestIndex {
+
+    private final Map<Priority, Map<String, Set<CookieContainerRequest>>>
+        requests = new HashMap<Priority,
+            Map<String, Set<CookieContainerRequest>>>();
+
+    void add(CookieContainerRequest request) {
+      Map<String, Set<CookieContainerRequest>> locations =
+          requests.get(request.getPriority());
+      if (locations == null) {
+        locations = new HashMap<String, Set<CookieContainerRequest>>();
+        requests.put(request.getPriority(), locations);
+      }
+      for (String location : getLocations(request)) {
+        Set<CookieContainerRequest> locationRequests = locations.get(location);
+        if (locationRequests == null) {
+          locationRequests = new LinkedHashSet<CookieContainerRequest>();
+          locations.put(location, locationRequests);
+        }
+        locationRequests.add(request);
+      }
+    }
+
+    void remove(CookieContainerRequest request) {
+      Map<String, Set<CookieContainerRequest>> locations =
+          requests.get(request.getPriority());
+      if (locations == null) {
+        return;
+      }
+      for (String location : getLocations(request)) {
+        Set<CookieContainerRequest> locationRequests = locations.get(location);
+        if (locationRequests != null && locationRequests.remove(request)
+            && locationRequests.isEmpty()) {
+          locations.remove(location);
+        }
+      }
+      if (locations.isEmpty()) {
+        requests.remove(request.getPriority());
+      }
+    }
+
+    /**
+     * @return the requests at the priority listed under the host, rack or
+     *         ANY location, in the order they were added.
+     */
+    Collection<CookieContainerRequest> get(Priority priority,
+        String location) {
+      Map<String, Set<CookieContainerRequest>> locations =
+          requests.get(priority);
+      Set<CookieContainerRequest> locationRequests =
+          locations == null ? null : locations.get(location);
+      if (locationRequests == null) {
+        return Collections.emptySet();
+      }
+      return Collections.unmodifiableSet(locationRequests);
+    }
+
+    /**
+     * @return true if a request at the priority asks for a host or rack, that
+     *         is, it is listed under more than ANY
+     */
+    boolean hasLocalityRequests(Priority priority) {
+      Map<String, Set<CookieContainerRequest>> locations =
+          requests.get(priority);
+      return locations != null && locations.size() > 1;
+    }
+
+    private Set<String> getLocations(CookieContainerRequest request) {
+      Set<String> locations = new HashSet<String>();
+      locations.add(ResourceRequest.ANY);
+      if (request.getNodes() != null) {
+        for (String node : request.getNodes()) {
+          locations.add(node);
+          locations.add(RackResolver.resolve(node).getNetworkLocation());
+        }
+      }
+      if (request.getRacks() != null) {
+        locations.addAll(request.getRacks());
+      }
+      return locations;
+    }
+  }
+
   static class HeldContainer {
 
     enum LocalityMatchLevel {
@@ -1670,7 +2150,13 @@ public class TaskScheduler extends AbstractService
     private Object firstContainerSignature;
     private LocalityMatchLevel localityMatchLevel;
     private long containerExpiryTime;
+    private long idleStartTime;
     private CookieContainerRequest lastTaskInfo;
+    // task signatures already matched against the first signature. Bounded
+    // since the signatures of a session keep changing.
+    private static final int MAX_SIGNATURE_MATCHES = 64;
+    private final Map<Object, Boolean> signatureMatches =
+        new IdentityHashMap<Object, Boolean>();
     
     HeldContainer(Container container,
         long nextScheduleTime,
@@ -1684,6 +2170,7 @@ public class TaskScheduler extends AbstractService
       }
       this.localityMatchLevel = LocalityMatchLevel.NODE;
       this.containerExpiryTime = containerExpiryTime;
+      this.idleStartTime = System.currentTimeMillis();
     }
     
     boolean isNew() {
@@ -1710,10 +2197,40 @@ public class TaskScheduler extends AbstractService
       this.containerExpiryTime = containerExpiryTime;
     }
 
+    public long getIdleStartTime() {
+      return this.idleStartTime;
+    }
+
+    public void setIdleStartTime(long idleStartTime) {
+      this.idleStartTime = idleStartTime;
+    }
+
     public Object getFirstContainerSignature() {
       return this.firstContainerSignature;
     }
     
+    /**
+     * Whether a task with the given signature can run in this container.
+     * Results are cached per signature instance.
+     */
+    boolean isSuperSetOf(Object containerSignature,
+        ContainerSignatureMatcher matcher) {
+      Boolean matches = signatureMatches.get(containerSignature);
+      if (matches == null) {
+        matches = matcher.isSuperSet(firstContainerSignature,
+            containerSignature);
+        if (signatureMatches.size() >= MAX_SIGNATURE_MATCHES) {
+          signatureMatches.clear();
+        }
+        signatureMatches.put(containerSignature, matches);
+      }
+      return matches;
+    }
+
+    void clearSignatureMatches() {
+      signatureMatches.clear();
+    }
+
     public CookieContainerRequest getLastTaskInfo() {
       return this.lastTaskInfo;
     }
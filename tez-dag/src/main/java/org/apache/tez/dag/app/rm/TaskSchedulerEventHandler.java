@@ -57,11 +57,14 @@ import org.apache.tez.dag.app.rm.container.AMContainerEventStopRequest;
 import org.apache.tez.dag.app.rm.container.AMContainerEventTASucceeded;
 import org.apache.tez.dag.app.rm.container.AMContainerState;
 import org.apache.tez.dag.app.rm.container.ContainerSignatureMatcher;
+import org.apache.tez.dag.app.rm.node.AMNodeEvent;
 import org.apache.tez.dag.app.rm.node.AMNodeEventContainerAllocated;
 import org.apache.tez.dag.app.rm.node.AMNodeEventNodeCountUpdated;
 import org.apache.tez.dag.app.rm.node.AMNodeEventStateChanged;
 import org.apache.tez.dag.app.rm.node.AMNodeEventTaskAttemptEnded;
 import org.apache.tez.dag.app.rm.node.AMNodeEventTaskAttemptSucceeded;
+import org.apache.tez.dag.app.rm.node.AMNodeEventType;
+import org.apache.tez.dag.app.rm.node.AMNodeMap;
 
 public class TaskSchedulerEventHandler extends AbstractService
                                          implements TaskSchedulerAppCallback,
@@ -136,6 +139,9 @@ public class TaskSchedulerEventHandler extends AbstractService
         throw new TezUncheckedException("Unexecpted TA_ENDED state: " + event.getState());
       }
       break;
+    case S_TA_PRIORITY_UPDATE:
+      handleTAPriorityUpdate((AMSchedulerEventTAPriorityUpdate)sEvent);
+      break;
     case S_CONTAINER_DEALLOCATE:
       handleContainerDeallocate((AMSchedulerEventDeallocateContainer)sEvent);
       break;
@@ -181,6 +187,17 @@ public class TaskSchedulerEventHandler extends AbstractService
     eventHandler.handle(event);
   }
 
+  private void handleTAPriorityUpdate(AMSchedulerEventTAPriorityUpdate event) {
+    // only moves requests still waiting for a container
+    if (taskScheduler.updateTaskPriority(event.getAttempt(),
+        event.getPriority())) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Changed priority of request for " + event.getAttemptID()
+            + " to " + event.getPriority());
+      }
+    }
+  }
+
   private void handleNodeBlacklistUpdate(AMSchedulerEventNodeBlacklistUpdate event) {
     if (event.getType() == AMSchedulerEventType.S_NODE_BLACKLISTED) {
       taskScheduler.blacklistNode(event.getNodeId());
@@ -287,9 +304,11 @@ public class TaskSchedulerEventHandler extends AbstractService
     if (event.getUsedContainerId() != null) {
       sendEvent(new AMContainerEventTASucceeded(usedContainerId,
           event.getAttemptID()));
+      long runtime = attempt.getLaunchTime() > 0
+          ? attempt.getFinishTime() - attempt.getLaunchTime() : -1;
       sendEvent(new AMNodeEventTaskAttemptSucceeded(appContext.getAllContainers().
           get(usedContainerId).getContainer().getNodeId(), usedContainerId,
-          event.getAttemptID()));
+          event.getAttemptID(), runtime));
     }
 
     boolean wasContainerAllocated = taskScheduler.deallocateTask(attempt, true);
@@ -530,6 +549,13 @@ public class TaskSchedulerEventHandler extends AbstractService
       cachedNodeCount = nodeCount;
       sendEvent(new AMNodeEventNodeCountUpdated(cachedNodeCount));
     }
+    // Slow nodes are let back in on expiry, which is only checked when a node
+    // event arrives. Heartbeats keep that going while the AM is idle.
+    AMNodeMap nodes = appContext.getAllNodes();
+    if (nodes != null && nodes.hasSlowNodes()) {
+      sendEvent(new AMNodeEvent(null,
+          AMNodeEventType.N_SLOW_NODE_EXPIRY_CHECK));
+    }
     return dagAppMaster.getProgress();
   }
 
@@ -29,6 +29,7 @@ import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -136,6 +137,31 @@ public class AMContainerHelpers {
     return container;
   }
 
+  /**
+   * Point the task JVM at the class data sharing archive if one was shipped
+   * with the container. Options given by the user come later and win.
+   * -XX:SharedArchiveFile is only understood by JDK 10+ JVMs; older JVMs
+   * refuse to start with it, so the archive must only be configured for
+   * clusters running such JVMs.
+   */
+  @VisibleForTesting
+  static String addClassDataArchiveOpts(Configuration conf,
+      Map<String, LocalResource> localResources, String javaOpts) {
+    String classDataArchive = conf == null ? null : conf.get(
+        TezConfiguration.TEZ_TASK_CLASS_DATA_ARCHIVE);
+    if (classDataArchive == null || classDataArchive.trim().isEmpty()) {
+      return javaOpts;
+    }
+    String archiveName = new Path(classDataArchive.trim()).getName();
+    if (!localResources.containsKey(archiveName)) {
+      LOG.warn("Class data archive " + archiveName + " is not a local resource"
+          + " of the container, launching without it");
+      return javaOpts;
+    }
+    return "-Xshare:auto -XX:SharedArchiveFile=" + archiveName
+        + (javaOpts == null ? "" : " " + javaOpts);
+  }
+
   @VisibleForTesting
   public static ContainerLaunchContext createContainerLaunchContext(
       TezDAGID tezDAGID,
@@ -184,7 +210,8 @@ public class AMContainerHelpers {
         taskAttemptListenerAddress, containerId.toString(),
         appContext.getApplicationID().toString(),
         appContext.getApplicationAttemptId().getAttemptId(),
-        shouldProfile, profileOpts, javaOpts);
+        shouldProfile, profileOpts,
+        addClassDataArchiveOpts(appContext.getAMConf(), lResources, javaOpts));
 
     // Duplicate the ByteBuffers for access by multiple containers.
     Map<String, ByteBuffer> myServiceData = new HashMap<String, ByteBuffer>();
@@ -628,6 +628,7 @@ public class AMContainerImpl implements AMContainer {
 
       container.remoteTaskMap
           .put(event.getTaskAttemptId(), event.getRemoteTaskSpec());
+      container.taskAttemptListener.taskAttemptAssigned(container.containerId);
       return container.getState();
     }
   }
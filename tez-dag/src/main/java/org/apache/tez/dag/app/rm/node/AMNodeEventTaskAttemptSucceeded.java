@@ -26,12 +26,23 @@ public class AMNodeEventTaskAttemptSucceeded extends AMNodeEvent {
   // TODO These two parameters really aren't required in this event.
   private final ContainerId containerId;
   private final TezTaskAttemptID taskAttemptId;
+  private final long runtime;
 
   public AMNodeEventTaskAttemptSucceeded(NodeId nodeId,
       ContainerId containerId, TezTaskAttemptID taskAttemptId) {
+    this(nodeId, containerId, taskAttemptId, -1);
+  }
+
+  /**
+   * @param runtime time in ms from the launch of the attempt to its
+   *          completion, or -1 if not known.
+   */
+  public AMNodeEventTaskAttemptSucceeded(NodeId nodeId,
+      ContainerId containerId, TezTaskAttemptID taskAttemptId, long runtime) {
     super(nodeId, AMNodeEventType.N_TA_SUCCEEDED);
     this.containerId = containerId;
     this.taskAttemptId = taskAttemptId;
+    this.runtime = runtime;
   }
 
   public ContainerId getContainerId() {
@@ -42,4 +53,8 @@ public class AMNodeEventTaskAttemptSucceeded extends AMNodeEvent {
     return this.taskAttemptId;
   }
 
+  public long getRuntime() {
+    return this.runtime;
+  }
+
 }
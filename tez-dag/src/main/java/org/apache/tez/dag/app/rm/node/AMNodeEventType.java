@@ -30,12 +30,17 @@ public enum AMNodeEventType {
   N_TURNED_UNHEALTHY,
   N_TURNED_HEALTHY,
   N_NODE_COUNT_UPDATED, // for blacklisting.
+  N_SLOW_NODE_EXPIRY_CHECK, // Will not reach AMNodeImpl.
   
   //Producer: AMNodeManager
   N_IGNORE_BLACKLISTING_ENABLED,
   N_IGNORE_BLACKLISTING_DISABLED,
+  N_SLOW_NODE_REHABILITATED,
   
   // Producer: AMNode - Will not reach AMNodeImpl. Used to compute whether
   // blacklisting should be ignored.
-  N_NODE_WAS_BLACKLISTED
+  N_NODE_WAS_BLACKLISTED,
+  // Producer: AMNode - Will not reach AMNodeImpl. Used to temporarily
+  // blacklist a node on which tasks run slower than elsewhere.
+  N_NODE_WAS_SLOW
 }
@@ -43,6 +43,7 @@ import org.apache.tez.dag.app.rm.container.AMContainerEvent;
 import org.apache.tez.dag.app.rm.container.AMContainerEventNodeFailed;
 import org.apache.tez.dag.app.rm.container.AMContainerEventType;
 import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezVertexID;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
@@ -60,6 +61,13 @@ public class AMNodeImpl implements AMNode {
   private boolean ignoreBlacklisting = false;
   private Set<TezTaskAttemptID> failedAttemptIds = Sets.newHashSet();
 
+  // Weight of the latest attempt in the smoothed relative runtime.
+  private static final float RELATIVE_RUNTIME_WEIGHT = 0.3f;
+  // null if slow node detection is disabled.
+  private final VertexTaskRuntimes vertexTaskRuntimes;
+  private final float slowNodeRuntimeThreshold;
+  private final int slowNodeMinTasks;
+
   @SuppressWarnings("rawtypes")
   protected EventHandler eventHandler;
 
@@ -67,6 +75,10 @@ public class AMNodeImpl implements AMNode {
   final List<ContainerId> containers = new LinkedList<ContainerId>();
   int numFailedTAs = 0;
   int numSuccessfulTAs = 0;
+  // Smoothed ratio of attempt runtimes on this node to their vertex medians.
+  float relativeRuntime = 0;
+  int numRelativeRuntimes = 0;
+  boolean slow = false;
   
   //Book-keeping only. In case of Health status change.
   private final List<ContainerId> pastContainers = new LinkedList<ContainerId>();
@@ -101,6 +113,9 @@ public class AMNodeImpl implements AMNode {
           new IgnoreBlacklistingStateChangeTransition(true))
       .addTransition(AMNodeState.ACTIVE, AMNodeState.ACTIVE,
           AMNodeEventType.N_TURNED_HEALTHY)
+      .addTransition(AMNodeState.ACTIVE, AMNodeState.ACTIVE,
+          AMNodeEventType.N_SLOW_NODE_REHABILITATED,
+          new SlowNodeRehabilitatedTransition())
 
       // Transitions from BLACKLISTED state.
       .addTransition(AMNodeState.BLACKLISTED, AMNodeState.BLACKLISTED,
@@ -118,6 +133,9 @@ public class AMNodeImpl implements AMNode {
       .addTransition(AMNodeState.BLACKLISTED, AMNodeState.FORCED_ACTIVE,
           AMNodeEventType.N_IGNORE_BLACKLISTING_ENABLED,
           new IgnoreBlacklistingStateChangeTransition(true))
+      .addTransition(AMNodeState.BLACKLISTED, AMNodeState.BLACKLISTED,
+          AMNodeEventType.N_SLOW_NODE_REHABILITATED,
+          new SlowNodeRehabilitatedTransition())
       .addTransition(
           AMNodeState.BLACKLISTED,
           AMNodeState.BLACKLISTED,
@@ -140,6 +158,9 @@ public class AMNodeImpl implements AMNode {
           EnumSet.of(AMNodeState.BLACKLISTED, AMNodeState.ACTIVE),
           AMNodeEventType.N_IGNORE_BLACKLISTING_DISABLED,
           new IgnoreBlacklistingDisabledTransition())
+      .addTransition(AMNodeState.FORCED_ACTIVE, AMNodeState.FORCED_ACTIVE,
+          AMNodeEventType.N_SLOW_NODE_REHABILITATED,
+          new SlowNodeRehabilitatedTransition())
       .addTransition(
           AMNodeState.FORCED_ACTIVE,
           AMNodeState.FORCED_ACTIVE,
@@ -167,6 +188,9 @@ public class AMNodeImpl implements AMNode {
           AMNodeEventType.N_TURNED_HEALTHY, new NodeTurnedHealthyTransition())
       .addTransition(AMNodeState.UNHEALTHY, AMNodeState.UNHEALTHY,
           AMNodeEventType.N_TURNED_UNHEALTHY, new GenericErrorTransition())
+      .addTransition(AMNodeState.UNHEALTHY, AMNodeState.UNHEALTHY,
+          AMNodeEventType.N_SLOW_NODE_REHABILITATED,
+          new SlowNodeRehabilitatedTransition())
 
         .installTopology();
 
@@ -175,6 +199,15 @@ public class AMNodeImpl implements AMNode {
   public AMNodeImpl(NodeId nodeId, int maxTaskFailuresPerNode,
       EventHandler eventHandler, boolean blacklistingEnabled,
       AppContext appContext) {
+    this(nodeId, maxTaskFailuresPerNode, eventHandler, blacklistingEnabled,
+        appContext, null, 0, 0);
+  }
+
+  @SuppressWarnings("rawtypes")
+  AMNodeImpl(NodeId nodeId, int maxTaskFailuresPerNode,
+      EventHandler eventHandler, boolean blacklistingEnabled,
+      AppContext appContext, VertexTaskRuntimes vertexTaskRuntimes,
+      float slowNodeRuntimeThreshold, int slowNodeMinTasks) {
     ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
     this.readLock = rwLock.readLock();
     this.writeLock = rwLock.writeLock();
@@ -183,6 +216,9 @@ public class AMNodeImpl implements AMNode {
     this.eventHandler = eventHandler;
     this.blacklistingEnabled = blacklistingEnabled;
     this.maxTaskFailuresPerNode = maxTaskFailuresPerNode;
+    this.vertexTaskRuntimes = vertexTaskRuntimes;
+    this.slowNodeRuntimeThreshold = slowNodeRuntimeThreshold;
+    this.slowNodeMinTasks = slowNodeMinTasks;
     this.stateMachine = stateMachineFactory.make(this);
     // TODO Handle the case where a node is created due to the RM reporting it's
     // state as UNHEALTHY
@@ -256,6 +292,39 @@ public class AMNodeImpl implements AMNode {
     sendEvent(new AMSchedulerEventNodeBlacklistUpdate(getNodeId(), true));
   }
 
+  /**
+   * Compares the runtime of a successful attempt with the median runtime of
+   * its vertex, and reports the node as slow once its attempts are
+   * consistently slower than the threshold.
+   */
+  protected void updateRelativeRuntime(AMNodeEventTaskAttemptSucceeded event) {
+    if (vertexTaskRuntimes == null || event.getRuntime() <= 0
+        || event.getTaskAttemptId().getTaskID() == null) {
+      return;
+    }
+    TezVertexID vertexId = event.getTaskAttemptId().getTaskID().getVertexID();
+    long median = vertexTaskRuntimes.getMedian(vertexId);
+    vertexTaskRuntimes.add(vertexId, event.getRuntime());
+    if (median <= 0) {
+      return;
+    }
+    float ratio = (float) event.getRuntime() / median;
+    if (numRelativeRuntimes == 0) {
+      relativeRuntime = ratio;
+    } else {
+      relativeRuntime = RELATIVE_RUNTIME_WEIGHT * ratio
+          + (1 - RELATIVE_RUNTIME_WEIGHT) * relativeRuntime;
+    }
+    numRelativeRuntimes++;
+    if (!slow && numRelativeRuntimes >= slowNodeMinTasks
+        && relativeRuntime >= slowNodeRuntimeThreshold) {
+      LOG.info("Attempts on node " + getNodeId() + " take " + relativeRuntime
+          + " times the vertex median runtime. Reporting node as slow");
+      slow = true;
+      sendEvent(new AMNodeEvent(getNodeId(), AMNodeEventType.N_NODE_WAS_SLOW));
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private void sendEvent(Event<?> event) {
     this.eventHandler.handle(event);
@@ -279,6 +348,7 @@ public class AMNodeImpl implements AMNode {
     @Override
     public void transition(AMNodeImpl node, AMNodeEvent nEvent) {
       node.numSuccessfulTAs++;
+      node.updateRelativeRuntime((AMNodeEventTaskAttemptSucceeded) nEvent);
     }
   }
 
@@ -385,6 +455,18 @@ public class AMNodeImpl implements AMNode {
     }
   }
 
+  // Lets the node back in half way between normal and slow, so that a few more
+  // slow attempts are enough to report it again.
+  protected static class SlowNodeRehabilitatedTransition implements
+      SingleArcTransition<AMNodeImpl, AMNodeEvent> {
+    @Override
+    public void transition(AMNodeImpl node, AMNodeEvent nEvent) {
+      node.slow = false;
+      node.relativeRuntime = Math.min(node.relativeRuntime,
+          (1 + node.slowNodeRuntimeThreshold) / 2);
+    }
+  }
+
   protected static class GenericErrorTransition implements
       SingleArcTransition<AMNodeImpl, AMNodeEvent> {
 
@@ -18,7 +18,11 @@
 
 package org.apache.tez.dag.app.rm.node;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -33,6 +37,7 @@ import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.dag.app.AppContext;
+import org.apache.tez.dag.app.rm.AMSchedulerEventNodeBlacklistUpdate;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -51,6 +56,17 @@ public class AMNodeMap extends AbstractService implements
   private int maxTaskFailuresPerNode;
   private boolean nodeBlacklistingEnabled;
   private int blacklistDisablePercent;
+  private boolean slowNodeDetectionEnabled;
+  private float slowNodeRuntimeThreshold;
+  private int slowNodeMinTasks;
+  private long slowNodeBlacklistMillis;
+  private VertexTaskRuntimes vertexTaskRuntimes;
+  // Nodes blacklisted for being slow -> time at which they are let back in.
+  // Only modified on the dispatcher thread, read by the scheduler heartbeat.
+  private final Map<NodeId, Long> slowNodes =
+      new ConcurrentHashMap<NodeId, Long>();
+  private final Map<NodeId, Integer> numTimesSlow =
+      new HashMap<NodeId, Integer>();
   
   
   // TODO XXX Ensure there's a test for IgnoreBlacklisting in
@@ -76,20 +92,45 @@ public class AMNodeMap extends AbstractService implements
           TezConfiguration.TEZ_AM_NODE_BLACKLISTING_IGNORE_THRESHOLD,
           TezConfiguration.TEZ_AM_NODE_BLACKLISTING_IGNORE_THRESHOLD_DEFAULT);
 
+    this.slowNodeDetectionEnabled = conf.getBoolean(
+        TezConfiguration.TEZ_AM_SLOW_NODE_DETECTION_ENABLED,
+        TezConfiguration.TEZ_AM_SLOW_NODE_DETECTION_ENABLED_DEFAULT);
+    this.slowNodeRuntimeThreshold = conf.getFloat(
+        TezConfiguration.TEZ_AM_SLOW_NODE_RUNTIME_THRESHOLD,
+        TezConfiguration.TEZ_AM_SLOW_NODE_RUNTIME_THRESHOLD_DEFAULT);
+    this.slowNodeMinTasks = conf.getInt(
+        TezConfiguration.TEZ_AM_SLOW_NODE_MIN_TASKS,
+        TezConfiguration.TEZ_AM_SLOW_NODE_MIN_TASKS_DEFAULT);
+    this.slowNodeBlacklistMillis = conf.getLong(
+        TezConfiguration.TEZ_AM_SLOW_NODE_BLACKLIST_MILLIS,
+        TezConfiguration.TEZ_AM_SLOW_NODE_BLACKLIST_MILLIS_DEFAULT);
+    if (slowNodeDetectionEnabled) {
+      vertexTaskRuntimes = new VertexTaskRuntimes(slowNodeMinTasks);
+    }
+
     LOG.info("blacklistDisablePercent is " + blacklistDisablePercent +
         ", blacklistingEnabled: " + nodeBlacklistingEnabled + 
-        ", maxTaskFailuresPerNode: " + maxTaskFailuresPerNode);
+        ", maxTaskFailuresPerNode: " + maxTaskFailuresPerNode +
+        ", slowNodeDetectionEnabled: " + slowNodeDetectionEnabled +
+        ", slowNodeRuntimeThreshold: " + slowNodeRuntimeThreshold +
+        ", slowNodeMinTasks: " + slowNodeMinTasks +
+        ", slowNodeBlacklistMillis: " + slowNodeBlacklistMillis);
 
     if (blacklistDisablePercent < -1 || blacklistDisablePercent > 100) {
       throw new TezUncheckedException("Invalid blacklistDisablePercent: "
           + blacklistDisablePercent
           + ". Should be an integer between 0 and 100 or -1 to disabled");
     }
+    if (slowNodeDetectionEnabled && slowNodeRuntimeThreshold <= 1) {
+      throw new TezUncheckedException("Invalid slowNodeRuntimeThreshold: "
+          + slowNodeRuntimeThreshold + ". Should be greater than 1");
+    }
   }
   
   public void nodeSeen(NodeId nodeId) {
     nodeMap.putIfAbsent(nodeId, new AMNodeImpl(nodeId, maxTaskFailuresPerNode,
-        eventHandler, nodeBlacklistingEnabled, appContext));
+        eventHandler, nodeBlacklistingEnabled, appContext, vertexTaskRuntimes,
+        slowNodeRuntimeThreshold, slowNodeMinTasks));
   }
 
   // Interface for the scheduler to check about a specific host.
@@ -130,13 +171,22 @@ public class AMNodeMap extends AbstractService implements
   public void handle(AMNodeEvent rEvent) {
     // No synchronization required until there's multiple dispatchers.
     NodeId nodeId = rEvent.getNodeId();
+    if (!slowNodes.isEmpty()) {
+      rehabilitateSlowNodes();
+    }
     switch (rEvent.getType()) {
+    case N_NODE_WAS_SLOW:
+      addSlowNode(nodeId);
+      break;
     case N_NODE_WAS_BLACKLISTED:
       // When moving away from IGNORE_BLACKLISTING state, nodes will send out
       // blacklisted events. These need to be ignored.
       addToBlackList(nodeId);
       computeIgnoreBlacklisting();
       break;
+    case N_SLOW_NODE_EXPIRY_CHECK:
+      // Expired slow nodes have been rehabilitated above.
+      break;
     case N_NODE_COUNT_UPDATED:
       AMNodeEventNodeCountUpdated event = (AMNodeEventNodeCountUpdated) rEvent;
       numClusterNodes = event.getNodeCount();
@@ -157,6 +207,69 @@ public class AMNodeMap extends AbstractService implements
     }
   }
 
+  // Slow nodes are blacklisted with the RM for a while, longer each time the
+  // same node turns out slow, unless that would take too much of the cluster
+  // out.
+  private void addSlowNode(NodeId nodeId) {
+    if (blacklistDisablePercent != -1 && numClusterNodes > 0) {
+      // Slow and failure blacklisted nodes both take capacity away.
+      Set<NodeId> unusableNodes = new HashSet<NodeId>(slowNodes.keySet());
+      for (Set<NodeId> hostNodes : blacklistMap.values()) {
+        unusableNodes.addAll(hostNodes);
+      }
+      unusableNodes.add(nodeId);
+      if ((int) ((float) unusableNodes.size() / numClusterNodes * 100)
+          >= blacklistDisablePercent) {
+        LOG.info("Not blacklisting slow node " + nodeId + ". Known: "
+            + numClusterNodes + ", Slow: " + slowNodes.size()
+            + ", Slow or blacklisted: " + unusableNodes.size());
+        sendEvent(new AMNodeEvent(nodeId,
+            AMNodeEventType.N_SLOW_NODE_REHABILITATED));
+        return;
+      }
+    }
+    Integer timesSlow = numTimesSlow.get(nodeId);
+    timesSlow = (timesSlow == null ? 1 : timesSlow + 1);
+    numTimesSlow.put(nodeId, timesSlow);
+    long blacklistMillis =
+        slowNodeBlacklistMillis << Math.min(timesSlow - 1, 10);
+    slowNodes.put(nodeId, appContext.getClock().getTime() + blacklistMillis);
+    LOG.info("Blacklisting slow node " + nodeId + " for " + blacklistMillis
+        + " ms");
+    sendEvent(new AMSchedulerEventNodeBlacklistUpdate(nodeId, true));
+  }
+
+  private void rehabilitateSlowNodes() {
+    long currentTime = appContext.getClock().getTime();
+    Iterator<Entry<NodeId, Long>> iter = slowNodes.entrySet().iterator();
+    while (iter.hasNext()) {
+      Entry<NodeId, Long> entry = iter.next();
+      if (entry.getValue() > currentTime) {
+        continue;
+      }
+      iter.remove();
+      NodeId nodeId = entry.getKey();
+      LOG.info("Removing slow node " + nodeId + " from the blacklist");
+      AMNode amNode = nodeMap.get(nodeId);
+      // Nodes blacklisted because of failures stay blacklisted.
+      if (amNode == null || !amNode.isBlacklisted()) {
+        sendEvent(new AMSchedulerEventNodeBlacklistUpdate(nodeId, false));
+      }
+      sendEvent(new AMNodeEvent(nodeId,
+          AMNodeEventType.N_SLOW_NODE_REHABILITATED));
+    }
+  }
+
+  /**
+   * Whether any node is currently blacklisted for being slow. Used by the
+   * scheduler heartbeat to decide whether to send a
+   * {@link AMNodeEventType#N_SLOW_NODE_EXPIRY_CHECK}, so that slow nodes are
+   * let back in on time even when no other node events arrive.
+   */
+  public boolean hasSlowNodes() {
+    return !slowNodes.isEmpty();
+  }
+
   // May be incorrect if there's multiple NodeManagers running on a single host.
   // knownNodeCount is based on node managers, not hosts. blacklisting is
   // currently based on hosts.
@@ -0,0 +1,78 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.tez.dag.app.rm.node;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.tez.dag.records.TezVertexID;
+
+/**
+ * Runtimes of recent successful task attempts of each vertex, across all
+ * nodes. Shared by the AMNodes to compare the runtimes of the attempts they
+ * ran against the vertex median.
+ */
+class VertexTaskRuntimes {
+
+  private static final int MAX_RUNTIMES_PER_VERTEX = 100;
+
+  private final int minRuntimes;
+  private final Map<TezVertexID, LinkedList<Long>> runtimes =
+      new HashMap<TezVertexID, LinkedList<Long>>();
+
+  /**
+   * @param minRuntimes number of runtimes a vertex needs before it has a
+   *          median.
+   */
+  VertexTaskRuntimes(int minRuntimes) {
+    this.minRuntimes = Math.max(1, minRuntimes);
+  }
+
+  synchronized void add(TezVertexID vertexId, long runtime) {
+    LinkedList<Long> vertexRuntimes = runtimes.get(vertexId);
+    if (vertexRuntimes == null) {
+      vertexRuntimes = new LinkedList<Long>();
+      runtimes.put(vertexId, vertexRuntimes);
+    }
+    vertexRuntimes.add(runtime);
+    if (vertexRuntimes.size() > MAX_RUNTIMES_PER_VERTEX) {
+      vertexRuntimes.removeFirst();
+    }
+  }
+
+  /**
+   * @return the median of the recent runtimes of the vertex, or -1 if it has
+   *         fewer than the minimum number of runtimes.
+   */
+  synchronized long getMedian(TezVertexID vertexId) {
+    LinkedList<Long> vertexRuntimes = runtimes.get(vertexId);
+    if (vertexRuntimes == null || vertexRuntimes.size() < minRuntimes) {
+      return -1;
+    }
+    long[] sorted = new long[vertexRuntimes.size()];
+    int i = 0;
+    for (Long runtime : vertexRuntimes) {
+      sorted[i++] = runtime;
+    }
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+}
@@ -33,5 +33,6 @@ public enum HistoryEventType {
   TASK_ATTEMPT_STARTED,
   TASK_ATTEMPT_FINISHED,
   CONTAINER_LAUNCHED,
-  VERTEX_DATA_MOVEMENT_EVENTS_GENERATED
+  VERTEX_DATA_MOVEMENT_EVENTS_GENERATED,
+  VERTEX_CHECKPOINT
 }
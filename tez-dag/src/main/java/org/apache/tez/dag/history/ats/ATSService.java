@@ -21,37 +21,78 @@ package org.apache.tez.dag.history.ats;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.service.AbstractService;
-import org.apache.hadoop.yarn.api.ApplicationConstants;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.history.DAGHistoryEvent;
 import org.apache.tez.dag.history.HistoryEventType;
-import org.apache.tez.dag.history.recovery.RecoveryService;
+import org.apache.tez.dag.history.utils.ATSConstants;
+import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 
-public class ATSService extends AbstractService {
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Publishes history events in batches. Events are queued by the dispatcher
+ * and converted and published by a separate thread. The queue is bounded:
+ * when it is full, events of the droppable types are dropped and all other
+ * events block the caller until there is space or the service stops.
+ */
+public class ATSService extends AbstractService implements MetricsSource {
 
   private static final Log LOG = LogFactory.getLog(ATSService.class);
 
-  private LinkedBlockingQueue<DAGHistoryEvent> eventQueue =
-      new LinkedBlockingQueue<DAGHistoryEvent>();
+  static final String METRICS_SOURCE_NAME = "ATSService";
+  // how often a caller blocked on a full queue checks if the service stopped
+  private static final long EVENT_QUEUE_OFFER_TIMEOUT_MS = 1000;
+
+  private LinkedBlockingQueue<DAGHistoryEvent> eventQueue;
 
-  private final AtomicInteger historyCounter =
-      new AtomicInteger(0);
-  private String outputFilePrefix;
   private Thread eventHandlingThread;
   private AtomicBoolean stopped = new AtomicBoolean(false);
   private int eventCounter = 0;
   private int eventsProcessed = 0;
   private final Object lock = new Object();
 
+  private int maxBatchSize;
+  private boolean mergeEntities;
+  private Set<HistoryEventType> droppableEventTypes =
+      EnumSet.noneOf(HistoryEventType.class);
+
+  private final MetricsRegistry registry = new MetricsRegistry(METRICS_SOURCE_NAME);
+  private final MutableRate publishLatency = registry.newRate(
+      "PublishTime", "Time in ms to convert and publish a batch of history"
+          + " events", false);
+  private final MutableQuantiles publishLatencyQuantiles =
+      registry.newQuantiles("PublishTime60s",
+          "History publish time percentiles over 60s", "ops", "latencyMs", 60);
+  private final MutableRate batchSize = registry.newRate(
+      "PublishBatchSize", "History events published per batch", false);
+  private final MutableCounterLong droppedEvents = registry.newCounter(
+      "DroppedEvents", "History events dropped because the queue was full",
+      0L);
+
   public ATSService() {
     super(ATSService.class.getName());
   }
@@ -59,7 +100,30 @@ public class ATSService extends AbstractService {
   @Override
   public void serviceInit(Configuration conf) throws Exception {
     LOG.info("Initializing ATSService");
-
+    eventQueue = new LinkedBlockingQueue<DAGHistoryEvent>(Math.max(1,
+        conf.getInt(TezConfiguration.YARN_ATS_EVENT_QUEUE_CAPACITY,
+            TezConfiguration.YARN_ATS_EVENT_QUEUE_CAPACITY_DEFAULT)));
+    maxBatchSize = Math.max(1, conf.getInt(
+        TezConfiguration.YARN_ATS_EVENT_BATCH_SIZE,
+        TezConfiguration.YARN_ATS_EVENT_BATCH_SIZE_DEFAULT));
+    mergeEntities = conf.getBoolean(
+        TezConfiguration.YARN_ATS_MERGE_ENTITIES,
+        TezConfiguration.YARN_ATS_MERGE_ENTITIES_DEFAULT);
+    for (String eventType : StringUtils.getTrimmedStringCollection(conf.get(
+        TezConfiguration.YARN_ATS_DROPPABLE_EVENT_TYPES,
+        TezConfiguration.YARN_ATS_DROPPABLE_EVENT_TYPES_DEFAULT))) {
+      try {
+        droppableEventTypes.add(HistoryEventType.valueOf(eventType));
+      } catch (IllegalArgumentException e) {
+        LOG.warn("Ignoring unknown droppable history event type: "
+            + eventType);
+      }
+    }
+    LOG.info("ATSService settings"
+        + ", queueCapacity=" + eventQueue.remainingCapacity()
+        + ", maxBatchSize=" + maxBatchSize
+        + ", mergeEntities=" + mergeEntities
+        + ", droppableEventTypes=" + droppableEventTypes);
   }
 
   @Override
@@ -68,14 +132,16 @@ public class ATSService extends AbstractService {
     eventHandlingThread = new Thread(new Runnable() {
       @Override
       public void run() {
-        DAGHistoryEvent event;
+        List<DAGHistoryEvent> batch =
+            new ArrayList<DAGHistoryEvent>(maxBatchSize);
         while (!stopped.get() && !Thread.currentThread().isInterrupted()) {
 
           // Log the size of the event-queue every so often.
           if (eventCounter != 0 && eventCounter % 1000 == 0) {
             LOG.info("Event queue stats"
                 + ", eventsProcessedSinceLastUpdate=" + eventsProcessed
-                + ", eventQueueSize=" + eventQueue.size());
+                + ", eventQueueSize=" + eventQueue.size()
+                + ", droppedEvents=" + droppedEvents.value());
             eventCounter = 0;
             eventsProcessed = 0;
           } else {
@@ -83,48 +149,171 @@ public class ATSService extends AbstractService {
           }
 
           try {
-            event = eventQueue.take();
+            batch.add(eventQueue.take());
           } catch (InterruptedException e) {
             LOG.info("EventQueue take interrupted. Returning");
             return;
           }
+          eventQueue.drainTo(batch, maxBatchSize - 1);
 
           synchronized (lock) {
-            ++eventsProcessed;
+            eventsProcessed += batch.size();
             try {
-              handleEvent(event);
+              handleEvents(batch);
             } catch (Exception e) {
               // TODO handle failures - treat as fatal or ignore?
-              LOG.warn("Error handling event", e);
+              LOG.warn("Error handling events", e);
             }
           }
+          batch.clear();
         }
       }
     }, "HistoryEventHandlingThread");
     eventHandlingThread.start();
+    DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+        "History event publisher", this);
   }
 
   @Override
   public void serviceStop() {
     LOG.info("Stopping ATSService");
+    DefaultMetricsSystem.instance().unregisterSource(METRICS_SOURCE_NAME);
     stopped.set(true);
     if (eventHandlingThread != null) {
       eventHandlingThread.interrupt();
     }
   }
 
-  public void handle(DAGHistoryEvent event) {
-    eventQueue.add(event);
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(registry.info())
+        .setContext("tez");
+    rb.addGauge(Interns.info("QueueSize",
+        "History events waiting to be published"), eventQueue.size());
+    registry.snapshot(rb, all);
+  }
+
+  @VisibleForTesting
+  long getDroppedEventCount() {
+    return droppedEvents.value();
   }
 
-  private void handleEvent(DAGHistoryEvent event) {
-    HistoryEventType eventType = event.getHistoryEvent().getEventType();
+  public void handle(DAGHistoryEvent event) {
+    if (stopped.get()) {
+      return;
+    }
+    if (eventQueue.offer(event)) {
+      return;
+    }
+    if (droppableEventTypes.contains(
+        event.getHistoryEvent().getEventType())) {
+      droppedEvents.incr();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Dropping history event as queue is full, eventType="
+            + event.getHistoryEvent().getEventType());
+      }
+      return;
+    }
     try {
-      // TODO integrate with ATS
-    } catch (Exception e) {
-      LOG.warn("Could not handle history event, eventType="
-          + eventType, e);
-      // TODO handle error as a fatal event or ignore/skip?
+      while (!stopped.get()) {
+        if (eventQueue.offer(event, EVENT_QUEUE_OFFER_TIMEOUT_MS,
+            TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+      LOG.warn("Dropping history event as the service stopped while the queue"
+          + " was full, eventType=" + event.getHistoryEvent().getEventType());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while queueing history event, eventType="
+          + event.getHistoryEvent().getEventType());
+    }
+  }
+
+  private void handleEvents(List<DAGHistoryEvent> events) {
+    long startTime = System.currentTimeMillis();
+    List<JSONObject> entities = new ArrayList<JSONObject>(events.size());
+    for (DAGHistoryEvent event : events) {
+      HistoryEventType eventType = event.getHistoryEvent().getEventType();
+      try {
+        JSONObject entity = event.getHistoryEvent().convertToATSJSON();
+        if (entity != null) {
+          entities.add(entity);
+        }
+      } catch (Exception e) {
+        LOG.warn("Could not handle history event, eventType="
+            + eventType, e);
+        // TODO handle error as a fatal event or ignore/skip?
+      }
+    }
+    if (mergeEntities) {
+      try {
+        entities = mergeEntities(entities);
+      } catch (JSONException e) {
+        LOG.warn("Could not merge history entities", e);
+      }
+    }
+    publishEntities(entities);
+    long publishTime = System.currentTimeMillis() - startTime;
+    publishLatency.add(publishTime);
+    publishLatencyQuantiles.add(publishTime);
+    batchSize.add(events.size());
+  }
+
+  /**
+   * Publish a batch of entities in one request.
+   */
+  protected void publishEntities(List<JSONObject> entities) {
+    // TODO integrate with ATS
+  }
+
+  /**
+   * Merge the entities of a batch that describe the same entity, e.g. the
+   * start and finish of a task attempt, so that each is published once.
+   * Events and other arrays are concatenated, for other values the later
+   * entity wins.
+   */
+  @VisibleForTesting
+  static List<JSONObject> mergeEntities(List<JSONObject> entities)
+      throws JSONException {
+    Map<String, JSONObject> merged =
+        new LinkedHashMap<String, JSONObject>();
+    for (JSONObject entity : entities) {
+      if (!entity.has(ATSConstants.ENTITY)
+          || !entity.has(ATSConstants.ENTITY_TYPE)) {
+        merged.put("#" + merged.size(), entity);
+        continue;
+      }
+      String key = entity.getString(ATSConstants.ENTITY_TYPE) + "/"
+          + entity.getString(ATSConstants.ENTITY);
+      JSONObject existing = merged.get(key);
+      if (existing == null) {
+        merged.put(key, entity);
+      } else {
+        mergeInto(existing, entity);
+      }
+    }
+    return new ArrayList<JSONObject>(merged.values());
+  }
+
+  private static void mergeInto(JSONObject target, JSONObject source)
+      throws JSONException {
+    Iterator<?> keys = source.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      Object value = source.get(key);
+      Object existing = target.opt(key);
+      if (existing instanceof JSONArray && value instanceof JSONArray) {
+        JSONArray values = (JSONArray) value;
+        for (int i = 0; i < values.length(); ++i) {
+          ((JSONArray) existing).put(values.get(i));
+        }
+      } else if (existing instanceof JSONObject
+          && value instanceof JSONObject) {
+        mergeInto((JSONObject) existing, (JSONObject) value);
+      } else {
+        target.put(key, value);
+      }
     }
   }
 
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.history.events;
+
+import com.google.protobuf.ByteString;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.dag.api.DagTypeConverters;
+import org.apache.tez.dag.history.HistoryEvent;
+import org.apache.tez.dag.history.HistoryEventType;
+import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.dag.recovery.records.RecoveryProtos.VertexCheckpointProto;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+
+/**
+ * Summarizes the succeeded tasks of a running vertex for recovery. The
+ * task events of a succeeded task written before the checkpoint are not
+ * needed to recover the vertex, and the counters of the checkpoint are the
+ * aggregate of those tasks.
+ */
+public class VertexCheckpointEvent implements HistoryEvent {
+
+  private TezVertexID vertexID;
+  private long checkpointTime;
+  private int numTasks;
+  private BitSet succeededTasks;
+  private TezCounters tezCounters;
+
+  public VertexCheckpointEvent(TezVertexID vertexID, long checkpointTime,
+      int numTasks, BitSet succeededTasks, TezCounters counters) {
+    this.vertexID = vertexID;
+    this.checkpointTime = checkpointTime;
+    this.numTasks = numTasks;
+    this.succeededTasks = succeededTasks;
+    this.tezCounters = counters;
+  }
+
+  public VertexCheckpointEvent() {
+  }
+
+  @Override
+  public HistoryEventType getEventType() {
+    return HistoryEventType.VERTEX_CHECKPOINT;
+  }
+
+  @Override
+  public JSONObject convertToATSJSON() throws JSONException {
+    return null;
+  }
+
+  @Override
+  public boolean isRecoveryEvent() {
+    return true;
+  }
+
+  @Override
+  public boolean isHistoryEvent() {
+    return false;
+  }
+
+  public TezVertexID getVertexID() {
+    return vertexID;
+  }
+
+  public long getCheckpointTime() {
+    return checkpointTime;
+  }
+
+  public int getNumTasks() {
+    return numTasks;
+  }
+
+  /**
+   * @return the set of the indices of the succeeded tasks
+   */
+  public BitSet getSucceededTasks() {
+    return succeededTasks;
+  }
+
+  public TezCounters getCounters() {
+    return tezCounters;
+  }
+
+  static byte[] toByteArray(BitSet bits) {
+    byte[] bytes = new byte[(bits.length() + 7) / 8];
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      bytes[i / 8] |= 1 << (i % 8);
+    }
+    return bytes;
+  }
+
+  static BitSet fromByteArray(byte[] bytes) {
+    BitSet bits = new BitSet(bytes.length * 8);
+    for (int i = 0; i < bytes.length * 8; ++i) {
+      if ((bytes[i / 8] & (1 << (i % 8))) != 0) {
+        bits.set(i);
+      }
+    }
+    return bits;
+  }
+
+  public VertexCheckpointProto toProto() {
+    return VertexCheckpointProto.newBuilder()
+        .setVertexId(vertexID.toString())
+        .setCheckpointTime(checkpointTime)
+        .setNumTasks(numTasks)
+        .setSucceededTasks(ByteString.copyFrom(toByteArray(succeededTasks)))
+        .setCounters(DagTypeConverters.convertTezCountersToProto(tezCounters))
+        .build();
+  }
+
+  public void fromProto(VertexCheckpointProto proto) {
+    this.vertexID = TezVertexID.fromString(proto.getVertexId());
+    this.checkpointTime = proto.getCheckpointTime();
+    this.numTasks = proto.getNumTasks();
+    this.succeededTasks = fromByteArray(
+        proto.getSucceededTasks().toByteArray());
+    this.tezCounters = DagTypeConverters.convertTezCountersFromProto(
+        proto.getCounters());
+  }
+
+  @Override
+  public void toProtoStream(OutputStream outputStream) throws IOException {
+    toProto().writeDelimitedTo(outputStream);
+  }
+
+  @Override
+  public void fromProtoStream(InputStream inputStream) throws IOException {
+    VertexCheckpointProto proto =
+        VertexCheckpointProto.parseDelimitedFrom(inputStream);
+    fromProto(proto);
+  }
+
+  @Override
+  public String toString() {
+    return "vertexId=" + vertexID
+        + ", checkpointTime=" + checkpointTime
+        + ", numTasks=" + numTasks
+        + ", succeededTasks=" + succeededTasks.cardinality();
+  }
+
+}
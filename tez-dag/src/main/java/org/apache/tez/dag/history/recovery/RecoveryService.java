@@ -24,6 +24,14 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.service.AbstractService;
 import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.app.AppContext;
@@ -34,20 +42,30 @@ import org.apache.tez.dag.history.events.DAGSubmittedEvent;
 import org.apache.tez.dag.records.TezDAGID;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-public class RecoveryService extends AbstractService {
+/**
+ * Writes the recovery log. Submission and completion of a DAG are written and
+ * flushed synchronously. All other events are queued and written by a single
+ * thread in batches, which flushes the streams it wrote to once the number of
+ * unflushed events or the time since the last flush exceeds its budget.
+ */
+public class RecoveryService extends AbstractService implements MetricsSource {
 
   private static final Log LOG = LogFactory.getLog(RecoveryService.class);
+  static final String METRICS_SOURCE_NAME = "RecoveryService";
   private final AppContext appContext;
 
-  private LinkedBlockingQueue<DAGHistoryEvent> eventQueue =
-      new LinkedBlockingQueue<DAGHistoryEvent>();
+  private LinkedBlockingQueue<QueuedEvent> eventQueue =
+      new LinkedBlockingQueue<QueuedEvent>();
   private Set<TezDAGID> completedDAGs = new HashSet<TezDAGID>();
 
   private Thread eventHandlingThread;
@@ -56,7 +74,7 @@ public class RecoveryService extends AbstractService {
   private int eventCounter = 0;
   private int eventsProcessed = 0;
   private final Object lock = new Object();
-  private FileSystem recoveryDirFS; // FS where staging dir exists
+  FileSystem recoveryDirFS; // FS where staging dir exists
   Path recoveryPath;
   Map<TezDAGID, FSDataOutputStream> outputStreamMap = new
       HashMap<TezDAGID, FSDataOutputStream>();
@@ -64,6 +82,31 @@ public class RecoveryService extends AbstractService {
   private int bufferSize;
   private FSDataOutputStream summaryStream;
 
+  private int maxBatchSize;
+  private int maxUnflushedEvents;
+  private long flushInterval;
+  private boolean syncOnFlush;
+  // streams written to since the last flush, guarded by lock
+  private final Set<FSDataOutputStream> unflushedStreams =
+      new HashSet<FSDataOutputStream>();
+  private int unflushedEvents = 0;
+  private long lastFlushTime;
+
+  private final MetricsRegistry registry =
+      new MetricsRegistry(METRICS_SOURCE_NAME);
+  private final MutableRate queueLag = registry.newRate(
+      "QueueLag", "Time in ms a recovery event waits in the queue", false);
+  private final MutableQuantiles queueLagQuantiles = registry.newQuantiles(
+      "QueueLag60s", "Recovery event queue lag percentiles over 60s", "ops",
+      "latencyMs", 60);
+  private final MutableRate flushLatency = registry.newRate(
+      "FlushTime", "Time in ms to flush a batch of recovery events", false);
+  private final MutableQuantiles flushLatencyQuantiles = registry.newQuantiles(
+      "FlushTime60s", "Recovery flush time percentiles over 60s", "ops",
+      "latencyMs", 60);
+  private final MutableRate batchSize = registry.newRate(
+      "FlushBatchSize", "Events written per recovery flush", false);
+
   public RecoveryService(AppContext appContext) {
     super(RecoveryService.class.getName());
     this.appContext = appContext;
@@ -76,15 +119,33 @@ public class RecoveryService extends AbstractService {
     recoveryDirFS = FileSystem.get(recoveryPath.toUri(), conf);
     bufferSize = conf.getInt(TezConfiguration.DAG_RECOVERY_FILE_IO_BUFFER_SIZE,
         TezConfiguration.DAG_RECOVERY_FILE_IO_BUFFER_SIZE_DEFAULT);
+    maxBatchSize = Math.max(1, conf.getInt(
+        TezConfiguration.DAG_RECOVERY_MAX_BATCH_SIZE,
+        TezConfiguration.DAG_RECOVERY_MAX_BATCH_SIZE_DEFAULT));
+    maxUnflushedEvents = conf.getInt(
+        TezConfiguration.DAG_RECOVERY_MAX_UNFLUSHED_EVENTS,
+        TezConfiguration.DAG_RECOVERY_MAX_UNFLUSHED_EVENTS_DEFAULT);
+    flushInterval = conf.getLong(
+        TezConfiguration.DAG_RECOVERY_FLUSH_INTERVAL_MS,
+        TezConfiguration.DAG_RECOVERY_FLUSH_INTERVAL_MS_DEFAULT);
+    syncOnFlush = conf.getBoolean(
+        TezConfiguration.DAG_RECOVERY_FLUSH_SYNC,
+        TezConfiguration.DAG_RECOVERY_FLUSH_SYNC_DEFAULT);
+    LOG.info("RecoveryService settings"
+        + ", maxBatchSize=" + maxBatchSize
+        + ", maxUnflushedEvents=" + maxUnflushedEvents
+        + ", flushIntervalMs=" + flushInterval
+        + ", syncOnFlush=" + syncOnFlush);
   }
 
   @Override
   public void serviceStart() {
     LOG.info("Starting RecoveryService");
+    lastFlushTime = System.currentTimeMillis();
     eventHandlingThread = new Thread(new Runnable() {
       @Override
       public void run() {
-        DAGHistoryEvent event;
+        List<QueuedEvent> batch = new ArrayList<QueuedEvent>(maxBatchSize);
         while (!stopped.get() && !Thread.currentThread().isInterrupted()) {
 
           // Log the size of the event-queue every so often.
@@ -99,50 +160,90 @@ public class RecoveryService extends AbstractService {
           }
 
           try {
-            event = eventQueue.take();
+            QueuedEvent queuedEvent;
+            if (hasUnflushedEvents()) {
+              // wait no longer than the flush interval allows
+              long waitTime = lastFlushTime + flushInterval
+                  - System.currentTimeMillis();
+              queuedEvent = eventQueue.poll(Math.max(0, waitTime),
+                  TimeUnit.MILLISECONDS);
+            } else {
+              queuedEvent = eventQueue.take();
+            }
+            if (queuedEvent != null) {
+              batch.add(queuedEvent);
+              eventQueue.drainTo(batch, maxBatchSize - 1);
+            }
           } catch (InterruptedException e) {
             LOG.info("EventQueue take interrupted. Returning");
             return;
           }
 
           synchronized (lock) {
-            try {
-              ++eventsProcessed;
-              handleEvent(event);
-            } catch (Exception e) {
-              // TODO handle failures - treat as fatal or ignore?
-              LOG.warn("Error handling recovery event", e);
+            long now = System.currentTimeMillis();
+            for (QueuedEvent queuedEvent : batch) {
+              long lag = now - queuedEvent.enqueueTime;
+              queueLag.add(lag);
+              queueLagQuantiles.add(lag);
+              try {
+                ++eventsProcessed;
+                handleEvent(queuedEvent.event);
+              } catch (Exception e) {
+                // TODO handle failures - treat as fatal or ignore?
+                LOG.warn("Error handling recovery event", e);
+              }
+            }
+            unflushedEvents += batch.size();
+            if (unflushedEvents >= maxUnflushedEvents
+                || now - lastFlushTime >= flushInterval) {
+              flushUnflushedStreams();
             }
           }
+          batch.clear();
         }
       }
     }, "RecoveryEventHandlingThread");
     eventHandlingThread.start();
     started.set(true);
+    DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+        "Recovery log writer", this);
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(registry.info())
+        .setContext("tez");
+    rb.addGauge(Interns.info("QueueSize",
+        "Recovery events waiting to be written"), eventQueue.size());
+    registry.snapshot(rb, all);
   }
 
   @Override
   public void serviceStop() {
     LOG.info("Stopping RecoveryService");
+    DefaultMetricsSystem.instance().unregisterSource(METRICS_SOURCE_NAME);
     stopped.set(true);
     if (eventHandlingThread != null) {
       eventHandlingThread.interrupt();
     }
-    if (summaryStream != null) {
-      try {
-        summaryStream.flush();
-        summaryStream.close();
-      } catch (IOException ioe) {
-        LOG.warn("Error when closing summary stream", ioe);
+    synchronized (lock) {
+      if (summaryStream != null) {
+        try {
+          summaryStream.flush();
+          summaryStream.close();
+        } catch (IOException ioe) {
+          LOG.warn("Error when closing summary stream", ioe);
+        }
       }
-    }
-    for (FSDataOutputStream outputStream : outputStreamMap.values()) {
-      try {
-        outputStream.flush();
-        outputStream.close();
-      } catch (IOException ioe) {
-        LOG.warn("Error when closing output stream", ioe);
+      for (FSDataOutputStream outputStream : outputStreamMap.values()) {
+        try {
+          outputStream.flush();
+          outputStream.close();
+        } catch (IOException ioe) {
+          LOG.warn("Error when closing output stream", ioe);
+        }
       }
+      unflushedStreams.clear();
     }
   }
 
@@ -153,7 +254,7 @@ public class RecoveryService extends AbstractService {
       return;
     }
     if (!started.get()) {
-      eventQueue.add(event);
+      eventQueue.add(new QueuedEvent(event));
       return;
     }
     HistoryEventType eventType = event.getHistoryEvent().getEventType();
@@ -163,16 +264,18 @@ public class RecoveryService extends AbstractService {
       synchronized (lock) {
         try {
           handleEvent(event);
-          summaryStream.flush();
+          flushStream(summaryStream);
           if (eventType.equals(HistoryEventType.DAG_SUBMITTED)) {
-            outputStreamMap.get(event.getDagID()).flush();
+            flushStream(outputStreamMap.get(event.getDagID()));
           } else if (eventType.equals(HistoryEventType.DAG_FINISHED)) {
             completedDAGs.add(event.getDagID());
             if (outputStreamMap.containsKey(event.getDagID())) {
               try {
-                outputStreamMap.get(event.getDagID()).flush();
-                outputStreamMap.get(event.getDagID()).close();
-                outputStreamMap.remove(event.getDagID());
+                FSDataOutputStream outputStream =
+                    outputStreamMap.remove(event.getDagID());
+                unflushedStreams.remove(outputStream);
+                flushStream(outputStream);
+                outputStream.close();
               } catch (IOException ioe) {
                 LOG.warn("Error when trying to flush/close recovery file for"
                     + " dag, dagId=" + event.getDagID());
@@ -191,10 +294,50 @@ public class RecoveryService extends AbstractService {
           + ", queueSize=" + eventQueue.size());
     } else {
       // All other events just get queued
-      eventQueue.add(event);
+      eventQueue.add(new QueuedEvent(event));
+    }
+  }
+
+  private boolean hasUnflushedEvents() {
+    synchronized (lock) {
+      return unflushedEvents > 0;
+    }
+  }
+
+  private void flushStream(FSDataOutputStream outputStream)
+      throws IOException {
+    if (outputStream == null) {
+      return;
+    }
+    if (syncOnFlush) {
+      outputStream.hsync();
+    } else {
+      outputStream.hflush();
     }
   }
 
+  // Must be called while holding lock
+  private void flushUnflushedStreams() {
+    long startTime = System.currentTimeMillis();
+    for (FSDataOutputStream outputStream : unflushedStreams) {
+      try {
+        flushStream(outputStream);
+      } catch (IOException ioe) {
+        // TODO handle failures - treat as fatal or ignore?
+        LOG.warn("Failed to flush recovery stream", ioe);
+      }
+    }
+    long now = System.currentTimeMillis();
+    if (!unflushedStreams.isEmpty()) {
+      flushLatency.add(now - startTime);
+      flushLatencyQuantiles.add(now - startTime);
+      batchSize.add(unflushedEvents);
+    }
+    unflushedStreams.clear();
+    unflushedEvents = 0;
+    lastFlushTime = now;
+  }
+
 
   private void handleEvent(DAGHistoryEvent event) {
     HistoryEventType eventType = event.getHistoryEvent().getEventType();
@@ -257,6 +400,7 @@ public class RecoveryService extends AbstractService {
 
       outputStream.write(event.getHistoryEvent().getEventType().ordinal());
       event.getHistoryEvent().toProtoStream(outputStream);
+      unflushedStreams.add(outputStream);
     } catch (IOException ioe) {
       // TODO handle failures - treat as fatal or ignore?
       LOG.warn("Failed to write to stream", ioe);
@@ -264,4 +408,14 @@ public class RecoveryService extends AbstractService {
 
   }
 
+  private static class QueuedEvent {
+    final DAGHistoryEvent event;
+    final long enqueueTime;
+
+    QueuedEvent(DAGHistoryEvent event) {
+      this.event = event;
+      this.enqueueTime = System.currentTimeMillis();
+    }
+  }
+
 }
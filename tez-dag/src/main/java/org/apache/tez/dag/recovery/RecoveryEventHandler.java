@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.recovery;
+
+import org.apache.tez.dag.history.HistoryEvent;
+import org.apache.tez.dag.recovery.records.RecoveryProtos.SummaryEventProto;
+import org.apache.tez.dag.records.TezDAGID;
+
+/**
+ * Receives the records read by {@link RecoveryParser}, one at a time as they
+ * are decoded. The summary events are delivered before any DAG event. The
+ * events of one DAG are delivered in the order they were written, but the
+ * events of different DAGs may be delivered concurrently from different
+ * threads.
+ */
+public interface RecoveryEventHandler {
+
+  void handleSummaryEvent(SummaryEventProto summaryEvent);
+
+  void handleDAGEvent(TezDAGID dagId, HistoryEvent event);
+
+}
@@ -18,14 +18,18 @@
 
 package org.apache.tez.dag.recovery;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.history.HistoryEvent;
 import org.apache.tez.dag.history.HistoryEventType;
@@ -40,138 +44,437 @@ import org.apache.tez.dag.history.events.TaskAttemptFinishedEvent;
 import org.apache.tez.dag.history.events.TaskAttemptStartedEvent;
 import org.apache.tez.dag.history.events.TaskFinishedEvent;
 import org.apache.tez.dag.history.events.TaskStartedEvent;
+import org.apache.tez.dag.history.events.VertexCheckpointEvent;
 import org.apache.tez.dag.history.events.VertexDataMovementEventsGeneratedEvent;
 import org.apache.tez.dag.history.events.VertexFinishedEvent;
 import org.apache.tez.dag.history.events.VertexInitializedEvent;
 import org.apache.tez.dag.history.events.VertexStartedEvent;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
 import org.apache.tez.dag.recovery.records.RecoveryProtos;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Reads the recovery data written by the RecoveryService. Records are decoded
+ * one at a time into a reused buffer and handed to a
+ * {@link RecoveryEventHandler}, so the files are never held in memory. The
+ * summary files are read first, then the recovery files of the DAGs are read
+ * in parallel.
+ *
+ * Only the latest {@link VertexCheckpointEvent} of a vertex is delivered.
+ * Task events written before it for tasks that it reports as succeeded are
+ * skipped.
+ */
 public class RecoveryParser {
 
   private static final Log LOG = LogFactory.getLog(RecoveryParser.class);
 
   Path recoveryDirectory;
   FileSystem recoveryDirFS;
+  private final int bufferSize;
+  private final int numParserThreads;
 
   public RecoveryParser(Path recoveryDirectory, Configuration conf)
       throws IOException {
     this.recoveryDirectory = recoveryDirectory;
     recoveryDirFS = FileSystem.get(recoveryDirectory.toUri(), conf);
-
+    bufferSize = conf.getInt(TezConfiguration.DAG_RECOVERY_FILE_IO_BUFFER_SIZE,
+        TezConfiguration.DAG_RECOVERY_FILE_IO_BUFFER_SIZE_DEFAULT);
+    numParserThreads = Math.max(1, conf.getInt(
+        TezConfiguration.DAG_RECOVERY_PARSER_THREAD_COUNT,
+        TezConfiguration.DAG_RECOVERY_PARSER_THREAD_COUNT_DEFAULT));
   }
 
   public void parse() throws IOException {
+    parse(new LoggingEventHandler());
+  }
+
+  public void parse(RecoveryEventHandler handler) throws IOException {
+    List<Path> summaryFiles = new ArrayList<Path>();
+    List<Path> dagFiles = new ArrayList<Path>();
     RemoteIterator<LocatedFileStatus> locatedFilesStatus =
         recoveryDirFS.listFiles(recoveryDirectory, false);
     while (locatedFilesStatus.hasNext()) {
       LocatedFileStatus fileStatus = locatedFilesStatus.next();
       String fileName = fileStatus.getPath().getName();
       if (fileName.endsWith(TezConfiguration.DAG_RECOVERY_RECOVER_FILE_SUFFIX)) {
-        FSDataInputStream inputStream =
-            recoveryDirFS.open(fileStatus.getPath());
-        LOG.info("Parsing DAG file " + fileName);
-        parseDAGRecoveryFile(inputStream);
+        dagFiles.add(fileStatus.getPath());
       } else if (fileName.endsWith(TezConfiguration.DAG_RECOVERY_SUMMARY_FILE_SUFFIX)) {
-        FSDataInputStream inputStream =
-            recoveryDirFS.open(fileStatus.getPath());
-        LOG.info("Parsing Summary file " + fileName);
-        parseSummaryFile(inputStream);
+        summaryFiles.add(fileStatus.getPath());
       } else {
         LOG.warn("Encountered unknown file in recovery dir, fileName="
             + fileName);
-        continue;
       }
     }
+
+    for (Path summaryFile : summaryFiles) {
+      LOG.info("Parsing Summary file " + summaryFile.getName());
+      parseSummaryFile(summaryFile, handler);
+    }
+    parseDAGRecoveryFiles(dagFiles, handler);
   }
 
-  private void parseSummaryFile(FSDataInputStream inputStream)
-      throws IOException {
-    int counter = 0;
-    while (inputStream.available() > 0) {
-      RecoveryProtos.SummaryEventProto proto =
-          RecoveryProtos.SummaryEventProto.parseDelimitedFrom(inputStream);
-      LOG.info("[SUMMARY]"
-          + " dagId=" + proto.getDagId()
-          + ", timestamp=" + proto.getTimestamp()
-          + ", event=" + HistoryEventType.values()[proto.getEventType()]);
+  private void parseDAGRecoveryFiles(List<Path> dagFiles,
+      final RecoveryEventHandler handler) throws IOException {
+    int numThreads = Math.min(numParserThreads, dagFiles.size());
+    if (numThreads <= 1) {
+      for (Path dagFile : dagFiles) {
+        parseDAGRecoveryFile(dagFile, handler);
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("RecoveryParser #%d").build());
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (final Path dagFile : dagFiles) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            parseDAGRecoveryFile(dagFile, handler);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing recovery files", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to parse recovery files", e.getCause());
+    } finally {
+      executor.shutdownNow();
     }
   }
 
-  private void parseDAGRecoveryFile(FSDataInputStream inputStream)
-      throws IOException {
-    int counter = 0;
-    while (inputStream.available() > 0) {
-      int eventTypeOrdinal = inputStream.read();
-      if (eventTypeOrdinal < 0 || eventTypeOrdinal >=
-          HistoryEventType.values().length) {
-        // Corrupt data
-        // reached end
-        LOG.warn("Corrupt data found when trying to read next event type");
-        break;
+  private void parseSummaryFile(Path summaryFile,
+      RecoveryEventHandler handler) throws IOException {
+    RecordReader reader = new RecordReader(summaryFile);
+    try {
+      InputStream record;
+      while ((record = reader.nextRecord()) != null) {
+        handler.handleSummaryEvent(
+            RecoveryProtos.SummaryEventProto.parseDelimitedFrom(record));
       }
-      HistoryEventType eventType = HistoryEventType.values()[eventTypeOrdinal];
-      HistoryEvent event = null;
-      switch (eventType) {
-        case AM_LAUNCHED:
-          event = new AMLaunchedEvent();
-          break;
-        case AM_STARTED:
-          event = new AMStartedEvent();
-          break;
-        case DAG_SUBMITTED:
-          event = new DAGSubmittedEvent();
-          break;
-        case DAG_INITIALIZED:
-          event = new DAGInitializedEvent();
-          break;
-        case DAG_STARTED:
-          event = new DAGStartedEvent();
-          break;
-        case DAG_FINISHED:
-          event = new DAGFinishedEvent();
-          break;
-        case CONTAINER_LAUNCHED:
-          event = new ContainerLaunchedEvent();
-          break;
-        case VERTEX_INITIALIZED:
-          event = new VertexInitializedEvent();
-          break;
-        case VERTEX_STARTED:
-          event = new VertexStartedEvent();
-          break;
-        case VERTEX_FINISHED:
-          event = new VertexFinishedEvent();
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static class Checkpoint {
+    final int eventIndex;
+    final BitSet succeededTasks;
+
+    Checkpoint(int eventIndex, BitSet succeededTasks) {
+      this.eventIndex = eventIndex;
+      this.succeededTasks = succeededTasks;
+    }
+  }
+
+  /**
+   * Find the latest checkpoint of each vertex in a DAG recovery file. Only
+   * the checkpoint records are decoded.
+   */
+  private Map<TezVertexID, Checkpoint> findCheckpoints(Path dagFile)
+      throws IOException {
+    Map<TezVertexID, Checkpoint> checkpoints =
+        new HashMap<TezVertexID, Checkpoint>();
+    RecordReader reader = new RecordReader(dagFile);
+    try {
+      for (int eventIndex = 0; ; ++eventIndex) {
+        int eventTypeOrdinal = reader.nextEventType();
+        if (eventTypeOrdinal < 0
+            || eventTypeOrdinal >= HistoryEventType.values().length) {
           break;
-        case TASK_STARTED:
-          event = new TaskStartedEvent();
+        }
+        InputStream record = reader.nextRecord();
+        if (record == null) {
           break;
-        case TASK_FINISHED:
-          event = new TaskFinishedEvent();
+        }
+        if (HistoryEventType.values()[eventTypeOrdinal]
+            == HistoryEventType.VERTEX_CHECKPOINT) {
+          VertexCheckpointEvent checkpointEvent = new VertexCheckpointEvent();
+          checkpointEvent.fromProtoStream(record);
+          checkpoints.put(checkpointEvent.getVertexID(), new Checkpoint(
+              eventIndex, checkpointEvent.getSucceededTasks()));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return checkpoints;
+  }
+
+  /**
+   * Whether an event is covered by a later checkpoint of its vertex. Only
+   * the id of the event is decoded.
+   */
+  private static boolean isCheckpointed(HistoryEventType eventType,
+      int eventIndex, RecordReader reader,
+      Map<TezVertexID, Checkpoint> checkpoints) throws IOException {
+    TezVertexID vertexId = null;
+    int taskIndex = -1;
+    switch (eventType) {
+      case TASK_STARTED:
+      case TASK_FINISHED: {
+        String id = reader.readIdField();
+        TezTaskID taskId = id == null ? null : TezTaskID.fromString(id);
+        if (taskId != null) {
+          vertexId = taskId.getVertexID();
+          taskIndex = taskId.getId();
+        }
+        break;
+      }
+      case TASK_ATTEMPT_STARTED:
+      case TASK_ATTEMPT_FINISHED: {
+        String id = reader.readIdField();
+        TezTaskAttemptID attemptId =
+            id == null ? null : TezTaskAttemptID.fromString(id);
+        if (attemptId != null) {
+          vertexId = attemptId.getTaskID().getVertexID();
+          taskIndex = attemptId.getTaskID().getId();
+        }
+        break;
+      }
+      case VERTEX_CHECKPOINT: {
+        String id = reader.readIdField();
+        vertexId = id == null ? null : TezVertexID.fromString(id);
+        break;
+      }
+      default:
+        return false;
+    }
+    if (vertexId == null) {
+      return false;
+    }
+    Checkpoint checkpoint = checkpoints.get(vertexId);
+    if (checkpoint == null || eventIndex >= checkpoint.eventIndex) {
+      return false;
+    }
+    // earlier checkpoints are superseded by the latest one
+    return taskIndex < 0 || checkpoint.succeededTasks.get(taskIndex);
+  }
+
+  private void parseDAGRecoveryFile(Path dagFile,
+      RecoveryEventHandler handler) throws IOException {
+    String fileName = dagFile.getName();
+    LOG.info("Parsing DAG file " + fileName);
+    TezDAGID dagId = TezDAGID.fromString(fileName.substring(0,
+        fileName.length()
+            - TezConfiguration.DAG_RECOVERY_RECOVER_FILE_SUFFIX.length()));
+    Map<TezVertexID, Checkpoint> checkpoints = findCheckpoints(dagFile);
+    RecordReader reader = new RecordReader(dagFile);
+    int counter = 0;
+    int skipped = 0;
+    try {
+      while (true) {
+        int eventTypeOrdinal = reader.nextEventType();
+        if (eventTypeOrdinal < 0) {
+          // reached end
           break;
-        case TASK_ATTEMPT_STARTED:
-          event = new TaskAttemptStartedEvent();
+        }
+        if (eventTypeOrdinal >= HistoryEventType.values().length) {
+          // Corrupt data
+          LOG.warn("Corrupt data found when trying to read next event type"
+              + ", file=" + fileName
+              + ", eventIndex=" + counter);
           break;
-        case TASK_ATTEMPT_FINISHED:
-          event = new TaskAttemptFinishedEvent();
+        }
+        HistoryEventType eventType =
+            HistoryEventType.values()[eventTypeOrdinal];
+        HistoryEvent event = createHistoryEvent(eventType);
+        InputStream record = reader.nextRecord();
+        if (record == null) {
+          LOG.warn("Incomplete event found at end of recovery file"
+              + ", file=" + fileName
+              + ", eventType=" + eventType
+              + ", eventIndex=" + counter);
           break;
-        case VERTEX_DATA_MOVEMENT_EVENTS_GENERATED:
-          event = new VertexDataMovementEventsGeneratedEvent();
+        }
+        int eventIndex = counter++;
+        if (!checkpoints.isEmpty()
+            && isCheckpointed(eventType, eventIndex, reader, checkpoints)) {
+          ++skipped;
+          continue;
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Parsing event from input stream"
+              + ", eventType=" + eventType
+              + ", eventIndex=" + eventIndex);
+        }
+        event.fromProtoStream(record);
+        handler.handleDAGEvent(dagId, event);
+      }
+    } finally {
+      reader.close();
+    }
+    LOG.info("Parsed DAG file " + fileName
+        + ", numEvents=" + counter
+        + ", numCheckpointedEvents=" + skipped);
+  }
+
+  private static HistoryEvent createHistoryEvent(HistoryEventType eventType)
+      throws IOException {
+    switch (eventType) {
+      case AM_LAUNCHED:
+        return new AMLaunchedEvent();
+      case AM_STARTED:
+        return new AMStartedEvent();
+      case DAG_SUBMITTED:
+        return new DAGSubmittedEvent();
+      case DAG_INITIALIZED:
+        return new DAGInitializedEvent();
+      case DAG_STARTED:
+        return new DAGStartedEvent();
+      case DAG_FINISHED:
+        return new DAGFinishedEvent();
+      case CONTAINER_LAUNCHED:
+        return new ContainerLaunchedEvent();
+      case VERTEX_INITIALIZED:
+        return new VertexInitializedEvent();
+      case VERTEX_STARTED:
+        return new VertexStartedEvent();
+      case VERTEX_FINISHED:
+        return new VertexFinishedEvent();
+      case TASK_STARTED:
+        return new TaskStartedEvent();
+      case TASK_FINISHED:
+        return new TaskFinishedEvent();
+      case TASK_ATTEMPT_STARTED:
+        return new TaskAttemptStartedEvent();
+      case TASK_ATTEMPT_FINISHED:
+        return new TaskAttemptFinishedEvent();
+      case VERTEX_DATA_MOVEMENT_EVENTS_GENERATED:
+        return new VertexDataMovementEventsGeneratedEvent();
+      case VERTEX_CHECKPOINT:
+        return new VertexCheckpointEvent();
+      default:
+        throw new IOException("Invalid data found, unknown event type "
+            + eventType);
+    }
+  }
+
+  /**
+   * Reads the length delimited records of a recovery file. Each record is
+   * copied into a buffer that is reused for the next record, so decoding a
+   * record only reads from memory.
+   */
+  private class RecordReader {
+
+    private final DataInputStream in;
+    private final DataOutputBuffer record = new DataOutputBuffer();
+    private final DataInputBuffer recordIn = new DataInputBuffer();
+    // offset of the message after the length prefix of the current record
+    private int messageOffset;
+
+    RecordReader(Path path) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(
+          recoveryDirFS.open(path, bufferSize), bufferSize));
+    }
+
+    /**
+     * @return the next event type ordinal, or -1 at the end of the file
+     */
+    int nextEventType() throws IOException {
+      return in.read();
+    }
+
+    /**
+     * @return the next record including its length prefix, or null at the
+     *         end of the file or if the file ends within the record
+     */
+    InputStream nextRecord() throws IOException {
+      record.reset();
+      int length = 0;
+      for (int shift = 0; ; shift += 7) {
+        if (shift >= 32) {
+          throw new IOException("Malformed record length in recovery file");
+        }
+        int b = in.read();
+        if (b < 0) {
+          return null;
+        }
+        record.write(b);
+        length |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
           break;
-        default:
-          throw new IOException("Invalid data found, unknown event type "
-              + eventType);
+        }
+      }
+      messageOffset = record.getLength();
+      if (length < 0) {
+        throw new IOException("Invalid record length in recovery file: "
+            + length);
+      }
+      try {
+        record.write(in, length);
+      } catch (EOFException e) {
+        return null;
+      }
+      recordIn.reset(record.getData(), record.getLength());
+      return recordIn;
+    }
 
+    /**
+     * @return the first field of the current record if it is field 1 of
+     *         type string, which holds the id of the event for the task,
+     *         task attempt and checkpoint events, or null otherwise
+     */
+    String readIdField() throws IOException {
+      CodedInputStream message = CodedInputStream.newInstance(
+          record.getData(), messageOffset,
+          record.getLength() - messageOffset);
+      if (message.readTag()
+          != ((1 << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED)) {
+        return null;
       }
-      ++counter;
-      LOG.info("Parsing event from input stream"
-          + ", eventType=" + eventType
-          + ", eventIndex=" + counter);
-      event.fromProtoStream(inputStream);
+      return message.readString();
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private static class LoggingEventHandler implements RecoveryEventHandler {
+
+    @Override
+    public void handleSummaryEvent(
+        RecoveryProtos.SummaryEventProto proto) {
+      LOG.info("[SUMMARY]"
+          + " dagId=" + proto.getDagId()
+          + ", timestamp=" + proto.getTimestamp()
+          + ", event=" + HistoryEventType.values()[proto.getEventType()]);
+    }
+
+    @Override
+    public void handleDAGEvent(TezDAGID dagId, HistoryEvent event) {
       LOG.info("Parsed event from input stream"
-          + ", eventType=" + eventType
-          + ", eventIndex=" + counter
+          + ", dagId=" + dagId
+          + ", eventType=" + event.getEventType()
           + ", event=" + event.toString());
     }
   }
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestYarnTezDagChild {
+
+  @Test
+  public void testHeartbeatIntervalBackOff() {
+    long interval = 100;
+    // an idle task doubles its interval up to the idle interval
+    long[] expectedIntervals = new long[] { 200, 400, 800, 1000, 1000 };
+    for (long expected : expectedIntervals) {
+      interval = YarnTezDagChild.getNextHeartbeatInterval(interval, false,
+          false, 100, 1000);
+      assertEquals(expected, interval);
+    }
+
+    // exchanging events returns to the regular interval
+    interval = YarnTezDagChild.getNextHeartbeatInterval(interval, false, true,
+        100, 1000);
+    assertEquals(100, interval);
+  }
+
+  @Test
+  public void testHeartbeatIntervalMoreEvents() {
+    // a full batch of events from the AM is followed by an immediate poll
+    long interval = YarnTezDagChild.getNextHeartbeatInterval(1000, true,
+        true, 100, 1000);
+    assertEquals(0, interval);
+    interval = YarnTezDagChild.getNextHeartbeatInterval(interval, true, false,
+        100, 1000);
+    assertEquals(0, interval);
+
+    // idle after catching up, the back off starts at the regular interval
+    interval = YarnTezDagChild.getNextHeartbeatInterval(interval, false,
+        false, 100, 1000);
+    assertEquals(100, interval);
+  }
+
+  @Test
+  public void testHeartbeatIntervalWithoutBackOff() {
+    // the idle interval defaults to the regular one
+    long interval = YarnTezDagChild.getNextHeartbeatInterval(100, false, false,
+        100, 100);
+    assertEquals(100, interval);
+  }
+}
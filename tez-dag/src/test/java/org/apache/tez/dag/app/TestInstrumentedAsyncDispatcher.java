@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.dag.app.dag.event.TaskEvent;
+import org.apache.tez.dag.app.dag.event.TaskEventType;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestInstrumentedAsyncDispatcher {
+
+  @SuppressWarnings("rawtypes")
+  @Test(timeout = 5000)
+  public void testEventsHandledInOrder() throws Exception {
+    final int numEvents = 100;
+    final List<TaskEvent> handledEvents =
+        Collections.synchronizedList(new ArrayList<TaskEvent>());
+    final CountDownLatch latch = new CountDownLatch(numEvents);
+    InstrumentedAsyncDispatcher dispatcher = new InstrumentedAsyncDispatcher();
+    dispatcher.register(TaskEventType.class, new EventHandler<TaskEvent>() {
+      @Override
+      public void handle(TaskEvent event) {
+        handledEvents.add(event);
+        latch.countDown();
+      }
+    });
+    dispatcher.init(new Configuration(false));
+    dispatcher.start();
+    try {
+      TezVertexID vertexId = TezVertexID.getInstance(TezDAGID.getInstance(
+          ApplicationId.newInstance(1000, 1), 1), 1);
+      List<TaskEvent> sentEvents = new ArrayList<TaskEvent>();
+      for (int i = 0; i < numEvents; ++i) {
+        TaskEvent event = new TaskEvent(TezTaskID.getInstance(vertexId, i),
+            TaskEventType.T_SCHEDULE);
+        sentEvents.add(event);
+        dispatcher.getEventHandler().handle(event);
+      }
+      Assert.assertTrue(latch.await(4000, TimeUnit.MILLISECONDS));
+      // handlers get the events that were sent, not the queued wrappers
+      assertEquals(sentEvents.size(), handledEvents.size());
+      for (int i = 0; i < numEvents; ++i) {
+        assertSame(sentEvents.get(i), handledEvents.get(i));
+      }
+      assertEquals(0, dispatcher.getQueueSize());
+      assertCounter("QueueTimeNumOps", (long) numEvents,
+          getMetrics(dispatcher));
+    } finally {
+      dispatcher.stop();
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void testMetricsSourceUnregisteredOnStop() {
+    // the dispatcher of a new AM attempt in the same JVM registers again
+    for (int i = 0; i < 2; ++i) {
+      InstrumentedAsyncDispatcher dispatcher =
+          new InstrumentedAsyncDispatcher();
+      dispatcher.init(new Configuration(false));
+      dispatcher.start();
+      assertNotNull(DefaultMetricsSystem.instance().getSource(
+          InstrumentedAsyncDispatcher.METRICS_SOURCE_NAME));
+      dispatcher.stop();
+      assertNull(DefaultMetricsSystem.instance().getSource(
+          InstrumentedAsyncDispatcher.METRICS_SOURCE_NAME));
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.util.Clock;
+import org.apache.tez.dag.api.oldrecords.TaskAttemptState;
+import org.apache.tez.dag.api.oldrecords.TaskState;
+import org.apache.tez.dag.app.dag.DAG;
+import org.apache.tez.dag.app.dag.DAGState;
+import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.TaskAttempt;
+import org.apache.tez.dag.app.dag.Vertex;
+import org.apache.tez.dag.app.dag.VertexState;
+import org.apache.tez.dag.app.dag.event.DAGEventType;
+import org.apache.tez.dag.app.dag.event.TaskEvent;
+import org.apache.tez.dag.app.dag.event.TaskEventType;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("rawtypes")
+public class TestSpeculator {
+
+  private List<Event> events;
+  private Clock clock;
+  private TezVertexID vertexId;
+  private Map<TezTaskID, Task> tasks;
+  private Speculator speculator;
+
+  @Before
+  public void setup() {
+    events = new ArrayList<Event>();
+    EventHandler eventHandler = new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        events.add(event);
+      }
+    };
+    clock = mock(Clock.class);
+    ApplicationId appId = ApplicationId.newInstance(1000, 1);
+    TezDAGID dagId = TezDAGID.getInstance(appId, 1);
+    vertexId = TezVertexID.getInstance(dagId, 1);
+    tasks = new HashMap<TezTaskID, Task>();
+
+    Vertex vertex = mock(Vertex.class);
+    when(vertex.getName()).thenReturn("vertex");
+    when(vertex.getState()).thenReturn(VertexState.RUNNING);
+    when(vertex.getTasks()).thenReturn(tasks);
+    Map<TezVertexID, Vertex> vertices = new HashMap<TezVertexID, Vertex>();
+    vertices.put(vertexId, vertex);
+    DAG dag = mock(DAG.class);
+    when(dag.getID()).thenReturn(dagId);
+    when(dag.getState()).thenReturn(DAGState.RUNNING);
+    when(dag.getVertices()).thenReturn(vertices);
+
+    AppContext appContext = mock(AppContext.class);
+    when(appContext.getEventHandler()).thenReturn(eventHandler);
+    when(appContext.getClock()).thenReturn(clock);
+    when(appContext.getCurrentDAG()).thenReturn(dag);
+
+    speculator = new Speculator(appContext);
+    speculator.init(new Configuration(false));
+  }
+
+  @Test
+  public void testSpeculateStraggler() {
+    for (int i = 0; i < 3; ++i) {
+      addTask(i, TaskState.SUCCEEDED, TaskAttemptState.SUCCEEDED, 1000, 1100,
+          1.0f);
+    }
+    // 30% done after 300ms, expected to run for another 700ms
+    Task slowTask = addTask(3, TaskState.RUNNING, TaskAttemptState.RUNNING,
+        1000, 0, 0.3f);
+    // 90% done after 300ms, a new attempt would not finish first
+    addTask(4, TaskState.RUNNING, TaskAttemptState.RUNNING, 1000, 0, 0.9f);
+    when(clock.getTime()).thenReturn(1300l);
+
+    assertEquals(1, speculator.checkForStragglers());
+    assertEquals(2, events.size());
+    TaskEvent taskEvent = (TaskEvent) events.get(0);
+    assertEquals(TaskEventType.T_ADD_SPEC_ATTEMPT, taskEvent.getType());
+    assertEquals(slowTask.getTaskId(), taskEvent.getTaskID());
+    assertEquals(DAGEventType.DAG_COUNTER_UPDATE, events.get(1).getType());
+
+    // The task already has a speculative attempt
+    events.clear();
+    assertEquals(0, speculator.checkForStragglers());
+    assertEquals(0, events.size());
+  }
+
+  @Test
+  public void testMaxRunningSpeculations() {
+    for (int i = 0; i < 3; ++i) {
+      addTask(i, TaskState.SUCCEEDED, TaskAttemptState.SUCCEEDED, 1000, 1100,
+          1.0f);
+    }
+    addTask(3, TaskState.RUNNING, TaskAttemptState.RUNNING, 1000, 0, 0.1f);
+    addTask(4, TaskState.RUNNING, TaskAttemptState.RUNNING, 1000, 0, 0.2f);
+    when(clock.getTime()).thenReturn(1300l);
+
+    // Only one speculative attempt is allowed at a time for 5 tasks
+    assertEquals(1, speculator.checkForStragglers());
+    assertEquals(0, speculator.checkForStragglers());
+  }
+
+  @Test
+  public void testNoSpeculationWithoutCompletedTasks() {
+    addTask(0, TaskState.RUNNING, TaskAttemptState.RUNNING, 1000, 0, 0.01f);
+    addTask(1, TaskState.RUNNING, TaskAttemptState.RUNNING, 1000, 0, 0.5f);
+    when(clock.getTime()).thenReturn(10000l);
+
+    assertEquals(0, speculator.checkForStragglers());
+    assertEquals(0, events.size());
+  }
+
+  private Task addTask(int id, TaskState taskState,
+      TaskAttemptState attemptState, long launchTime, long finishTime,
+      float progress) {
+    TezTaskID taskId = TezTaskID.getInstance(vertexId, id);
+    TezTaskAttemptID attemptId = TezTaskAttemptID.getInstance(taskId, 0);
+    TaskAttempt attempt = mock(TaskAttempt.class);
+    when(attempt.getID()).thenReturn(attemptId);
+    when(attempt.getState()).thenReturn(attemptState);
+    when(attempt.isFinished()).thenReturn(
+        attemptState != TaskAttemptState.RUNNING);
+    when(attempt.getLaunchTime()).thenReturn(launchTime);
+    when(attempt.getFinishTime()).thenReturn(finishTime);
+    when(attempt.getProgress()).thenReturn(progress);
+    Map<TezTaskAttemptID, TaskAttempt> attempts =
+        new HashMap<TezTaskAttemptID, TaskAttempt>();
+    attempts.put(attemptId, attempt);
+    Task task = mock(Task.class);
+    when(task.getTaskId()).thenReturn(taskId);
+    when(task.getState()).thenReturn(taskState);
+    when(task.getAttempts()).thenReturn(attempts);
+    tasks.put(taskId, task);
+    return task;
+  }
+}
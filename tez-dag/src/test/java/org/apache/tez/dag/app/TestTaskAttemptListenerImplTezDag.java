@@ -0,0 +1,317 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.common.ContainerContext;
+import org.apache.tez.common.ContainerTask;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.apache.tez.dag.app.dag.DAG;
+import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.TaskAttempt;
+import org.apache.tez.dag.app.dag.Vertex;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEventStartedRemotely;
+import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
+import org.apache.tez.dag.app.rm.container.AMContainerTask;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.runtime.api.impl.TaskSpec;
+import org.apache.tez.runtime.api.impl.TezEvent;
+import org.apache.tez.runtime.api.impl.TezHeartbeatRequest;
+import org.apache.tez.runtime.api.impl.TezHeartbeatResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@SuppressWarnings("rawtypes")
+public class TestTaskAttemptListenerImplTezDag {
+
+  private List<Event> events;
+  private AppContext appContext;
+  private TaskHeartbeatHandler taskHeartbeatHandler;
+  private Task task;
+  private TezTaskID taskId;
+  private ContainerId containerId;
+  private TaskAttemptListenerImpTezDag listener;
+
+  @Before
+  public void setup() {
+    events = new ArrayList<Event>();
+    EventHandler eventHandler = new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        events.add(event);
+      }
+    };
+    ApplicationId appId = ApplicationId.newInstance(1000, 1);
+    TezDAGID dagId = TezDAGID.getInstance(appId, 1);
+    TezVertexID vertexId = TezVertexID.getInstance(dagId, 1);
+    taskId = TezTaskID.getInstance(vertexId, 1);
+    containerId = ContainerId.newInstance(
+        ApplicationAttemptId.newInstance(appId, 1), 1);
+
+    task = mock(Task.class);
+    Vertex vertex = mock(Vertex.class);
+    when(vertex.getTask(taskId)).thenReturn(task);
+    DAG dag = mock(DAG.class);
+    when(dag.getVertex(vertexId)).thenReturn(vertex);
+    appContext = mock(AppContext.class);
+    when(appContext.getCurrentDAG()).thenReturn(dag);
+    when(appContext.getEventHandler()).thenReturn(eventHandler);
+
+    taskHeartbeatHandler = mock(TaskHeartbeatHandler.class);
+    listener = new TaskAttemptListenerImpTezDag(appContext,
+        taskHeartbeatHandler, mock(ContainerHeartbeatHandler.class), null);
+    listener.init(new Configuration(false));
+    listener.registerRunningContainer(containerId);
+  }
+
+  @Test(timeout = 5000)
+  public void testHeartbeat() throws Exception {
+    TezTaskAttemptID attemptId = TezTaskAttemptID.getInstance(taskId, 0);
+    listener.registerTaskAttempt(attemptId, containerId);
+    List<TezEvent> outEvents = Collections.singletonList(mock(TezEvent.class));
+    when(task.getTaskAttemptTezEvents(attemptId, 0, 10)).thenReturn(outEvents);
+
+    TezHeartbeatResponse response = listener.heartbeat(
+        createRequest(1, attemptId, Collections.singletonList(
+            mock(TezEvent.class)), 0, 10));
+    assertEquals(1, response.getLastRequestId());
+    assertEquals(outEvents, response.getEvents());
+    assertEquals(1, events.size());
+    assertTrue(events.get(0) instanceof VertexEventRouteEvent);
+    verify(taskHeartbeatHandler).pinged(attemptId);
+    assertFalse(response.isFullCountersRequested());
+
+    // the attempt could not apply changed counters
+    TaskAttempt attempt = mock(TaskAttempt.class);
+    when(attempt.pollFullCountersRequest()).thenReturn(true);
+    when(task.getAttempt(attemptId)).thenReturn(attempt);
+    response = listener.heartbeat(createRequest(2, attemptId,
+        new ArrayList<TezEvent>(), 0, 10));
+    assertTrue(response.isFullCountersRequested());
+  }
+
+  @Test(timeout = 5000)
+  public void testHeartbeatRacingUnregister() throws Exception {
+    final TezTaskAttemptID attemptId = TezTaskAttemptID.getInstance(taskId, 0);
+    listener.registerTaskAttempt(attemptId, containerId);
+    final List<TezEvent> outEvents =
+        Collections.singletonList(mock(TezEvent.class));
+    // the attempt is unregistered while the heartbeat reads its events
+    // outside of the container lock
+    when(task.getTaskAttemptTezEvents(attemptId, 0, 10)).thenAnswer(
+        new Answer<List<TezEvent>>() {
+          @Override
+          public List<TezEvent> answer(InvocationOnMock invocation) {
+            listener.unregisterTaskAttempt(attemptId);
+            return outEvents;
+          }
+        });
+
+    TezHeartbeatResponse response = listener.heartbeat(
+        createRequest(1, attemptId, Collections.singletonList(
+            mock(TezEvent.class)), 0, 10));
+    assertFalse(response.shouldDie());
+    assertEquals(1, response.getLastRequestId());
+    assertNull(response.getEvents());
+    assertFalse(response.hasMoreEvents());
+    // events of the unregistered attempt are not routed
+    assertTrue(events.isEmpty());
+    verify(taskHeartbeatHandler, never()).pinged(attemptId);
+
+    // the container goes on with its next attempt
+    TezTaskAttemptID nextAttemptId = TezTaskAttemptID.getInstance(taskId, 1);
+    listener.registerTaskAttempt(nextAttemptId, containerId);
+    when(task.getTaskAttemptTezEvents(nextAttemptId, 0, 10)).thenReturn(
+        outEvents);
+    response = listener.heartbeat(createRequest(2, nextAttemptId,
+        new ArrayList<TezEvent>(), 0, 10));
+    assertEquals(2, response.getLastRequestId());
+    assertEquals(outEvents, response.getEvents());
+    verify(taskHeartbeatHandler).pinged(nextAttemptId);
+  }
+
+  @Test(timeout = 5000)
+  public void testMoreEvents() throws Exception {
+    TezTaskAttemptID attemptId = TezTaskAttemptID.getInstance(taskId, 0);
+    listener.registerTaskAttempt(attemptId, containerId);
+    List<TezEvent> fullBatch = new ArrayList<TezEvent>();
+    fullBatch.add(mock(TezEvent.class));
+    fullBatch.add(mock(TezEvent.class));
+    when(task.getTaskAttemptTezEvents(attemptId, 0, 2)).thenReturn(fullBatch);
+    when(task.getTaskAttemptTezEvents(attemptId, 2, 2)).thenReturn(
+        Collections.singletonList(mock(TezEvent.class)));
+    when(task.getTaskAttemptTezEvents(attemptId, 3, 2)).thenReturn(
+        new ArrayList<TezEvent>());
+
+    // a full batch tells the task to poll again right away
+    TezHeartbeatResponse response = listener.heartbeat(createRequest(1,
+        attemptId, new ArrayList<TezEvent>(), 0, 2));
+    assertEquals(2, response.getEvents().size());
+    assertTrue(response.hasMoreEvents());
+
+    // the task caught up, it waits for its next heartbeat
+    response = listener.heartbeat(createRequest(2, attemptId,
+        new ArrayList<TezEvent>(), 2, 2));
+    assertEquals(1, response.getEvents().size());
+    assertFalse(response.hasMoreEvents());
+
+    // nothing exchanged, the task may back off
+    response = listener.heartbeat(createRequest(3, attemptId,
+        new ArrayList<TezEvent>(), 3, 2));
+    assertTrue(response.getEvents().isEmpty());
+    assertFalse(response.hasMoreEvents());
+  }
+
+  @Test(timeout = 5000)
+  public void testMetricsSourceUnregisteredOnStop() throws Exception {
+    // a listener of a new AM attempt in the same JVM registers again
+    for (int i = 0; i < 2; ++i) {
+      TaskAttemptListenerImpTezDag metricsListener =
+          new TaskAttemptListenerImpTezDag(appContext, taskHeartbeatHandler,
+              mock(ContainerHeartbeatHandler.class), null) {
+            @Override
+            protected void startRpcServer() {
+            }
+          };
+      metricsListener.init(new Configuration(false));
+      metricsListener.start();
+      assertNotNull(DefaultMetricsSystem.instance().getSource(
+          TaskAttemptListenerImpTezDag.METRICS_SOURCE_NAME));
+      metricsListener.stop();
+      assertNull(DefaultMetricsSystem.instance().getSource(
+          TaskAttemptListenerImpTezDag.METRICS_SOURCE_NAME));
+    }
+  }
+
+  /**
+   * Create a listener holding getTask calls for up to the given time, which
+   * hands out the task set in containerTask.
+   */
+  private TaskAttemptListenerImpTezDag createWaitingListener(long waitTime,
+      final AtomicReference<AMContainerTask> containerTask) {
+    TaskAttemptListenerImpTezDag waitingListener =
+        new TaskAttemptListenerImpTezDag(appContext, taskHeartbeatHandler,
+            mock(ContainerHeartbeatHandler.class), null) {
+          @Override
+          public AMContainerTask pullTaskAttemptContext(
+              ContainerId containerId) {
+            return containerTask.get();
+          }
+        };
+    Configuration conf = new Configuration(false);
+    conf.setLong(TezConfiguration.TEZ_AM_TASK_LISTENER_GET_TASK_WAIT_MS,
+        waitTime);
+    waitingListener.init(conf);
+    waitingListener.registerRunningContainer(containerId);
+    return waitingListener;
+  }
+
+  @Test(timeout = 5000)
+  public void testGetTaskWakesUpOnAssignment() throws Exception {
+    final AtomicReference<AMContainerTask> containerTask =
+        new AtomicReference<AMContainerTask>(
+            new AMContainerTask(false, null, null, null, false));
+    final TaskAttemptListenerImpTezDag waitingListener =
+        createWaitingListener(600000, containerTask);
+
+    final AtomicReference<ContainerTask> result =
+        new AtomicReference<ContainerTask>();
+    Thread getTaskThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result.set(waitingListener.getTask(
+              new ContainerContext(containerId.toString(), "")));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    getTaskThread.start();
+    // the call waits as no task is assigned
+    while (getTaskThread.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(10);
+    }
+    assertNull(result.get());
+
+    TezTaskAttemptID attemptId = TezTaskAttemptID.getInstance(taskId, 0);
+    TaskSpec taskSpec = mock(TaskSpec.class);
+    when(taskSpec.getTaskAttemptID()).thenReturn(attemptId);
+    containerTask.set(new AMContainerTask(false, taskSpec, null, null, false));
+    waitingListener.taskAttemptAssigned(containerId);
+    getTaskThread.join();
+
+    assertNotNull(result.get());
+    assertFalse(result.get().shouldDie());
+    assertEquals(taskSpec, result.get().getTaskSpec());
+    assertEquals(1, events.size());
+    assertTrue(events.get(0) instanceof TaskAttemptEventStartedRemotely);
+  }
+
+  @Test(timeout = 5000)
+  public void testGetTaskWaitTimeout() throws Exception {
+    AtomicReference<AMContainerTask> containerTask =
+        new AtomicReference<AMContainerTask>(
+            new AMContainerTask(false, null, null, null, false));
+    TaskAttemptListenerImpTezDag waitingListener =
+        createWaitingListener(200, containerTask);
+
+    long startTime = System.currentTimeMillis();
+    ContainerTask task = waitingListener.getTask(
+        new ContainerContext(containerId.toString(), ""));
+    // no task is assigned within the wait time
+    assertTrue(System.currentTimeMillis() - startTime >= 200);
+    assertNull(task);
+    assertTrue(events.isEmpty());
+  }
+
+  private TezHeartbeatRequest createRequest(long requestId,
+      TezTaskAttemptID attemptId, List<TezEvent> inEvents, int startIndex,
+      int maxEvents) {
+    return new TezHeartbeatRequest(requestId, inEvents,
+        containerId.toString(), attemptId, startIndex, maxEvents);
+  }
+}
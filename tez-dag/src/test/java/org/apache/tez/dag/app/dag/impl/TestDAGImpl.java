@@ -20,6 +20,7 @@ package org.apache.tez.dag.app.dag.impl;
 
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -38,6 +39,7 @@ import org.apache.hadoop.yarn.event.DrainDispatcher;
 import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.util.Clock;
 import org.apache.hadoop.yarn.util.SystemClock;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.dag.api.GroupInputEdge;
 import org.apache.tez.dag.api.DAG;
 import org.apache.tez.dag.api.EdgeProperty;
@@ -1180,7 +1182,29 @@ public class TestDAGImpl {
 
   @Test(timeout = 5000)
   public void testCounterUpdates() {
-    // FIXME need to implement
+    Vertex v1 = mock(Vertex.class);
+    Vertex v2 = mock(Vertex.class);
+    TezCounters v1Counters = new TezCounters();
+    TezCounters v2Counters = new TezCounters();
+    doReturn(v1Counters).when(v1).getAllCounters();
+    doReturn(v2Counters).when(v2).getAllCounters();
+    v1Counters.findCounter("group", "counter").increment(1);
+    v2Counters.findCounter("group", "counter").increment(2);
+
+    dag.vertices.put(TezVertexID.getInstance(dagId, 0), v1);
+    dag.vertices.put(TezVertexID.getInstance(dagId, 1), v2);
+    TezCounters counters = dag.getAllCounters();
+    Assert.assertEquals(3, counters.findCounter("group", "counter").getValue());
+    // the running totals of the vertices are combined, tasks are not read
+    verify(v1, never()).getTasks();
+    verify(v2, never()).getTasks();
+
+    // a new total of a vertex is used by the next request
+    TezCounters newV1Counters = new TezCounters();
+    newV1Counters.findCounter("group", "counter").increment(11);
+    doReturn(newV1Counters).when(v1).getAllCounters();
+    Assert.assertEquals(13, dag.getAllCounters().findCounter("group",
+        "counter").getValue());
   }
 
   @Ignore
@@ -18,15 +18,27 @@
 
 package org.apache.tez.dag.app.dag.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.event.Event;
 import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.util.Clock;
 import org.apache.tez.dag.app.dag.DAG;
 import org.apache.tez.dag.app.dag.DAGScheduler;
 import org.apache.tez.dag.app.dag.TaskAttempt;
 import org.apache.tez.dag.app.dag.Vertex;
 import org.apache.tez.dag.app.dag.event.DAGEventSchedulerUpdate;
+import org.apache.tez.dag.app.dag.event.DAGEventSchedulerUpdateTAAssigned;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventSchedule;
+import org.apache.tez.dag.app.rm.AMSchedulerEventTAPriorityUpdate;
 import org.apache.tez.dag.app.rm.TaskSchedulerEventHandler;
 import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
 import org.apache.tez.dag.records.TezVertexID;
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -36,11 +48,17 @@ import static org.mockito.Mockito.*;
 
 public class TestDAGScheduler {
 
-  class MockEventHandler implements EventHandler<TaskAttemptEventSchedule> {
+  class MockEventHandler implements EventHandler<Event> {
     TaskAttemptEventSchedule event;
+    List<AMSchedulerEventTAPriorityUpdate> priorityUpdates =
+        new ArrayList<AMSchedulerEventTAPriorityUpdate>();
     @Override
-    public void handle(TaskAttemptEventSchedule event) {
-      this.event = event;
+    public void handle(Event event) {
+      if (event instanceof AMSchedulerEventTAPriorityUpdate) {
+        priorityUpdates.add((AMSchedulerEventTAPriorityUpdate) event);
+      } else {
+        this.event = (TaskAttemptEventSchedule) event;
+      }
     }
     
   }
@@ -192,4 +210,116 @@ public class TestDAGScheduler {
     Assert.assertTrue(mockEventHandler.event.getPriority().getPriority() == 9);
     scheduler.vertexCompleted(mockVertex3); // R2 completes  
   }
+
+  @Test(timeout=10000)
+  public void testDAGSchedulerCriticalPath() {
+    DAG mockDag = mock(DAG.class);
+    TezDAGID dagId = TezDAGID.getInstance("1", 1, 1);
+    Clock mockClock = mock(Clock.class);
+    when(mockClock.getTime()).thenReturn(0l);
+
+    // short branch v1 -> v2 and long branch v3 -> v4 -> v5
+    Vertex v1 = createMockVertex(dagId, 1, 0, 2);
+    Vertex v2 = createMockVertex(dagId, 2, 1, 1);
+    Vertex v3 = createMockVertex(dagId, 3, 0, 1);
+    Vertex v4 = createMockVertex(dagId, 4, 1, 10);
+    Vertex v5 = createMockVertex(dagId, 5, 2, 10);
+    setOutputs(v1, v2);
+    setOutputs(v3, v4);
+    setOutputs(v4, v5);
+    Map<TezVertexID, Vertex> vertices = new HashMap<TezVertexID, Vertex>();
+    for (Vertex v : new Vertex[] { v1, v2, v3, v4, v5 }) {
+      vertices.put(v.getVertexId(), v);
+      when(mockDag.getVertex(v.getVertexId())).thenReturn(v);
+    }
+    when(mockDag.getVertices()).thenReturn(vertices);
+
+    DAGSchedulerCriticalPath scheduler = new DAGSchedulerCriticalPath(mockDag,
+        mockEventHandler, mockClock, 5000);
+
+    // ranked by the number of tasks on the longest path
+    TaskAttempt attempt1 = createMockAttempt(v1, 1);
+    scheduler.scheduleTask(new DAGEventSchedulerUpdate(
+        DAGEventSchedulerUpdate.UpdateType.TA_SCHEDULE, attempt1));
+    Assert.assertEquals(8, mockEventHandler.event.getPriority().getPriority());
+    TaskAttempt attempt3 = createMockAttempt(v3, 1);
+    scheduler.scheduleTask(new DAGEventSchedulerUpdate(
+        DAGEventSchedulerUpdate.UpdateType.TA_SCHEDULE, attempt3));
+    Assert.assertEquals(2, mockEventHandler.event.getPriority().getPriority());
+    scheduler.taskScheduled(new DAGEventSchedulerUpdateTAAssigned(attempt3,
+        null));
+    // assigned a container but the scheduler is not notified yet
+    TaskAttempt attempt2 = createMockAttempt(v2, 1);
+    scheduler.scheduleTask(new DAGEventSchedulerUpdate(
+        DAGEventSchedulerUpdate.UpdateType.TA_SCHEDULE, attempt2));
+    Assert.assertEquals(10, mockEventHandler.event.getPriority().getPriority());
+    when(attempt2.getAssignedContainerID()).thenReturn(
+        mock(ContainerId.class));
+
+    // the long branch turns out to have short tasks
+    when(mockClock.getTime()).thenReturn(1000l);
+    scheduler.taskSucceeded(new DAGEventSchedulerUpdate(
+        DAGEventSchedulerUpdate.UpdateType.TA_SUCCEEDED,
+        createSucceededAttempt(v2, 2, 10000)));
+    scheduler.taskSucceeded(new DAGEventSchedulerUpdate(
+        DAGEventSchedulerUpdate.UpdateType.TA_SUCCEEDED,
+        createSucceededAttempt(v4, 2, 1)));
+    scheduler.taskSucceeded(new DAGEventSchedulerUpdate(
+        DAGEventSchedulerUpdate.UpdateType.TA_SUCCEEDED,
+        createSucceededAttempt(v5, 2, 1)));
+    Assert.assertTrue(mockEventHandler.priorityUpdates.isEmpty());
+
+    // re-rank once the interval expired. the pending request moves up
+    when(mockClock.getTime()).thenReturn(10000l);
+    scheduler.vertexCompleted(v4);
+    Assert.assertEquals(0, scheduler.vertexRanks.get(v1.getVertexId())
+        .intValue());
+    // only the request still waiting for a container is updated, through
+    // the scheduler event queue
+    Assert.assertEquals(1, mockEventHandler.priorityUpdates.size());
+    AMSchedulerEventTAPriorityUpdate update =
+        mockEventHandler.priorityUpdates.get(0);
+    Assert.assertSame(attempt1, update.getAttempt());
+    Assert.assertEquals(2, update.getPriority().getPriority());
+
+    TaskAttempt retry3 = createMockAttempt(v3, 3);
+    when(retry3.getIsRescheduled()).thenReturn(true);
+    scheduler.scheduleTask(new DAGEventSchedulerUpdate(
+        DAGEventSchedulerUpdate.UpdateType.TA_SCHEDULE, retry3));
+    Assert.assertEquals(5, mockEventHandler.event.getPriority().getPriority());
+  }
+
+  private Vertex createMockVertex(TezDAGID dagId, int id, int distance,
+      int numTasks) {
+    Vertex vertex = mock(Vertex.class);
+    when(vertex.getVertexId()).thenReturn(TezVertexID.getInstance(dagId, id));
+    when(vertex.getDistanceFromRoot()).thenReturn(distance);
+    when(vertex.getTotalTasks()).thenReturn(numTasks);
+    when(vertex.getOutputVertices()).thenReturn(new HashMap<Vertex, Edge>());
+    return vertex;
+  }
+
+  private void setOutputs(Vertex vertex, Vertex output) {
+    Map<Vertex, Edge> outputs = new HashMap<Vertex, Edge>();
+    outputs.put(output, mock(Edge.class));
+    when(vertex.getOutputVertices()).thenReturn(outputs);
+  }
+
+  private TaskAttempt createMockAttempt(Vertex vertex, int id) {
+    TaskAttempt attempt = mock(TaskAttempt.class);
+    TezTaskID taskId = TezTaskID.getInstance(vertex.getVertexId(), 0);
+    when(attempt.getID()).thenReturn(TezTaskAttemptID.getInstance(taskId, id));
+    when(attempt.getVertexID()).thenReturn(vertex.getVertexId());
+    when(attempt.getIsRescheduled()).thenReturn(false);
+    return attempt;
+  }
+
+  private TaskAttempt createSucceededAttempt(Vertex vertex, int id,
+      long runtime) {
+    TaskAttempt attempt = createMockAttempt(vertex, id);
+    when(attempt.isFinished()).thenReturn(true);
+    when(attempt.getLaunchTime()).thenReturn(100l);
+    when(attempt.getFinishTime()).thenReturn(100l + runtime);
+    return attempt;
+  }
 }
@@ -18,7 +18,11 @@
 
 package org.apache.tez.dag.app.dag.impl;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
@@ -27,6 +31,7 @@ import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -42,6 +47,7 @@ import org.apache.tez.dag.api.EdgeProperty.SchedulingType;
 import org.apache.tez.dag.api.InputDescriptor;
 import org.apache.tez.dag.api.OutputDescriptor;
 import org.apache.tez.dag.app.dag.Task;
+import org.apache.tez.dag.app.dag.TezEventLog;
 import org.apache.tez.dag.app.dag.Vertex;
 import org.apache.tez.dag.app.dag.event.TaskEventAddTezEvent;
 import org.apache.tez.dag.records.TezDAGID;
@@ -52,6 +58,7 @@ import org.apache.tez.runtime.api.events.CompositeDataMovementEvent;
 import org.apache.tez.runtime.api.events.DataMovementEvent;
 import org.apache.tez.runtime.api.impl.EventMetaData;
 import org.apache.tez.runtime.api.impl.EventMetaData.EventProducerConsumerType;
+import org.apache.tez.runtime.api.impl.EventType;
 import org.apache.tez.runtime.api.impl.TezEvent;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -98,6 +105,24 @@ public class TestEdge {
     verify(eventHandler, times(destTasks.size())).handle(args.capture());
     
     verifyEvents(args.getAllValues(), srcTAID, destTasks);
+    // the composite event is stored once and expanded per destination task
+    TezEventLog eventLog = destVertex.getTezEventLog();
+    assertEquals(1, eventLog.size());
+    assertEquals(EventType.COMPOSITE_DATA_MOVEMENT_EVENT,
+        eventLog.get(0).getEventType());
+    // the routed event is a copy, the event handed in is not modified
+    assertTrue(tezEvent != eventLog.get(0));
+    assertNull(tezEvent.getDestinationInfo());
+    for (Event event : args.getAllValues()) {
+      TaskEventAddTezEvent taEvent = (TaskEventAddTezEvent) event;
+      assertSame(eventLog, taEvent.getEventLog());
+      assertArrayEquals(new int[] { 0 }, taEvent.getEventLogIndices());
+      TezEvent expandedEvent = taEvent.getTezEvents().get(0);
+      assertEquals(EventType.DATA_MOVEMENT_EVENT,
+          expandedEvent.getEventType());
+      assertNotNull(expandedEvent.getDestinationInfo());
+      assertSame(srcMeta, expandedEvent.getSourceInfo());
+    }
     
     
     // Same Verification via regular DataMovementEvents
@@ -115,6 +140,164 @@ public class TestEdge {
 
   }
   
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test (timeout = 5000)
+  public void testCompositeEventExpansion() {
+    EventHandler eventHandler = mock(EventHandler.class);
+    EdgeProperty edgeProp = new EdgeProperty(DataMovementType.SCATTER_GATHER,
+        DataSourceType.PERSISTED, SchedulingType.SEQUENTIAL, mock(OutputDescriptor.class),
+        mock(InputDescriptor.class));
+    Edge edge = new Edge(edgeProp, eventHandler);
+
+    TezVertexID srcVertexID = createVertexID(1);
+    TezVertexID destVertexID = createVertexID(2);
+    LinkedHashMap<TezTaskID, Task> srcTasks = mockTasks(srcVertexID, 2);
+    LinkedHashMap<TezTaskID, Task> destTasks = mockTasks(destVertexID, 4);
+
+    Vertex srcVertex = mockVertex("src", srcVertexID, srcTasks);
+    Vertex destVertex = mockVertex("dest", destVertexID, destTasks);
+
+    edge.setSourceVertex(srcVertex);
+    edge.setDestinationVertex(destVertex);
+    edge.initialize();
+
+    // source task 0 covers all partitions, source task 1 only partitions 1-2,
+    // the end of a range is exclusive
+    Iterator<TezTaskID> srcTaskIter = srcTasks.keySet().iterator();
+    List<TezEvent> tezEvents = new ArrayList<TezEvent>();
+    int[][] ranges = new int[][] { { 0, 4 }, { 1, 3 } };
+    for (int[] range : ranges) {
+      TezTaskAttemptID srcTAID = createTAIDForTest(srcTaskIter.next(), 1);
+      EventMetaData srcMeta = new EventMetaData(EventProducerConsumerType.OUTPUT,
+          "src", "dest", srcTAID);
+      CompositeDataMovementEvent cdmEvent = new CompositeDataMovementEvent(
+          range[0], range[1], "bytes".getBytes());
+      cdmEvent.setVersion(1);
+      tezEvents.add(new TezEvent(cdmEvent, srcMeta));
+    }
+
+    edge.sendTezEventsToDestinationTasks(tezEvents);
+
+    TezEventLog eventLog = destVertex.getTezEventLog();
+    assertEquals(2, eventLog.size());
+    ArgumentCaptor<Event> args = ArgumentCaptor.forClass(Event.class);
+    verify(eventHandler, times(destTasks.size())).handle(args.capture());
+    int[][] expectedIndices = new int[][] { { 0 }, { 0, 1 }, { 0, 1 }, { 0 } };
+    Iterator<TezTaskID> destTaskIter = destTasks.keySet().iterator();
+    for (int destTaskIndex = 0; destTaskIndex < destTasks.size();
+        ++destTaskIndex) {
+      TaskEventAddTezEvent taEvent =
+          (TaskEventAddTezEvent) args.getAllValues().get(destTaskIndex);
+      assertEquals(destTaskIter.next(), taEvent.getTaskID());
+      assertArrayEquals(expectedIndices[destTaskIndex],
+          taEvent.getEventLogIndices());
+      List<TezEvent> expandedEvents = taEvent.getTezEvents();
+      assertEquals(expectedIndices[destTaskIndex].length,
+          expandedEvents.size());
+      for (int i = 0; i < expandedEvents.size(); ++i) {
+        // partition destTaskIndex of source task i, at input i
+        DataMovementEvent dmEvent =
+            (DataMovementEvent) expandedEvents.get(i).getEvent();
+        assertEquals(destTaskIndex, dmEvent.getSourceIndex());
+        assertEquals(i, dmEvent.getTargetIndex());
+        assertEquals(1, dmEvent.getVersion());
+        assertEquals(i, expandedEvents.get(i).getSourceInfo()
+            .getTaskAttemptID().getTaskID().getId());
+      }
+    }
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test (timeout = 5000)
+  public void testCompositeEventEagerExpansion() {
+    EventHandler eventHandler = mock(EventHandler.class);
+    EdgeProperty edgeProp = new EdgeProperty(DataMovementType.BROADCAST,
+        DataSourceType.PERSISTED, SchedulingType.SEQUENTIAL, mock(OutputDescriptor.class),
+        mock(InputDescriptor.class));
+    Edge edge = new Edge(edgeProp, eventHandler);
+
+    TezVertexID srcVertexID = createVertexID(1);
+    TezVertexID destVertexID = createVertexID(2);
+    LinkedHashMap<TezTaskID, Task> srcTasks = mockTasks(srcVertexID, 1);
+    LinkedHashMap<TezTaskID, Task> destTasks = mockTasks(destVertexID, 3);
+
+    Vertex srcVertex = mockVertex("src", srcVertexID, srcTasks);
+    Vertex destVertex = mockVertex("dest", destVertexID, destTasks);
+
+    edge.setSourceVertex(srcVertex);
+    edge.setDestinationVertex(destVertex);
+    edge.initialize();
+    assertTrue(edge.getEdgeManager() instanceof BroadcastEdgeManager);
+
+    TezTaskAttemptID srcTAID =
+        createTAIDForTest(srcTasks.keySet().iterator().next(), 0);
+    EventMetaData srcMeta = new EventMetaData(EventProducerConsumerType.OUTPUT,
+        "src", "dest", srcTAID);
+    edge.sendTezEventToDestinationTasks(new TezEvent(
+        new CompositeDataMovementEvent(0, 1, "bytes".getBytes()), srcMeta));
+
+    // expanded when routed, the expanded event is shared by all tasks
+    TezEventLog eventLog = destVertex.getTezEventLog();
+    assertEquals(1, eventLog.size());
+    assertEquals(EventType.DATA_MOVEMENT_EVENT,
+        eventLog.get(0).getEventType());
+    ArgumentCaptor<Event> args = ArgumentCaptor.forClass(Event.class);
+    verify(eventHandler, times(destTasks.size())).handle(args.capture());
+    for (Event event : args.getAllValues()) {
+      TaskEventAddTezEvent taEvent = (TaskEventAddTezEvent) event;
+      assertArrayEquals(new int[] { 0 }, taEvent.getEventLogIndices());
+      assertSame(eventLog.get(0), taEvent.getTezEvents().get(0));
+    }
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test (timeout = 5000)
+  public void testBatchedEventRouting() {
+    EventHandler eventHandler = mock(EventHandler.class);
+    EdgeProperty edgeProp = new EdgeProperty(DataMovementType.BROADCAST,
+        DataSourceType.PERSISTED, SchedulingType.SEQUENTIAL, mock(OutputDescriptor.class),
+        mock(InputDescriptor.class));
+    Edge edge = new Edge(edgeProp, eventHandler);
+
+    TezVertexID srcVertexID = createVertexID(1);
+    TezVertexID destVertexID = createVertexID(2);
+    LinkedHashMap<TezTaskID, Task> srcTasks = mockTasks(srcVertexID, 3);
+    LinkedHashMap<TezTaskID, Task> destTasks = mockTasks(destVertexID, 4);
+
+    Vertex srcVertex = mockVertex("src", srcVertexID, srcTasks);
+    Vertex destVertex = mockVertex("dest", destVertexID, destTasks);
+
+    edge.setSourceVertex(srcVertex);
+    edge.setDestinationVertex(destVertex);
+    edge.initialize();
+
+    List<TezEvent> tezEvents = new ArrayList<TezEvent>();
+    for (TezTaskID srcTaskID : srcTasks.keySet()) {
+      TezTaskAttemptID srcTAID = createTAIDForTest(srcTaskID, 0);
+      EventMetaData srcMeta = new EventMetaData(EventProducerConsumerType.OUTPUT,
+          "src", "dest", srcTAID);
+      DataMovementEvent dmEvent = new DataMovementEvent(0, "bytes".getBytes());
+      tezEvents.add(new TezEvent(dmEvent, srcMeta));
+    }
+
+    edge.sendTezEventsToDestinationTasks(tezEvents);
+
+    // one dispatcher event per destination task, carrying every routed event
+    ArgumentCaptor<Event> args = ArgumentCaptor.forClass(Event.class);
+    verify(eventHandler, times(destTasks.size())).handle(args.capture());
+    Iterator<TezTaskID> destTaskIter = destTasks.keySet().iterator();
+    for (Event event : args.getAllValues()) {
+      TaskEventAddTezEvent taEvent = (TaskEventAddTezEvent) event;
+      assertEquals(destTaskIter.next(), taEvent.getTaskID());
+      assertEquals(srcTasks.size(), taEvent.getTezEvents().size());
+      for (int i = 0; i < srcTasks.size(); i++) {
+        DataMovementEvent dmEvent =
+            (DataMovementEvent) taEvent.getTezEvents().get(i).getEvent();
+        assertEquals(i, dmEvent.getTargetIndex());
+      }
+    }
+  }
+
   @SuppressWarnings("rawtypes")
   private void verifyEvents(List<Event> events, TezTaskAttemptID srcTAID, LinkedHashMap<TezTaskID, Task> destTasks) {
     int count = 0;
@@ -126,7 +309,8 @@ public class TestEdge {
       assertTrue(event instanceof TaskEventAddTezEvent);
       TaskEventAddTezEvent taEvent = (TaskEventAddTezEvent) event;
       assertEquals(expEntry.getKey(), taEvent.getTaskID());
-      TezEvent tezEvent = taEvent.getTezEvent();
+      assertEquals(1, taEvent.getTezEvents().size());
+      TezEvent tezEvent = taEvent.getTezEvents().get(0);
 
       DataMovementEvent dmEvent = (DataMovementEvent)tezEvent.getEvent();
       assertEquals(srcTAID.getId(), dmEvent.getVersion());
@@ -155,6 +339,7 @@ public class TestEdge {
     doReturn(name).when(vertex).getName();
     doReturn(tasks).when(vertex).getTasks();
     doReturn(tasks.size()).when(vertex).getTotalTasks();
+    doReturn(new TezEventLog()).when(vertex).getTezEventLog();
     for (Entry<TezTaskID, Task> entry : tasks.entrySet()) {
       doReturn(entry.getValue()).when(vertex).getTask(eq(entry.getKey()));
       doReturn(entry.getValue()).when(vertex).getTask(eq(entry.getKey().getId()));
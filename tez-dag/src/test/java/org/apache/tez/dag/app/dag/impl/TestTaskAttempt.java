@@ -20,6 +20,8 @@ package org.apache.tez.dag.app.dag.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -56,6 +58,8 @@ import org.apache.hadoop.yarn.event.Event;
 import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.util.Clock;
 import org.apache.hadoop.yarn.util.SystemClock;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.dag.api.VertexLocationHint.TaskLocationHint;
 import org.apache.tez.dag.api.oldrecords.TaskAttemptState;
 import org.apache.tez.dag.app.AppContext;
@@ -76,6 +80,7 @@ import org.apache.tez.dag.app.dag.event.TaskAttemptEventNodeFailed;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventOutputFailed;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventSchedule;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventStartedRemotely;
+import org.apache.tez.dag.app.dag.event.TaskAttemptEventStatusUpdate;
 import org.apache.tez.dag.app.dag.event.TaskAttemptEventType;
 import org.apache.tez.dag.app.dag.event.TaskEventTAUpdate;
 import org.apache.tez.dag.app.rm.AMSchedulerEventTAEnded;
@@ -87,6 +92,7 @@ import org.apache.tez.dag.records.TezTaskAttemptID;
 import org.apache.tez.dag.records.TezTaskID;
 import org.apache.tez.dag.records.TezVertexID;
 import org.apache.tez.runtime.api.events.InputReadErrorEvent;
+import org.apache.tez.runtime.api.events.TaskStatusUpdateEvent;
 import org.apache.tez.runtime.api.impl.EventMetaData;
 import org.apache.tez.runtime.api.impl.TaskSpec;
 import org.apache.tez.runtime.api.impl.TezEvent;
@@ -499,6 +505,97 @@ public class TestTaskAttempt {
     // TODO Ensure TA_TERMINATING after this is ingored.
   }
 
+  @Test(timeout = 5000)
+  public void testStatusUpdateWithChangedCounters() throws Exception {
+    ApplicationId appId = ApplicationId.newInstance(1, 2);
+    ApplicationAttemptId appAttemptId = ApplicationAttemptId.newInstance(
+        appId, 0);
+    TezDAGID dagID = TezDAGID.getInstance(appId, 1);
+    TezVertexID vertexID = TezVertexID.getInstance(dagID, 1);
+    TezTaskID taskID = TezTaskID.getInstance(vertexID, 1);
+    TezTaskAttemptID taskAttemptID = TezTaskAttemptID.getInstance(taskID, 0);
+
+    MockEventHandler eventHandler = new MockEventHandler();
+    TaskAttemptListener taListener = mock(TaskAttemptListener.class);
+    when(taListener.getAddress()).thenReturn(
+        new InetSocketAddress("localhost", 0));
+
+    Configuration taskConf = new Configuration();
+    taskConf.setClass("fs.file.impl", StubbedFS.class, FileSystem.class);
+    taskConf.setBoolean("fs.file.impl.disable.cache", true);
+
+    TaskLocationHint locationHint = new TaskLocationHint(
+        new HashSet<String>(Arrays.asList(new String[] {"127.0.0.1"})), null);
+    Resource resource = Resource.newInstance(1024, 1);
+
+    NodeId nid = NodeId.newInstance("127.0.0.1", 0);
+    ContainerId contId = ContainerId.newInstance(appAttemptId, 3);
+    Container container = mock(Container.class);
+    when(container.getId()).thenReturn(contId);
+    when(container.getNodeId()).thenReturn(nid);
+    when(container.getNodeHttpAddress()).thenReturn("localhost:0");
+
+    AppContext appCtx = mock(AppContext.class);
+    AMContainerMap containers = new AMContainerMap(
+        mock(ContainerHeartbeatHandler.class), mock(TaskAttemptListener.class),
+        new ContainerContextMatcher(), appCtx);
+    containers.addContainerIfNew(container);
+
+    doReturn(new ClusterInfo()).when(appCtx).getClusterInfo();
+    doReturn(containers).when(appCtx).getAllContainers();
+
+    TaskAttemptImpl taImpl = new MockTaskAttemptImpl(taskID, 1, eventHandler,
+        taListener, taskConf, new SystemClock(),
+        mock(TaskHeartbeatHandler.class), appCtx, locationHint, false,
+        resource, createFakeContainerContext(), false);
+
+    taImpl.handle(new TaskAttemptEventSchedule(taskAttemptID, null));
+    taImpl.handle(new TaskAttemptEventStartedRemotely(taskAttemptID, contId,
+        null));
+    assertEquals(TaskAttemptState.RUNNING, taImpl.getState());
+    assertFalse(taImpl.pollFullCountersRequest());
+
+    // changed counters without earlier full counters are dropped and all
+    // counters are requested from the task
+    TezCounters changedCounters = new TezCounters();
+    changedCounters.findCounter(TaskCounter.INPUT_RECORDS).increment(5);
+    taImpl.handle(new TaskAttemptEventStatusUpdate(taskAttemptID,
+        new TaskStatusUpdateEvent(changedCounters, 0.1f, true)));
+    assertEquals(0, taImpl.getCounters().findCounter(
+        TaskCounter.INPUT_RECORDS).getValue());
+    assertTrue(taImpl.pollFullCountersRequest());
+    assertFalse(taImpl.pollFullCountersRequest());
+
+    TezCounters fullCounters = new TezCounters();
+    fullCounters.findCounter(TaskCounter.INPUT_RECORDS).increment(10);
+    fullCounters.findCounter(TaskCounter.OUTPUT_RECORDS).increment(3);
+    taImpl.handle(new TaskAttemptEventStatusUpdate(taskAttemptID,
+        new TaskStatusUpdateEvent(fullCounters, 0.2f)));
+    TezCounters reportedCounters = taImpl.getCounters();
+    assertEquals(10, reportedCounters.findCounter(
+        TaskCounter.INPUT_RECORDS).getValue());
+
+    // changed counters are applied to a copy, readers of the earlier
+    // counters do not see them change
+    changedCounters = new TezCounters();
+    changedCounters.findCounter(TaskCounter.INPUT_RECORDS).increment(20);
+    taImpl.handle(new TaskAttemptEventStatusUpdate(taskAttemptID,
+        new TaskStatusUpdateEvent(changedCounters, 0.3f, true)));
+    TezCounters updatedCounters = taImpl.getCounters();
+    assertNotSame(reportedCounters, updatedCounters);
+    assertEquals(20, updatedCounters.findCounter(
+        TaskCounter.INPUT_RECORDS).getValue());
+    assertEquals(3, updatedCounters.findCounter(
+        TaskCounter.OUTPUT_RECORDS).getValue());
+    assertEquals(10, reportedCounters.findCounter(
+        TaskCounter.INPUT_RECORDS).getValue());
+    assertFalse(taImpl.pollFullCountersRequest());
+
+    // the vertex updates its counters on each state change and status update
+    verify(((MockTaskAttemptImpl) taImpl).mockVertex, times(5))
+        .updateTaskCounters(taskID);
+  }
+
   @Test(timeout = 5000)
   // Ensure ContainerTerminating and ContainerTerminated is handled correctly by
   // the TaskAttempt
@@ -20,6 +20,7 @@ package org.apache.tez.dag.app.dag.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
@@ -27,6 +28,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -55,12 +57,14 @@ import org.apache.tez.dag.app.TaskAttemptListener;
 import org.apache.tez.dag.app.TaskHeartbeatHandler;
 import org.apache.tez.dag.app.dag.TaskStateInternal;
 import org.apache.tez.dag.app.dag.TaskTerminationCause;
+import org.apache.tez.dag.app.dag.TezEventLog;
 import org.apache.tez.dag.app.dag.Vertex;
 import org.apache.tez.dag.app.dag.event.TaskEvent;
 import org.apache.tez.dag.app.dag.event.TaskEventAddTezEvent;
 import org.apache.tez.dag.app.dag.event.TaskEventTAUpdate;
 import org.apache.tez.dag.app.dag.event.TaskEventTermination;
 import org.apache.tez.dag.app.dag.event.TaskEventType;
+import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
 import org.apache.tez.dag.app.dag.event.VertexEventType;
 import org.apache.tez.dag.app.rm.container.AMContainer;
 import org.apache.tez.dag.app.rm.node.AMNodeEvent;
@@ -72,6 +76,7 @@ import org.apache.tez.dag.records.TezTaskID;
 import org.apache.tez.dag.records.TezVertexID;
 import org.apache.tez.runtime.api.events.DataMovementEvent;
 import org.apache.tez.runtime.api.impl.EventMetaData;
+import org.apache.tez.runtime.api.impl.EventType;
 import org.apache.tez.runtime.api.impl.TezEvent;
 import org.junit.Assert;
 import org.junit.Before;
@@ -107,6 +112,7 @@ public class TestTaskImpl {
   private NodeId mockNodeId;
 
   private MockTaskImpl mockTask;
+  private TezEventLog eventLog;
   
   @SuppressWarnings("rawtypes")
   class TestEventHandler implements EventHandler<Event> {
@@ -148,11 +154,12 @@ public class TestTaskImpl {
         environment, javaOpts);
     Vertex vertex = mock(Vertex.class);
     eventHandler = new TestEventHandler();
+    eventLog = new TezEventLog();
     
     mockTask = new MockTaskImpl(vertexId, partition,
         eventHandler, conf, taskAttemptListener, clock,
         taskHeartbeatHandler, appContext, leafVertex, locationHint,
-        taskResource, containerContext, vertex);
+        taskResource, containerContext, vertex, eventLog);
   }
 
   private TezTaskID getNewTaskID() {
@@ -381,6 +388,54 @@ public class TestTaskImpl {
     assertEquals(6, fetchedList.size());
   }
 
+  @Test
+  public void testEventsSharedThroughEventLog() {
+    TezTaskID taskId = getNewTaskID();
+    scheduleTaskAttempt(taskId);
+    sendTezEventsToTask(taskId, 1);
+    TezTaskAttemptID attemptID = mockTask.getAttemptList().iterator().next()
+        .getID();
+
+    // events already appended to the vertex log are referenced by offset
+    TezEvent sharedEvent = new TezEvent(new DataMovementEvent(null),
+        new EventMetaData());
+    int offset = eventLog.append(sharedEvent);
+    mockTask.handle(new TaskEventAddTezEvent(taskId, eventLog,
+        new int[] { offset }));
+
+    List<TezEvent> fetchedList = mockTask.getTaskAttemptTezEvents(attemptID,
+        1, 100);
+    assertEquals(1, fetchedList.size());
+    assertTrue(sharedEvent == fetchedList.get(0));
+    assertEquals(2, eventLog.size());
+
+    TezEventLog newEventLog = new TezEventLog();
+    List<TezEvent> clearedEvents =
+        mockTask.getAndClearTaskTezEvents(newEventLog);
+    assertEquals(2, clearedEvents.size());
+    assertEquals(0,
+        mockTask.getTaskAttemptTezEvents(attemptID, 0, 100).size());
+
+    // an event still in flight from the old log is moved to the new log
+    mockTask.handle(new TaskEventAddTezEvent(taskId, eventLog,
+        new int[] { offset }));
+    assertEquals(1, newEventLog.size());
+    assertEquals(2, eventLog.size());
+    fetchedList = mockTask.getTaskAttemptTezEvents(attemptID, 0, 100);
+    assertEquals(1, fetchedList.size());
+    assertTrue(sharedEvent == fetchedList.get(0));
+
+    // events of the new log are referenced by offset
+    TezEvent newEvent = new TezEvent(new DataMovementEvent(null),
+        new EventMetaData());
+    mockTask.handle(new TaskEventAddTezEvent(taskId, newEventLog,
+        new int[] { newEventLog.append(newEvent) }));
+    assertEquals(2, newEventLog.size());
+    fetchedList = mockTask.getTaskAttemptTezEvents(attemptID, 0, 100);
+    assertEquals(2, fetchedList.size());
+    assertTrue(newEvent == fetchedList.get(1));
+  }
+
   @Test
   public void testTaskProgress() {
     LOG.info("--- START: testTaskProgress ---");
@@ -512,6 +567,56 @@ public class TestTaskImpl {
     Assert.assertEquals(VertexEventType.V_TASK_RESCHEDULED, event.getType());
   }
 
+  @SuppressWarnings("rawtypes")
+  @Test
+  public void testLosingAttemptOutputsObsoleted() {
+    Vertex vertex = mockTask.getVertex();
+    Vertex destVertex = mock(Vertex.class);
+    when(destVertex.getName()).thenReturn("dest");
+    when(vertex.getName()).thenReturn("source");
+    when(vertex.getVertexId()).thenReturn(vertexId);
+    when(vertex.getOutputVertices()).thenReturn(
+        Collections.singletonMap(destVertex, mock(Edge.class)));
+
+    TezTaskID taskId = getNewTaskID();
+    scheduleTaskAttempt(taskId);
+    MockTaskAttemptImpl firstAttempt = mockTask.getLastAttempt();
+    launchTaskAttempt(firstAttempt.getID());
+    firstAttempt.setLaunchTime(clock.getTime());
+    updateAttemptState(firstAttempt, TaskAttemptState.RUNNING);
+
+    // a speculative attempt succeeds first
+    mockTask.handle(new TaskEventTAUpdate(firstAttempt.getID(),
+        TaskEventType.T_ADD_SPEC_ATTEMPT));
+    MockTaskAttemptImpl specAttempt = mockTask.getLastAttempt();
+    launchTaskAttempt(specAttempt.getID());
+    specAttempt.setLaunchTime(clock.getTime());
+    eventHandler.events.clear();
+    updateAttemptState(specAttempt, TaskAttemptState.SUCCEEDED);
+    mockTask.handle(new TaskEventTAUpdate(specAttempt.getID(),
+        TaskEventType.T_ATTEMPT_SUCCEEDED));
+    assertTaskSucceededState();
+
+    // the consumers are told to discard the outputs of the losing attempt
+    VertexEventRouteEvent routeEvent = null;
+    for (Event event : eventHandler.events) {
+      if (event instanceof VertexEventRouteEvent) {
+        routeEvent = (VertexEventRouteEvent) event;
+      }
+    }
+    assertNotNull(routeEvent);
+    assertEquals(vertexId, routeEvent.getVertexId());
+    assertEquals(1, routeEvent.getEvents().size());
+    TezEvent tezEvent = routeEvent.getEvents().get(0);
+    assertEquals(EventType.INPUT_FAILED_EVENT, tezEvent.getEventType());
+    assertEquals(firstAttempt.getID(),
+        tezEvent.getSourceInfo().getTaskAttemptID());
+    assertEquals("dest", tezEvent.getSourceInfo().getEdgeVertexName());
+
+    assertTrue(mockTask.isAttemptOutputObsolete(firstAttempt.getID()));
+    assertFalse(mockTask.isAttemptOutputObsolete(specAttempt.getID()));
+  }
+
   // TODO Add test to validate the correct commit attempt.
 
   @SuppressWarnings("rawtypes")
@@ -525,10 +630,11 @@ public class TestTaskImpl {
         TaskAttemptListener taskAttemptListener, Clock clock,
         TaskHeartbeatHandler thh, AppContext appContext, boolean leafVertex,
         TaskLocationHint locationHint, Resource resource,
-        ContainerContext containerContext, Vertex vertex) {
+        ContainerContext containerContext, Vertex vertex,
+        TezEventLog eventLog) {
       super(vertexId, partition, eventHandler, conf, taskAttemptListener,
           clock, thh, appContext, leafVertex, locationHint, resource,
-          containerContext);
+          containerContext, eventLog);
       this.vertex = vertex;
     }
 
@@ -576,6 +682,7 @@ public class TestTaskImpl {
 
     private float progress = 0;
     private TaskAttemptState state = TaskAttemptState.NEW;
+    private long launchTime = 0;
 
     public MockTaskAttemptImpl(TezTaskID taskId, int attemptNumber,
         EventHandler eventHandler, TaskAttemptListener tal, Configuration conf,
@@ -599,6 +706,15 @@ public class TestTaskImpl {
       this.state = state;
     }
 
+    public void setLaunchTime(long launchTime) {
+      this.launchTime = launchTime;
+    }
+
+    @Override
+    public long getLaunchTime() {
+      return launchTime;
+    }
+
     @Override
     public TaskAttemptState getState() {
       return state;
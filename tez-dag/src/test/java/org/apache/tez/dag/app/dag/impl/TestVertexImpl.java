@@ -54,6 +54,7 @@ import org.apache.hadoop.yarn.event.DrainDispatcher;
 import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.util.Clock;
 import org.apache.hadoop.yarn.util.SystemClock;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.dag.api.DagTypeConverters;
 import org.apache.tez.dag.api.EdgeManager;
 import org.apache.tez.dag.api.EdgeManagerContext;
@@ -98,6 +99,7 @@ import org.apache.tez.dag.app.dag.event.TaskEventType;
 import org.apache.tez.dag.app.dag.event.VertexEvent;
 import org.apache.tez.dag.app.dag.event.VertexEventRootInputFailed;
 import org.apache.tez.dag.app.dag.event.VertexEventRootInputInitialized;
+import org.apache.tez.dag.app.dag.event.VertexEventRouteEvent;
 import org.apache.tez.dag.app.dag.event.VertexEventTaskAttemptCompleted;
 import org.apache.tez.dag.app.dag.event.VertexEventTaskCompleted;
 import org.apache.tez.dag.app.dag.event.VertexEventTaskReschedule;
@@ -106,6 +108,7 @@ import org.apache.tez.dag.app.dag.event.VertexEventType;
 import org.apache.tez.dag.app.dag.impl.DAGImpl.VertexGroupInfo;
 import org.apache.tez.dag.app.rm.TaskSchedulerEventHandler;
 import org.apache.tez.dag.history.HistoryEventHandler;
+import org.apache.tez.dag.library.vertexmanager.PipelinedVertexManager;
 import org.apache.tez.dag.library.vertexmanager.ShuffleVertexManager;
 import org.apache.tez.dag.records.TezDAGID;
 import org.apache.tez.dag.records.TezTaskAttemptID;
@@ -119,7 +122,10 @@ import org.apache.tez.runtime.api.events.InputReadErrorEvent;
 import org.apache.tez.runtime.api.events.RootInputConfigureVertexTasksEvent;
 import org.apache.tez.runtime.api.events.RootInputDataInformationEvent;
 import org.apache.tez.test.EdgeManagerForTest;
+import org.apache.tez.runtime.api.impl.EventMetaData;
+import org.apache.tez.runtime.api.impl.EventMetaData.EventProducerConsumerType;
 import org.apache.tez.runtime.api.impl.GroupInputSpec;
+import org.apache.tez.runtime.api.impl.TezEvent;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -1644,6 +1650,41 @@ public class TestVertexImpl {
         instanceof ShuffleVertexManager);
   }
 
+  @Test(timeout = 5000)
+  public void testPipelinedVertexManagerInit() {
+    setupPreDagCreation();
+    conf.setBoolean(
+        PipelinedVertexManager.TEZ_AM_PIPELINED_VERTEX_MANAGER_ENABLED, true);
+    dagPlan = createTestDAGPlan();
+    setupPostDagCreation();
+    initAllVertices(VertexState.INITED);
+    VertexImpl v2 = vertices.get("vertex2");
+    Assert.assertTrue(v2.getVertexManager().getPlugin()
+        instanceof ImmediateStartVertexManager);
+
+    VertexImpl v6 = vertices.get("vertex6");
+    Assert.assertTrue(v6.getVertexManager().getPlugin()
+        instanceof PipelinedVertexManager);
+  }
+
+  @Test(timeout = 5000)
+  public void testPipelinedVertexManagerWithAutoParallelism() {
+    setupPreDagCreation();
+    conf.setBoolean(
+        PipelinedVertexManager.TEZ_AM_PIPELINED_VERTEX_MANAGER_ENABLED, true);
+    conf.setBoolean(
+        ShuffleVertexManager.TEZ_AM_SHUFFLE_VERTEX_MANAGER_ENABLE_AUTO_PARALLEL,
+        true);
+    dagPlan = createTestDAGPlan();
+    setupPostDagCreation();
+    initAllVertices(VertexState.INITED);
+
+    // only the ShuffleVertexManager can change the parallelism
+    VertexImpl v6 = vertices.get("vertex6");
+    Assert.assertTrue(v6.getVertexManager().getPlugin()
+        instanceof ShuffleVertexManager);
+  }
+
   @SuppressWarnings("unchecked")
   @Test(timeout = 5000)
   public void testVertexTaskFailure() {
@@ -1691,9 +1732,111 @@ public class TestVertexImpl {
     Assert.assertEquals(1, v6.getDistanceFromRoot());
   }
 
+  @SuppressWarnings("unchecked")
   @Test(timeout = 5000)
   public void testCounters() {
-    // FIXME need to test counters at vertex level
+    initAllVertices(VertexState.INITED);
+
+    VertexImpl v = vertices.get("vertex2");
+    startVertex(v);
+
+    TezTaskID t1 = TezTaskID.getInstance(v.getVertexId(), 0);
+    TezTaskID t2 = TezTaskID.getInstance(v.getVertexId(), 1);
+    Task task1 = mock(Task.class);
+    Task task2 = mock(Task.class);
+    doReturn(t1).when(task1).getTaskId();
+    doReturn(t2).when(task2).getTaskId();
+    v.tasks.put(t1, task1);
+    v.tasks.put(t2, task2);
+    doReturn(createCounters(1)).when(task1).getCounters();
+    doReturn(createCounters(2)).when(task2).getCounters();
+    v.updateTaskCounters(t1);
+    v.updateTaskCounters(t2);
+
+    TezCounters counters = v.getAllCounters();
+    Assert.assertEquals(3, counters.findCounter("group", "counter").getValue());
+    // the snapshot is reused while the counters of the tasks do not change
+    v.updateTaskCounters(t1);
+    Assert.assertSame(counters, v.getAllCounters());
+
+    // an attempt reports new counters, only the difference is applied
+    doReturn(createCounters(5)).when(task1).getCounters();
+    v.updateTaskCounters(t1);
+    Assert.assertEquals(7, v.getAllCounters().findCounter("group", "counter")
+        .getValue());
+    // handed out snapshots are not modified
+    Assert.assertEquals(3, counters.findCounter("group", "counter").getValue());
+
+    // another attempt counts for the task, e.g. the best attempt failed
+    doReturn(createCounters(4)).when(task1).getCounters();
+    v.updateTaskCounters(t1);
+    Assert.assertEquals(6, v.getAllCounters().findCounter("group", "counter")
+        .getValue());
+
+    dispatcher.getEventHandler().handle(
+        new VertexEventTaskCompleted(t1, TaskState.SUCCEEDED));
+    dispatcher.await();
+    Assert.assertEquals(VertexState.RUNNING, v.getState());
+    Assert.assertEquals(6, v.getAllCounters().findCounter("group", "counter")
+        .getValue());
+
+    // the counters of the finished vertex are built from its tasks
+    doReturn(createCounters(20)).when(task2).getCounters();
+    dispatcher.getEventHandler().handle(
+        new VertexEventTaskCompleted(t2, TaskState.SUCCEEDED));
+    dispatcher.await();
+    Assert.assertEquals(VertexState.SUCCEEDED, v.getState());
+    Assert.assertEquals(24, v.getAllCounters().findCounter("group", "counter")
+        .getValue());
+  }
+
+  private static TezCounters createCounters(long value) {
+    TezCounters counters = new TezCounters();
+    counters.findCounter("group", "counter").increment(value);
+    return counters;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(timeout = 5000)
+  public void testDataMovementEventsFromObsoleteAttemptDropped() {
+    initAllVertices(VertexState.INITED);
+    VertexImpl v3 = vertices.get("vertex3");
+    final TezVertexID v4Id = vertices.get("vertex4").getVertexId();
+    final List<TezEvent> routedToV4 =
+        Collections.synchronizedList(new ArrayList<TezEvent>());
+    dispatcher.register(VertexEventType.class,
+        new EventHandler<VertexEvent>() {
+          @Override
+          public void handle(VertexEvent event) {
+            if (event.getType() == VertexEventType.V_ROUTE_EVENT
+                && event.getVertexId().equals(v4Id)) {
+              routedToV4.addAll(((VertexEventRouteEvent) event).getEvents());
+            }
+          }
+        });
+
+    TezTaskID taskId = TezTaskID.getInstance(v3.getVertexId(), 0);
+    TezTaskAttemptID obsoleteAttemptId =
+        TezTaskAttemptID.getInstance(taskId, 0);
+    TezTaskAttemptID liveAttemptId = TezTaskAttemptID.getInstance(taskId, 1);
+    Task task = mock(Task.class);
+    when(task.isAttemptOutputObsolete(obsoleteAttemptId)).thenReturn(true);
+    v3.tasks.put(taskId, task);
+
+    List<TezEvent> events = new ArrayList<TezEvent>();
+    for (TezTaskAttemptID attemptId :
+        Arrays.asList(obsoleteAttemptId, liveAttemptId)) {
+      events.add(new TezEvent(new DataMovementEvent(0, null),
+          new EventMetaData(EventProducerConsumerType.OUTPUT, "vertex3",
+              "vertex4", attemptId)));
+    }
+    dispatcher.getEventHandler().handle(
+        new VertexEventRouteEvent(v3.getVertexId(), events));
+    dispatcher.await();
+
+    Assert.assertEquals(1, routedToV4.size());
+    Assert.assertEquals(liveAttemptId,
+        routedToV4.get(0).getSourceInfo().getTaskAttemptID());
   }
 
   @Test(timeout = 5000)
@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app.launcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.ContainerManagementProtocol;
+import org.apache.hadoop.yarn.api.protocolrecords.StartContainersRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.StartContainersResponse;
+import org.apache.hadoop.yarn.api.protocolrecords.StopContainersRequest;
+import org.apache.hadoop.yarn.api.protocolrecords.StopContainersResponse;
+import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.api.records.Container;
+import org.apache.hadoop.yarn.api.records.ContainerId;
+import org.apache.hadoop.yarn.api.records.ContainerLaunchContext;
+import org.apache.hadoop.yarn.api.records.NodeId;
+import org.apache.hadoop.yarn.api.records.SerializedException;
+import org.apache.hadoop.yarn.api.records.Token;
+import org.apache.hadoop.yarn.client.api.impl.ContainerManagementProtocolProxy.ContainerManagementProtocolProxyData;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.util.SystemClock;
+import org.apache.tez.dag.app.AppContext;
+import org.apache.tez.dag.app.rm.NMCommunicatorLaunchRequestEvent;
+import org.apache.tez.dag.app.rm.NMCommunicatorStopRequestEvent;
+import org.apache.tez.dag.app.rm.container.AMContainerEvent;
+import org.apache.tez.dag.app.rm.container.AMContainerEventType;
+import org.apache.tez.dag.app.rm.node.AMNodeMap;
+import org.apache.tez.dag.history.HistoryEventHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@SuppressWarnings("rawtypes")
+public class TestContainerLauncherImpl {
+
+  private final List<Event> events = new ArrayList<Event>();
+  private final Map<String, ContainerManagementProtocol> nmProtocols =
+      new HashMap<String, ContainerManagementProtocol>();
+  private ApplicationAttemptId appAttemptId;
+  private ContainerLauncherForTest launcher;
+
+  private class ContainerLauncherForTest extends ContainerLauncherImpl {
+
+    ContainerLauncherForTest(AppContext context) {
+      super(context);
+    }
+
+    @Override
+    protected ContainerManagementProtocolProxyData getCMProxy(
+        ContainerId containerID, String containerManagerBindAddr,
+        Token containerToken) throws IOException {
+      ContainerManagementProtocolProxyData proxy =
+          mock(ContainerManagementProtocolProxyData.class);
+      when(proxy.getContainerManagementProtocol()).thenReturn(
+          nmProtocols.get(containerManagerBindAddr));
+      return proxy;
+    }
+
+    @Override
+    protected void releaseCMProxy(ContainerManagementProtocolProxyData proxy) {
+    }
+  }
+
+  @Before
+  public void setup() {
+    appAttemptId = ApplicationAttemptId.newInstance(
+        ApplicationId.newInstance(1000, 1), 1);
+    AppContext context = mock(AppContext.class);
+    when(context.getClock()).thenReturn(new SystemClock());
+    when(context.getAllNodes()).thenReturn(mock(AMNodeMap.class));
+    when(context.getApplicationAttemptId()).thenReturn(appAttemptId);
+    when(context.getHistoryHandler()).thenReturn(
+        mock(HistoryEventHandler.class));
+    when(context.getEventHandler()).thenReturn(new EventHandler() {
+      @Override
+      public void handle(Event event) {
+        synchronized (events) {
+          events.add(event);
+          events.notifyAll();
+        }
+      }
+    });
+    launcher = new ContainerLauncherForTest(context);
+    launcher.init(new Configuration(false));
+  }
+
+  @After
+  public void teardown() {
+    launcher.stop();
+  }
+
+  @Test(timeout = 10000)
+  public void testLaunchAndStopGroupedByNode() throws Exception {
+    ContainerManagementProtocol nm1 = addNode("host1:0");
+    ContainerManagementProtocol nm2 = addNode("host2:0");
+    Container c1 = createContainer(1, "host1");
+    Container c2 = createContainer(2, "host1");
+    Container c3 = createContainer(3, "host2");
+    Container c4 = createContainer(4, "host1");
+
+    // queued before the launcher starts, so they are taken in one drain
+    launcher.handle(createLaunchEvent(c1));
+    launcher.handle(createLaunchEvent(c2));
+    launcher.handle(createLaunchEvent(c3));
+    launcher.handle(createLaunchEvent(c4));
+    launcher.start();
+
+    ArgumentCaptor<StartContainersRequest> startCaptor =
+        ArgumentCaptor.forClass(StartContainersRequest.class);
+    verify(nm1, timeout(5000)).startContainers(startCaptor.capture());
+    assertEquals(3, startCaptor.getValue().getStartContainerRequests().size());
+    verify(nm2, timeout(5000)).startContainers(startCaptor.capture());
+    assertEquals(1, startCaptor.getValue().getStartContainerRequests().size());
+    waitForEvents(4);
+    assertEquals(4, countEvents(AMContainerEventType.C_LAUNCHED));
+
+    launcher.handle(createStopEvent(c1));
+    launcher.handle(createStopEvent(c2));
+    launcher.handle(createStopEvent(c3));
+    ArgumentCaptor<StopContainersRequest> stopCaptor =
+        ArgumentCaptor.forClass(StopContainersRequest.class);
+    verify(nm2, timeout(5000)).stopContainers(stopCaptor.capture());
+    assertEquals(Collections.singletonList(c3.getId()),
+        stopCaptor.getValue().getContainerIds());
+    waitForEvents(7);
+    assertEquals(3, countEvents(AMContainerEventType.C_NM_STOP_SENT));
+    // the stops of host1 may or may not have been drained together
+    List<ContainerId> stoppedOnNode1 = new ArrayList<ContainerId>();
+    ArgumentCaptor<StopContainersRequest> node1StopCaptor =
+        ArgumentCaptor.forClass(StopContainersRequest.class);
+    verify(nm1, atLeastOnce()).stopContainers(
+        node1StopCaptor.capture());
+    for (StopContainersRequest request : node1StopCaptor.getAllValues()) {
+      stoppedOnNode1.addAll(request.getContainerIds());
+    }
+    assertEquals(2, stoppedOnNode1.size());
+    assertTrue(stoppedOnNode1.contains(c1.getId()));
+    assertTrue(stoppedOnNode1.contains(c2.getId()));
+  }
+
+  @Test(timeout = 10000)
+  public void testStopWhileLaunching() throws Exception {
+    ContainerManagementProtocol nm = addNode("host1:0");
+    final CountDownLatch launchStarted = new CountDownLatch(1);
+    final CountDownLatch finishLaunch = new CountDownLatch(1);
+    final StartContainersResponse startResponse =
+        mock(StartContainersResponse.class);
+    when(nm.startContainers(any(StartContainersRequest.class))).thenAnswer(
+        new Answer<StartContainersResponse>() {
+          @Override
+          public StartContainersResponse answer(InvocationOnMock invocation)
+              throws InterruptedException {
+            launchStarted.countDown();
+            finishLaunch.await();
+            return startResponse;
+          }
+        });
+    Container c1 = createContainer(1, "host1");
+    launcher.start();
+
+    launcher.handle(createLaunchEvent(c1));
+    launchStarted.await();
+    // the stop waits for the launch in flight
+    launcher.handle(createStopEvent(c1));
+    verify(nm, never()).stopContainers(any(StopContainersRequest.class));
+    assertEquals(0, countEvents(AMContainerEventType.C_NM_STOP_SENT));
+
+    finishLaunch.countDown();
+    verify(nm, timeout(5000)).stopContainers(any(StopContainersRequest.class));
+    waitForEvents(2);
+    synchronized (events) {
+      assertEquals(AMContainerEventType.C_LAUNCHED, events.get(0).getType());
+      assertEquals(AMContainerEventType.C_NM_STOP_SENT,
+          events.get(1).getType());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testLaunchFailureInBatch() throws Exception {
+    ContainerManagementProtocol nm = addNode("host1:0");
+    Container c1 = createContainer(1, "host1");
+    Container c2 = createContainer(2, "host1");
+    Container c3 = createContainer(3, "host1");
+    Map<ContainerId, SerializedException> failedRequests =
+        new HashMap<ContainerId, SerializedException>();
+    failedRequests.put(c2.getId(),
+        SerializedException.newInstance(new IOException("launch failed")));
+    StartContainersResponse startResponse =
+        mock(StartContainersResponse.class);
+    when(startResponse.getFailedRequests()).thenReturn(failedRequests);
+    when(nm.startContainers(any(StartContainersRequest.class))).thenReturn(
+        startResponse);
+
+    launcher.handle(createLaunchEvent(c1));
+    launcher.handle(createLaunchEvent(c2));
+    launcher.handle(createLaunchEvent(c3));
+    launcher.start();
+
+    waitForEvents(3);
+    verify(nm).startContainers(any(StartContainersRequest.class));
+    Map<ContainerId, AMContainerEventType> eventTypes =
+        new HashMap<ContainerId, AMContainerEventType>();
+    synchronized (events) {
+      for (Event event : events) {
+        eventTypes.put(((AMContainerEvent) event).getContainerId(),
+            ((AMContainerEvent) event).getType());
+      }
+    }
+    assertEquals(AMContainerEventType.C_LAUNCHED, eventTypes.get(c1.getId()));
+    assertEquals(AMContainerEventType.C_LAUNCH_FAILED,
+        eventTypes.get(c2.getId()));
+    assertEquals(AMContainerEventType.C_LAUNCHED, eventTypes.get(c3.getId()));
+  }
+
+  private ContainerManagementProtocol addNode(String nodeAddress)
+      throws Exception {
+    ContainerManagementProtocol nm = mock(ContainerManagementProtocol.class);
+    when(nm.startContainers(any(StartContainersRequest.class))).thenReturn(
+        mock(StartContainersResponse.class));
+    when(nm.stopContainers(any(StopContainersRequest.class))).thenReturn(
+        mock(StopContainersResponse.class));
+    nmProtocols.put(nodeAddress, nm);
+    return nm;
+  }
+
+  private Container createContainer(int id, String host) {
+    Container container = mock(Container.class);
+    when(container.getId()).thenReturn(ContainerId.newInstance(appAttemptId,
+        id));
+    when(container.getNodeId()).thenReturn(NodeId.newInstance(host, 0));
+    return container;
+  }
+
+  private NMCommunicatorLaunchRequestEvent createLaunchEvent(
+      Container container) {
+    return new NMCommunicatorLaunchRequestEvent(
+        mock(ContainerLaunchContext.class), container);
+  }
+
+  private NMCommunicatorStopRequestEvent createStopEvent(Container container) {
+    return new NMCommunicatorStopRequestEvent(container.getId(),
+        container.getNodeId(), null);
+  }
+
+  private void waitForEvents(int numEvents) throws InterruptedException {
+    synchronized (events) {
+      while (events.size() < numEvents) {
+        events.wait();
+      }
+    }
+  }
+
+  private int countEvents(AMContainerEventType type) {
+    int count = 0;
+    synchronized (events) {
+      for (Event event : events) {
+        if (event.getType() == type) {
+          ++count;
+        }
+      }
+    }
+    return count;
+  }
+}
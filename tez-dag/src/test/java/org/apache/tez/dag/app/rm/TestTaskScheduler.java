@@ -18,33 +18,33 @@
 
 package org.apache.tez.dag.app.rm;
 
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.yarn.api.protocolrecords.RegisterApplicationMasterResponse;
 import org.apache.hadoop.yarn.api.records.ApplicationAccessType;
 import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
@@ -53,6 +53,7 @@ import org.apache.hadoop.yarn.api.records.Container;
 import org.apache.hadoop.yarn.api.records.ContainerId;
 import org.apache.hadoop.yarn.api.records.ContainerStatus;
 import org.apache.hadoop.yarn.api.records.FinalApplicationStatus;
+import org.apache.hadoop.yarn.api.records.LocalResource;
 import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.api.records.NodeReport;
 import org.apache.hadoop.yarn.api.records.Priority;
@@ -72,6 +73,7 @@ import org.apache.tez.dag.app.rm.TestTaskSchedulerHelpers.TaskSchedulerAppCallba
 import org.apache.tez.dag.app.rm.TestTaskSchedulerHelpers.TaskSchedulerWithDrainableAppCallback;
 import org.apache.tez.dag.app.rm.TestTaskSchedulerHelpers.AlwaysMatchesContainerMatcher;
 import org.apache.tez.dag.app.rm.TestTaskSchedulerHelpers.PreemptionMatcher;
+import org.apache.tez.dag.app.rm.container.ContainerSignatureMatcher;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -79,6 +81,8 @@ import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.google.common.collect.Lists;
+
 
 public class TestTaskScheduler {
 
@@ -201,102 +205,30 @@ public class TestTaskScheduler {
     List<Container> containers = new ArrayList<Container>();
     Container mockContainer1 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer1.getNodeId().getHost()).thenReturn("host1");
+    when(mockContainer1.getPriority()).thenReturn(mockPriority);
     ContainerId mockCId1 = mock(ContainerId.class);
     when(mockContainer1.getId()).thenReturn(mockCId1);
     containers.add(mockContainer1);
     Container mockContainer2 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer2.getNodeId().getHost()).thenReturn("host2");
+    when(mockContainer2.getPriority()).thenReturn(mockPriority);
     ContainerId mockCId2 = mock(ContainerId.class);
     when(mockContainer2.getId()).thenReturn(mockCId2);
     containers.add(mockContainer2);
     Container mockContainer3 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer3.getNodeId().getHost()).thenReturn("host3");
+    when(mockContainer3.getPriority()).thenReturn(mockPriority);
     ContainerId mockCId3 = mock(ContainerId.class);
     when(mockContainer3.getId()).thenReturn(mockCId3);
     containers.add(mockContainer3);
     Container mockContainer4 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer4.getNodeId().getHost()).thenReturn("host4");
+    when(mockContainer4.getPriority()).thenReturn(mockPriority);
     ContainerId mockCId4 = mock(ContainerId.class);
     when(mockContainer4.getId()).thenReturn(mockCId4);
     containers.add(mockContainer4);
-    ArrayList<CookieContainerRequest> hostContainers =
-                             new ArrayList<CookieContainerRequest>();
-    hostContainers.add(request1);
-    hostContainers.add(request2);
-    hostContainers.add(request3);
-    ArrayList<CookieContainerRequest> rackContainers =
-                             new ArrayList<CookieContainerRequest>();
-    rackContainers.add(request2);
-    rackContainers.add(request3);
-    ArrayList<CookieContainerRequest> anyContainers =
-                             new ArrayList<CookieContainerRequest>();
-    anyContainers.add(request3);
-
-    final List<ArrayList<CookieContainerRequest>> hostList =
-                        new LinkedList<ArrayList<CookieContainerRequest>>();
-    hostList.add(hostContainers);
-    final List<ArrayList<CookieContainerRequest>> rackList =
-                        new LinkedList<ArrayList<CookieContainerRequest>>();
-    rackList.add(rackContainers);
-    final List<ArrayList<CookieContainerRequest>> anyList =
-                        new LinkedList<ArrayList<CookieContainerRequest>>();
-    anyList.add(anyContainers);
-    final List<ArrayList<CookieContainerRequest>> emptyList =
-                        new LinkedList<ArrayList<CookieContainerRequest>>();
-    // return all requests for host1
-    when(
-        mockRMClient.getMatchingRequests((Priority) any(), eq("host1"),
-            (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return hostList;
-          }
-
-        });
-    // first request matched by host
-    // second request matched to rack. RackResolver by default puts hosts in
-    // /default-rack. We need to workaround by returning rack matches only once
-    when(
-        mockRMClient.getMatchingRequests((Priority) any(), eq("/default-rack"),
-            (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return rackList;
-          }
-
-        }).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
-    // third request matched to ANY
-    when(
-        mockRMClient.getMatchingRequests((Priority) any(),
-            eq(ResourceRequest.ANY), (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return anyList;
-          }
-
-        }).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
+    // first request matched by host, the other two by rack since
+    // RackResolver by default puts all hosts in /default-rack
     scheduler.onContainersAllocated(containers);
     drainableAppCallback.drain();
     // first container allocated
@@ -310,6 +242,11 @@ public class TestTaskScheduler {
     verify(mockRMClient).removeContainerRequest(request3);
     // verify unwanted container released
     verify(mockRMClient).releaseAssignedContainer(mockCId4);
+    MetricsRecordBuilder rb = getMetrics(scheduler);
+    assertCounter("NodeLocalSchedulingLatencyNumOps", 1L, rb);
+    assertCounter("RackLocalSchedulingLatencyNumOps", 2L, rb);
+    assertCounter("NonLocalSchedulingLatencyNumOps", 0L, rb);
+    assertEquals(4L, getLongCounter("LockHoldTimeNumOps", rb));
 
     // deallocate allocated task
     assertTrue(scheduler.deallocateTask(mockTask1, true));
@@ -321,6 +258,7 @@ public class TestTaskScheduler {
     drainableAppCallback.drain();
     verify(mockRMClient).releaseAssignedContainer(mockCId2);
     verify(mockRMClient, times(3)).releaseAssignedContainer((ContainerId) any());
+    assertTrue(getLongCounter("LockHoldTimeNumOps", getMetrics(scheduler)) > 4);
 
     List<ContainerStatus> statuses = new ArrayList<ContainerStatus>();
     ContainerStatus mockStatus1 = mock(ContainerStatus.class);
@@ -360,35 +298,14 @@ public class TestTaskScheduler {
         null, mockPriority, null, mockCookie4);
     drainableAppCallback.drain();
     verify(mockRMClient, times(5)).addContainerRequest(requestCaptor.capture());
-    CookieContainerRequest request4 = requestCaptor.getValue();
-    anyContainers.clear();
-    anyContainers.add(request4);
     Container mockContainer5 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer5.getNodeId().getHost()).thenReturn(badHost);
     when(mockContainer5.getNodeId()).thenReturn(badNodeId);
     ContainerId mockCId5 = mock(ContainerId.class);
     when(mockContainer5.getId()).thenReturn(mockCId5);
+    when(mockContainer5.getPriority()).thenReturn(mockPriority);
     containers.clear();
     containers.add(mockContainer5);
-    when(
-        mockRMClient.getMatchingRequests((Priority) any(),
-            eq(ResourceRequest.ANY), (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return anyList;
-          }
-
-        }).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
     scheduler.onContainersAllocated(containers);
     drainableAppCallback.drain();
     // no new allocation
@@ -398,34 +315,13 @@ public class TestTaskScheduler {
     verify(mockRMClient, times(4)).releaseAssignedContainer((ContainerId) any());
     // verify request added back
     verify(mockRMClient, times(6)).addContainerRequest(requestCaptor.capture());
-    CookieContainerRequest request5 = requestCaptor.getValue();
-    anyContainers.clear();
-    anyContainers.add(request5);
     Container mockContainer6 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer6.getNodeId().getHost()).thenReturn("host7");
     ContainerId mockCId6 = mock(ContainerId.class);
     when(mockContainer6.getId()).thenReturn(mockCId6);
+    when(mockContainer6.getPriority()).thenReturn(mockPriority);
     containers.clear();
     containers.add(mockContainer6);
-    when(
-        mockRMClient.getMatchingRequests((Priority) any(),
-            eq(ResourceRequest.ANY), (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return anyList;
-          }
-
-        }).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
     scheduler.onContainersAllocated(containers);
     drainableAppCallback.drain();
     // new allocation
@@ -581,85 +477,8 @@ public class TestTaskScheduler {
     when(mockContainer3.getId()).thenReturn(mockCId3);
     containers.add(mockContainer3);
 
-    ArrayList<CookieContainerRequest> hostContainers =
-                             new ArrayList<CookieContainerRequest>();
-    hostContainers.add(request1);
-    hostContainers.add(request2);
-    hostContainers.add(request3);
-    ArrayList<CookieContainerRequest> rackContainers =
-                             new ArrayList<CookieContainerRequest>();
-    rackContainers.add(request2);
-    rackContainers.add(request3);
-    ArrayList<CookieContainerRequest> anyContainers =
-                             new ArrayList<CookieContainerRequest>();
-    anyContainers.add(request3);
-
-    final List<ArrayList<CookieContainerRequest>> hostList =
-                        new LinkedList<ArrayList<CookieContainerRequest>>();
-    hostList.add(hostContainers);
-    final List<ArrayList<CookieContainerRequest>> rackList =
-                        new LinkedList<ArrayList<CookieContainerRequest>>();
-    rackList.add(rackContainers);
-    final List<ArrayList<CookieContainerRequest>> anyList =
-                        new LinkedList<ArrayList<CookieContainerRequest>>();
-    anyList.add(anyContainers);
-    final List<ArrayList<CookieContainerRequest>> emptyList =
-                        new LinkedList<ArrayList<CookieContainerRequest>>();
-    // return all requests for host1
-    when(
-        mockRMClient.getMatchingRequestsForTopPriority(eq("host1"),
-            (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return hostList;
-          }
-
-        });
-    // first request matched by host
-    // second request matched to rack. RackResolver by default puts hosts in
-    // /default-rack. We need to workaround by returning rack matches only once
-    when(
-        mockRMClient.getMatchingRequestsForTopPriority(eq("/default-rack"),
-            (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return rackList;
-          }
-
-        }).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
-    // third request matched to ANY
-    when(
-        mockRMClient.getMatchingRequestsForTopPriority(
-            eq(ResourceRequest.ANY), (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return anyList;
-          }
-
-        }).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
-    
+    // first request matched by host, the other two by rack since
+    // RackResolver by default puts all hosts in /default-rack
     final AtomicInteger count = new AtomicInteger(0);
     Mockito.doAnswer(new Answer() {
       public Object answer(InvocationOnMock invocation) {
@@ -754,9 +573,6 @@ public class TestTaskScheduler {
         null, mockPriority4, null, mockCookie4);
     drainableAppCallback.drain();
     verify(mockRMClient, times(4)).addContainerRequest(requestCaptor.capture());
-    CookieContainerRequest request4 = requestCaptor.getValue();
-    anyContainers.clear();
-    anyContainers.add(request4);
     Container mockContainer5 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer5.getNodeId().getHost()).thenReturn(badHost);
     when(mockContainer5.getNodeId()).thenReturn(badNodeId);
@@ -765,25 +581,6 @@ public class TestTaskScheduler {
     when(mockContainer5.getPriority()).thenReturn(mockPriority4);
     containers.clear();
     containers.add(mockContainer5);
-    when(
-        mockRMClient.getMatchingRequestsForTopPriority(
-            eq(ResourceRequest.ANY), (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return anyList;
-          }
-
-        }).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
     drainNotifier.set(false);
     scheduler.onContainersAllocated(containers);
     TestTaskSchedulerHelpers.waitForDelayedDrainNotify(drainNotifier);
@@ -795,34 +592,12 @@ public class TestTaskScheduler {
     verify(mockRMClient, times(4)).releaseAssignedContainer((ContainerId) any());
     // verify request added back
     verify(mockRMClient, times(5)).addContainerRequest(requestCaptor.capture());
-    CookieContainerRequest request5 = requestCaptor.getValue();
-    anyContainers.clear();
-    anyContainers.add(request5);
     Container mockContainer6 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer6.getNodeId().getHost()).thenReturn("host7");
     ContainerId mockCId6 = mock(ContainerId.class);
     when(mockContainer6.getId()).thenReturn(mockCId6);
     containers.clear();
     containers.add(mockContainer6);
-    when(
-        mockRMClient.getMatchingRequestsForTopPriority(
-            eq(ResourceRequest.ANY), (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return anyList;
-          }
-
-        }).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
     drainNotifier.set(false);
     scheduler.onContainersAllocated(containers);
     TestTaskSchedulerHelpers.waitForDelayedDrainNotify(drainNotifier);
@@ -928,8 +703,6 @@ public class TestTaskScheduler {
 
     ArgumentCaptor<CookieContainerRequest> requestCaptor =
         ArgumentCaptor.forClass(CookieContainerRequest.class);
-    final ArrayList<CookieContainerRequest> anyContainers =
-        new ArrayList<CookieContainerRequest>();
 
     
     Resource taskAsk = Resource.newInstance(1024, 1);
@@ -938,20 +711,17 @@ public class TestTaskScheduler {
     drainableAppCallback.drain();
     verify(mockRMClient, times(1)).
         addContainerRequest(requestCaptor.capture());
-    anyContainers.add(requestCaptor.getValue());
     scheduler.allocateTask(mockTask3, taskAsk, null,
                            null, pri6, obj3, null);
     drainableAppCallback.drain();
     verify(mockRMClient, times(2)).
     addContainerRequest(requestCaptor.capture());
-    anyContainers.add(requestCaptor.getValue());
     // later one in the allocation gets killed between the two task3's
     scheduler.allocateTask(mockTask3Kill, taskAsk, null,
                            null, pri6, obj3, null);
     drainableAppCallback.drain();
     verify(mockRMClient, times(3)).
     addContainerRequest(requestCaptor.capture());
-    anyContainers.add(requestCaptor.getValue());
 
     Resource freeResource = Resource.newInstance(500, 0);
     when(mockRMClient.getAvailableResources()).thenReturn(freeResource);
@@ -960,12 +730,6 @@ public class TestTaskScheduler {
     Assert.assertEquals(totalResource, scheduler.getTotalResources());
     verify(mockRMClient, times(0)).releaseAssignedContainer((ContainerId)any());
 
-    final List<ArrayList<CookieContainerRequest>> anyList =
-        new LinkedList<ArrayList<CookieContainerRequest>>();
-    final List<ArrayList<CookieContainerRequest>> emptyList =
-        new LinkedList<ArrayList<CookieContainerRequest>>();
-
-    anyList.add(anyContainers);
     List<Container> containers = new ArrayList<Container>();
     Container mockContainer1 = mock(Container.class, RETURNS_DEEP_STUBS);
     when(mockContainer1.getNodeId().getHost()).thenReturn("host1");
@@ -988,46 +752,6 @@ public class TestTaskScheduler {
     ContainerId mockCId3 = mock(ContainerId.class);
     when(mockContainer3.getId()).thenReturn(mockCId3);
     containers.add(mockContainer3);
-    when(
-        mockRMClient.getMatchingRequests((Priority) any(), eq("host1"),
-            (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
-    // RackResolver by default puts hosts in default-rack
-    when(
-        mockRMClient.getMatchingRequests((Priority) any(), eq("/default-rack"),
-            (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            return emptyList;
-          }
-
-        });
-    when(
-        mockRMClient.getMatchingRequests((Priority) any(),
-            eq(ResourceRequest.ANY), (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-          int calls = 0;
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            if(calls > 0) {
-              anyContainers.remove(0);
-            }
-            calls++;
-            return anyList;
-          }
-
-        });
-    
     Mockito.doAnswer(new Answer() {
       public Object answer(InvocationOnMock invocation) {
           Object[] args = invocation.getArguments();
@@ -1143,66 +867,12 @@ public class TestTaskScheduler {
     allocatedContainers.add(containerHost3);
     allocatedContainers.add(containerHost1);
 
-    final Map<String, List<CookieContainerRequest>> matchingMap = new HashMap<String, List<CookieContainerRequest>>();
     taskScheduler.allocateTask(mockTask1, resource, hostsTask1, defaultRack,
         priority, null, mockCookie1);
     drainableAppCallback.drain();
-
-    List<CookieContainerRequest> host1List = new ArrayList<CookieContainerRequest>();
-    host1List.add(mockCookie1);
-    List<CookieContainerRequest> defaultRackList = new ArrayList<CookieContainerRequest>();
-    defaultRackList.add(mockCookie1);
-    matchingMap.put(hostsTask1[0], host1List);
-    matchingMap.put(defaultRack[0], defaultRackList);
-
-    List<CookieContainerRequest> nonAllocatedHostList = new ArrayList<TaskScheduler.CookieContainerRequest>();
-    nonAllocatedHostList.add(mockCookie2);
-    List<CookieContainerRequest> otherRackList = new ArrayList<TaskScheduler.CookieContainerRequest>();
-    otherRackList.add(mockCookie2);
     taskScheduler.allocateTask(mockTask2, resource, hostsTask2, otherRack,
         priority, null, mockCookie2);
     drainableAppCallback.drain();
-    matchingMap.put(hostsTask2[0], nonAllocatedHostList);
-    matchingMap.put(otherRack[0], otherRackList);
-
-    List<CookieContainerRequest> anyList = new LinkedList<TaskScheduler.CookieContainerRequest>();
-    anyList.add(mockCookie1);
-    anyList.add(mockCookie2);
-
-    matchingMap.put(ResourceRequest.ANY, anyList);
-
-    final List<ArrayList<CookieContainerRequest>> emptyList = new LinkedList<ArrayList<CookieContainerRequest>>();
-
-    when(
-        amrmClient.getMatchingRequests((Priority) any(), anyString(),
-            (Resource) any())).thenAnswer(
-        new Answer<List<? extends Collection<CookieContainerRequest>>>() {
-
-          @Override
-          public List<? extends Collection<CookieContainerRequest>> answer(
-              InvocationOnMock invocation) throws Throwable {
-            String location = (String) invocation.getArguments()[1];
-            if (matchingMap.get(location) != null) {
-              CookieContainerRequest matched = matchingMap.get(location).get(0);
-              // Remove matched from matchingMap - assuming TaskScheduler will
-              // pick the first entry.
-              Iterator<Entry<String, List<CookieContainerRequest>>> iter = matchingMap
-                  .entrySet().iterator();
-              while (iter.hasNext()) {
-                Entry<String, List<CookieContainerRequest>> entry = iter.next();
-                if (entry.getValue().remove(matched)) {
-                  if (entry.getValue().size() == 0) {
-                    iter.remove();
-                  }
-                }
-              }
-              return Collections.singletonList(Collections
-                  .singletonList(matched));
-            } else {
-              return emptyList;
-            }
-          }
-        });
 
     taskScheduler.onContainersAllocated(allocatedContainers);
     drainableAppCallback.drain();
@@ -1235,6 +905,311 @@ public class TestTaskScheduler {
     taskScheduler.close();
   }
 
+  @SuppressWarnings("unchecked")
+  @Test(timeout=5000)
+  public void testSessionMinHeldContainersSpreadAcrossNodes() {
+    TaskSchedulerAppCallback appClient = mock(TaskSchedulerAppCallback.class);
+    TezAMRMClientAsync<CookieContainerRequest> amrmClient =
+      mock(TezAMRMClientAsync.class);
+    AppContext mockAppContext = mock(AppContext.class);
+    when(mockAppContext.isSession()).thenReturn(true);
+
+    TaskSchedulerWithDrainableAppCallback taskScheduler =
+      new TaskSchedulerWithDrainableAppCallback(
+        appClient, new AlwaysMatchesContainerMatcher(), "host", 0, "",
+        amrmClient, mockAppContext);
+    Configuration conf = new Configuration();
+    conf.setBoolean(TezConfiguration.TEZ_AM_CONTAINER_REUSE_ENABLED, true);
+    conf.setInt(TezConfiguration.TEZ_AM_SESSION_MIN_HELD_CONTAINERS, 2);
+    taskScheduler.init(conf);
+
+    Resource resource = Resource.newInstance(1024, 1);
+    Priority priority = Priority.newInstance(1);
+    Container container1 = createContainer(1, "host1", resource, priority);
+    Container container2 = createContainer(2, "host1", resource, priority);
+    Container container3 = createContainer(3, "host2", resource, priority);
+    for (Container container : new Container[] { container1, container2,
+        container3 }) {
+      taskScheduler.heldContainers.put(container.getId(),
+          new TaskScheduler.HeldContainer(container, -1, -1, null));
+    }
+
+    taskScheduler.resetMatchLocalityForAllHeldContainers();
+    // one container from each node
+    assertEquals(2, taskScheduler.sessionMinHeldContainers.size());
+    assertTrue(taskScheduler.sessionMinHeldContainers.contains(
+        container1.getId()) ^ taskScheduler.sessionMinHeldContainers.contains(
+        container2.getId()));
+    assertTrue(taskScheduler.sessionMinHeldContainers.contains(
+        container3.getId()));
+
+    taskScheduler.heldContainers.remove(container1.getId());
+    taskScheduler.heldContainers.remove(container2.getId());
+    taskScheduler.resetMatchLocalityForAllHeldContainers();
+    assertEquals(1, taskScheduler.sessionMinHeldContainers.size());
+    assertTrue(taskScheduler.sessionMinHeldContainers.contains(
+        container3.getId()));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(timeout=5000)
+  public void testSessionMinHeldContainerNotRecheckedContinuously() {
+    TaskSchedulerAppCallback appClient = mock(TaskSchedulerAppCallback.class);
+    TezAMRMClientAsync<CookieContainerRequest> amrmClient =
+      mock(TezAMRMClientAsync.class);
+    AppContext mockAppContext = mock(AppContext.class);
+    when(mockAppContext.isSession()).thenReturn(true);
+    when(mockAppContext.getAMState()).thenReturn(DAGAppMasterState.IDLE);
+
+    TaskSchedulerWithDrainableAppCallback taskScheduler =
+      new TaskSchedulerWithDrainableAppCallback(
+        appClient, new AlwaysMatchesContainerMatcher(), "host", 0, "",
+        amrmClient, mockAppContext);
+    Configuration conf = new Configuration();
+    conf.setBoolean(TezConfiguration.TEZ_AM_CONTAINER_REUSE_ENABLED, true);
+    conf.setLong(
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_LOCALITY_DELAY_ALLOCATION_MILLIS,
+        0);
+    conf.setLong(
+        TezConfiguration.TEZ_AM_CONTAINER_SESSION_DELAY_ALLOCATION_MILLIS, 0);
+    conf.setInt(TezConfiguration.TEZ_AM_SESSION_MIN_HELD_CONTAINERS, 1);
+    taskScheduler.init(conf);
+
+    Resource resource = Resource.newInstance(1024, 1);
+    Priority priority = Priority.newInstance(1);
+    Container container = createContainer(1, "host1", resource, priority);
+    TaskScheduler.HeldContainer heldContainer =
+        new TaskScheduler.HeldContainer(container, -1, -1,
+            createRequest(taskScheduler, resource, priority, "host1",
+                new Object()));
+    taskScheduler.heldContainers.put(container.getId(), heldContainer);
+    taskScheduler.sessionMinHeldContainers.add(container.getId());
+
+    // without any delay configured, the idle container is still not
+    // rescheduled right away
+    long currentTime = System.currentTimeMillis();
+    assertNull(taskScheduler.assignDelayedContainer(heldContainer));
+    assertTrue(heldContainer.getNextScheduleTime() >= currentTime
+        + TaskScheduler.SESSION_MIN_HELD_CONTAINER_RECHECK_MILLIS);
+    assertTrue(taskScheduler.heldContainers.containsKey(container.getId()));
+    verify(amrmClient, never()).releaseAssignedContainer(container.getId());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(timeout=5000)
+  public void testReuseScoring() {
+    RackResolver.init(new YarnConfiguration());
+    TaskSchedulerAppCallback appClient = mock(TaskSchedulerAppCallback.class);
+    TezAMRMClientAsync<CookieContainerRequest> amrmClient =
+      mock(TezAMRMClientAsync.class);
+    AppContext mockAppContext = mock(AppContext.class);
+    // signatures of the same vertex are the same instance
+    ContainerSignatureMatcher matcher = new ContainerSignatureMatcher() {
+      @Override
+      public boolean isSuperSet(Object cs1, Object cs2) {
+        return true;
+      }
+      @Override
+      public boolean isExactMatch(Object cs1, Object cs2) {
+        return cs1 == cs2;
+      }
+      @Override
+      public Map<String, LocalResource> getAdditionalResources(
+          Map<String, LocalResource> lr1, Map<String, LocalResource> lr2) {
+        return null;
+      }
+    };
+
+    TaskSchedulerWithDrainableAppCallback taskScheduler =
+      new TaskSchedulerWithDrainableAppCallback(
+        appClient, matcher, "host", 0, "", amrmClient, mockAppContext);
+    Configuration conf = new Configuration();
+    conf.setBoolean(TezConfiguration.TEZ_AM_CONTAINER_REUSE_ENABLED, true);
+    conf.setBoolean(
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_RACK_FALLBACK_ENABLED, true);
+    conf.setBoolean(
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_NON_LOCAL_FALLBACK_ENABLED,
+        false);
+    conf.setBoolean(
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_SCORING_ENABLED, true);
+    taskScheduler.init(conf);
+
+    Resource resource = Resource.newInstance(1024, 1);
+    Priority priority = Priority.newInstance(1);
+    Object vertex1Signature = new Object();
+    Object vertex2Signature = new Object();
+    String host = "host1";
+    String rack = RackResolver.resolve(host).getNetworkLocation();
+    Container container = createContainer(1, host, resource, priority);
+    TaskScheduler.HeldContainer heldContainer =
+        new TaskScheduler.HeldContainer(container, -1, -1,
+            createRequest(taskScheduler, resource, priority, host,
+                vertex1Signature));
+    heldContainer.setLastTaskInfo(createRequest(taskScheduler, resource,
+        priority, host, vertex2Signature));
+
+    int nodeLocalFirstVertex = taskScheduler.getReuseScore(heldContainer,
+        createRequest(taskScheduler, resource, priority, host,
+            vertex1Signature), host, rack);
+    int nodeLocalLastVertex = taskScheduler.getReuseScore(heldContainer,
+        createRequest(taskScheduler, resource, priority, host,
+            vertex2Signature), host, rack);
+    int rackLocal = taskScheduler.getReuseScore(heldContainer,
+        createRequest(taskScheduler, resource, priority, "host2",
+            vertex1Signature), host, rack);
+    int nonLocal = taskScheduler.getReuseScore(heldContainer,
+        createRequest(taskScheduler, resource, priority, null,
+            vertex1Signature), host, rack);
+
+    assertTrue(nodeLocalFirstVertex > nodeLocalLastVertex);
+    assertTrue(nodeLocalLastVertex > rackLocal);
+    assertTrue(rackLocal >= 0);
+    // non-local reuse is disabled
+    assertEquals(-1, nonLocal);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(timeout=5000)
+  public void testReuseScoringWithPendingRequestIndex() {
+    RackResolver.init(new YarnConfiguration());
+    TaskSchedulerAppCallback appClient = mock(TaskSchedulerAppCallback.class);
+    TezAMRMClientAsync<CookieContainerRequest> amrmClient =
+      mock(TezAMRMClientAsync.class);
+    AppContext mockAppContext = mock(AppContext.class);
+    final AtomicInteger superSetCalls = new AtomicInteger();
+    final AtomicInteger exactMatchCalls = new AtomicInteger();
+    ContainerSignatureMatcher matcher = new ContainerSignatureMatcher() {
+      @Override
+      public boolean isSuperSet(Object cs1, Object cs2) {
+        superSetCalls.incrementAndGet();
+        return true;
+      }
+      @Override
+      public boolean isExactMatch(Object cs1, Object cs2) {
+        exactMatchCalls.incrementAndGet();
+        return cs1 == cs2;
+      }
+      @Override
+      public Map<String, LocalResource> getAdditionalResources(
+          Map<String, LocalResource> lr1, Map<String, LocalResource> lr2) {
+        return null;
+      }
+    };
+
+    TaskSchedulerWithDrainableAppCallback taskScheduler =
+      new TaskSchedulerWithDrainableAppCallback(
+        appClient, matcher, "host", 0, "", amrmClient, mockAppContext);
+    Configuration conf = new Configuration();
+    conf.setBoolean(TezConfiguration.TEZ_AM_CONTAINER_REUSE_ENABLED, true);
+    conf.setBoolean(
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_RACK_FALLBACK_ENABLED, true);
+    conf.setBoolean(
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_NON_LOCAL_FALLBACK_ENABLED,
+        true);
+    conf.setBoolean(
+        TezConfiguration.TEZ_AM_CONTAINER_REUSE_SCORING_ENABLED, true);
+    taskScheduler.init(conf);
+
+    Resource resource = Resource.newInstance(1024, 1);
+    Priority priority = Priority.newInstance(1);
+    when(amrmClient.getTopPriority()).thenReturn(priority);
+    Object signature = new Object();
+    String rack = RackResolver.resolve("host1").getNetworkLocation();
+
+    // many requests on other nodes of the rack, one on the container's node
+    int numRackLocal = 100;
+    Object[] rackLocalTasks = new Object[numRackLocal];
+    for (int i = 0; i < numRackLocal; ++i) {
+      rackLocalTasks[i] = new Object();
+      taskScheduler.allocateTask(rackLocalTasks[i], resource,
+          new String[] { "otherhost" + i }, null, priority, signature, null);
+    }
+    Object nodeLocalTask = new Object();
+    taskScheduler.allocateTask(nodeLocalTask, resource,
+        new String[] { "host1" }, null, priority, signature, null);
+    assertEquals(1, taskScheduler.pendingRequests.get(priority, "host1")
+        .size());
+    assertEquals(numRackLocal + 1,
+        taskScheduler.pendingRequests.get(priority, rack).size());
+    assertEquals(numRackLocal + 1, taskScheduler.pendingRequests.get(
+        priority, ResourceRequest.ANY).size());
+    assertTrue(taskScheduler.pendingRequests.hasLocalityRequests(priority));
+
+    // only the node-local request is scored
+    Container container1 = createContainer(1, "host1", resource, priority);
+    TaskScheduler.HeldContainer heldContainer1 =
+        new TaskScheduler.HeldContainer(container1, -1, -1,
+            createRequest(taskScheduler, resource, priority, "host1",
+                signature));
+    taskScheduler.heldContainers.put(container1.getId(), heldContainer1);
+    Map<CookieContainerRequest, Container> assigned =
+        taskScheduler.tryAssignReUsedContainersByScore(
+            Lists.newArrayList(heldContainer1));
+    assertEquals(1, assigned.size());
+    assertEquals(nodeLocalTask,
+        assigned.keySet().iterator().next().getCookie().getTask());
+    assertEquals(2, exactMatchCalls.get());
+    assertEquals(1, superSetCalls.get());
+    assertTrue(taskScheduler.pendingRequests.get(priority, "host1")
+        .isEmpty());
+    assertEquals(numRackLocal, taskScheduler.pendingRequests.get(
+        priority, ResourceRequest.ANY).size());
+
+    // the first rack-local request reaches the best score and ends the lookup
+    exactMatchCalls.set(0);
+    Container container2 = createContainer(2, "host1", resource, priority);
+    TaskScheduler.HeldContainer heldContainer2 =
+        new TaskScheduler.HeldContainer(container2, -1, -1,
+            createRequest(taskScheduler, resource, priority, "host1",
+                signature));
+    taskScheduler.heldContainers.put(container2.getId(), heldContainer2);
+    assigned = taskScheduler.tryAssignReUsedContainersByScore(
+        Lists.newArrayList(heldContainer2));
+    assertEquals(1, assigned.size());
+    assertEquals(rackLocalTasks[0],
+        assigned.keySet().iterator().next().getCookie().getTask());
+    assertEquals(2, exactMatchCalls.get());
+
+    // a priority change moves the request in the index
+    assertTrue(taskScheduler.updateTaskPriority(rackLocalTasks[1],
+        Priority.newInstance(2)));
+    assertEquals(numRackLocal - 2,
+        taskScheduler.pendingRequests.get(priority, rack).size());
+    assertEquals(rackLocalTasks[1], taskScheduler.pendingRequests.get(
+        Priority.newInstance(2), "otherhost1").iterator().next().getCookie()
+        .getTask());
+    taskScheduler.deallocateTask(rackLocalTasks[1], false);
+    assertTrue(taskScheduler.pendingRequests.get(Priority.newInstance(2),
+        ResourceRequest.ANY).isEmpty());
+    assertFalse(taskScheduler.pendingRequests.hasLocalityRequests(
+        Priority.newInstance(2)));
+
+    // requests without locality are only listed under ANY
+    Object anyTask = new Object();
+    taskScheduler.allocateTask(anyTask, resource, null, null,
+        Priority.newInstance(3), signature, null);
+    assertFalse(taskScheduler.pendingRequests.hasLocalityRequests(
+        Priority.newInstance(3)));
+    assertEquals(anyTask, taskScheduler.pendingRequests.get(
+        Priority.newInstance(3), ResourceRequest.ANY).iterator().next()
+        .getCookie().getTask());
+
+    // signature matches are cached until the DAG completes
+    superSetCalls.set(0);
+    assertTrue(heldContainer1.isSuperSetOf(signature, matcher));
+    assertEquals(0, superSetCalls.get());
+    taskScheduler.resetMatchLocalityForAllHeldContainers();
+    assertTrue(heldContainer1.isSuperSetOf(signature, matcher));
+    assertEquals(1, superSetCalls.get());
+  }
+
+  private CookieContainerRequest createRequest(TaskScheduler taskScheduler,
+      Resource resource, Priority priority, String host, Object signature) {
+    return taskScheduler.new CookieContainerRequest(resource,
+        host == null ? null : new String[] { host }, null, priority,
+        taskScheduler.new CRCookie(new Object(), null, signature));
+  }
+
   private Container createContainer(int id, String host, Resource resource,
       Priority priority) {
     ContainerId containerID = ContainerId.newInstance(
@@ -107,6 +107,7 @@ public class TestAMContainer {
     wc.verifyNoOutgoingEvents();
     assertEquals(wc.taskAttemptID, wc.amContainer.getQueuedTaskAttempts()
         .get(0));
+    verify(wc.tal).taskAttemptAssigned(wc.containerID);
 
     // Container Launched
     wc.containerLaunched();
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.app.rm.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.LocalResource;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.junit.Test;
+
+public class TestAMContainerHelpers {
+
+  @Test
+  public void testClassDataArchiveOpts() {
+    Map<String, LocalResource> localResources =
+        new HashMap<String, LocalResource>();
+    Configuration conf = new Configuration(false);
+
+    // not configured
+    assertEquals("-Xmx200m", AMContainerHelpers.addClassDataArchiveOpts(conf,
+        localResources, "-Xmx200m"));
+    assertEquals("-Xmx200m", AMContainerHelpers.addClassDataArchiveOpts(null,
+        localResources, "-Xmx200m"));
+
+    // configured but not shipped with the container
+    conf.set(TezConfiguration.TEZ_TASK_CLASS_DATA_ARCHIVE,
+        "hdfs:///apps/tez/tasks.jsa");
+    assertEquals("-Xmx200m", AMContainerHelpers.addClassDataArchiveOpts(conf,
+        localResources, "-Xmx200m"));
+
+    // user options come after the archive options
+    localResources.put("tasks.jsa", mock(LocalResource.class));
+    assertEquals("-Xshare:auto -XX:SharedArchiveFile=tasks.jsa -Xmx200m",
+        AMContainerHelpers.addClassDataArchiveOpts(conf, localResources,
+            "-Xmx200m"));
+    assertEquals("-Xshare:auto -XX:SharedArchiveFile=tasks.jsa",
+        AMContainerHelpers.addClassDataArchiveOpts(conf, localResources,
+            null));
+  }
+}
@@ -19,7 +19,10 @@
 package org.apache.tez.dag.app.rm.node;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.util.List;
 
@@ -32,13 +35,17 @@ import org.apache.hadoop.yarn.api.records.Resource;
 import org.apache.hadoop.yarn.event.DrainDispatcher;
 import org.apache.hadoop.yarn.event.Event;
 import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.util.Clock;
 import org.apache.tez.dag.api.TezConfiguration;
 import org.apache.tez.dag.app.AppContext;
 import org.apache.tez.dag.app.rm.AMSchedulerEventNodeBlacklistUpdate;
 import org.apache.tez.dag.app.rm.AMSchedulerEventType;
 import org.apache.tez.dag.app.rm.container.AMContainerEventNodeFailed;
 import org.apache.tez.dag.app.rm.container.AMContainerEventType;
+import org.apache.tez.dag.records.TezDAGID;
 import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -227,6 +234,192 @@ public class TestAMNodeMap {
     amNodeMap.stop();
   }
 
+  @Test(timeout=5000)
+  public void testSlowNodeBlacklist() {
+    AppContext appContext = mock(AppContext.class);
+    Clock clock = mock(Clock.class);
+    when(appContext.getClock()).thenReturn(clock);
+    when(clock.getTime()).thenReturn(0l);
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(TezConfiguration.TEZ_AM_SLOW_NODE_DETECTION_ENABLED, true);
+    conf.setInt(TezConfiguration.TEZ_AM_SLOW_NODE_MIN_TASKS, 2);
+    conf.setFloat(TezConfiguration.TEZ_AM_SLOW_NODE_RUNTIME_THRESHOLD, 2.0f);
+    conf.setLong(TezConfiguration.TEZ_AM_SLOW_NODE_BLACKLIST_MILLIS, 1000l);
+    TestEventHandler handler = new TestEventHandler();
+    AMNodeMap amNodeMap = new AMNodeMap(handler, appContext);
+    dispatcher.register(AMNodeEventType.class, amNodeMap);
+    amNodeMap.init(conf);
+    amNodeMap.start();
+
+    amNodeMap.handle(new AMNodeEventNodeCountUpdated(10));
+    NodeId nodeId = NodeId.newInstance("host1", 1234);
+    NodeId nodeId2 = NodeId.newInstance("host2", 1234);
+    NodeId nodeId3 = NodeId.newInstance("host3", 1234);
+    amNodeMap.nodeSeen(nodeId);
+    amNodeMap.nodeSeen(nodeId2);
+    amNodeMap.nodeSeen(nodeId3);
+    AMNodeImpl node = (AMNodeImpl) amNodeMap.get(nodeId);
+    ContainerId cId = mock(ContainerId.class);
+    TezVertexID vertexId =
+        TezVertexID.getInstance(TezDAGID.getInstance("0", 0, 0), 0);
+
+    // vertex median of 100
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId2, cId,
+        createAttemptId(vertexId, 0), 100));
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId3, cId,
+        createAttemptId(vertexId, 1), 100));
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId, cId,
+        createAttemptId(vertexId, 2), 400));
+    dispatcher.await();
+    assertFalse(node.slow);
+    assertEquals(0, handler.events.size());
+
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId, cId,
+        createAttemptId(vertexId, 3), 400));
+    dispatcher.await();
+    assertTrue(node.slow);
+    assertEquals(AMNodeState.ACTIVE, node.getState());
+    assertEquals(2, handler.events.size());
+    assertEquals(AMNodeEventType.N_NODE_WAS_SLOW,
+        handler.events.get(0).getType());
+    assertEquals(AMSchedulerEventType.S_NODE_BLACKLISTED,
+        handler.events.get(1).getType());
+    assertEquals(nodeId,
+        ((AMSchedulerEventNodeBlacklistUpdate) handler.events.get(1))
+            .getNodeId());
+
+    // still blacklisted
+    handler.events.clear();
+    when(clock.getTime()).thenReturn(500l);
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId2, cId,
+        createAttemptId(vertexId, 4), 100));
+    dispatcher.await();
+    assertTrue(node.slow);
+    assertEquals(0, handler.events.size());
+
+    // let back in, half way to slow
+    when(clock.getTime()).thenReturn(1000l);
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId3, cId,
+        createAttemptId(vertexId, 5), 100));
+    dispatcher.await();
+    assertFalse(node.slow);
+    assertEquals(1.5f, node.relativeRuntime, 0.001f);
+    assertEquals(2, handler.events.size());
+    assertEquals(AMSchedulerEventType.S_NODE_UNBLACKLISTED,
+        handler.events.get(0).getType());
+    assertEquals(AMNodeEventType.N_SLOW_NODE_REHABILITATED,
+        handler.events.get(1).getType());
+
+    // a single slow attempt is enough to blacklist it again, for twice as long
+    handler.events.clear();
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId, cId,
+        createAttemptId(vertexId, 6), 400));
+    dispatcher.await();
+    assertTrue(node.slow);
+    assertEquals(2, handler.events.size());
+    assertEquals(AMSchedulerEventType.S_NODE_BLACKLISTED,
+        handler.events.get(1).getType());
+
+    handler.events.clear();
+    when(clock.getTime()).thenReturn(2500l);
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId2, cId,
+        createAttemptId(vertexId, 7), 100));
+    dispatcher.await();
+    assertTrue(node.slow);
+    when(clock.getTime()).thenReturn(3000l);
+    amNodeMap.handle(new AMNodeEventTaskAttemptSucceeded(nodeId2, cId,
+        createAttemptId(vertexId, 8), 100));
+    dispatcher.await();
+    assertFalse(node.slow);
+
+    amNodeMap.stop();
+  }
+
+  @Test(timeout=5000)
+  public void testSlowNodeIgnoreThresholdIncludesBlacklistedNodes() {
+    AppContext appContext = mock(AppContext.class);
+    Clock clock = mock(Clock.class);
+    when(appContext.getClock()).thenReturn(clock);
+    when(clock.getTime()).thenReturn(0l);
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(TezConfiguration.TEZ_AM_NODE_BLACKLISTING_ENABLED, true);
+    conf.setInt(TezConfiguration.TEZ_AM_NODE_BLACKLISTING_IGNORE_THRESHOLD, 33);
+    conf.setBoolean(TezConfiguration.TEZ_AM_SLOW_NODE_DETECTION_ENABLED, true);
+    TestEventHandler handler = new TestEventHandler();
+    AMNodeMap amNodeMap = new AMNodeMap(handler, appContext);
+    amNodeMap.init(conf);
+    amNodeMap.start();
+
+    amNodeMap.handle(new AMNodeEventNodeCountUpdated(4));
+    NodeId nodeId = NodeId.newInstance("host1", 1234);
+    NodeId nodeId2 = NodeId.newInstance("host2", 1234);
+    amNodeMap.handle(new AMNodeEvent(nodeId2,
+        AMNodeEventType.N_NODE_WAS_BLACKLISTED));
+    assertFalse(amNodeMap.isBlacklistingIgnored());
+    assertEquals(0, handler.events.size());
+
+    // 1 of 4 nodes slow is below the threshold, but together with the failure
+    // blacklisted node half the cluster would be out.
+    amNodeMap.handle(new AMNodeEvent(nodeId, AMNodeEventType.N_NODE_WAS_SLOW));
+    assertFalse(amNodeMap.hasSlowNodes());
+    assertEquals(1, handler.events.size());
+    assertEquals(AMNodeEventType.N_SLOW_NODE_REHABILITATED,
+        handler.events.get(0).getType());
+
+    amNodeMap.stop();
+  }
+
+  @Test(timeout=5000)
+  public void testSlowNodeExpiryCheck() {
+    AppContext appContext = mock(AppContext.class);
+    Clock clock = mock(Clock.class);
+    when(appContext.getClock()).thenReturn(clock);
+    when(clock.getTime()).thenReturn(0l);
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(TezConfiguration.TEZ_AM_SLOW_NODE_DETECTION_ENABLED, true);
+    conf.setLong(TezConfiguration.TEZ_AM_SLOW_NODE_BLACKLIST_MILLIS, 1000l);
+    TestEventHandler handler = new TestEventHandler();
+    AMNodeMap amNodeMap = new AMNodeMap(handler, appContext);
+    amNodeMap.init(conf);
+    amNodeMap.start();
+
+    amNodeMap.handle(new AMNodeEventNodeCountUpdated(10));
+    NodeId nodeId = NodeId.newInstance("host1", 1234);
+    amNodeMap.handle(new AMNodeEvent(nodeId, AMNodeEventType.N_NODE_WAS_SLOW));
+    assertTrue(amNodeMap.hasSlowNodes());
+    assertEquals(1, handler.events.size());
+    assertEquals(AMSchedulerEventType.S_NODE_BLACKLISTED,
+        handler.events.get(0).getType());
+
+    handler.events.clear();
+    amNodeMap.handle(new AMNodeEvent(null,
+        AMNodeEventType.N_SLOW_NODE_EXPIRY_CHECK));
+    assertTrue(amNodeMap.hasSlowNodes());
+    assertEquals(0, handler.events.size());
+
+    // no other node events needed for the node to be let back in
+    when(clock.getTime()).thenReturn(1000l);
+    amNodeMap.handle(new AMNodeEvent(null,
+        AMNodeEventType.N_SLOW_NODE_EXPIRY_CHECK));
+    assertFalse(amNodeMap.hasSlowNodes());
+    assertEquals(2, handler.events.size());
+    assertEquals(AMSchedulerEventType.S_NODE_UNBLACKLISTED,
+        handler.events.get(0).getType());
+    assertEquals(nodeId,
+        ((AMSchedulerEventNodeBlacklistUpdate) handler.events.get(0))
+            .getNodeId());
+    assertEquals(AMNodeEventType.N_SLOW_NODE_REHABILITATED,
+        handler.events.get(1).getType());
+
+    amNodeMap.stop();
+  }
+
+  private static TezTaskAttemptID createAttemptId(TezVertexID vertexId,
+      int taskId) {
+    return TezTaskAttemptID.getInstance(
+        TezTaskID.getInstance(vertexId, taskId), 0);
+  }
+
   private static NodeReport generateNodeReport(NodeId nodeId, NodeState nodeState) {
     NodeReport nodeReport = NodeReport.newInstance(nodeId, nodeState, nodeId.getHost() + ":3433",
         "/default-rack", Resource.newInstance(0, 0), Resource.newInstance(10240, 12), 10,
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.history.ats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.apache.tez.dag.history.DAGHistoryEvent;
+import org.apache.tez.dag.history.HistoryEvent;
+import org.apache.tez.dag.history.HistoryEventType;
+import org.apache.tez.dag.history.utils.ATSConstants;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.Test;
+
+public class TestATSService {
+
+  private JSONObject createEntity(String entity, String eventType,
+      String infoKey) throws Exception {
+    JSONObject jsonObject = new JSONObject();
+    jsonObject.put(ATSConstants.ENTITY, entity);
+    jsonObject.put(ATSConstants.ENTITY_TYPE, "TEZ_TASK_ATTEMPT_ID");
+    JSONArray events = new JSONArray();
+    JSONObject event = new JSONObject();
+    event.put(ATSConstants.EVENT_TYPE, eventType);
+    events.put(event);
+    jsonObject.put(ATSConstants.EVENTS, events);
+    JSONObject otherInfo = new JSONObject();
+    otherInfo.put(infoKey, 1);
+    jsonObject.put(ATSConstants.OTHER_INFO, otherInfo);
+    return jsonObject;
+  }
+
+  @Test
+  public void testMergeEntities() throws Exception {
+    List<JSONObject> entities = new ArrayList<JSONObject>();
+    entities.add(createEntity("attempt_1", "STARTED", "startTime"));
+    entities.add(createEntity("attempt_2", "STARTED", "startTime"));
+    entities.add(createEntity("attempt_1", "FINISHED", "finishTime"));
+
+    List<JSONObject> merged = ATSService.mergeEntities(entities);
+    assertEquals(2, merged.size());
+    JSONObject attempt1 = merged.get(0);
+    assertEquals("attempt_1", attempt1.getString(ATSConstants.ENTITY));
+    assertEquals(2, attempt1.getJSONArray(ATSConstants.EVENTS).length());
+    JSONObject otherInfo = attempt1.getJSONObject(ATSConstants.OTHER_INFO);
+    assertEquals(true, otherInfo.has("startTime"));
+    assertEquals(true, otherInfo.has("finishTime"));
+    assertEquals("attempt_2", merged.get(1).getString(ATSConstants.ENTITY));
+  }
+
+  @Test(timeout = 5000)
+  public void testDropEventsWhenQueueFull() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.YARN_ATS_EVENT_QUEUE_CAPACITY, 1);
+    ATSService atsService = new ATSService();
+    // not started, so queued events are not consumed
+    atsService.init(conf);
+
+    HistoryEvent historyEvent = mock(HistoryEvent.class);
+    when(historyEvent.getEventType()).thenReturn(
+        HistoryEventType.TASK_ATTEMPT_STARTED);
+    atsService.handle(new DAGHistoryEvent(historyEvent));
+    atsService.handle(new DAGHistoryEvent(historyEvent));
+    atsService.handle(new DAGHistoryEvent(historyEvent));
+
+    assertEquals(2, atsService.getDroppedEventCount());
+  }
+
+  @Test(timeout = 5000)
+  public void testUnknownDroppableEventType() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.YARN_ATS_EVENT_QUEUE_CAPACITY, 1);
+    conf.set(TezConfiguration.YARN_ATS_DROPPABLE_EVENT_TYPES,
+        "NO_SUCH_EVENT, TASK_ATTEMPT_STARTED");
+    ATSService atsService = new ATSService();
+    atsService.init(conf);
+
+    HistoryEvent historyEvent = mock(HistoryEvent.class);
+    when(historyEvent.getEventType()).thenReturn(
+        HistoryEventType.TASK_ATTEMPT_STARTED);
+    atsService.handle(new DAGHistoryEvent(historyEvent));
+    atsService.handle(new DAGHistoryEvent(historyEvent));
+
+    assertEquals(1, atsService.getDroppedEventCount());
+  }
+
+  @Test(timeout = 5000)
+  public void testBlockedEventReleasedOnStop() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.YARN_ATS_EVENT_QUEUE_CAPACITY, 1);
+    final ATSService atsService = new ATSService();
+    atsService.init(conf);
+
+    HistoryEvent historyEvent = mock(HistoryEvent.class);
+    when(historyEvent.getEventType()).thenReturn(
+        HistoryEventType.DAG_FINISHED);
+    final DAGHistoryEvent event = new DAGHistoryEvent(historyEvent);
+    atsService.handle(event);
+    // the queue is full and the event cannot be dropped
+    Thread handler = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        atsService.handle(event);
+      }
+    });
+    handler.start();
+    handler.join(200);
+    assertTrue(handler.isAlive());
+
+    atsService.stop();
+    handler.join();
+    assertEquals(0, atsService.getDroppedEventCount());
+  }
+}
@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.history.recovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.apache.tez.dag.app.AppContext;
+import org.apache.tez.dag.history.DAGHistoryEvent;
+import org.apache.tez.dag.history.HistoryEvent;
+import org.apache.tez.dag.history.HistoryEventType;
+import org.apache.tez.dag.history.events.DAGSubmittedEvent;
+import org.apache.tez.dag.records.TezDAGID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestRecoveryService {
+
+  private ApplicationId appId;
+  private TezDAGID dagId;
+  private AppContext appContext;
+  private RecoveryService recoveryService;
+  private FlushTrackingStream summaryStream;
+  private FlushTrackingStream dagStream;
+
+  /**
+   * Records the position of the stream at each flush.
+   */
+  private static class FlushTrackingStream extends FSDataOutputStream {
+
+    private final List<Long> flushedPositions =
+        Collections.synchronizedList(new ArrayList<Long>());
+
+    FlushTrackingStream() throws IOException {
+      super(new ByteArrayOutputStream(), null);
+    }
+
+    @Override
+    public void hflush() throws IOException {
+      super.hflush();
+      flushedPositions.add(getPos());
+    }
+
+    @Override
+    public void hsync() throws IOException {
+      hflush();
+    }
+
+    List<Long> getFlushedPositions() {
+      synchronized (flushedPositions) {
+        return new ArrayList<Long>(flushedPositions);
+      }
+    }
+
+    void waitForFlush(long position) throws InterruptedException {
+      while (!flushedPositions.contains(position)) {
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  @Before
+  public void setup() {
+    appId = ApplicationId.newInstance(1000, 1);
+    dagId = TezDAGID.getInstance(appId, 1);
+    appContext = mock(AppContext.class);
+    when(appContext.getApplicationID()).thenReturn(appId);
+    when(appContext.getCurrentRecoveryDir()).thenReturn(
+        new Path(System.getProperty("test.build.data", "target"),
+            "TestRecoveryService"));
+  }
+
+  @After
+  public void teardown() {
+    if (recoveryService != null) {
+      recoveryService.stop();
+    }
+  }
+
+  private void startRecoveryService(Configuration conf) throws IOException {
+    recoveryService = new RecoveryService(appContext);
+    recoveryService.init(conf);
+    FileSystem fs = mock(FileSystem.class);
+    when(fs.create(any(Path.class), anyBoolean(), anyInt())).thenAnswer(
+        new Answer<FSDataOutputStream>() {
+          @Override
+          public FSDataOutputStream answer(InvocationOnMock invocation)
+              throws IOException {
+            Path path = (Path) invocation.getArguments()[0];
+            FlushTrackingStream stream = new FlushTrackingStream();
+            if (path.getName().endsWith(
+                TezConfiguration.DAG_RECOVERY_SUMMARY_FILE_SUFFIX)) {
+              summaryStream = stream;
+            } else {
+              dagStream = stream;
+            }
+            return stream;
+          }
+        });
+    recoveryService.recoveryDirFS = fs;
+    recoveryService.start();
+  }
+
+  private DAGHistoryEvent createSubmittedEvent() {
+    DAGSubmittedEvent submittedEvent = mock(DAGSubmittedEvent.class);
+    when(submittedEvent.getEventType()).thenReturn(
+        HistoryEventType.DAG_SUBMITTED);
+    when(submittedEvent.getDAGName()).thenReturn("dag");
+    return new DAGHistoryEvent(dagId, submittedEvent);
+  }
+
+  private DAGHistoryEvent createAttemptEvent() {
+    HistoryEvent attemptEvent = mock(HistoryEvent.class);
+    when(attemptEvent.getEventType()).thenReturn(
+        HistoryEventType.TASK_ATTEMPT_STARTED);
+    return new DAGHistoryEvent(dagId, attemptEvent);
+  }
+
+  @Test(timeout = 5000)
+  public void testSummaryEventsBypassBatching() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.DAG_RECOVERY_MAX_UNFLUSHED_EVENTS, 100);
+    conf.setLong(TezConfiguration.DAG_RECOVERY_FLUSH_INTERVAL_MS, 600000);
+    startRecoveryService(conf);
+
+    // written and flushed before handle returns
+    recoveryService.handle(createSubmittedEvent());
+    assertNotNull(summaryStream);
+    assertEquals(1, summaryStream.getFlushedPositions().size());
+    assertNotNull(dagStream);
+    // each event starts with its type
+    assertEquals(Arrays.asList(1L), dagStream.getFlushedPositions());
+  }
+
+  @Test(timeout = 5000)
+  public void testGroupCommit() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.DAG_RECOVERY_MAX_UNFLUSHED_EVENTS, 3);
+    conf.setLong(TezConfiguration.DAG_RECOVERY_FLUSH_INTERVAL_MS, 600000);
+    startRecoveryService(conf);
+    recoveryService.handle(createSubmittedEvent());
+
+    for (int i = 0; i < 3; ++i) {
+      recoveryService.handle(createAttemptEvent());
+    }
+    // the three events are made durable by a single flush
+    dagStream.waitForFlush(4);
+    assertEquals(Arrays.asList(1L, 4L), dagStream.getFlushedPositions());
+  }
+
+  @Test(timeout = 5000)
+  public void testFlushInterval() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.DAG_RECOVERY_MAX_UNFLUSHED_EVENTS, 100);
+    conf.setLong(TezConfiguration.DAG_RECOVERY_FLUSH_INTERVAL_MS, 100);
+    startRecoveryService(conf);
+    recoveryService.handle(createSubmittedEvent());
+
+    // a single event is durable once the interval passes
+    recoveryService.handle(createAttemptEvent());
+    dagStream.waitForFlush(2);
+    assertEquals(Arrays.asList(1L, 2L), dagStream.getFlushedPositions());
+  }
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.recovery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.dag.api.TezConfiguration;
+import org.apache.tez.dag.history.HistoryEvent;
+import org.apache.tez.dag.history.HistoryEventType;
+import org.apache.tez.dag.history.events.TaskStartedEvent;
+import org.apache.tez.dag.history.events.VertexCheckpointEvent;
+import org.apache.tez.dag.history.events.VertexStartedEvent;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.dag.recovery.records.RecoveryProtos.SummaryEventProto;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRecoveryParser {
+
+  private static final ApplicationId APP_ID =
+      ApplicationId.newInstance(1000, 1);
+
+  private File recoveryDir;
+
+  private static class CollectingHandler implements RecoveryEventHandler {
+    final List<SummaryEventProto> summaryEvents =
+        new ArrayList<SummaryEventProto>();
+    final Map<TezDAGID, List<String>> dagEvents =
+        Collections.synchronizedMap(new HashMap<TezDAGID, List<String>>());
+
+    @Override
+    public void handleSummaryEvent(SummaryEventProto summaryEvent) {
+      summaryEvents.add(summaryEvent);
+    }
+
+    @Override
+    public void handleDAGEvent(TezDAGID dagId, HistoryEvent event) {
+      List<String> events = dagEvents.get(dagId);
+      if (events == null) {
+        events = new ArrayList<String>();
+        dagEvents.put(dagId, events);
+      }
+      events.add(event.toString());
+    }
+  }
+
+  @Before
+  public void setup() {
+    recoveryDir = new File(System.getProperty("test.build.data", "/tmp"),
+        TestRecoveryParser.class.getName());
+    FileUtil.fullyDelete(recoveryDir);
+    recoveryDir.mkdirs();
+  }
+
+  @After
+  public void cleanup() {
+    FileUtil.fullyDelete(recoveryDir);
+  }
+
+  private List<HistoryEvent> createEvents(TezDAGID dagId, int numTasks) {
+    TezVertexID vertexId = TezVertexID.getInstance(dagId, 1);
+    List<HistoryEvent> events = new ArrayList<HistoryEvent>();
+    events.add(new VertexStartedEvent(vertexId, 1, 2));
+    for (int i = 0; i < numTasks; ++i) {
+      events.add(new TaskStartedEvent(TezTaskID.getInstance(vertexId, i),
+          null, 10 + i, 20 + i));
+    }
+    return events;
+  }
+
+  private byte[] serialize(List<HistoryEvent> events) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (HistoryEvent event : events) {
+      out.write(event.getEventType().ordinal());
+      event.toProtoStream(out);
+    }
+    return out.toByteArray();
+  }
+
+  private void writeFile(String name, byte[] data, int length)
+      throws IOException {
+    FileOutputStream out = new FileOutputStream(new File(recoveryDir, name));
+    try {
+      out.write(data, 0, length);
+    } finally {
+      out.close();
+    }
+  }
+
+  private List<String> toStrings(List<HistoryEvent> events) {
+    List<String> strings = new ArrayList<String>();
+    for (HistoryEvent event : events) {
+      strings.add(event.toString());
+    }
+    return strings;
+  }
+
+  @Test
+  public void testParseRecoveryFiles() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(TezConfiguration.DAG_RECOVERY_PARSER_THREAD_COUNT, 2);
+
+    ByteArrayOutputStream summary = new ByteArrayOutputStream();
+    List<TezDAGID> dagIds = new ArrayList<TezDAGID>();
+    List<List<HistoryEvent>> dagEvents = new ArrayList<List<HistoryEvent>>();
+    for (int i = 1; i <= 3; ++i) {
+      TezDAGID dagId = TezDAGID.getInstance(APP_ID, i);
+      List<HistoryEvent> events = createEvents(dagId, 100 * i);
+      byte[] data = serialize(events);
+      writeFile(dagId + TezConfiguration.DAG_RECOVERY_RECOVER_FILE_SUFFIX,
+          data, data.length);
+      SummaryEventProto.newBuilder().setDagId(dagId.toString())
+          .setTimestamp(i)
+          .setEventType(HistoryEventType.DAG_SUBMITTED.ordinal())
+          .build().writeDelimitedTo(summary);
+      dagIds.add(dagId);
+      dagEvents.add(events);
+    }
+    writeFile(APP_ID + TezConfiguration.DAG_RECOVERY_SUMMARY_FILE_SUFFIX,
+        summary.toByteArray(), summary.size());
+
+    CollectingHandler handler = new CollectingHandler();
+    new RecoveryParser(new Path(recoveryDir.getAbsolutePath()), conf)
+        .parse(handler);
+
+    assertEquals(3, handler.summaryEvents.size());
+    for (int i = 0; i < dagIds.size(); ++i) {
+      assertEquals(toStrings(dagEvents.get(i)),
+          handler.dagEvents.get(dagIds.get(i)));
+    }
+  }
+
+  @Test
+  public void testParseTruncatedRecoveryFile() throws IOException {
+    TezDAGID dagId = TezDAGID.getInstance(APP_ID, 1);
+    List<HistoryEvent> events = createEvents(dagId, 10);
+    byte[] data = serialize(events);
+    // cut the last event short, as a crash during a write would
+    writeFile(dagId + TezConfiguration.DAG_RECOVERY_RECOVER_FILE_SUFFIX,
+        data, data.length - 2);
+
+    CollectingHandler handler = new CollectingHandler();
+    new RecoveryParser(new Path(recoveryDir.getAbsolutePath()),
+        new Configuration()).parse(handler);
+
+    assertEquals(toStrings(events.subList(0, events.size() - 1)),
+        handler.dagEvents.get(dagId));
+  }
+
+  @Test
+  public void testSkipCheckpointedEvents() throws IOException {
+    TezDAGID dagId = TezDAGID.getInstance(APP_ID, 1);
+    TezVertexID vertexId = TezVertexID.getInstance(dagId, 1);
+    TezVertexID otherVertexId = TezVertexID.getInstance(dagId, 2);
+    List<HistoryEvent> events = createEvents(dagId, 10);
+    HistoryEvent otherTaskEvent = new TaskStartedEvent(
+        TezTaskID.getInstance(otherVertexId, 0), null, 1, 2);
+    events.add(otherTaskEvent);
+
+    TezCounters counters = new TezCounters();
+    counters.findCounter("group", "counter").increment(5);
+    BitSet firstSucceeded = new BitSet();
+    firstSucceeded.set(0, 3);
+    HistoryEvent firstCheckpoint = new VertexCheckpointEvent(vertexId, 100,
+        10, firstSucceeded, counters);
+    events.add(firstCheckpoint);
+    BitSet succeeded = new BitSet();
+    succeeded.set(0, 5);
+    HistoryEvent checkpoint = new VertexCheckpointEvent(vertexId, 200, 10,
+        succeeded, counters);
+    events.add(checkpoint);
+    // a rerun of a checkpointed task after the checkpoint
+    HistoryEvent rerunEvent = new TaskStartedEvent(
+        TezTaskID.getInstance(vertexId, 2), null, 300, 301);
+    events.add(rerunEvent);
+    byte[] data = serialize(events);
+    writeFile(dagId + TezConfiguration.DAG_RECOVERY_RECOVER_FILE_SUFFIX,
+        data, data.length);
+
+    CollectingHandler handler = new CollectingHandler();
+    new RecoveryParser(new Path(recoveryDir.getAbsolutePath()),
+        new Configuration()).parse(handler);
+
+    // the vertex start event and the events of tasks 5 to 9 are kept
+    List<HistoryEvent> expected = new ArrayList<HistoryEvent>();
+    expected.add(events.get(0));
+    expected.addAll(events.subList(6, 11));
+    expected.add(otherTaskEvent);
+    expected.add(checkpoint);
+    expected.add(rerunEvent);
+    assertEquals(toStrings(expected), handler.dagEvents.get(dagId));
+  }
+}
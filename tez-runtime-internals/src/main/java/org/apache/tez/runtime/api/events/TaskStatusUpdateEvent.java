@@ -23,13 +23,21 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.tez.common.counters.CounterGroup;
+import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.runtime.api.Event;
 
 public class TaskStatusUpdateEvent extends Event implements Writable {
 
+  private static final byte COUNTERS_NONE = 0;
+  private static final byte COUNTERS_FULL = 1;
+  private static final byte COUNTERS_CHANGED = 2;
+
   private TezCounters tezCounters;
   private float progress;
+  // tezCounters only holds the counters changed since an earlier update
+  private boolean changedCountersOnly = false;
 
   public TaskStatusUpdateEvent() {
   }
@@ -39,10 +47,52 @@ public class TaskStatusUpdateEvent extends Event implements Writable {
     this.progress = progress;
   }
 
+  /**
+   * Create an update which only carries the counters whose values changed
+   * since an earlier update of the same task attempt.
+   */
+  public TaskStatusUpdateEvent(TezCounters changedCounters, float progress,
+      boolean changedCountersOnly) {
+    this(changedCounters, progress);
+    this.changedCountersOnly = changedCountersOnly;
+  }
+
   public TezCounters getCounters() {
     return tezCounters;
   }
 
+  public boolean hasChangedCountersOnly() {
+    return changedCountersOnly;
+  }
+
+  /**
+   * Apply the counters of this update to the counters of the attempt. The
+   * given counters are not modified, a changed-counters update returns a
+   * merged copy.
+   * @param currentCounters the counters from earlier updates, may be null
+   * @return the counters of the attempt after this update, or null if this
+   *         update only carries changed counters and there are no current
+   *         counters to apply them to
+   */
+  public TezCounters applyCounters(TezCounters currentCounters) {
+    if (!changedCountersOnly) {
+      return tezCounters;
+    }
+    if (currentCounters == null || tezCounters == null) {
+      return currentCounters;
+    }
+    TezCounters counters = new TezCounters();
+    counters.incrAllCounters(currentCounters);
+    for (CounterGroup group : tezCounters) {
+      CounterGroup currentGroup = counters.getGroup(group.getName());
+      for (TezCounter counter : group) {
+        currentGroup.addCounter(counter.getName(), counter.getDisplayName(),
+            counter.getValue());
+      }
+    }
+    return counters;
+  }
+
   public float getProgress() {
     return progress;
   }
@@ -51,17 +101,19 @@ public class TaskStatusUpdateEvent extends Event implements Writable {
   public void write(DataOutput out) throws IOException {
     out.writeFloat(progress);
     if (tezCounters != null) {
-      out.writeBoolean(true);
+      out.writeByte(changedCountersOnly ? COUNTERS_CHANGED : COUNTERS_FULL);
       tezCounters.write(out);
     } else {
-      out.writeBoolean(false);
+      out.writeByte(COUNTERS_NONE);
     }
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
     progress = in.readFloat();
-    if (in.readBoolean()) {
+    byte countersType = in.readByte();
+    changedCountersOnly = countersType == COUNTERS_CHANGED;
+    if (countersType != COUNTERS_NONE) {
       tezCounters = new TezCounters();
       tezCounters.readFields(in);
     }
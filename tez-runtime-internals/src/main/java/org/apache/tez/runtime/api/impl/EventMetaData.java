@@ -23,6 +23,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.util.StringInterner;
 import org.apache.tez.dag.records.TezTaskAttemptID;
 
@@ -125,6 +126,23 @@ public class EventMetaData implements Writable {
     }
   }
 
+  void write(DataOutput out, TezEventListCodec.WriteDictionary dictionary)
+      throws IOException {
+    WritableUtils.writeVInt(out, producerConsumerType.ordinal());
+    dictionary.writeString(out, taskVertexName);
+    dictionary.writeString(out, edgeVertexName);
+    dictionary.writeTaskAttemptID(out, taskAttemptID);
+  }
+
+  void readFields(DataInput in, TezEventListCodec.ReadDictionary dictionary)
+      throws IOException {
+    producerConsumerType =
+        EventProducerConsumerType.values()[WritableUtils.readVInt(in)];
+    taskVertexName = dictionary.readString(in);
+    edgeVertexName = dictionary.readString(in);
+    taskAttemptID = dictionary.readTaskAttemptID(in);
+  }
+
   @Override
   public String toString() {
     return "{ producerConsumerType=" + producerConsumerType
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.api.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.tez.common.counters.CounterGroup;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.runtime.api.events.TaskStatusUpdateEvent;
+
+/**
+ * Creates the periodic status updates of a task attempt. An update only
+ * carries the counters whose values changed since the previous update, with
+ * their current values, and every few updates all counters are sent so the
+ * AM can resynchronize.
+ */
+public class TaskStatusUpdateTracker {
+
+  private final int fullUpdateInterval;
+  // group name -> counter name -> value sent in the last update
+  private final Map<String, Map<String, Long>> sentValues =
+      new HashMap<String, Map<String, Long>>();
+  private int updatesSinceFullUpdate = -1;
+
+  /**
+   * @param fullUpdateInterval send all counters with every this many
+   *          updates. With 1 or less every update carries all counters.
+   */
+  public TaskStatusUpdateTracker(int fullUpdateInterval) {
+    this.fullUpdateInterval = fullUpdateInterval;
+  }
+
+  /**
+   * Make the next update carry all counters, e.g. because the AM lost the
+   * counters the changes would be applied to.
+   */
+  public void requestFullUpdate() {
+    updatesSinceFullUpdate = -1;
+  }
+
+  public TaskStatusUpdateEvent createStatusUpdate(TezCounters counters,
+      float progress) {
+    boolean fullUpdate = updatesSinceFullUpdate < 0
+        || updatesSinceFullUpdate + 1 >= fullUpdateInterval;
+    TezCounters changedCounters = fullUpdate ? null : new TezCounters();
+    for (CounterGroup group : counters) {
+      Map<String, Long> groupValues = sentValues.get(group.getName());
+      if (groupValues == null) {
+        groupValues = new HashMap<String, Long>();
+        sentValues.put(group.getName(), groupValues);
+      }
+      CounterGroup changedGroup = null;
+      for (TezCounter counter : group) {
+        long value = counter.getValue();
+        Long sentValue = groupValues.put(counter.getName(), value);
+        if (fullUpdate || (sentValue != null && sentValue == value)) {
+          continue;
+        }
+        if (changedGroup == null) {
+          changedGroup = changedCounters.addGroup(group.getName(),
+              group.getDisplayName());
+        }
+        changedGroup.addCounter(counter.getName(), counter.getDisplayName(),
+            value);
+      }
+    }
+    if (fullUpdate) {
+      updatesSinceFullUpdate = 0;
+      return new TaskStatusUpdateEvent(counters, progress);
+    }
+    ++updatesSinceFullUpdate;
+    return new TaskStatusUpdateEvent(changedCounters, progress, true);
+  }
+}
@@ -23,6 +23,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.tez.common.ProtoConverters;
 import org.apache.tez.dag.api.TezUncheckedException;
 import org.apache.tez.runtime.api.Event;
@@ -110,13 +111,14 @@ public class TezEvent implements Writable {
     return eventType;
   }
 
-  private void serializeEvent(DataOutput out) throws IOException {
+  private void serializeEvent(DataOutput out, boolean compact)
+      throws IOException {
     if (event == null) {
       out.writeBoolean(false);
       return;
     }
     out.writeBoolean(true);
-    out.writeInt(eventType.ordinal());
+    writeInt(out, eventType.ordinal(), compact);
     if (eventType.equals(EventType.TASK_STATUS_UPDATE_EVENT)) {
       // TODO NEWTEZ convert to PB
       TaskStatusUpdateEvent sEvt = (TaskStatusUpdateEvent) event;
@@ -176,23 +178,24 @@ public class TezEvent implements Writable {
         throw new TezUncheckedException("Unknown TezEvent"
            + ", type=" + eventType);
       }
-      out.writeInt(eventBytes.length);
+      writeInt(out, eventBytes.length, compact);
       out.write(eventBytes);
     }
   }
 
-  private void deserializeEvent(DataInput in) throws IOException {
+  private void deserializeEvent(DataInput in, boolean compact)
+      throws IOException {
     if (!in.readBoolean()) {
       event = null;
       return;
     }
-    eventType = EventType.values()[in.readInt()];
+    eventType = EventType.values()[readInt(in, compact)];
     if (eventType.equals(EventType.TASK_STATUS_UPDATE_EVENT)) {
       // TODO NEWTEZ convert to PB
       event = new TaskStatusUpdateEvent();
       ((TaskStatusUpdateEvent)event).readFields(in);
     } else {
-      int eventBytesLen = in.readInt();
+      int eventBytesLen = readInt(in, compact);
       byte[] eventBytes = new byte[eventBytesLen];
       in.readFully(eventBytes);
       switch (eventType) {
@@ -244,9 +247,23 @@ public class TezEvent implements Writable {
     }
   }
 
+  private static void writeInt(DataOutput out, int value, boolean compact)
+      throws IOException {
+    if (compact) {
+      WritableUtils.writeVInt(out, value);
+    } else {
+      out.writeInt(value);
+    }
+  }
+
+  private static int readInt(DataInput in, boolean compact)
+      throws IOException {
+    return compact ? WritableUtils.readVInt(in) : in.readInt();
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
-    serializeEvent(out);
+    serializeEvent(out, false);
     if (sourceInfo != null) {
       out.writeBoolean(true);
       sourceInfo.write(out);
@@ -263,7 +280,7 @@ public class TezEvent implements Writable {
 
   @Override
   public void readFields(DataInput in) throws IOException {
-    deserializeEvent(in);
+    deserializeEvent(in, false);
     if (in.readBoolean()) {
       sourceInfo = new EventMetaData();
       sourceInfo.readFields(in);
@@ -274,4 +291,37 @@ public class TezEvent implements Writable {
     }
   }
 
+  /**
+   * Write the event in the compact format of {@link TezEventListCodec}.
+   */
+  void write(DataOutput out, TezEventListCodec.WriteDictionary dictionary)
+      throws IOException {
+    serializeEvent(out, true);
+    if (sourceInfo != null) {
+      out.writeBoolean(true);
+      sourceInfo.write(out, dictionary);
+    } else {
+      out.writeBoolean(false);
+    }
+    if (destinationInfo != null) {
+      out.writeBoolean(true);
+      destinationInfo.write(out, dictionary);
+    } else {
+      out.writeBoolean(false);
+    }
+  }
+
+  void readFields(DataInput in, TezEventListCodec.ReadDictionary dictionary)
+      throws IOException {
+    deserializeEvent(in, true);
+    if (in.readBoolean()) {
+      sourceInfo = new EventMetaData();
+      sourceInfo.readFields(in, dictionary);
+    }
+    if (in.readBoolean()) {
+      destinationInfo = new EventMetaData();
+      destinationInfo.readFields(in, dictionary);
+    }
+  }
+
 }
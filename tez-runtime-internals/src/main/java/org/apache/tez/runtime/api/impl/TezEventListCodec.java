@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.api.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.StringInterner;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+
+/**
+ * Compact encoding for the events carried by a heartbeat. Vertex names and
+ * task attempt IDs repeat across the events of a heartbeat, so each distinct
+ * value is written once and later occurrences refer to it by its index in a
+ * per-heartbeat dictionary. Integers are written as variable length ints.
+ *
+ * When a compression threshold is given, event lists whose encoding exceeds
+ * it are deflated.
+ */
+public class TezEventListCodec {
+
+  /** Marks an absent event list. Matches a legacy <code>false</code>. */
+  static final byte EVENTS_NONE = 0;
+  /** Marks an event list in the legacy format. Matches <code>true</code>. */
+  static final byte EVENTS_LEGACY = 1;
+  /** Marks an event list in the compact format. */
+  static final byte EVENTS_COMPACT = 2;
+
+  private static final byte UNCOMPRESSED = 0;
+  private static final byte DEFLATED = 1;
+
+  // dictionary references, entries are referred to as index + 1
+  private static final int REF_NULL = 0;
+  private static final int REF_NEW = -1;
+
+  /**
+   * Write events in the compact format.
+   * @param compressionThreshold the encoded size in bytes above which the
+   *          events are deflated, or a negative value to never compress
+   */
+  public static void write(DataOutput out, List<TezEvent> events,
+      int compressionThreshold) throws IOException {
+    if (compressionThreshold < 0) {
+      out.writeByte(UNCOMPRESSED);
+      writeEvents(out, events);
+      return;
+    }
+    DataOutputBuffer buffer = new DataOutputBuffer();
+    writeEvents(buffer, events);
+    if (buffer.getLength() <= compressionThreshold) {
+      out.writeByte(UNCOMPRESSED);
+      out.write(buffer.getData(), 0, buffer.getLength());
+      return;
+    }
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      DataOutputBuffer compressed = new DataOutputBuffer();
+      DeflaterOutputStream deflaterOut =
+          new DeflaterOutputStream(compressed, deflater);
+      deflaterOut.write(buffer.getData(), 0, buffer.getLength());
+      deflaterOut.finish();
+      out.writeByte(DEFLATED);
+      WritableUtils.writeVInt(out, compressed.getLength());
+      out.write(compressed.getData(), 0, compressed.getLength());
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Read events written by {@link #write(DataOutput, List, int)}.
+   */
+  public static List<TezEvent> read(DataInput in) throws IOException {
+    byte compression = in.readByte();
+    if (compression == UNCOMPRESSED) {
+      return readEvents(in);
+    } else if (compression == DEFLATED) {
+      byte[] compressed = new byte[WritableUtils.readVInt(in)];
+      in.readFully(compressed);
+      DataInputStream inflaterIn = new DataInputStream(
+          new InflaterInputStream(new ByteArrayInputStream(compressed)));
+      try {
+        return readEvents(inflaterIn);
+      } finally {
+        inflaterIn.close();
+      }
+    }
+    throw new IOException("Unknown event list compression: " + compression);
+  }
+
+  private static void writeEvents(DataOutput out, List<TezEvent> events)
+      throws IOException {
+    WriteDictionary dictionary = new WriteDictionary();
+    WritableUtils.writeVInt(out, events.size());
+    for (TezEvent e : events) {
+      e.write(out, dictionary);
+    }
+  }
+
+  private static List<TezEvent> readEvents(DataInput in) throws IOException {
+    ReadDictionary dictionary = new ReadDictionary();
+    int eventCount = WritableUtils.readVInt(in);
+    List<TezEvent> events = new ArrayList<TezEvent>(eventCount);
+    for (int i = 0; i < eventCount; ++i) {
+      TezEvent e = new TezEvent();
+      e.readFields(in, dictionary);
+      events.add(e);
+    }
+    return events;
+  }
+
+  static class WriteDictionary {
+
+    private final Map<String, Integer> strings =
+        new HashMap<String, Integer>();
+    private final Map<TezTaskAttemptID, Integer> attemptIds =
+        new HashMap<TezTaskAttemptID, Integer>();
+
+    void writeString(DataOutput out, String value) throws IOException {
+      if (value == null) {
+        WritableUtils.writeVInt(out, REF_NULL);
+        return;
+      }
+      Integer index = strings.get(value);
+      if (index != null) {
+        WritableUtils.writeVInt(out, index + 1);
+        return;
+      }
+      strings.put(value, strings.size());
+      WritableUtils.writeVInt(out, REF_NEW);
+      Text.writeString(out, value);
+    }
+
+    void writeTaskAttemptID(DataOutput out, TezTaskAttemptID value)
+        throws IOException {
+      if (value == null) {
+        WritableUtils.writeVInt(out, REF_NULL);
+        return;
+      }
+      Integer index = attemptIds.get(value);
+      if (index != null) {
+        WritableUtils.writeVInt(out, index + 1);
+        return;
+      }
+      attemptIds.put(value, attemptIds.size());
+      WritableUtils.writeVInt(out, REF_NEW);
+      value.write(out);
+    }
+  }
+
+  static class ReadDictionary {
+
+    private final List<String> strings = new ArrayList<String>();
+    private final List<TezTaskAttemptID> attemptIds =
+        new ArrayList<TezTaskAttemptID>();
+
+    String readString(DataInput in) throws IOException {
+      int ref = WritableUtils.readVInt(in);
+      if (ref == REF_NULL) {
+        return null;
+      }
+      if (ref == REF_NEW) {
+        String value = StringInterner.weakIntern(Text.readString(in));
+        strings.add(value);
+        return value;
+      }
+      if (ref < 1 || ref > strings.size()) {
+        throw new IOException("Invalid string reference: " + ref
+            + ", dictionarySize=" + strings.size());
+      }
+      return strings.get(ref - 1);
+    }
+
+    TezTaskAttemptID readTaskAttemptID(DataInput in) throws IOException {
+      int ref = WritableUtils.readVInt(in);
+      if (ref == REF_NULL) {
+        return null;
+      }
+      if (ref == REF_NEW) {
+        TezTaskAttemptID value = TezTaskAttemptID.readTezTaskAttemptID(in);
+        attemptIds.add(value);
+        return value;
+      }
+      if (ref < 1 || ref > attemptIds.size()) {
+        throw new IOException("Invalid task attempt reference: " + ref
+            + ", dictionarySize=" + attemptIds.size());
+      }
+      return attemptIds.get(ref - 1);
+    }
+  }
+}
@@ -38,6 +38,9 @@ public class TezHeartbeatRequest implements Writable {
   private int startIndex;
   private int maxEvents;
   private long requestId;
+  private boolean compactEvents = false;
+  // only used when writing, not serialized
+  private int compressionThreshold = -1;
 
   public TezHeartbeatRequest() {
   }
@@ -77,16 +80,34 @@ public class TezHeartbeatRequest implements Writable {
     return currentTaskAttemptID;
   }
 
+  /**
+   * Use the compact format of {@link TezEventListCodec} for the events.
+   * @param compressionThreshold the encoded size in bytes above which the
+   *          events are compressed, or a negative value to never compress
+   */
+  public void setCompactEvents(boolean compactEvents,
+      int compressionThreshold) {
+    this.compactEvents = compactEvents;
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  public boolean hasCompactEvents() {
+    return compactEvents;
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
-    if (events != null) {
-      out.writeBoolean(true);
+    if (events == null) {
+      out.writeByte(TezEventListCodec.EVENTS_NONE);
+    } else if (compactEvents) {
+      out.writeByte(TezEventListCodec.EVENTS_COMPACT);
+      TezEventListCodec.write(out, events, compressionThreshold);
+    } else {
+      out.writeByte(TezEventListCodec.EVENTS_LEGACY);
       out.writeInt(events.size());
       for (TezEvent e : events) {
         e.write(out);
       }
-    } else {
-      out.writeBoolean(false);
     }
     if (currentTaskAttemptID != null) {
       out.writeBoolean(true);
@@ -102,7 +123,11 @@ public class TezHeartbeatRequest implements Writable {
 
   @Override
   public void readFields(DataInput in) throws IOException {
-    if (in.readBoolean()) {
+    byte eventsFormat = in.readByte();
+    compactEvents = eventsFormat == TezEventListCodec.EVENTS_COMPACT;
+    if (compactEvents) {
+      events = TezEventListCodec.read(in);
+    } else if (eventsFormat != TezEventListCodec.EVENTS_NONE) {
       int eventsCount = in.readInt();
       events = new ArrayList<TezEvent>(eventsCount);
       for (int i = 0; i < eventsCount; ++i) {
@@ -32,6 +32,15 @@ public class TezHeartbeatResponse implements Writable {
   private long lastRequestId;
   private boolean shouldDie = false;
   private List<TezEvent> events;
+  // more events are waiting in the AM beyond the ones in this response. Only
+  // sent in the compact format, tasks using the legacy format never see it
+  private boolean moreEvents = false;
+  // the AM could not apply changed counters and needs all of them. Only sent
+  // in the compact format, like moreEvents
+  private boolean fullCountersRequested = false;
+  private boolean compactEvents = false;
+  // only used when writing, not serialized
+  private int compressionThreshold = -1;
 
   public TezHeartbeatResponse() {
   }
@@ -44,6 +53,14 @@ public class TezHeartbeatResponse implements Writable {
     return events;
   }
 
+  public boolean hasMoreEvents() {
+    return moreEvents;
+  }
+
+  public boolean isFullCountersRequested() {
+    return fullCountersRequested;
+  }
+
   public boolean shouldDie() {
     return shouldDie;
   }
@@ -60,22 +77,53 @@ public class TezHeartbeatResponse implements Writable {
     this.lastRequestId = lastRequestId;
   }
 
+  public void setMoreEvents(boolean moreEvents) {
+    this.moreEvents = moreEvents;
+  }
+
+  public void setFullCountersRequested(boolean fullCountersRequested) {
+    this.fullCountersRequested = fullCountersRequested;
+  }
+
   public void setShouldDie() {
     this.shouldDie = true;
   }
 
+  /**
+   * Use the compact format of {@link TezEventListCodec} for the events.
+   * @param compressionThreshold the encoded size in bytes above which the
+   *          events are compressed, or a negative value to never compress
+   */
+  public void setCompactEvents(boolean compactEvents,
+      int compressionThreshold) {
+    this.compactEvents = compactEvents;
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  public boolean hasCompactEvents() {
+    return compactEvents;
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
     out.writeLong(lastRequestId);
     out.writeBoolean(shouldDie);
-    if(events != null) {
-      out.writeBoolean(true);
+    if (compactEvents) {
+      // the compact marker also tells the task that the fields added with
+      // the compact format follow, so it is written even without events
+      out.writeByte(TezEventListCodec.EVENTS_COMPACT);
+      TezEventListCodec.write(out, events == null
+          ? Collections.<TezEvent>emptyList() : events, compressionThreshold);
+      out.writeBoolean(moreEvents);
+      out.writeBoolean(fullCountersRequested);
+    } else if (events == null) {
+      out.writeByte(TezEventListCodec.EVENTS_NONE);
+    } else {
+      out.writeByte(TezEventListCodec.EVENTS_LEGACY);
       out.writeInt(events.size());
       for (TezEvent e : events) {
         e.write(out);
       }
-    } else {
-      out.writeBoolean(false);
     }
   }
 
@@ -83,7 +131,13 @@ public class TezHeartbeatResponse implements Writable {
   public void readFields(DataInput in) throws IOException {
     lastRequestId = in.readLong();
     shouldDie = in.readBoolean();
-    if(in.readBoolean()) {
+    byte eventsFormat = in.readByte();
+    compactEvents = eventsFormat == TezEventListCodec.EVENTS_COMPACT;
+    if (compactEvents) {
+      events = TezEventListCodec.read(in);
+      moreEvents = in.readBoolean();
+      fullCountersRequested = in.readBoolean();
+    } else if (eventsFormat != TezEventListCodec.EVENTS_NONE) {
       int eventCount = in.readInt();
       events = new ArrayList<TezEvent>(eventCount);
       for (int i = 0; i < eventCount; ++i) {
@@ -100,6 +154,8 @@ public class TezHeartbeatResponse implements Writable {
         + " lastRequestId=" + lastRequestId
         + ", shouldDie=" + shouldDie
         + ", eventCount=" + (events != null ? events.size() : 0)
+        + ", moreEvents=" + moreEvents
+        + ", fullCountersRequested=" + fullCountersRequested
         + " }";
   }
 }
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.api.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.runtime.api.events.TaskStatusUpdateEvent;
+import org.junit.Test;
+
+public class TestTaskStatusUpdateTracker {
+
+  private TaskStatusUpdateEvent serialize(TaskStatusUpdateEvent event)
+      throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    event.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TaskStatusUpdateEvent readEvent = new TaskStatusUpdateEvent();
+    readEvent.readFields(in);
+    return readEvent;
+  }
+
+  @Test
+  public void testChangedCountersApplied() throws IOException {
+    TaskStatusUpdateTracker tracker = new TaskStatusUpdateTracker(3);
+    TezCounters taskCounters = new TezCounters();
+    taskCounters.findCounter(TaskCounter.INPUT_RECORDS).increment(10);
+    taskCounters.findCounter(TaskCounter.OUTPUT_RECORDS).increment(5);
+    taskCounters.findCounter("group", "counter").increment(1);
+
+    // the first update carries all counters
+    TaskStatusUpdateEvent update = serialize(
+        tracker.createStatusUpdate(taskCounters, 0.1f));
+    assertFalse(update.hasChangedCountersOnly());
+    TezCounters amCounters = update.applyCounters(null);
+    assertEquals(taskCounters, amCounters);
+
+    taskCounters.findCounter(TaskCounter.INPUT_RECORDS).increment(10);
+    update = serialize(tracker.createStatusUpdate(taskCounters, 0.2f));
+    assertTrue(update.hasChangedCountersOnly());
+    assertEquals(1, update.getCounters().countCounters());
+    assertEquals(0.2f, update.getProgress(), 0.0f);
+    amCounters = update.applyCounters(amCounters);
+    assertEquals(taskCounters, amCounters);
+
+    // nothing changed
+    update = serialize(tracker.createStatusUpdate(taskCounters, 0.3f));
+    assertTrue(update.hasChangedCountersOnly());
+    assertEquals(0, update.getCounters().countCounters());
+    amCounters = update.applyCounters(amCounters);
+    assertEquals(taskCounters, amCounters);
+
+    // periodic full update
+    update = serialize(tracker.createStatusUpdate(taskCounters, 0.4f));
+    assertFalse(update.hasChangedCountersOnly());
+    assertEquals(taskCounters, update.applyCounters(amCounters));
+  }
+
+  @Test
+  public void testChangedCountersWithoutBase() throws IOException {
+    TaskStatusUpdateTracker tracker = new TaskStatusUpdateTracker(10);
+    TezCounters taskCounters = new TezCounters();
+    taskCounters.findCounter(TaskCounter.INPUT_RECORDS).increment(10);
+    TezCounters amCounters = serialize(
+        tracker.createStatusUpdate(taskCounters, 0.1f)).applyCounters(null);
+
+    taskCounters.findCounter(TaskCounter.INPUT_RECORDS).increment(10);
+    TaskStatusUpdateEvent update = serialize(
+        tracker.createStatusUpdate(taskCounters, 0.2f));
+    assertTrue(update.hasChangedCountersOnly());
+    // nothing to apply the changes to
+    assertNull(update.applyCounters(null));
+    // the current counters are not modified
+    TezCounters updatedCounters = update.applyCounters(amCounters);
+    assertNotSame(amCounters, updatedCounters);
+    assertEquals(10,
+        amCounters.findCounter(TaskCounter.INPUT_RECORDS).getValue());
+    assertEquals(taskCounters, updatedCounters);
+
+    // the AM asks for all counters
+    tracker.requestFullUpdate();
+    update = serialize(tracker.createStatusUpdate(taskCounters, 0.3f));
+    assertFalse(update.hasChangedCountersOnly());
+    assertEquals(taskCounters, update.applyCounters(null));
+    update = serialize(tracker.createStatusUpdate(taskCounters, 0.4f));
+    assertTrue(update.hasChangedCountersOnly());
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.api.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.tez.dag.records.TezDAGID;
+import org.apache.tez.dag.records.TezTaskAttemptID;
+import org.apache.tez.dag.records.TezTaskID;
+import org.apache.tez.dag.records.TezVertexID;
+import org.apache.tez.runtime.api.events.DataMovementEvent;
+import org.apache.tez.runtime.api.impl.EventMetaData.EventProducerConsumerType;
+import org.junit.Test;
+
+public class TestTezEventListCodec {
+
+  private List<TezEvent> createEvents(int numEvents) {
+    TezVertexID vertexId = TezVertexID.getInstance(
+        TezDAGID.getInstance(ApplicationId.newInstance(1000, 1), 1), 1);
+    List<TezEvent> events = new ArrayList<TezEvent>();
+    for (int i = 0; i < numEvents; ++i) {
+      TezTaskAttemptID srcAttemptId = TezTaskAttemptID.getInstance(
+          TezTaskID.getInstance(vertexId, i % 3), 0);
+      TezEvent event = new TezEvent(
+          new DataMovementEvent(i, i, 0, new byte[] { (byte) i }),
+          new EventMetaData(EventProducerConsumerType.OUTPUT, "vertex1",
+              "vertex2", srcAttemptId));
+      event.setDestinationInfo(new EventMetaData(
+          EventProducerConsumerType.INPUT, "vertex2", "vertex1", null));
+      events.add(event);
+    }
+    return events;
+  }
+
+  private void verifyEvents(List<TezEvent> expected, List<TezEvent> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      TezEvent expectedEvent = expected.get(i);
+      TezEvent actualEvent = actual.get(i);
+      assertEquals(expectedEvent.getEventType(), actualEvent.getEventType());
+      DataMovementEvent expectedDm =
+          (DataMovementEvent) expectedEvent.getEvent();
+      DataMovementEvent actualDm = (DataMovementEvent) actualEvent.getEvent();
+      assertEquals(expectedDm.getSourceIndex(), actualDm.getSourceIndex());
+      assertEquals(expectedDm.getTargetIndex(), actualDm.getTargetIndex());
+      assertArrayEquals(expectedDm.getUserPayload(),
+          actualDm.getUserPayload());
+      assertEquals(expectedEvent.getSourceInfo().toString(),
+          actualEvent.getSourceInfo().toString());
+      assertEquals(expectedEvent.getDestinationInfo().toString(),
+          actualEvent.getDestinationInfo().toString());
+    }
+  }
+
+  private DataInputBuffer serialize(Writable writable) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    writable.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    return in;
+  }
+
+  @Test
+  public void testCompactEventsRoundTrip() throws IOException {
+    List<TezEvent> events = createEvents(50);
+    for (int threshold : new int[] { -1, 0, Integer.MAX_VALUE }) {
+      DataOutputBuffer out = new DataOutputBuffer();
+      TezEventListCodec.write(out, events, threshold);
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(out.getData(), out.getLength());
+      verifyEvents(events, TezEventListCodec.read(in));
+      assertEquals(in.getLength(), in.getPosition());
+    }
+  }
+
+  @Test
+  public void testHeartbeatEventFormats() throws IOException {
+    List<TezEvent> events = createEvents(50);
+
+    TezHeartbeatRequest legacyRequest = new TezHeartbeatRequest(1, events,
+        "container", null, 0, 100);
+    TezHeartbeatRequest compactRequest = new TezHeartbeatRequest(1, events,
+        "container", null, 0, 100);
+    compactRequest.setCompactEvents(true, -1);
+
+    DataInputBuffer legacyIn = serialize(legacyRequest);
+    DataInputBuffer compactIn = serialize(compactRequest);
+    assertTrue(compactIn.getLength() < legacyIn.getLength());
+
+    TezHeartbeatRequest readRequest = new TezHeartbeatRequest();
+    readRequest.readFields(legacyIn);
+    verifyEvents(events, readRequest.getEvents());
+    assertEquals(false, readRequest.hasCompactEvents());
+    readRequest = new TezHeartbeatRequest();
+    readRequest.readFields(compactIn);
+    verifyEvents(events, readRequest.getEvents());
+    assertEquals(true, readRequest.hasCompactEvents());
+    assertEquals("container", readRequest.getContainerIdentifier());
+
+    TezHeartbeatResponse response = new TezHeartbeatResponse(events);
+    response.setLastRequestId(1);
+    response.setCompactEvents(true, 0);
+    response.setMoreEvents(true);
+    TezHeartbeatResponse readResponse = new TezHeartbeatResponse();
+    readResponse.readFields(serialize(response));
+    verifyEvents(events, readResponse.getEvents());
+    assertEquals(1, readResponse.getLastRequestId());
+    assertTrue(readResponse.hasMoreEvents());
+
+    // the flags travel in a compact response without events too
+    response = new TezHeartbeatResponse();
+    response.setLastRequestId(2);
+    response.setCompactEvents(true, -1);
+    response.setFullCountersRequested(true);
+    readResponse = new TezHeartbeatResponse();
+    readResponse.readFields(serialize(response));
+    assertTrue(readResponse.getEvents().isEmpty());
+    assertTrue(readResponse.isFullCountersRequested());
+
+    // a legacy response is laid out as before the compact format
+    response = new TezHeartbeatResponse(events);
+    response.setLastRequestId(3);
+    response.setMoreEvents(true);
+    response.setFullCountersRequested(true);
+    DataInputBuffer legacyResponseIn = serialize(response);
+    assertEquals(3, legacyResponseIn.readLong());
+    assertFalse(legacyResponseIn.readBoolean());
+    assertTrue(legacyResponseIn.readBoolean());
+    assertEquals(events.size(), legacyResponseIn.readInt());
+    for (int i = 0; i < events.size(); ++i) {
+      new TezEvent().readFields(legacyResponseIn);
+    }
+    assertEquals(legacyResponseIn.getLength(),
+        legacyResponseIn.getPosition());
+  }
+}
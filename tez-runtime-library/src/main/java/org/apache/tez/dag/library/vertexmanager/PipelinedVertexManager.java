@@ -0,0 +1,392 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.library.vertexmanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.tez.common.TezUtils;
+import org.apache.tez.dag.api.EdgeProperty;
+import org.apache.tez.dag.api.InputDescriptor;
+import org.apache.tez.dag.api.TezUncheckedException;
+import org.apache.tez.dag.api.VertexManagerPlugin;
+import org.apache.tez.dag.api.VertexManagerPluginContext;
+import org.apache.tez.dag.api.EdgeProperty.DataMovementType;
+import org.apache.tez.runtime.api.Event;
+import org.apache.tez.runtime.api.events.VertexManagerEvent;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Schedules the tasks of a vertex with any mix of input edges as soon as
+ * enough of their upstream output exists, so that they overlap fetching their
+ * inputs with the tail of their source vertices. Each kind of edge has its
+ * own readiness condition:
+ * <ul>
+ * <li>scatter-gather and custom edges slow-start the vertex between
+ * <code>min-src-fraction</code> and <code>max-src-fraction</code> of the
+ * completed source tasks, like {@link ShuffleVertexManager}</li>
+ * <li>broadcast edges hold back the vertex until
+ * <code>broadcast-src-fraction</code> of the source tasks completed</li>
+ * <li>one-to-one edges make a task ready once the source task with the same
+ * index completed</li>
+ * </ul>
+ * Tasks scheduled before their scatter-gather, custom and broadcast sources
+ * completed hold containers while waiting for input. Their number is
+ * therefore capped to <code>max-early-resource-fraction</code> of the
+ * resources available to the DAG, leaving the rest to the source vertices.
+ */
+public class PipelinedVertexManager implements VertexManagerPlugin {
+
+  private static final String TEZ_AM_PREFIX = "tez.am.";
+
+  /**
+   * Whether vertices with source vertices and no user vertex manager are
+   * scheduled by this vertex manager instead of the built-in ones. Vertices
+   * with scatter-gather sources keep the {@link ShuffleVertexManager} when
+   * its auto parallelism is enabled, since this manager does not change the
+   * parallelism.
+   */
+  public static final String TEZ_AM_PIPELINED_VERTEX_MANAGER_ENABLED =
+      TEZ_AM_PREFIX + "pipelined-vertex-manager.enabled";
+  public static final boolean
+    TEZ_AM_PIPELINED_VERTEX_MANAGER_ENABLED_DEFAULT = false;
+
+  /**
+   * The fraction of the tasks of the scatter-gather and custom sources which
+   * should complete before tasks of the vertex are scheduled
+   */
+  public static final String TEZ_AM_PIPELINED_VERTEX_MANAGER_MIN_SRC_FRACTION =
+      TEZ_AM_PREFIX + "pipelined-vertex-manager.min-src-fraction";
+  public static final float
+    TEZ_AM_PIPELINED_VERTEX_MANAGER_MIN_SRC_FRACTION_DEFAULT = 0.25f;
+
+  /**
+   * Once this fraction of the tasks of the scatter-gather and custom sources
+   * completed, all tasks of the vertex can be scheduled. The number of tasks
+   * ready for scheduling scales linearly between min-fraction and
+   * max-fraction
+   */
+  public static final String TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_SRC_FRACTION =
+      TEZ_AM_PREFIX + "pipelined-vertex-manager.max-src-fraction";
+  public static final float
+    TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_SRC_FRACTION_DEFAULT = 0.75f;
+
+  /**
+   * The fraction of the tasks of each broadcast source which should complete
+   * before tasks of the vertex are scheduled
+   */
+  public static final String
+    TEZ_AM_PIPELINED_VERTEX_MANAGER_BROADCAST_SRC_FRACTION = TEZ_AM_PREFIX
+    + "pipelined-vertex-manager.broadcast-src-fraction";
+  public static final float
+    TEZ_AM_PIPELINED_VERTEX_MANAGER_BROADCAST_SRC_FRACTION_DEFAULT = 1.0f;
+
+  /**
+   * The fraction of the resources available to the DAG that may be taken by
+   * tasks of the vertex scheduled before their scatter-gather, custom and
+   * broadcast sources completed
+   */
+  public static final String
+    TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_EARLY_RESOURCE_FRACTION = TEZ_AM_PREFIX
+    + "pipelined-vertex-manager.max-early-resource-fraction";
+  public static final float
+    TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_EARLY_RESOURCE_FRACTION_DEFAULT = 0.5f;
+
+  private static final Log LOG =
+      LogFactory.getLog(PipelinedVertexManager.class);
+
+  VertexManagerPluginContext context;
+  float slowStartMinSrcCompletionFraction;
+  float slowStartMaxSrcCompletionFraction;
+  float broadcastSrcCompletionFraction;
+  float maxEarlyResourceFraction;
+
+  // completed tasks of each source vertex, by kind of edge
+  Map<String, Set<Integer>> allToAllSources = Maps.newHashMap();
+  Map<String, Set<Integer>> broadcastSources = Maps.newHashMap();
+  Map<String, Set<Integer>> oneToOneSources = Maps.newHashMap();
+
+  List<Integer> pendingTasks;
+  int totalTasksToSchedule = 0;
+
+  public PipelinedVertexManager() {
+  }
+
+  @Override
+  public void initialize(VertexManagerPluginContext context) {
+    Configuration conf;
+    try {
+      conf = TezUtils.createConfFromUserPayload(context.getUserPayload());
+    } catch (IOException e) {
+      throw new TezUncheckedException(e);
+    }
+
+    this.context = context;
+
+    slowStartMinSrcCompletionFraction = conf.getFloat(
+        TEZ_AM_PIPELINED_VERTEX_MANAGER_MIN_SRC_FRACTION,
+        TEZ_AM_PIPELINED_VERTEX_MANAGER_MIN_SRC_FRACTION_DEFAULT);
+    slowStartMaxSrcCompletionFraction = conf.getFloat(
+        TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_SRC_FRACTION,
+        TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_SRC_FRACTION_DEFAULT);
+    broadcastSrcCompletionFraction = conf.getFloat(
+        TEZ_AM_PIPELINED_VERTEX_MANAGER_BROADCAST_SRC_FRACTION,
+        TEZ_AM_PIPELINED_VERTEX_MANAGER_BROADCAST_SRC_FRACTION_DEFAULT);
+    maxEarlyResourceFraction = conf.getFloat(
+        TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_EARLY_RESOURCE_FRACTION,
+        TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_EARLY_RESOURCE_FRACTION_DEFAULT);
+
+    if (slowStartMinSrcCompletionFraction < 0
+        || slowStartMaxSrcCompletionFraction < slowStartMinSrcCompletionFraction) {
+      throw new IllegalArgumentException(
+          "Invalid values for slowStartMinSrcCompletionFraction"
+              + "/slowStartMaxSrcCompletionFraction. Min cannot be < 0 and "
+              + "max cannot be < min.");
+    }
+    if (broadcastSrcCompletionFraction < 0
+        || broadcastSrcCompletionFraction > 1) {
+      throw new IllegalArgumentException(
+          "Invalid value for broadcastSrcCompletionFraction: "
+              + broadcastSrcCompletionFraction + ". Should be in [0, 1].");
+    }
+
+    Map<String, EdgeProperty> inputs = context.getInputVertexEdgeProperties();
+    for (Map.Entry<String, EdgeProperty> entry : inputs.entrySet()) {
+      DataMovementType type = entry.getValue().getDataMovementType();
+      if (type == DataMovementType.BROADCAST) {
+        broadcastSources.put(entry.getKey(), new HashSet<Integer>());
+      } else if (type == DataMovementType.ONE_TO_ONE) {
+        oneToOneSources.put(entry.getKey(), new HashSet<Integer>());
+      } else {
+        // scatter-gather and custom edges may route the output of any source
+        // task to any destination task
+        allToAllSources.put(entry.getKey(), new HashSet<Integer>());
+      }
+    }
+    LOG.info("Pipelined Vertex Manager: settings" + " minFrac:"
+        + slowStartMinSrcCompletionFraction + " maxFrac:"
+        + slowStartMaxSrcCompletionFraction + " broadcastFrac:"
+        + broadcastSrcCompletionFraction + " maxEarlyResourceFrac:"
+        + maxEarlyResourceFraction + " sources allToAll:"
+        + allToAllSources.keySet() + " broadcast:" + broadcastSources.keySet()
+        + " oneToOne:" + oneToOneSources.keySet());
+  }
+
+  @Override
+  public void onVertexStarted(Map<String, List<Integer>> completions) {
+    int numTasks = context.getVertexNumTasks(context.getVertexName());
+    pendingTasks = new ArrayList<Integer>(numTasks);
+    for (int i = 0; i < numTasks; ++i) {
+      pendingTasks.add(new Integer(i));
+    }
+    totalTasksToSchedule = numTasks;
+
+    if (completions != null) {
+      for (Map.Entry<String, List<Integer>> entry : completions.entrySet()) {
+        Set<Integer> completedSourceTasks = getCompletedSourceTasks(
+            entry.getKey());
+        if (completedSourceTasks != null) {
+          completedSourceTasks.addAll(entry.getValue());
+        }
+      }
+    }
+    LOG.info("OnVertexStarted vertex: " + context.getVertexName() + " with "
+        + totalTasksToSchedule + " pending tasks");
+    // for the special cases of sources without tasks or zero fractions
+    schedulePendingTasks();
+  }
+
+  @Override
+  public void onSourceTaskCompleted(String srcVertexName, Integer srcTaskId) {
+    Set<Integer> completedSourceTasks = getCompletedSourceTasks(srcVertexName);
+    // duplicate notifications tracking
+    if (completedSourceTasks != null && completedSourceTasks.add(srcTaskId)) {
+      schedulePendingTasks();
+    }
+  }
+
+  @Override
+  public void onVertexManagerEventReceived(VertexManagerEvent vmEvent) {
+  }
+
+  @Override
+  public void onRootVertexInitialized(String inputName,
+      InputDescriptor inputDescriptor, List<Event> events) {
+  }
+
+  private Set<Integer> getCompletedSourceTasks(String srcVertexName) {
+    Set<Integer> completedSourceTasks = allToAllSources.get(srcVertexName);
+    if (completedSourceTasks == null) {
+      completedSourceTasks = broadcastSources.get(srcVertexName);
+    }
+    if (completedSourceTasks == null) {
+      completedSourceTasks = oneToOneSources.get(srcVertexName);
+    }
+    return completedSourceTasks;
+  }
+
+  /**
+   * @return true if the broadcast sources have produced enough output for
+   *         tasks of this vertex to start.
+   */
+  boolean broadcastSourcesReady() {
+    for (Map.Entry<String, Set<Integer>> entry : broadcastSources.entrySet()) {
+      int numSourceTasks = context.getVertexNumTasks(entry.getKey());
+      if (numSourceTasks > 0 && entry.getValue().size() <
+          broadcastSrcCompletionFraction * numSourceTasks) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the one-to-one sources have completed the source tasks of
+   *         the given task.
+   */
+  boolean oneToOneSourcesReady(int taskIndex) {
+    for (Set<Integer> completedSourceTasks : oneToOneSources.values()) {
+      if (!completedSourceTasks.contains(taskIndex)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the fraction of the tasks of the vertex which the scatter-gather
+   *         and custom sources allow to be scheduled.
+   */
+  float getAllToAllFractionToSchedule() {
+    int numSourceTasks = 0;
+    int numSourceTasksCompleted = 0;
+    for (Map.Entry<String, Set<Integer>> entry : allToAllSources.entrySet()) {
+      numSourceTasks += context.getVertexNumTasks(entry.getKey());
+      numSourceTasksCompleted += entry.getValue().size();
+    }
+    if (numSourceTasks == 0 || numSourceTasksCompleted >= numSourceTasks) {
+      return 1;
+    }
+    float completedSourceTaskFraction =
+        (float) numSourceTasksCompleted / numSourceTasks;
+    float tasksFractionToSchedule = 1;
+    float percentRange = slowStartMaxSrcCompletionFraction
+        - slowStartMinSrcCompletionFraction;
+    if (percentRange > 0) {
+      tasksFractionToSchedule =
+          (completedSourceTaskFraction - slowStartMinSrcCompletionFraction)
+              / percentRange;
+    } else if (completedSourceTaskFraction < slowStartMinSrcCompletionFraction) {
+      // min and max are equal. schedule 100% on reaching min
+      tasksFractionToSchedule = 0;
+    }
+    return Math.max(0, Math.min(1, tasksFractionToSchedule));
+  }
+
+  /**
+   * @return true if all tasks of the scatter-gather, custom and broadcast
+   *         sources completed. Until then, scheduled tasks of this vertex
+   *         wait for some of their input. One-to-one sources are checked per
+   *         task instead.
+   */
+  boolean sharedSourcesCompleted() {
+    List<Map<String, Set<Integer>>> sources =
+        new ArrayList<Map<String, Set<Integer>>>(2);
+    sources.add(allToAllSources);
+    sources.add(broadcastSources);
+    for (Map<String, Set<Integer>> sourcesOfType : sources) {
+      for (Map.Entry<String, Set<Integer>> entry : sourcesOfType.entrySet()) {
+        if (entry.getValue().size() < context.getVertexNumTasks(entry.getKey())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of tasks of this vertex that fit in the given fraction
+   *         of the resources available to the DAG, or -1 if unknown.
+   */
+  int getEarlyTaskLimit() {
+    Resource totalResource = context.getTotalAVailableResource();
+    Resource taskResource = context.getVertexTaskResource();
+    if (totalResource == null || taskResource == null
+        || totalResource.getMemory() <= 0 || taskResource.getMemory() <= 0) {
+      return -1;
+    }
+    int numTasks = (int) (maxEarlyResourceFraction
+        * totalResource.getMemory() / taskResource.getMemory());
+    return Math.max(1, numTasks);
+  }
+
+  void schedulePendingTasks() {
+    int numPendingTasks = pendingTasks.size();
+    if (numPendingTasks == 0) {
+      return;
+    }
+    if (!broadcastSourcesReady()) {
+      return;
+    }
+
+    int numScheduledTasks = totalTasksToSchedule - numPendingTasks;
+    int numTasksToSchedule = (int) (getAllToAllFractionToSchedule()
+        * totalTasksToSchedule) - numScheduledTasks;
+    boolean sharedSourcesCompleted = sharedSourcesCompleted();
+    if (!sharedSourcesCompleted) {
+      int earlyTaskLimit = getEarlyTaskLimit();
+      if (earlyTaskLimit >= 0) {
+        numTasksToSchedule = Math.min(numTasksToSchedule,
+            earlyTaskLimit - numScheduledTasks);
+      }
+    }
+    if (numTasksToSchedule <= 0) {
+      return;
+    }
+
+    List<Integer> scheduledTasks = new ArrayList<Integer>(
+        Math.min(numTasksToSchedule, numPendingTasks));
+    Iterator<Integer> iter = pendingTasks.iterator();
+    while (iter.hasNext() && scheduledTasks.size() < numTasksToSchedule) {
+      Integer taskIndex = iter.next();
+      if (oneToOneSourcesReady(taskIndex)) {
+        scheduledTasks.add(taskIndex);
+        iter.remove();
+      }
+    }
+    if (scheduledTasks.isEmpty()) {
+      return;
+    }
+    LOG.info("Scheduling " + scheduledTasks.size() + " tasks for vertex: "
+        + context.getVertexName() + " with totalTasks: "
+        + totalTasksToSchedule + ", pendingTasks: " + pendingTasks.size()
+        + ", sharedSourcesCompleted: " + sharedSourcesCompleted);
+    context.scheduleVertexTasks(scheduledTasks);
+  }
+}
@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.runtime.library.common.sort.impl.IFile;
+
+/**
+ * Runs the sort, comparator, IFile and codec paths of the runtime library on
+ * synthetic records, so that a freshly launched container has loaded and
+ * compiled them before its first task arrives.
+ */
+public class RuntimeWarmup {
+
+  private static final Log LOG = LogFactory.getLog(RuntimeWarmup.class);
+
+  private final Configuration conf;
+  private final int numRecords;
+  private final CompressionCodec codec;
+  private final RawComparator<?> comparator =
+      WritableComparator.get(Text.class);
+  private final TezCounter recordsCounter =
+      new TezCounters().findCounter("RuntimeWarmup", "RECORDS");
+
+  /**
+   * @param numRecords the number of synthetic records sorted, written and
+   *          read back by each round
+   */
+  public RuntimeWarmup(Configuration conf, int numRecords) {
+    this.conf = conf;
+    this.numRecords = numRecords;
+    if (ConfigUtils.shouldCompressIntermediateOutput(conf)) {
+      Class<? extends CompressionCodec> codecClass =
+          ConfigUtils.getIntermediateOutputCompressorClass(conf,
+              DefaultCodec.class);
+      codec = ReflectionUtils.newInstance(codecClass, conf);
+    } else {
+      codec = null;
+    }
+  }
+
+  /**
+   * Run the given number of rounds. Each round sorts the records and round
+   * trips them through IFile, uncompressed and with the intermediate codec if
+   * one is configured. Returns early, with the interrupt status set, if the
+   * calling thread is interrupted.
+   */
+  public void run(int rounds) throws IOException {
+    long startTime = System.currentTimeMillis();
+    Random random = new Random(numRecords);
+    for (int i = 0; i < rounds; ++i) {
+      try {
+        checkInterrupted();
+        RecordBuffer records = createRecords(random);
+        new QuickSort().sort(records, 0, numRecords);
+        roundTrip(records, null);
+        if (codec != null) {
+          roundTrip(records, codec);
+        }
+      } catch (InterruptedIOException e) {
+        Thread.currentThread().interrupt();
+        LOG.info("Runtime warm-up interrupted after " + i + " of " + rounds
+            + " rounds, timeTaken="
+            + (System.currentTimeMillis() - startTime));
+        return;
+      }
+    }
+    LOG.info("Runtime warm-up completed"
+        + ", rounds=" + rounds
+        + ", records=" + numRecords
+        + ", codec=" + (codec == null ? "none" : codec.getClass().getName())
+        + ", timeTaken=" + (System.currentTimeMillis() - startTime));
+  }
+
+  private RecordBuffer createRecords(Random random) throws IOException {
+    RecordBuffer records = new RecordBuffer(numRecords);
+    Text text = new Text();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < numRecords; ++i) {
+      checkInterrupted();
+      sb.setLength(0);
+      int length = 8 + random.nextInt(24);
+      for (int j = 0; j < length; ++j) {
+        sb.append((char) ('a' + random.nextInt(26)));
+      }
+      text.set(sb.toString());
+      records.add(text);
+    }
+    return records;
+  }
+
+  private void roundTrip(RecordBuffer records, CompressionCodec codec)
+      throws IOException {
+    DataOutputBuffer fileBuffer = new DataOutputBuffer();
+    FSDataOutputStream out = new FSDataOutputStream(fileBuffer, null);
+    IFile.Writer writer = new IFile.Writer(conf, out, null, null, codec,
+        recordsCounter);
+    DataInputBuffer key = new DataInputBuffer();
+    for (int i = 0; i < numRecords; ++i) {
+      checkInterrupted();
+      records.reset(key, i);
+      // the key doubles as the value
+      writer.append(key, key);
+    }
+    writer.close();
+    out.close();
+
+    IFile.Reader reader = new IFile.Reader(
+        new ByteArrayInputStream(fileBuffer.getData(), 0,
+            fileBuffer.getLength()), fileBuffer.getLength(), codec,
+        recordsCounter, false, 0, -1);
+    DataInputBuffer value = new DataInputBuffer();
+    int numRead = 0;
+    try {
+      while (reader.nextRawKey(key)) {
+        checkInterrupted();
+        reader.nextRawValue(value);
+        ++numRead;
+      }
+    } finally {
+      reader.close();
+    }
+    if (numRead != numRecords) {
+      throw new IOException("Warm-up read " + numRead + " records, expected "
+          + numRecords);
+    }
+  }
+
+  private static void checkInterrupted() throws InterruptedIOException {
+    if (Thread.interrupted()) {
+      throw new InterruptedIOException("Runtime warm-up interrupted");
+    }
+  }
+
+  /**
+   * Serialized keys in one buffer, sorted through an index like the map
+   * output buffer of the sorters.
+   */
+  private class RecordBuffer implements IndexedSortable {
+
+    private final DataOutputBuffer data = new DataOutputBuffer();
+    private final int[] offsets;
+    private final int[] lengths;
+    private int size = 0;
+
+    RecordBuffer(int capacity) {
+      offsets = new int[capacity];
+      lengths = new int[capacity];
+    }
+
+    void add(Text text) throws IOException {
+      offsets[size] = data.getLength();
+      text.write(data);
+      lengths[size] = data.getLength() - offsets[size];
+      ++size;
+    }
+
+    void reset(DataInputBuffer buffer, int index) {
+      buffer.reset(data.getData(), offsets[index], lengths[index]);
+    }
+
+    @Override
+    public int compare(int i, int j) {
+      return comparator.compare(data.getData(), offsets[i], lengths[i],
+          data.getData(), offsets[j], lengths[j]);
+    }
+
+    @Override
+    public void swap(int i, int j) {
+      int offset = offsets[i];
+      int length = lengths[i];
+      offsets[i] = offsets[j];
+      lengths[i] = lengths[j];
+      offsets[j] = offset;
+      lengths[j] = length;
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.dag.library.vertexmanager;
+
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.yarn.api.records.Resource;
+import org.apache.tez.common.TezUtils;
+import org.apache.tez.dag.api.EdgeProperty;
+import org.apache.tez.dag.api.InputDescriptor;
+import org.apache.tez.dag.api.OutputDescriptor;
+import org.apache.tez.dag.api.VertexManagerPluginContext;
+import org.apache.tez.dag.api.EdgeProperty.DataMovementType;
+import org.apache.tez.dag.api.EdgeProperty.SchedulingType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestPipelinedVertexManager {
+
+  private static final String MANAGED_VERTEX = "managed";
+
+  private HashMap<String, EdgeProperty> inputVertices;
+  private VertexManagerPluginContext mockContext;
+  private List<Integer> scheduledTasks;
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @Before
+  public void setup() {
+    inputVertices = new HashMap<String, EdgeProperty>();
+    scheduledTasks = new ArrayList<Integer>();
+    mockContext = mock(VertexManagerPluginContext.class);
+    when(mockContext.getInputVertexEdgeProperties()).thenReturn(inputVertices);
+    when(mockContext.getVertexName()).thenReturn(MANAGED_VERTEX);
+    when(mockContext.getVertexNumTasks(MANAGED_VERTEX)).thenReturn(4);
+    doAnswer(new Answer() {
+      public Object answer(InvocationOnMock invocation) {
+        scheduledTasks.addAll((List<Integer>) invocation.getArguments()[0]);
+        return null;
+      }}).when(mockContext).scheduleVertexTasks(anyList());
+  }
+
+  @Test(timeout = 5000)
+  public void testScatterGatherWithBroadcast() throws IOException {
+    addSource("sg", DataMovementType.SCATTER_GATHER, 4);
+    addSource("bc", DataMovementType.BROADCAST, 2);
+    PipelinedVertexManager manager = createManager(0.25f, 0.75f);
+    manager.onVertexStarted(null);
+    Assert.assertEquals(0, scheduledTasks.size());
+
+    // slow-start fraction reached but the broadcast input is not complete
+    manager.onSourceTaskCompleted("sg", 0);
+    manager.onSourceTaskCompleted("sg", 1);
+    manager.onSourceTaskCompleted("bc", 0);
+    Assert.assertEquals(0, scheduledTasks.size());
+
+    // 2 of 4 sources is half way between min and max
+    manager.onSourceTaskCompleted("bc", 1);
+    Assert.assertEquals(2, scheduledTasks.size());
+
+    // duplicate notification
+    manager.onSourceTaskCompleted("sg", 1);
+    Assert.assertEquals(2, scheduledTasks.size());
+
+    manager.onSourceTaskCompleted("sg", 2);
+    Assert.assertEquals(4, scheduledTasks.size());
+    Assert.assertEquals(0, manager.pendingTasks.size());
+  }
+
+  @Test(timeout = 5000)
+  public void testOneToOne() throws IOException {
+    addSource("oto", DataMovementType.ONE_TO_ONE, 4);
+    PipelinedVertexManager manager = createManager(0.25f, 0.75f);
+    HashMap<String, List<Integer>> completions =
+        new HashMap<String, List<Integer>>();
+    List<Integer> completedTasks = new ArrayList<Integer>();
+    completedTasks.add(2);
+    completions.put("oto", completedTasks);
+    manager.onVertexStarted(completions);
+    Assert.assertEquals(1, scheduledTasks.size());
+    Assert.assertEquals(2, scheduledTasks.get(0).intValue());
+
+    manager.onSourceTaskCompleted("oto", 0);
+    Assert.assertEquals(2, scheduledTasks.size());
+    Assert.assertEquals(0, scheduledTasks.get(1).intValue());
+
+    manager.onSourceTaskCompleted("oto", 3);
+    manager.onSourceTaskCompleted("oto", 1);
+    Assert.assertEquals(4, scheduledTasks.size());
+    Assert.assertEquals(0, manager.pendingTasks.size());
+  }
+
+  @Test(timeout = 5000)
+  public void testEarlyTasksLimitedByResources() throws IOException {
+    addSource("sg", DataMovementType.SCATTER_GATHER, 4);
+    addSource("oto", DataMovementType.ONE_TO_ONE, 4);
+    when(mockContext.getVertexTaskResource()).thenReturn(
+        Resource.newInstance(1024, 1));
+    // room for 2 tasks of the managed vertex at the default fraction
+    when(mockContext.getTotalAVailableResource()).thenReturn(
+        Resource.newInstance(4096, 4));
+    PipelinedVertexManager manager = createManager(0f, 0f);
+    manager.onVertexStarted(null);
+    Assert.assertEquals(0, scheduledTasks.size());
+
+    for (int i = 0; i < 4; ++i) {
+      manager.onSourceTaskCompleted("oto", i);
+    }
+    Assert.assertEquals(2, scheduledTasks.size());
+
+    for (int i = 0; i < 4; ++i) {
+      manager.onSourceTaskCompleted("sg", i);
+    }
+    Assert.assertEquals(4, scheduledTasks.size());
+  }
+
+  private void addSource(String name, DataMovementType type, int numTasks) {
+    inputVertices.put(name, new EdgeProperty(type,
+        EdgeProperty.DataSourceType.PERSISTED,
+        SchedulingType.SEQUENTIAL,
+        new OutputDescriptor("out"),
+        new InputDescriptor("in")));
+    when(mockContext.getVertexNumTasks(name)).thenReturn(numTasks);
+  }
+
+  private PipelinedVertexManager createManager(float min, float max)
+      throws IOException {
+    Configuration conf = new Configuration(false);
+    conf.setFloat(
+        PipelinedVertexManager.TEZ_AM_PIPELINED_VERTEX_MANAGER_MIN_SRC_FRACTION,
+        min);
+    conf.setFloat(
+        PipelinedVertexManager.TEZ_AM_PIPELINED_VERTEX_MANAGER_MAX_SRC_FRACTION,
+        max);
+    when(mockContext.getUserPayload()).thenReturn(
+        TezUtils.createUserPayloadFromConf(conf));
+    PipelinedVertexManager manager = new PipelinedVertexManager();
+    manager.initialize(mockContext);
+    return manager;
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.runtime.library.common;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.tez.common.TezJobConfig;
+import org.junit.Test;
+
+public class TestRuntimeWarmup {
+
+  @Test(timeout = 10000)
+  public void testWarmupUncompressed() throws Exception {
+    new RuntimeWarmup(new Configuration(false), 1000).run(2);
+  }
+
+  @Test(timeout = 10000)
+  public void testWarmupCompressed() throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.setBoolean(
+        TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_SHOULD_COMPRESS, true);
+    conf.set(TezJobConfig.TEZ_RUNTIME_INTERMEDIATE_OUTPUT_COMPRESS_CODEC,
+        DefaultCodec.class.getName());
+    new RuntimeWarmup(conf, 1000).run(2);
+  }
+
+  @Test(timeout = 10000)
+  public void testWarmupStopsWhenInterrupted() throws Exception {
+    Thread.currentThread().interrupt();
+    try {
+      new RuntimeWarmup(new Configuration(false), 1000).run(Integer.MAX_VALUE);
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+  }
+}